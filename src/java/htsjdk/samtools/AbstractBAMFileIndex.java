@@ -107,12 +107,15 @@ public abstract class AbstractBAMFileIndex implements BAMIndex {
     }
 
     /**
-     * Gets the first bin in the given level.
+     * Gets the first bin in the given level.  Levels below those of a BAI index are those of deeper CSI indices.
      * @param levelNumber Level number.  0-based.
      * @return The first bin in this level.
      */
     public static int getFirstBinInLevel(final int levelNumber) {
-        return GenomicIndexUtil.LEVEL_STARTS[levelNumber];
+        if (levelNumber < GenomicIndexUtil.LEVEL_STARTS.length) {
+            return GenomicIndexUtil.LEVEL_STARTS[levelNumber];
+        }
+        return ((1 << (3 * levelNumber)) - 1) / 7;
     }
 
     /**
@@ -27,18 +27,27 @@ package htsjdk.samtools;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.BinaryCodec;
 import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CoordMath;
+import htsjdk.samtools.util.RuntimeEOFException;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SharedThreadPools;
 import htsjdk.samtools.util.StringLineReader;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * Class for reading and querying BAM files.
@@ -66,6 +75,10 @@ class BAMFileReader extends SamReader.ReaderImplementation {
     // If true, all SAMRecords are fully decoded as they are read.
     private boolean eagerDecode;
 
+    // If greater than 1, whole-file iteration decodes batches of records concurrently on worker threads.
+    private int mRecordDecoderThreads = Defaults.RECORD_DECODER_THREADS;
+    private boolean mReuseRecords = false;
+
     // For error-checking.
     private ValidationStringency mValidationStringency;
 
@@ -82,11 +95,21 @@ class BAMFileReader extends SamReader.ReaderImplementation {
      */
     private boolean mEnableIndexMemoryMapping = true;
 
+    /**
+     * Use the index shared by all readers of the same index file, see {@link SharedBAMFileIndex}.
+     */
+    private boolean mEnableIndexSharing = false;
+
     /**
      * Add information about the origin (reader and position) to SAM records.
      */
     private SamReader mReader = null;
 
+    /**
+     * The file being read, if the reader was opened on a File, so that more streams can be opened on it.
+     */
+    private File mSourceFile = null;
+
     /**
      * Prepare to read BAM from a stream (not seekable)
      * @param stream source of bytes.
@@ -128,6 +151,7 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         }
         // Provide better error message when there is an error reading.
         mStream.setInputFileName(file.getAbsolutePath());
+        mSourceFile = file;
     }
 
     BAMFileReader(final SeekableStream strm,
@@ -222,10 +246,31 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         this.mEnableIndexMemoryMapping = enabled;
     }
 
+    /**
+     * If true, use the memory-mapped, thread-safe index that is shared by all readers of the same index file,
+     * rather than opening a private one.  Only applies if the index was given as a File.
+     */
+    protected void enableIndexSharing(final boolean enabled) {
+        if (mIndex != null) {
+            throw new SAMException("Unable to turn on index sharing; index file has already been loaded.");
+        }
+        this.mEnableIndexSharing = enabled;
+    }
+
     @Override void enableCrcChecking(final boolean enabled) {
         this.mCompressedInputStream.setCheckCrcs(enabled);
     }
 
+    /**
+     * If true, BGZF blocks are read ahead and inflated concurrently on worker threads, using
+     * {@link Defaults#INFLATER_THREADS} threads if that is set, or one per available processor otherwise.
+     * @param enabled true to inflate in parallel, false to inflate each block on the reading thread.
+     */
+    void enableParallelInflation(final boolean enabled) {
+        final int threads = Defaults.INFLATER_THREADS > 1 ? Defaults.INFLATER_THREADS : Runtime.getRuntime().availableProcessors();
+        this.mCompressedInputStream.setInflaterThreads(enabled ? threads : 0);
+    }
+
     @Override void setSAMRecordFactory(final SAMRecordFactory factory) { this.samRecordFactory = factory; }
 
     @Override
@@ -248,7 +293,13 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         if(!hasIndex())
             throw new SAMException("No index is available for this BAM file.");
         if(mIndex == null) {
-            if (mIndexFile != null)
+            if (mIndexFile != null && mIndexFile.getName().endsWith(CSIIndex.CSI_INDEX_SUFFIX))
+                mIndex = new CSIIndex(mIndexFile);
+            else if (mIndexFile == null && isCompressedIndexStream(mIndexStream))
+                mIndex = new CSIIndex(new BlockCompressedInputStream(mIndexStream));
+            else if (mIndexFile != null && mEnableIndexSharing)
+                mIndex = SharedBAMFileIndex.getInstance(mIndexFile, getFileHeader().getSequenceDictionary());
+            else if (mIndexFile != null)
                 mIndex = mEnableIndexCaching ? new CachingBAMFileIndex(mIndexFile, getFileHeader().getSequenceDictionary(), mEnableIndexMemoryMapping)
                                              : new DiskBasedBAMFileIndex(mIndexFile, getFileHeader().getSequenceDictionary(), mEnableIndexMemoryMapping);
             else
@@ -258,7 +309,69 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         return mIndex;
     }
 
+    /**
+     * BAI files are not compressed, but CSI files are BGZF-compressed, so peek at the stream to tell them apart.
+     */
+    private static boolean isCompressedIndexStream(final SeekableStream indexStream) {
+        try {
+            final byte[] buffer = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+            final long position = indexStream.position();
+            int numRead = 0;
+            while (numRead < buffer.length) {
+                final int count = indexStream.read(buffer, numRead, buffer.length - numRead);
+                if (count <= 0) break;
+                numRead += count;
+            }
+            indexStream.seek(position);
+            return BlockCompressedInputStream.isValidFile(new ByteArrayInputStream(buffer, 0, numRead));
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Exception reading BAM index stream", e);
+        }
+    }
+
     public void setEagerDecode(final boolean desired) { this.eagerDecode = desired; }
+
+    /**
+     * @return true if this reader was opened on a File, so that {@link #openSecondaryReader()} can be used.
+     */
+    boolean canOpenSecondaryReader() {
+        return mSourceFile != null;
+    }
+
+    /**
+     * Opens another reader on the same file, with its own stream, so that separate parts of the file can be decoded
+     * concurrently.  The new reader shares this reader's header, settings and SamReader, but has no index.
+     */
+    BAMFileReader openSecondaryReader() throws IOException {
+        if (mSourceFile == null) {
+            throw new UnsupportedOperationException("Cannot open another stream on a BAM that was not opened from a File");
+        }
+        final BAMFileReader reader = new BAMFileReader(new BlockCompressedInputStream(mSourceFile), (File) null, eagerDecode,
+                mSourceFile.getAbsolutePath(), mValidationStringency, samRecordFactory);
+        reader.mStream.setInputFileName(mSourceFile.getAbsolutePath());
+        reader.mFileHeader = mFileHeader;
+        reader.mReader = mReader;
+        reader.mSourceFile = mSourceFile;
+        return reader;
+    }
+
+    /**
+     * Sets the number of batches of records that iteration over the whole file may decode concurrently on worker
+     * threads.  Decoding includes validation and, if enabled, eager decoding of each record.  Values less than 2
+     * decode on the reading thread.  Queries are not affected.
+     * When this is enabled the SAMRecordFactory must be thread-safe, and the underlying stream is read ahead of
+     * the records returned, so a second iteration over a non-seekable file will not start where the first one
+     * stopped.
+     */
+    void setRecordDecoderThreads(final int threads) { this.mRecordDecoderThreads = threads; }
+
+    /**
+     * If true, iteration over the whole file recycles a few SAMRecord objects and their binary blocks instead of
+     * allocating new ones for every record, which greatly reduces garbage when scanning large files.  A record
+     * returned by next() must not be used after the following call to next(); copy it with clone() to keep it.
+     * Records returned by queries, and by iteration when decoding in parallel, are not reused.
+     */
+    void setReuseRecords(final boolean reuseRecords) { this.mReuseRecords = reuseRecords; }
     
     public void close() {
         if (mStream != null) {
@@ -309,7 +422,7 @@ class BAMFileReader extends SamReader.ReaderImplementation {
                 throw new RuntimeException(exc.getMessage(), exc);
             }
         }
-        mCurrentIterator = new BAMFileIterator();
+        mCurrentIterator = mRecordDecoderThreads > 1 ? new BAMFileBatchDecodingIterator() : new BAMFileIterator();
         return mCurrentIterator;
     }
 
@@ -596,18 +709,36 @@ class BAMFileReader extends SamReader.ReaderImplementation {
      * Starting point of iteration is wherever current file position is when the iterator is constructed.
      */
     private class BAMFileIterator extends AbstractBamIterator {
-        private SAMRecord mNextRecord = null;
+        /**
+         * When reusing records, the number of records decoded into in rotation.  Besides the record returned by
+         * next() and the one read ahead, this keeps the previously returned record intact for wrappers such as
+         * SamReader's sort order check, which compare each record with the one before it.
+         */
+        private static final int REUSED_RECORDS = 3;
+
+        SAMRecord mNextRecord = null;
         private final BAMRecordCodec bamRecordCodec;
-        private long samRecordIndex = 0; // Records at what position (counted in records) we are at in the file
+        long samRecordIndex = 0; // Records at what position (counted in records) we are at in the file
+        private final BAMRecord[] mReusableRecords;
+        private int mReusableRecordIndex = 0;
 
         BAMFileIterator() {
-            this(true);
+            this(true, mReuseRecords);
         }
 
         /**
          * @param advance Trick to enable subclass to do more setup before advancing
          */
         BAMFileIterator(final boolean advance) {
+            this(advance, false);
+        }
+
+        /**
+         * @param advance Trick to enable subclass to do more setup before advancing
+         * @param reuseRecords If true, decode into a few recycled records instead of allocating new ones.
+         */
+        private BAMFileIterator(final boolean advance, final boolean reuseRecords) {
+            this.mReusableRecords = reuseRecords ? new BAMRecord[REUSED_RECORDS] : null;
             this.bamRecordCodec = new BAMRecordCodec(getFileHeader(), samRecordFactory);
             this.bamRecordCodec.setInputStream(BAMFileReader.this.mStream.getInputStream(),
                     BAMFileReader.this.mStream.getInputFileName());
@@ -657,7 +788,16 @@ class BAMFileReader extends SamReader.ReaderImplementation {
          */
         SAMRecord getNextRecord() throws IOException {
             final long startCoordinate = mCompressedInputStream.getFilePointer();
-            final SAMRecord next = bamRecordCodec.decode();
+            final SAMRecord next;
+            if (mReusableRecords != null) {
+                next = bamRecordCodec.decode(mReusableRecords[mReusableRecordIndex]);
+                if (next != null) {
+                    mReusableRecords[mReusableRecordIndex] = (BAMRecord) next;
+                    mReusableRecordIndex = (mReusableRecordIndex + 1) % mReusableRecords.length;
+                }
+            } else {
+                next = bamRecordCodec.decode();
+            }
             final long stopCoordinate = mCompressedInputStream.getFilePointer();
 
             if(mReader != null && next != null)
@@ -674,6 +814,165 @@ class BAMFileReader extends SamReader.ReaderImplementation {
         }
     }
 
+    /**
+     * Iterator for sequential iteration through all SAMRecords in file, that slices the stream into batches of
+     * undecoded records on the reading thread, then decodes, validates and (if requested) eagerly decodes each batch
+     * on a worker thread.  Records are returned in file order, and validation errors are reported when the record
+     * they apply to is reached, exactly as they would be by BAMFileIterator.
+     */
+    private class BAMFileBatchDecodingIterator extends BAMFileIterator {
+        private static final int RECORDS_PER_BATCH = 1000;
+        private static final String DECODER_POOL_NAME = "BAMRecordDecoder";
+
+        private final Deque<Future<DecodedBatch>> pendingBatches = new ArrayDeque<Future<DecodedBatch>>();
+        private DecodedBatch currentBatch = null;
+        private int currentBatchIndex = 0;
+        private boolean endOfStream = false;
+
+        BAMFileBatchDecodingIterator() {
+            super(false);
+            advance();
+        }
+
+        @Override
+        void advance() {
+            while (currentBatch == null || currentBatchIndex >= currentBatch.records.length) {
+                fillPendingBatches();
+                if (pendingBatches.isEmpty()) {
+                    mNextRecord = null;
+                    return;
+                }
+                currentBatch = SharedThreadPools.getResult(pendingBatches.poll());
+                currentBatchIndex = 0;
+            }
+            final int i = currentBatchIndex++;
+            mNextRecord = currentBatch.records[i];
+            currentBatch.records[i] = null;
+            ++this.samRecordIndex;
+            if (currentBatch.validationErrors[i] != null) {
+                SAMUtils.processValidationErrors(currentBatch.validationErrors[i],
+                        this.samRecordIndex, BAMFileReader.this.getValidationStringency());
+            }
+            if (mReader != null) {
+                mNextRecord.setFileSource(new SAMFileSource(mReader, new BAMFileSpan(
+                        new Chunk(currentBatch.filePointers[2 * i], currentBatch.filePointers[2 * i + 1]))));
+            }
+        }
+
+        @Override
+        public void close() {
+            for (final Future<DecodedBatch> batch : pendingBatches) {
+                batch.cancel(false);
+            }
+            pendingBatches.clear();
+            super.close();
+        }
+
+        /** Reads undecoded batches and submits them for decoding until mRecordDecoderThreads are in flight. */
+        private void fillPendingBatches() {
+            while (!endOfStream && pendingBatches.size() < Math.max(1, mRecordDecoderThreads)) {
+                final UndecodedBatch batch = readBatch();
+                if (batch.recordCount > 0) {
+                    pendingBatches.add(SharedThreadPools.getPool(DECODER_POOL_NAME).submit(batch));
+                }
+            }
+        }
+
+        /** Copies up to RECORDS_PER_BATCH length-prefixed records from the stream, undecoded. */
+        private UndecodedBatch readBatch() {
+            final UndecodedBatch batch = new UndecodedBatch(getFileHeader(), samRecordFactory, mValidationStringency, eagerDecode);
+            final BinaryCodec stream = BAMFileReader.this.mStream;
+            while (batch.recordCount < RECORDS_PER_BATCH) {
+                final long startCoordinate = mCompressedInputStream.getFilePointer();
+                final int recordLength;
+                try {
+                    recordLength = stream.readInt();
+                } catch (final RuntimeEOFException e) {
+                    endOfStream = true;
+                    break;
+                }
+                if (recordLength < BAMFileConstants.FIXED_BLOCK_SIZE) {
+                    throw new SAMFormatException("Invalid record length: " + recordLength);
+                }
+                final int i = batch.recordCount;
+                batch.addRecord(stream, recordLength);
+                batch.filePointers[2 * i] = startCoordinate;
+                batch.filePointers[2 * i + 1] = mCompressedInputStream.getFilePointer();
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * A batch of length-prefixed BAM records copied from the stream, which decodes itself into SAMRecords when called.
+     */
+    private static class UndecodedBatch implements Callable<DecodedBatch> {
+        private final SAMFileHeader header;
+        private final SAMRecordFactory samRecordFactory;
+        private final ValidationStringency validationStringency;
+        private final boolean eagerDecode;
+        private byte[] data = new byte[64 * 1024];
+        private int dataLength = 0;
+        int recordCount = 0;
+        final long[] filePointers = new long[2 * BAMFileBatchDecodingIterator.RECORDS_PER_BATCH];
+
+        UndecodedBatch(final SAMFileHeader header, final SAMRecordFactory samRecordFactory,
+                       final ValidationStringency validationStringency, final boolean eagerDecode) {
+            this.header = header;
+            this.samRecordFactory = samRecordFactory;
+            this.validationStringency = validationStringency;
+            this.eagerDecode = eagerDecode;
+        }
+
+        /** Copies a record whose length has already been read from the stream. */
+        void addRecord(final BinaryCodec stream, final int recordLength) {
+            final int required = dataLength + 4 + recordLength;
+            if (required > data.length) {
+                data = Arrays.copyOf(data, Math.max(required, 2 * data.length));
+            }
+            data[dataLength++] = (byte) recordLength;
+            data[dataLength++] = (byte) (recordLength >> 8);
+            data[dataLength++] = (byte) (recordLength >> 16);
+            data[dataLength++] = (byte) (recordLength >> 24);
+            stream.readBytes(data, dataLength, recordLength);
+            dataLength += recordLength;
+            ++recordCount;
+        }
+
+        public DecodedBatch call() {
+            final BAMRecordCodec codec = new BAMRecordCodec(header, samRecordFactory);
+            codec.setInputStream(new ByteArrayInputStream(data, 0, dataLength));
+            final DecodedBatch batch = new DecodedBatch(recordCount, filePointers);
+            for (int i = 0; i < recordCount; ++i) {
+                final SAMRecord record = codec.decode();
+                // Because some decoding is done lazily, the record needs to remember the validation stringency.
+                record.setValidationStringency(validationStringency);
+                if (validationStringency != ValidationStringency.SILENT) {
+                    batch.validationErrors[i] = record.isValid(validationStringency == ValidationStringency.STRICT);
+                }
+                if (eagerDecode) {
+                    record.eagerDecode();
+                }
+                batch.records[i] = record;
+            }
+            return batch;
+        }
+    }
+
+    /** The records decoded from an UndecodedBatch, along with their validation errors and file pointers. */
+    private static class DecodedBatch {
+        final SAMRecord[] records;
+        final List<SAMValidationError>[] validationErrors;
+        final long[] filePointers;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        DecodedBatch(final int recordCount, final long[] filePointers) {
+            this.records = new SAMRecord[recordCount];
+            this.validationErrors = new List[recordCount];
+            this.filePointers = filePointers;
+        }
+    }
+
     /**
      * Prepare to iterate through SAMRecords in the given reference that start exactly at the given start coordinate.
      * @param referenceIndex Desired reference sequence.
@@ -718,7 +1017,17 @@ class BAMFileReader extends SamReader.ReaderImplementation {
 
     private CloseableIterator<SAMRecord> createIndexIterator(final QueryInterval[] intervals,
                                                              final boolean contained) {
+        return createFilePointerIterator(getFilePointersOverlapping(intervals), intervals, contained);
+    }
 
+    /**
+     * Hits the index to find the merged chunks of the file that must be read to find all records overlapping
+     * the given intervals.
+     * @param intervals optimized intervals, as returned by {@link QueryInterval#optimizeIntervals(QueryInterval[])}
+     * @return the chunk boundaries in the format returned by {@link BAMFileSpan#toCoordinateArray()},
+     * or null if there are no intervals.
+     */
+    long[] getFilePointersOverlapping(final QueryInterval[] intervals) {
         assertIntervalsOptimized(intervals);
 
         // Hit the index to determine the chunk boundaries for the required data.
@@ -729,13 +1038,37 @@ class BAMFileReader extends SamReader.ReaderImplementation {
             final BAMFileSpan span = fileIndex.getSpanOverlapping(interval.referenceIndex, interval.start, interval.end);
             inputSpans[i] = span;
         }
-        final long[] filePointers;
         if (inputSpans.length > 0) {
-            filePointers = BAMFileSpan.merge(inputSpans).toCoordinateArray();
+            return BAMFileSpan.merge(inputSpans).toCoordinateArray();
         } else {
-            filePointers = null;
+            return null;
         }
+    }
 
+    /**
+     * Iterates over the records in the given chunks of the file that match the given intervals.  The chunks need
+     * not cover all of the intervals, so a query may be split into ranges of chunks that are read independently.
+     * Only a single iterator on a BAMFile can be extant at a time.
+     */
+    CloseableIterator<SAMRecord> queryFilePointers(final long[] filePointers,
+                                                   final QueryInterval[] intervals,
+                                                   final boolean contained) {
+        if (mStream == null) {
+            throw new IllegalStateException("File reader is closed");
+        }
+        if (mCurrentIterator != null) {
+            throw new IllegalStateException("Iteration in progress");
+        }
+        if (!mIsSeekable) {
+            throw new UnsupportedOperationException("Cannot query stream-based BAM file");
+        }
+        mCurrentIterator = createFilePointerIterator(filePointers, intervals, contained);
+        return mCurrentIterator;
+    }
+
+    private CloseableIterator<SAMRecord> createFilePointerIterator(final long[] filePointers,
+                                                                   final QueryInterval[] intervals,
+                                                                   final boolean contained) {
         // Create an iterator over the above chunk boundaries.
         final BAMFileIndexIterator iterator = new BAMFileIndexIterator(filePointers);
 
@@ -914,6 +1247,7 @@ class BAMFileReader extends SamReader.ReaderImplementation {
 
         @Override
         public FilteringIteratorState compareToFilter(final SAMRecord record) {
+            intervalIndex = findFirstIntervalNotBefore(intervals, intervalIndex, record);
             while (intervalIndex < intervals.length) {
                 final IntervalComparison comparison = compareIntervalToRecord(intervals[intervalIndex], record);
                 switch (comparison) {
@@ -931,29 +1265,46 @@ class BAMFileReader extends SamReader.ReaderImplementation {
             // Went past the last interval
             return FilteringIteratorState.STOP_ITERATION;
         }
+    }
 
-        private IntervalComparison compareIntervalToRecord(final QueryInterval interval, final SAMRecord record) {
-            // interval.end <= 0 implies the end of the reference sequence.
-            final int intervalEnd = (interval.end <= 0? Integer.MAX_VALUE: interval.end);
-            final int alignmentEnd;
-            if (record.getReadUnmappedFlag() && record.getAlignmentStart() != SAMRecord.NO_ALIGNMENT_START) {
-                // Unmapped read with coordinate of mate.
-                alignmentEnd = record.getAlignmentStart();
-            } else {
-                alignmentEnd = record.getAlignmentEnd();
-            }
+    /**
+     * Binary search for the first of the given optimized intervals, starting at fromIndex, that does not end
+     * before the given record.  Skipping ahead this way means that a query over a range of chunks from the middle of
+     * a long list of intervals does not have to scan all of the intervals before that range.
+     * @return the index of the interval, or intervals.length if all of the intervals end before the record.
+     */
+    static int findFirstIntervalNotBefore(final QueryInterval[] intervals, final int fromIndex, final SAMRecord record) {
+        int low = fromIndex;
+        int high = intervals.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareIntervalToRecord(intervals[mid], record) == IntervalComparison.BEFORE) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
 
-            if (interval.referenceIndex < record.getReferenceIndex()) return IntervalComparison.BEFORE;
-            else if (interval.referenceIndex > record.getReferenceIndex()) return IntervalComparison.AFTER;
-            else if (intervalEnd < record.getAlignmentStart()) return IntervalComparison.BEFORE;
-            else if (alignmentEnd < interval.start) return IntervalComparison.AFTER;
-            else if (CoordMath.encloses(interval.start, intervalEnd, record.getAlignmentStart(), alignmentEnd)) {
-                return IntervalComparison.CONTAINED;
-            } else return IntervalComparison.OVERLAPPING;
+    static IntervalComparison compareIntervalToRecord(final QueryInterval interval, final SAMRecord record) {
+        // interval.end <= 0 implies the end of the reference sequence.
+        final int intervalEnd = (interval.end <= 0? Integer.MAX_VALUE: interval.end);
+        final int alignmentEnd;
+        if (record.getReadUnmappedFlag() && record.getAlignmentStart() != SAMRecord.NO_ALIGNMENT_START) {
+            // Unmapped read with coordinate of mate.
+            alignmentEnd = record.getAlignmentStart();
+        } else {
+            alignmentEnd = record.getAlignmentEnd();
         }
+
+        if (interval.referenceIndex < record.getReferenceIndex()) return IntervalComparison.BEFORE;
+        else if (interval.referenceIndex > record.getReferenceIndex()) return IntervalComparison.AFTER;
+        else if (intervalEnd < record.getAlignmentStart()) return IntervalComparison.BEFORE;
+        else if (alignmentEnd < interval.start) return IntervalComparison.AFTER;
+        else if (CoordMath.encloses(interval.start, intervalEnd, record.getAlignmentStart(), alignmentEnd)) {
+            return IntervalComparison.CONTAINED;
+        } else return IntervalComparison.OVERLAPPING;
     }
 
-    private enum IntervalComparison {
+    enum IntervalComparison {
         BEFORE, AFTER, OVERLAPPING, CONTAINED
     }
 
@@ -33,6 +33,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * Concrete implementation of SAMFileWriter for writing gzipped BAM files.
@@ -43,6 +45,7 @@ class BAMFileWriter extends SAMFileWriterImpl {
     private BAMRecordCodec bamRecordCodec = null;
     private final BlockCompressedOutputStream blockCompressedOutputStream;
     private BAMIndexer bamIndexer = null;
+    private final Deque<PendingAlignment> alignmentsToIndex = new ArrayDeque<PendingAlignment>();
 
     protected BAMFileWriter(final File path) {
         blockCompressedOutputStream = new BlockCompressedOutputStream(path);
@@ -113,12 +116,13 @@ class BAMFileWriter extends SAMFileWriterImpl {
 
         if (bamIndexer != null) {
             try {
-                final long startOffset = blockCompressedOutputStream.getFilePointer();
+                // File pointers are resolved once the blocks they fall in have been written, so that
+                // indexing doesn't wait on blocks that are being compressed on other threads.
+                final long startOffset = blockCompressedOutputStream.getUnresolvedFilePointer();
                 bamRecordCodec.encode(alignment);
-                final long stopOffset = blockCompressedOutputStream.getFilePointer();
-                // set the alignment's SourceInfo and then prepare its index information
-                alignment.setFileSource(new SAMFileSource(null, new BAMFileSpan(new Chunk(startOffset, stopOffset))));
-                bamIndexer.processAlignment(alignment);
+                final long stopOffset = blockCompressedOutputStream.getUnresolvedFilePointer();
+                alignmentsToIndex.add(new PendingAlignment(alignment, startOffset, stopOffset));
+                indexAlignments(false);
             } catch (Exception e) {
                 bamIndexer = null;
                 throw new SAMException("Exception when processing alignment for BAM index " + alignment, e);
@@ -132,10 +136,34 @@ class BAMFileWriter extends SAMFileWriterImpl {
         writeHeader(outputBinaryCodec, getFileHeader(), textHeader);
     }
 
+    /**
+     * Passes alignments whose file pointers can be resolved to the indexer.
+     * @param waitForBlocks if true, resolve all pending alignments, waiting for blocks to be written if necessary.
+     */
+    private void indexAlignments(final boolean waitForBlocks) {
+        while (!alignmentsToIndex.isEmpty() &&
+                (waitForBlocks || blockCompressedOutputStream.isFilePointerResolvable(alignmentsToIndex.peek().stopOffset))) {
+            final PendingAlignment pending = alignmentsToIndex.poll();
+            final long startOffset = blockCompressedOutputStream.resolveFilePointer(pending.startOffset);
+            final long stopOffset = blockCompressedOutputStream.resolveFilePointer(pending.stopOffset);
+            bamIndexer.processAlignment(pending.referenceIndex, pending.alignmentStart, pending.alignmentEnd,
+                    pending.indexingBin, pending.unmapped, new Chunk(startOffset, stopOffset));
+        }
+    }
+
+    /**
+     * Sets the number of BGZF blocks that may be compressed concurrently on worker threads.
+     * @see BlockCompressedOutputStream#setDeflaterThreads(int)
+     */
+    void setDeflaterThreads(final int threads) {
+        blockCompressedOutputStream.setDeflaterThreads(threads);
+    }
+
     protected void finish() {
         outputBinaryCodec.close();
             try {
                 if (bamIndexer != null) {
+                    indexAlignments(true);
                     bamIndexer.finish();
                 }
             } catch (Exception e) {
@@ -190,4 +218,34 @@ class BAMFileWriter extends SAMFileWriterImpl {
             throw new RuntimeIOException(ioe);
         }
     }
+
+    /**
+     * The index information of an alignment that has been written but not yet indexed, with placeholders for its
+     * file pointers.  The values are taken from the record when it is written, as the caller may reuse the record.
+     */
+    private static class PendingAlignment {
+        final int referenceIndex;
+        final int alignmentStart;
+        final int alignmentEnd;
+        final int indexingBin;
+        final boolean unmapped;
+        final long startOffset;
+        final long stopOffset;
+
+        PendingAlignment(final SAMRecord alignment, final long startOffset, final long stopOffset) {
+            this.referenceIndex = alignment.getReferenceIndex();
+            this.alignmentStart = alignment.getAlignmentStart();
+            if (alignmentStart == SAMRecord.NO_ALIGNMENT_START) {
+                this.alignmentEnd = SAMRecord.NO_ALIGNMENT_START;
+                this.indexingBin = 0;
+            } else {
+                this.alignmentEnd = alignment.getAlignmentEnd();
+                final Integer binNumber = alignment.getIndexingBin();
+                this.indexingBin = binNumber == null ? alignment.computeIndexingBin() : binNumber;
+            }
+            this.unmapped = alignment.getReadUnmappedFlag();
+            this.startOffset = startOffset;
+            this.stopOffset = stopOffset;
+        }
+    }
 }
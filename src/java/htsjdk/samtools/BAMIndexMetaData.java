@@ -129,11 +129,25 @@ public class BAMIndexMetaData {
         if (rec.getFileSource() == null) {
             throw new SAMException("BAM cannot be indexed without setting a fileSource for record " + rec);
         }
-        final Chunk newChunk = ((BAMFileSpan) rec.getFileSource().getFilePointer()).getSingleChunk();
+        recordMetaData(alignmentStart, rec.getReadUnmappedFlag(), ((BAMFileSpan) rec.getFileSource().getFilePointer()).getSingleChunk());
+    }
+
+    /**
+     * @param alignmentStart the alignment start of the record, or NO_ALIGNMENT_START
+     * @param unmapped whether the record's read is unmapped
+     * @param newChunk the virtual file offsets of the record
+     */
+    void recordMetaData(final int alignmentStart, final boolean unmapped, final Chunk newChunk) {
+
+        if (alignmentStart == SAMRecord.NO_ALIGNMENT_START) {
+            incrementNoCoordinateRecordCount();
+            return;
+        }
+
         final long start = newChunk.getChunkStart();
         final long end = newChunk.getChunkEnd();
 
-        if (rec.getReadUnmappedFlag()) {
+        if (unmapped) {
             unAlignedRecords++;
         } else {
             alignedRecords++;
@@ -93,6 +93,25 @@ public class BAMIndexer {
         }
     }
 
+    /**
+     * Record index information for an alignment from values taken from its record, for writers that index
+     * alignments some time after writing them, when the record itself may have been reused.
+     *
+     * @param chunk the virtual file offsets of the start and end of the alignment
+     */
+    void processAlignment(final int reference, final int alignmentStart, final int alignmentEnd, final int indexingBin,
+                          final boolean unmapped, final Chunk chunk) {
+        try {
+            if (reference != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX && reference != currentReference) {
+                // process any completed references
+                advanceToReference(reference);
+            }
+            indexBuilder.processAlignment(reference, alignmentStart, alignmentEnd, indexingBin, unmapped, chunk);
+        } catch (final Exception e) {
+            throw new SAMException("Exception creating BAM index for alignment at " + reference + ":" + alignmentStart, e);
+        }
+    }
+
     /**
      * After all the alignment records have been processed, finish is called.
      * Writes any final information and closes the output file.
@@ -222,6 +241,47 @@ public class BAMIndexer {
 
         }
 
+        /**
+         * Record any index information for an alignment given by its values rather than its record
+         */
+        public void processAlignment(final int reference, final int alignmentStart, final int alignmentEnd,
+                                     final int indexingBin, final boolean unmapped, final Chunk chunk) {
+
+            // metadata
+            indexStats.recordMetaData(alignmentStart, unmapped, chunk);
+
+            if (alignmentStart == SAMRecord.NO_ALIGNMENT_START) {
+                return; // do nothing for records without coordinates, but count them
+            }
+
+            if (reference != currentReference) {
+                throw new SAMException("Unexpected reference " + reference +
+                        " when constructing index for " + currentReference + " for alignment at " + alignmentStart);
+            }
+
+            binningIndexBuilder.processFeature(new BinningIndexBuilder.FeatureToBeIndexed() {
+                @Override
+                public int getStart() {
+                    return alignmentStart;
+                }
+
+                @Override
+                public int getEnd() {
+                    return alignmentEnd;
+                }
+
+                @Override
+                public Integer getIndexingBin() {
+                    return indexingBin;
+                }
+
+                @Override
+                public Chunk getChunk() {
+                    return chunk;
+                }
+            });
+        }
+
         /**
          * Creates the BAMIndexContent for this reference.
          * Requires all alignments of the reference have already been processed.
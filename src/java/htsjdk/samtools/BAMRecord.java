@@ -27,6 +27,7 @@ import htsjdk.samtools.util.StringUtil;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 
 /**
@@ -40,18 +41,20 @@ public class BAMRecord extends SAMRecord {
     private static final int READ_NAME_OFFSET = 0;
 
     /**
-     * Variable-length part of BAMRecord.  Lazily decoded.
+     * Variable-length part of BAMRecord.  Lazily decoded.  When a record is reused the array may be longer than
+     * the record's data, whose length is mRestOfBinaryDataLength.
      */
     private byte[] mRestOfBinaryData = null;
+    private int mRestOfBinaryDataLength = 0;
 
     // Various lengths are stored, because they are in the fixed-length part of the BAMRecord, and it is
     // more efficient to remember them than decode the element they store the length of.
     // The length becomes invalid if the element is changed with a set() method.
     private int mReadLength = 0;
     private boolean mReadLengthValid = true;
-    private final short mReadNameLength;
+    private short mReadNameLength;
     private boolean mReadNameLengthValid = true;
-    private final int mCigarLength;
+    private int mCigarLength;
     private boolean mCigarLengthValid = true;
 
     // Whether or not the getter needs to decode the corresponding element.
@@ -59,6 +62,13 @@ public class BAMRecord extends SAMRecord {
     private boolean mAttributesDecoded = false;
     private boolean mCigarDecoded = false;
 
+    /**
+     * The result of the most recent single-tag lookup in the binary block, made before attributes were decoded.
+     */
+    private short mLastFoundTag;
+    private SAMBinaryTagAndValue mLastFoundAttribute = null;
+    private boolean mLastFoundAttributeValid = false;
+
     /**
      * If any of the properties set from mRestOfBinaryData have been overridden by calls to setters,
      * this is set to true, indicating that mRestOfBinaryData cannot be used to write this record to disk.
@@ -79,6 +89,59 @@ public class BAMRecord extends SAMRecord {
                         final int insertSize,
                         final byte[] restOfData) {
         super(header);
+        initialize(referenceID, coordinate, readNameLength, mappingQuality, indexingBin, cigarLen, flags, readLen,
+                mateReferenceID, mateCoordinate, insertSize, restOfData, restOfData.length);
+    }
+
+    /**
+     * Overwrite this record with another record read from a BAM file, so that the object and its binary block can
+     * be reused instead of allocating new ones for every record.  Everything that was decoded or set on the previous
+     * record is discarded.  Fields added by subclasses are not reset.
+     *
+     * @param restOfData buffer holding the variable-length part of the record, which may be longer than the record.
+     * @param restOfDataLength number of bytes of restOfData that belong to the record.
+     */
+    void reinitialize(final SAMFileHeader header,
+                      final int referenceID,
+                      final int coordinate,
+                      final short readNameLength,
+                      final short mappingQuality,
+                      final int indexingBin,
+                      final int cigarLen,
+                      final int flags,
+                      final int readLen,
+                      final int mateReferenceID,
+                      final int mateCoordinate,
+                      final int insertSize,
+                      final byte[] restOfData,
+                      final int restOfDataLength) {
+        setHeader(header);
+        setAttributes(null);
+        setFileSource(null);
+        mReadLengthValid = true;
+        mReadNameLengthValid = true;
+        mCigarLengthValid = true;
+        mAttributesDecoded = false;
+        mCigarDecoded = false;
+        mLastFoundAttribute = null;
+        mLastFoundAttributeValid = false;
+        initialize(referenceID, coordinate, readNameLength, mappingQuality, indexingBin, cigarLen, flags, readLen,
+                mateReferenceID, mateCoordinate, insertSize, restOfData, restOfDataLength);
+    }
+
+    private void initialize(final int referenceID,
+                            final int coordinate,
+                            final short readNameLength,
+                            final short mappingQuality,
+                            final int indexingBin,
+                            final int cigarLen,
+                            final int flags,
+                            final int readLen,
+                            final int mateReferenceID,
+                            final int mateCoordinate,
+                            final int insertSize,
+                            final byte[] restOfData,
+                            final int restOfDataLength) {
         setReferenceIndex(referenceID);
         setAlignmentStart(coordinate);
         mReadNameLength = readNameLength;
@@ -90,6 +153,7 @@ public class BAMRecord extends SAMRecord {
         setMateAlignmentStart(mateCoordinate);
         setInferredInsertSize(insertSize);
         mRestOfBinaryData = restOfData;
+        mRestOfBinaryDataLength = restOfDataLength;
 
         // Set these to null in order to mark them as being candidates for lazy initialization.
         // If this is not done, they will have non-null defaults.
@@ -105,6 +169,14 @@ public class BAMRecord extends SAMRecord {
         mBinaryDataStale = false;
     }
 
+    /**
+     * @return the array holding the variable-length part of this record, which may be longer than the record's
+     * data, or null if the record has been eagerly decoded.  Used to recycle the array when the record is reused.
+     */
+    byte[] getBinaryDataBuffer() {
+        return mRestOfBinaryData;
+    }
+
     /**
      * Force all the lazily-initialized attributes to be decoded.
      */
@@ -130,9 +202,24 @@ public class BAMRecord extends SAMRecord {
             return null;
         }
         // This may have been set to null by eagerDecode()
+        if (mRestOfBinaryData != null && mRestOfBinaryData.length != mRestOfBinaryDataLength) {
+            return Arrays.copyOf(mRestOfBinaryData, mRestOfBinaryDataLength);
+        }
         return mRestOfBinaryData;
     }
 
+    /**
+     * The clone gets its own copy of the binary block, so that it is not affected if this record is reused.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final BAMRecord newRecord = (BAMRecord)super.clone();
+        if (mRestOfBinaryData != null) {
+            newRecord.mRestOfBinaryData = Arrays.copyOf(mRestOfBinaryData, mRestOfBinaryDataLength);
+        }
+        return newRecord;
+    }
+
     /**
      * Depending on the concrete implementation, the binary file size of attributes may be known without
      * computing them all.
@@ -144,8 +231,7 @@ public class BAMRecord extends SAMRecord {
         if (mBinaryDataStale || mRestOfBinaryData == null) {
             return -1;
         }
-        final int tagsOffset = readNameSize() + cigarSize() + basesSize() + qualsSize();
-        return mRestOfBinaryData.length - tagsOffset;
+        return mRestOfBinaryDataLength - tagsOffset();
     }
 
     @Override
@@ -282,12 +368,103 @@ public class BAMRecord extends SAMRecord {
         return ret;
     }
 
+    /**
+     * Reads the base from the binary block if the bases have not been decoded.
+     */
     @Override
-    public Object getAttribute(final short tag) {
-        if (!mAttributesDecoded) {
-            decodeAttributes();
+    public byte getReadBase(final int index) {
+        if (mRestOfBinaryData == null || super.getReadBases() != null) {
+            return super.getReadBase(index);
         }
-        return super.getAttribute(tag);
+        if (index < 0 || index >= mReadLength) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        final byte compressedBases = mRestOfBinaryData[readNameSize() + cigarSize() + index / 2];
+        return index % 2 == 0 ? SAMUtils.compressedBaseToByteHigh(compressedBases) :
+                SAMUtils.compressedBaseToByteLow(compressedBases);
+    }
+
+    /**
+     * Reads the quality from the binary block if the qualities have not been decoded.
+     */
+    @Override
+    public byte getBaseQuality(final int index) {
+        final int qualsOffset = readNameSize() + cigarSize() + basesSize();
+        if (mRestOfBinaryData == null || super.getBaseQualities() != null || mReadLength == 0 ||
+                mRestOfBinaryData[qualsOffset] == (byte) 0xFF) {
+            // the superclass handles missing qualities the same way as getBaseQualities()
+            return super.getBaseQuality(index);
+        }
+        if (index < 0 || index >= mReadLength) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mRestOfBinaryData[qualsOffset + index];
+    }
+
+    /**
+     * Reads the cigar element from the binary block if the cigar has not been decoded.  Unlike getCigar(), this
+     * does not validate the cigar.
+     */
+    @Override
+    public CigarOperator getCigarElementOperator(final int index) {
+        if (mRestOfBinaryData == null || mCigarDecoded) {
+            return super.getCigarElementOperator(index);
+        }
+        return CigarOperator.binaryToEnum(binaryCigarElement(index) & 0xf);
+    }
+
+    /**
+     * Reads the cigar element from the binary block if the cigar has not been decoded.  Unlike getCigar(), this
+     * does not validate the cigar.
+     */
+    @Override
+    public int getCigarElementLength(final int index) {
+        if (mRestOfBinaryData == null || mCigarDecoded) {
+            return super.getCigarElementLength(index);
+        }
+        return binaryCigarElement(index) >> 4;
+    }
+
+    private int binaryCigarElement(final int index) {
+        if (index < 0 || index >= mCigarLength) {
+            throw new IndexOutOfBoundsException("Cigar element " + index + " of " + mCigarLength);
+        }
+        final int offset = readNameSize() + index * 4;
+        return (mRestOfBinaryData[offset] & 0xff) | ((mRestOfBinaryData[offset + 1] & 0xff) << 8) |
+                ((mRestOfBinaryData[offset + 2] & 0xff) << 16) | ((mRestOfBinaryData[offset + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Compares the read name in the binary block if it has not been decoded.
+     */
+    @Override
+    public boolean readNameEquals(final byte[] readName) {
+        if (mRestOfBinaryData == null || super.getReadName() != null) {
+            return super.readNameEquals(readName);
+        }
+        if (readName.length != mReadNameLength - 1) return false;
+        for (int i = 0; i < readName.length; ++i) {
+            if (mRestOfBinaryData[READ_NAME_OFFSET + i] != readName[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Until something needs all the attributes, single tags are looked up in the binary block without decoding
+     * the others.  The most recent lookup is remembered, since the same tag is often asked for repeatedly.
+     */
+    @Override
+    protected SAMBinaryTagAndValue findAttribute(final short tag) {
+        if (mAttributesDecoded) {
+            return super.findAttribute(tag);
+        }
+        if (!mLastFoundAttributeValid || mLastFoundTag != tag) {
+            mLastFoundAttribute = BinaryTagCodec.findTag(mRestOfBinaryData, tagsOffset(),
+                    mRestOfBinaryDataLength - tagsOffset(), tag, getValidationStringency());
+            mLastFoundTag = tag;
+            mLastFoundAttributeValid = true;
+        }
+        return mLastFoundAttribute;
     }
 
     @Override
@@ -303,12 +480,17 @@ public class BAMRecord extends SAMRecord {
             return;
         }
         mAttributesDecoded = true;
-        final int tagsOffset = readNameSize() + cigarSize() + basesSize() + qualsSize();
-        final int tagsSize = mRestOfBinaryData.length - tagsOffset;
+        mLastFoundAttribute = null;
+        final int tagsOffset = tagsOffset();
+        final int tagsSize = mRestOfBinaryDataLength - tagsOffset;
         final SAMBinaryTagAndValue attributes = BinaryTagCodec.readTags(mRestOfBinaryData, tagsOffset, tagsSize, getValidationStringency());
         setAttributes(attributes);
     }
 
+    private int tagsOffset() {
+        return readNameSize() + cigarSize() + basesSize() + qualsSize();
+    }
+
     private byte[] decodeBaseQualities() {
         if (mReadLength == 0) {
             return SAMRecord.NULL_QUALS;
@@ -172,6 +172,17 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
      *         a record.
      */
     public SAMRecord decode() {
+        return decode(null);
+    }
+
+    /**
+     * Read the next record from the input stream into an existing record, instead of allocating a new one.
+     * The binary block of the existing record is reused if it is large enough for the new record.  Anything
+     * obtained from the previous contents of the record, other than decoded values, must not be used afterwards.
+     * @param recordToReuse record to overwrite, or null to allocate a new record as {@link #decode()} does.
+     * @return recordToReuse or a new record holding the next record in the stream, or null if at end of file.
+     */
+    public SAMRecord decode(final BAMRecord recordToReuse) {
         int recordLength = 0;
         try {
             recordLength = this.binaryCodec.readInt();
@@ -195,7 +206,18 @@ public class BAMRecordCodec implements SortingCollection.Codec<SAMRecord> {
         final int mateReferenceID = this.binaryCodec.readInt();
         final int mateCoordinate = this.binaryCodec.readInt() + 1;
         final int insertSize = this.binaryCodec.readInt();
-        final byte[] restOfRecord = new byte[recordLength - BAMFileConstants.FIXED_BLOCK_SIZE];
+        final int restOfRecordLength = recordLength - BAMFileConstants.FIXED_BLOCK_SIZE;
+        if (recordToReuse != null) {
+            byte[] buffer = recordToReuse.getBinaryDataBuffer();
+            if (buffer == null || buffer.length < restOfRecordLength) {
+                buffer = new byte[restOfRecordLength];
+            }
+            this.binaryCodec.readBytes(buffer, 0, restOfRecordLength);
+            recordToReuse.reinitialize(header, referenceID, coordinate, readNameLength, mappingQuality,
+                    bin, cigarLen, flags, readLen, mateReferenceID, mateCoordinate, insertSize, buffer, restOfRecordLength);
+            return recordToReuse;
+        }
+        final byte[] restOfRecord = new byte[restOfRecordLength];
         this.binaryCodec.readBytes(restOfRecord);
         final BAMRecord ret = this.samRecordFactory.createBAMRecord(
                 header, referenceID, coordinate, readNameLength, mappingQuality,
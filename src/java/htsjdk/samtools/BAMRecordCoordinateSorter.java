@@ -0,0 +1,668 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SharedThreadPools;
+import htsjdk.samtools.util.TempStreamCodec;
+import htsjdk.samtools.util.TempStreamFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts SAMRecords into coordinate order, holding them in RAM in their BAM binary encoding rather than as
+ * SAMRecord objects.  Each record costs its encoded size plus a few bytes of bookkeeping, so several times as
+ * many records fit in the same heap as with a SortingCollection of SAMRecords.
+ *
+ * Records are ordered by a packed long key of reference index and alignment start, falling back to the remaining
+ * fields of {@link SAMRecordCoordinateComparator} read directly from the encoded bytes, so the order is exactly
+ * the one that comparator gives.  Like SortingCollection the sort is stable.  When maxRecordsInRam records have
+ * been added, they are sorted and their encoded bytes written unchanged to a temporary file; the files are
+ * merged when iterating.
+ *
+ * Spilling and merging work as in SortingCollection.  With spill threads, a full buffer is sorted and written on
+ * a background thread while the caller fills another, so up to spillThreads + 1 buffers may be in memory at once.
+ * If more files than the merge fan-in limit are spilled, groups of them are merged into larger files before
+ * iteration so that no more than that many are open at once.
+ *
+ * Call {@link #add(SAMRecord)} for each record, then {@link #iterator()} once, then {@link #cleanup()}.
+ */
+public class BAMRecordCoordinateSorter implements Iterable<SAMRecord> {
+    private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+    // offsets within an encoded record, which starts with its block size
+    private static final int FLAGS_OFFSET = 18;
+    private static final int MAPQ_OFFSET = 13;
+    private static final int READ_NAME_LENGTH_OFFSET = 12;
+    private static final int MATE_REFERENCE_OFFSET = 24;
+    private static final int MATE_START_OFFSET = 28;
+    private static final int INSERT_SIZE_OFFSET = 32;
+    private static final int READ_NAME_OFFSET = 36;
+
+    private static final int READ_STRAND_FLAG = 0x10;
+
+    // the same pool as SortingCollection, so sorts running together share its threads
+    private static final String SPILL_POOL_NAME = "SortingCollectionSpill";
+
+    private final SAMFileHeader header;
+    private final int maxRecordsInRam;
+    private final File[] tmpDirs;
+    private TempStreamFactory tempStreamFactory = new TempStreamFactory();
+    private final BAMRecordCodec encoder;
+    private final RecordBuffer recordBuffer = new RecordBuffer();
+    private int spillThreads = Defaults.SORTING_COLLECTION_SPILL_THREADS;
+    private int maxFilesToMerge = Integer.MAX_VALUE;
+
+    private RamRecords ramRecords;
+
+    /** Spills running on background threads, oldest first.  Each returns its emptied buffer for reuse. */
+    private final Deque<Future<RamRecords>> pendingSpills = new ArrayDeque<Future<RamRecords>>();
+    private final Deque<RamRecords> spareBuffers = new ArrayDeque<RamRecords>();
+
+    private final List<File> files = new ArrayList<File>();
+    private boolean iterationStarted = false;
+    private boolean cleanedUp = false;
+
+    /**
+     * @param header Header of the records.  Records returned by the iterator have this header.
+     * @param maxRecordsInRam Number of records held in RAM before spilling to disk.
+     * @param tmpDir Where to write files of records that will not fit in RAM.
+     */
+    public BAMRecordCoordinateSorter(final SAMFileHeader header, final int maxRecordsInRam, final File... tmpDir) {
+        if (maxRecordsInRam <= 0) {
+            throw new IllegalArgumentException("maxRecordsInRam must be > 0");
+        }
+        if (tmpDir == null || tmpDir.length == 0) {
+            throw new IllegalArgumentException("At least one temp directory must be provided.");
+        }
+        this.header = header;
+        this.maxRecordsInRam = maxRecordsInRam;
+        this.tmpDirs = tmpDir;
+        this.encoder = new BAMRecordCodec(header);
+        this.encoder.setOutputStream(recordBuffer);
+        this.ramRecords = new RamRecords(maxRecordsInRam);
+    }
+
+    /**
+     * Set the codec used to compress temporary files.  Must be called before any records are spilled to disk.
+     * Default value: [[htsjdk.samtools.Defaults#TEMP_COMPRESSION]]
+     */
+    public void setTempStreamCodec(final TempStreamCodec tempStreamCodec) {
+        if (!files.isEmpty()) {
+            throw new IllegalStateException("Cannot change temp file compression after records have been spilled");
+        }
+        tempStreamFactory = new TempStreamFactory(tempStreamCodec);
+    }
+
+    /**
+     * @return metrics for each file of records spilled or merged so far
+     */
+    public List<TempStreamFactory.SpillMetrics> getSpillMetrics() {
+        return tempStreamFactory.getSpillMetrics();
+    }
+
+    /**
+     * @return the number of buffers of records that may be sorted and spilled to disk on background threads.
+     */
+    public int getSpillThreads() {
+        return spillThreads;
+    }
+
+    /**
+     * Set the number of buffers of records that may be sorted and spilled to disk concurrently on background
+     * threads while more records are added.  Values less than 1 spill on the thread that calls add().
+     * Default value: [[htsjdk.samtools.Defaults#SORTING_COLLECTION_SPILL_THREADS]]
+     */
+    public void setSpillThreads(final int spillThreads) {
+        this.spillThreads = spillThreads;
+    }
+
+    /**
+     * @return the maximum number of files that are merged at once.
+     */
+    public int getMaxFilesToMerge() {
+        return maxFilesToMerge;
+    }
+
+    /**
+     * Set the maximum number of files that are merged at once.  If more files than this have been spilled
+     * when iteration starts, consecutive groups of files are merged into single files, repeatedly if necessary,
+     * until no more than this many remain.  By default there is no limit.
+     */
+    public void setMaxFilesToMerge(final int maxFilesToMerge) {
+        if (maxFilesToMerge < 2) {
+            throw new IllegalArgumentException("maxFilesToMerge must be at least 2");
+        }
+        this.maxFilesToMerge = maxFilesToMerge;
+    }
+
+    public void add(final SAMRecord record) {
+        if (iterationStarted) {
+            throw new IllegalStateException("Cannot add after calling iterator()");
+        }
+        if (ramRecords.numRecords == maxRecordsInRam) {
+            spillToDisk(true);
+        }
+
+        recordBuffer.reset();
+        encoder.encode(record);
+        ramRecords.add(recordBuffer.getBuffer(), recordBuffer.size(),
+                sortKey(record.getReferenceIndex(), record.getAlignmentStart()));
+    }
+
+    /**
+     * Records on no reference sort after all others and are equal as far as the key is concerned.
+     * Otherwise the key orders by reference index, then by alignment start.
+     */
+    private static long sortKey(final int referenceIndex, final int alignmentStart) {
+        if (referenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+            return Long.MAX_VALUE;
+        }
+        return ((long) referenceIndex << 32) + ((long) alignmentStart - Integer.MIN_VALUE);
+    }
+
+    private static int compareInts(final int i1, final int i2) {
+        if (i1 < i2) return -1;
+        else if (i1 > i2) return 1;
+        else return 0;
+    }
+
+    private static int readUShort(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+    }
+
+    private static int readInt(final byte[] buffer, final int offset) {
+        return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) |
+                ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Sort the records in RAM and write their encoded bytes to a new temporary file.  With spill threads the
+     * buffer is handed to a background thread and, if more records are to be added, replaced by an empty one.
+     */
+    private void spillToDisk(final boolean moreToAdd) {
+        final File f;
+        try {
+            f = IOUtil.newTempFile("bamrecordsorter.", ".tmp", tmpDirs);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        // files are listed in the order they were spilled, which the merge relies on to keep the sort stable
+        files.add(f);
+
+        if (spillThreads < 1) {
+            sortAndWrite(ramRecords, f);
+        } else {
+            waitForSpills(spillThreads - 1);
+            final RamRecords records = ramRecords;
+            pendingSpills.add(SharedThreadPools.getPool(SPILL_POOL_NAME).submit(new Callable<RamRecords>() {
+                public RamRecords call() {
+                    sortAndWrite(records, f);
+                    return records;
+                }
+            }));
+            ramRecords = !moreToAdd ? null :
+                    spareBuffers.isEmpty() ? new RamRecords(maxRecordsInRam) : spareBuffers.poll();
+        }
+    }
+
+    /**
+     * Wait until no more than maxPending spills are running, keeping the emptied buffers of finished spills.
+     */
+    private void waitForSpills(final int maxPending) {
+        while (pendingSpills.size() > maxPending ||
+                (!pendingSpills.isEmpty() && pendingSpills.peekFirst().isDone())) {
+            spareBuffers.add(SharedThreadPools.getResult(pendingSpills.pollFirst()));
+        }
+    }
+
+    private void sortAndWrite(final RamRecords records, final File f) {
+        final int[] order = records.sort();
+        OutputStream os = null;
+        try {
+            os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(f), Defaults.BUFFER_SIZE);
+            for (final int record : order) {
+                records.write(record, os);
+            }
+            os.flush();
+        } catch (IOException e) {
+            throw new RuntimeIOException("Problem writing temporary file " + f.getAbsolutePath() +
+                    ".  Try setting TMP_DIR to a file system with lots of space.", e);
+        } finally {
+            CloserUtil.close(os);
+        }
+        records.clear();
+    }
+
+    /**
+     * Merge consecutive groups of files until no more than maxFilesToMerge remain.  Groups are merged
+     * concurrently if spill threads are enabled.
+     */
+    private void mergeFiles() {
+        while (files.size() > maxFilesToMerge) {
+            final List<File> mergedFiles = new ArrayList<File>();
+            final Deque<Future<File>> pendingMerges = new ArrayDeque<Future<File>>();
+            for (int i = 0; i < files.size(); i += maxFilesToMerge) {
+                final List<File> group = new ArrayList<File>(files.subList(i, Math.min(i + maxFilesToMerge, files.size())));
+                final File mergedFile;
+                try {
+                    mergedFile = IOUtil.newTempFile("bamrecordsorter.", ".tmp", tmpDirs);
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                }
+                mergedFiles.add(mergedFile);
+                if (spillThreads < 1) {
+                    mergeFiles(group, mergedFile);
+                } else {
+                    // each merge holds a whole group of files open
+                    while (pendingMerges.size() >= spillThreads) {
+                        SharedThreadPools.getResult(pendingMerges.pollFirst());
+                    }
+                    pendingMerges.add(SharedThreadPools.getPool(SPILL_POOL_NAME).submit(new Callable<File>() {
+                        public File call() {
+                            mergeFiles(group, mergedFile);
+                            return mergedFile;
+                        }
+                    }));
+                }
+            }
+            while (!pendingMerges.isEmpty()) {
+                SharedThreadPools.getResult(pendingMerges.pollFirst());
+            }
+            files.clear();
+            files.addAll(mergedFiles);
+        }
+    }
+
+    private void mergeFiles(final List<File> inputs, final File output) {
+        final MergingIterator iterator = new MergingIterator(inputs);
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        OutputStream os = null;
+        try {
+            os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(output), Defaults.BUFFER_SIZE);
+            codec.setOutputStream(os, output.getAbsolutePath());
+            while (iterator.hasNext()) {
+                codec.encode(iterator.next());
+            }
+            os.flush();
+        } catch (IOException e) {
+            throw new RuntimeIOException("Problem writing temporary file " + output.getAbsolutePath(), e);
+        } finally {
+            iterator.close();
+            CloserUtil.close(os);
+        }
+        IOUtil.deleteFiles(inputs);
+    }
+
+    /**
+     * Prepare to iterate through the records in order.  May be called only once.
+     */
+    public CloseableIterator<SAMRecord> iterator() {
+        if (cleanedUp) {
+            throw new IllegalStateException("Cannot call iterator() after cleanup() was called.");
+        }
+        if (iterationStarted) {
+            throw new IllegalStateException("iterator() may only be called once.");
+        }
+        iterationStarted = true;
+        if (files.isEmpty()) {
+            return new InMemoryIterator(ramRecords);
+        }
+        if (ramRecords.numRecords > 0) {
+            spillToDisk(false);
+        }
+        waitForSpills(0);
+        // Facilitate GC
+        ramRecords = null;
+        spareBuffers.clear();
+
+        mergeFiles();
+        return new MergingIterator(files);
+    }
+
+    /**
+     * Delete any temporary files.  After this method is called, iterator() may not be called.
+     */
+    public void cleanup() {
+        iterationStarted = true;
+        cleanedUp = true;
+
+        // let background spills finish with their files before deleting them
+        while (!pendingSpills.isEmpty()) {
+            try {
+                SharedThreadPools.getResult(pendingSpills.pollFirst());
+            } catch (RuntimeException e) {
+                // the spill's file is being deleted anyway
+            }
+        }
+
+        IOUtil.deleteFiles(files);
+        files.clear();
+    }
+
+    /** ByteArrayOutputStream that lets the encoded record be copied without another intermediate copy. */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * A buffer of encoded records in RAM, packed into slabs that are reused after each spill.
+     */
+    private static class RamRecords {
+        private final int maxRecords;
+        private final List<byte[]> slabs = new ArrayList<byte[]>();
+        private int currentSlab = -1;
+        private int slabPosition = SLAB_SIZE;
+
+        // per record, in the order added: sort key, and slab index << 32 | offset within the slab
+        private long[] keys = new long[1024];
+        private long[] addresses = new long[1024];
+        private int numRecords = 0;
+
+        RamRecords(final int maxRecords) {
+            this.maxRecords = maxRecords;
+        }
+
+        void add(final byte[] encoded, final int length, final long key) {
+            if (SLAB_SIZE - slabPosition < length) {
+                nextSlab(length);
+            }
+            System.arraycopy(encoded, 0, slabs.get(currentSlab), slabPosition, length);
+
+            if (numRecords == keys.length) {
+                final int newLength = (int) Math.min((long) maxRecords, 2L * keys.length);
+                keys = Arrays.copyOf(keys, newLength);
+                addresses = Arrays.copyOf(addresses, newLength);
+            }
+            keys[numRecords] = key;
+            addresses[numRecords] = ((long) currentSlab << 32) | slabPosition;
+            ++numRecords;
+            slabPosition += length;
+        }
+
+        /**
+         * Move to the next slab, allocating one if there is no spare one or the record does not fit in a normal slab.
+         */
+        private void nextSlab(final int length) {
+            ++currentSlab;
+            slabPosition = 0;
+            if (length > SLAB_SIZE) {
+                slabs.add(currentSlab, new byte[length]);
+            } else if (currentSlab == slabs.size()) {
+                slabs.add(new byte[SLAB_SIZE]);
+            } else if (slabs.get(currentSlab).length > SLAB_SIZE) {
+                // a slab left over from an oversized record is not reused for ordinary ones
+                slabs.set(currentSlab, new byte[SLAB_SIZE]);
+            }
+        }
+
+        /** Empty the buffer, keeping its slabs for the next records. */
+        void clear() {
+            numRecords = 0;
+            currentSlab = -1;
+            slabPosition = SLAB_SIZE;
+        }
+
+        /**
+         * Compare two records the way {@link SAMRecordCoordinateComparator} does, using only the key and
+         * the fixed-length fields and read name of the encoded records.
+         */
+        private int compare(final int record1, final int record2) {
+            final long key1 = keys[record1];
+            final long key2 = keys[record2];
+            if (key1 != key2) {
+                return key1 < key2 ? -1 : 1;
+            }
+            final byte[] slab1 = slabs.get((int) (addresses[record1] >>> 32));
+            final int offset1 = (int) addresses[record1];
+            final byte[] slab2 = slabs.get((int) (addresses[record2] >>> 32));
+            final int offset2 = (int) addresses[record2];
+
+            final int flags1 = readUShort(slab1, offset1 + FLAGS_OFFSET);
+            final int flags2 = readUShort(slab2, offset2 + FLAGS_OFFSET);
+            final boolean negativeStrand1 = (flags1 & READ_STRAND_FLAG) != 0;
+            final boolean negativeStrand2 = (flags2 & READ_STRAND_FLAG) != 0;
+            if (negativeStrand1 != negativeStrand2) {
+                return negativeStrand1 ? 1 : -1;
+            }
+
+            // the terminating null is not part of the name
+            final int nameLength1 = (slab1[offset1 + READ_NAME_LENGTH_OFFSET] & 0xff) - 1;
+            final int nameLength2 = (slab2[offset2 + READ_NAME_LENGTH_OFFSET] & 0xff) - 1;
+            final int commonLength = Math.min(nameLength1, nameLength2);
+            for (int i = 0; i < commonLength; ++i) {
+                final int c1 = slab1[offset1 + READ_NAME_OFFSET + i] & 0xff;
+                final int c2 = slab2[offset2 + READ_NAME_OFFSET + i] & 0xff;
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            int cmp = nameLength1 - nameLength2;
+            if (cmp != 0) return cmp;
+            cmp = compareInts(flags1, flags2);
+            if (cmp != 0) return cmp;
+            cmp = compareInts(slab1[offset1 + MAPQ_OFFSET] & 0xff, slab2[offset2 + MAPQ_OFFSET] & 0xff);
+            if (cmp != 0) return cmp;
+            cmp = compareInts(readInt(slab1, offset1 + MATE_REFERENCE_OFFSET), readInt(slab2, offset2 + MATE_REFERENCE_OFFSET));
+            if (cmp != 0) return cmp;
+            cmp = compareInts(readInt(slab1, offset1 + MATE_START_OFFSET), readInt(slab2, offset2 + MATE_START_OFFSET));
+            if (cmp != 0) return cmp;
+            return compareInts(readInt(slab1, offset1 + INSERT_SIZE_OFFSET), readInt(slab2, offset2 + INSERT_SIZE_OFFSET));
+        }
+
+        /** @return the size of the encoded record, including its leading block size */
+        private int recordLength(final int record) {
+            return readInt(slabs.get((int) (addresses[record] >>> 32)), (int) addresses[record]) + 4;
+        }
+
+        void write(final int record, final OutputStream os) throws IOException {
+            os.write(slabs.get((int) (addresses[record] >>> 32)), (int) addresses[record], recordLength(record));
+        }
+
+        ByteArrayInputStream read(final int record) {
+            return new ByteArrayInputStream(slabs.get((int) (addresses[record] >>> 32)), (int) addresses[record],
+                    recordLength(record));
+        }
+
+        /**
+         * @return the records as indices into keys and addresses, in sorted order
+         */
+        int[] sort() {
+            final int[] order = new int[numRecords];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
+            }
+            mergeSort(order.clone(), order, 0, order.length);
+            return order;
+        }
+
+        /**
+         * Stable merge sort of dest[low, high), using src, which must hold the same elements, as scratch space.
+         */
+        private void mergeSort(final int[] src, final int[] dest, final int low, final int high) {
+            if (high - low < 7) {
+                for (int i = low; i < high; ++i) {
+                    for (int j = i; j > low && compare(dest[j - 1], dest[j]) > 0; --j) {
+                        final int t = dest[j];
+                        dest[j] = dest[j - 1];
+                        dest[j - 1] = t;
+                    }
+                }
+                return;
+            }
+            final int mid = (low + high) >>> 1;
+            mergeSort(dest, src, low, mid);
+            mergeSort(dest, src, mid, high);
+
+            if (compare(src[mid - 1], src[mid]) <= 0) {
+                System.arraycopy(src, low, dest, low, high - low);
+                return;
+            }
+            for (int i = low, p = low, q = mid; i < high; ++i) {
+                if (q >= high || (p < mid && compare(src[p], src[q]) <= 0)) {
+                    dest[i] = src[p++];
+                } else {
+                    dest[i] = src[q++];
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the records in RAM in sorted order.
+     */
+    private class InMemoryIterator implements CloseableIterator<SAMRecord> {
+        private final RamRecords records;
+        private final int[] order;
+        private final BAMRecordCodec decoder = new BAMRecordCodec(header);
+        private int next = 0;
+
+        InMemoryIterator(final RamRecords records) {
+            this.records = records;
+            this.order = records.sort();
+        }
+
+        public boolean hasNext() {
+            return next < order.length;
+        }
+
+        public SAMRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            decoder.setInputStream(records.read(order[next++]));
+            return decoder.decode();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            next = order.length;
+        }
+    }
+
+    /**
+     * Merges sorted files.  Records that compare equal come out in the order of the files they came from.
+     */
+    private class MergingIterator implements CloseableIterator<SAMRecord> {
+        private final PriorityQueue<FileRecordIterator> queue;
+
+        MergingIterator(final List<File> files) {
+            final SAMRecordCoordinateComparator comparator = new SAMRecordCoordinateComparator();
+            queue = new PriorityQueue<FileRecordIterator>(files.size(), new Comparator<FileRecordIterator>() {
+                public int compare(final FileRecordIterator lhs, final FileRecordIterator rhs) {
+                    final int cmp = comparator.compare(lhs.current, rhs.current);
+                    return cmp != 0 ? cmp : lhs.fileIndex - rhs.fileIndex;
+                }
+            });
+            for (int i = 0; i < files.size(); ++i) {
+                final FileRecordIterator it = new FileRecordIterator(files.get(i), i);
+                if (it.advance()) {
+                    queue.add(it);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        public SAMRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final FileRecordIterator it = queue.poll();
+            final SAMRecord ret = it.current;
+            if (it.advance()) {
+                queue.add(it);
+            }
+            return ret;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            while (!queue.isEmpty()) {
+                queue.poll().close();
+            }
+        }
+    }
+
+    private class FileRecordIterator {
+        private final int fileIndex;
+        private final InputStream is;
+        private final BAMRecordCodec decoder = new BAMRecordCodec(header);
+        private SAMRecord current;
+
+        FileRecordIterator(final File file, final int fileIndex) {
+            this.fileIndex = fileIndex;
+            try {
+                is = tempStreamFactory.wrapTempInputStream(new FileInputStream(file), Defaults.BUFFER_SIZE);
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+            decoder.setInputStream(is, file.getAbsolutePath());
+        }
+
+        /** @return false, having closed the file, if there are no more records */
+        boolean advance() {
+            current = decoder.decode();
+            if (current == null) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        void close() {
+            CloserUtil.close(is);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A unit of work covering part of an indexed BAM or CRAM file, for processing the file on several threads or
+ * machines.  {@link #createShards(SamReader, int)} splits a file into shards of roughly equal compressed size, using
+ * the linear index of its BAI index to estimate how much of the file each 16kb window of each reference takes up.
+ *
+ * A mapped shard covers one or more intervals, at most one per reference, and together the shards of a file tile
+ * every reference that has reads.  {@link #iterator(SamReader)} returns the records whose alignment start lies in
+ * the shard's intervals, so each record is returned by exactly one shard even if it overlaps several.  Reads that
+ * have no coordinate at all are covered by a final unmapped shard.
+ */
+public class BAMShard {
+    private static final int LINEAR_WINDOW_SIZE = 1 << LinearIndex.BAM_LIDX_SHIFT;
+
+    private final QueryInterval[] intervals;
+    private final SAMFileSpan fileSpan;
+    private final long compressedBytes;
+    private final boolean unmapped;
+
+    private BAMShard(final QueryInterval[] intervals, final SAMFileSpan fileSpan, final long compressedBytes, final boolean unmapped) {
+        this.intervals = intervals;
+        this.fileSpan = fileSpan;
+        this.compressedBytes = compressedBytes;
+        this.unmapped = unmapped;
+    }
+
+    /**
+     * @return the intervals of this shard, sorted and not overlapping, or an empty array for the unmapped shard.  The
+     * last interval of each reference has an end of 0, meaning that it goes to the end of the reference.
+     */
+    public QueryInterval[] getIntervals() {
+        return intervals.clone();
+    }
+
+    /** @return the chunks of the file that hold the records of this shard, as given by the index. */
+    public SAMFileSpan getFileSpan() {
+        return fileSpan;
+    }
+
+    /** @return the approximate compressed size of the records of this shard, or 0 for the unmapped shard. */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /** @return true if this shard holds the reads that have no reference and no position. */
+    public boolean isUnmapped() {
+        return unmapped;
+    }
+
+    /**
+     * Returns the records of this shard.  Only one iterator may be open on a reader at a time, so to process shards
+     * concurrently each thread should open its own reader on the file.
+     *
+     * @param reader an indexed reader on the file this shard was created from.
+     */
+    public CloseableIterator<SAMRecord> iterator(final SamReader reader) {
+        if (unmapped) {
+            return reader.queryUnmapped();
+        }
+        return new AlignmentStartFilteringIterator(reader.query(intervals, false), intervals);
+    }
+
+    @Override
+    public String toString() {
+        return unmapped ? "unmapped" : Arrays.toString(intervals);
+    }
+
+    /**
+     * Splits an indexed BAM or CRAM file into shards of roughly equal compressed size.  A window of the linear index
+     * is never split, so fewer shards than requested may be returned for small files.  If the index does not record
+     * that there are no unplaced unmapped reads, an unmapped shard is added after the others.
+     *
+     * @param reader a reader on a file that has a BAI index.  It is only used to read the index.
+     * @param shardCount the number of shards of mapped reads to aim for.
+     */
+    public static List<BAMShard> createShards(final SamReader reader, final int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        if (!reader.hasIndex()) {
+            throw new SAMException("No index is available for this file.");
+        }
+        final BAMIndex index = reader.indexing().getIndex();
+        if (!(index instanceof AbstractBAMFileIndex)) {
+            throw new IllegalArgumentException("Sharding requires a BAI index, not " + index.getClass().getSimpleName());
+        }
+        final AbstractBAMFileIndex bamIndex = (AbstractBAMFileIndex) index;
+        final int referenceCount = reader.getFileHeader().getSequenceDictionary().size();
+
+        final long[][] windowBytes = new long[referenceCount][];
+        long totalBytes = 0;
+        for (int reference = 0; reference < referenceCount; ++reference) {
+            windowBytes[reference] = getWindowBytes(bamIndex, reference);
+            if (windowBytes[reference] != null) {
+                for (final long bytes : windowBytes[reference]) totalBytes += bytes;
+            }
+        }
+        if (totalBytes == 0) {
+            // Everything is in one compressed block, so weigh the windows equally.
+            for (final long[] windows : windowBytes) {
+                if (windows == null) continue;
+                Arrays.fill(windows, 1);
+                totalBytes += windows.length;
+            }
+        }
+
+        final List<BAMShard> shards = new ArrayList<BAMShard>();
+        final List<QueryInterval> shardIntervals = new ArrayList<QueryInterval>();
+        long accumulatedBytes = 0;
+        long shardStartBytes = 0;
+        for (int reference = 0; reference < referenceCount; ++reference) {
+            final long[] windows = windowBytes[reference];
+            if (windows == null) continue;
+            int start = 1;
+            for (int window = 0; window < windows.length; ++window) {
+                accumulatedBytes += windows[window];
+                final boolean lastWindow = window == windows.length - 1;
+                if (lastWindow || !isShardFull(shards.size(), shardCount, accumulatedBytes, totalBytes)) continue;
+                final int end = (window + 1) * LINEAR_WINDOW_SIZE;
+                shardIntervals.add(new QueryInterval(reference, start, end));
+                shards.add(createShard(bamIndex, shardIntervals, accumulatedBytes - shardStartBytes));
+                shardIntervals.clear();
+                shardStartBytes = accumulatedBytes;
+                start = end + 1;
+            }
+            shardIntervals.add(new QueryInterval(reference, start, 0));
+            if (isShardFull(shards.size(), shardCount, accumulatedBytes, totalBytes)) {
+                shards.add(createShard(bamIndex, shardIntervals, accumulatedBytes - shardStartBytes));
+                shardIntervals.clear();
+                shardStartBytes = accumulatedBytes;
+            }
+        }
+        if (!shardIntervals.isEmpty()) {
+            shards.add(createShard(bamIndex, shardIntervals, accumulatedBytes - shardStartBytes));
+        }
+
+        final Long noCoordinateCount = bamIndex.getNoCoordinateCount();
+        if (noCoordinateCount == null || noCoordinateCount > 0) {
+            final long startOfUnmapped = Math.max(0, bamIndex.getStartOfLastLinearBin());
+            shards.add(new BAMShard(new QueryInterval[0], new BAMFileSpan(new Chunk(startOfUnmapped, Long.MAX_VALUE)), 0, true));
+        }
+        return shards;
+    }
+
+    /** @return true if the shard being built has reached its share of the file, and is not the last one. */
+    private static boolean isShardFull(final int shardsDone, final int shardCount, final long accumulatedBytes, final long totalBytes) {
+        return shardsDone < shardCount - 1 && accumulatedBytes * shardCount >= (shardsDone + 1) * totalBytes;
+    }
+
+    private static BAMShard createShard(final AbstractBAMFileIndex index, final List<QueryInterval> intervals, final long compressedBytes) {
+        final List<BAMFileSpan> spans = new ArrayList<BAMFileSpan>();
+        for (final QueryInterval interval : intervals) {
+            final BAMFileSpan span = index.getSpanOverlapping(interval.referenceIndex, interval.start, interval.end);
+            if (span != null) spans.add(span);
+        }
+        return new BAMShard(intervals.toArray(new QueryInterval[intervals.size()]),
+                BAMFileSpan.merge(spans.toArray(new BAMFileSpan[spans.size()])), compressedBytes, false);
+    }
+
+    /**
+     * Estimates the compressed size of each window of the linear index of a reference, from the distances between
+     * the blocks at which the windows start.
+     *
+     * @return the size of each window, or null if the reference has no reads.
+     */
+    private static long[] getWindowBytes(final AbstractBAMFileIndex index, final int reference) {
+        final BAMIndexContent content = index.query(reference, 1, 0);
+        if (content == null || content.getLinearIndex() == null) return null;
+        final long[] entries = content.getLinearIndex().getIndexEntries();
+        if (entries.length == 0) return null;
+
+        // Windows that no read overlaps have no entry, so they start where the previous window does.
+        final long[] windowStarts = new long[entries.length];
+        long previousStart = -1;
+        for (int i = 0; i < entries.length; ++i) {
+            if (entries[i] != 0) {
+                previousStart = Math.max(previousStart, BlockCompressedFilePointerUtil.getBlockAddress(entries[i]));
+            }
+            windowStarts[i] = previousStart;
+        }
+        long referenceEnd = previousStart;
+        final BAMIndexMetaData metaData = content.getMetaData();
+        if (metaData != null && metaData.getLastOffset() > 0) {
+            referenceEnd = Math.max(referenceEnd, BlockCompressedFilePointerUtil.getBlockAddress(metaData.getLastOffset()));
+        }
+
+        final long[] windowBytes = new long[entries.length];
+        for (int i = 0; i < entries.length; ++i) {
+            if (windowStarts[i] < 0) continue;
+            final long nextStart = i + 1 < entries.length ? windowStarts[i + 1] : referenceEnd;
+            windowBytes[i] = Math.max(0, nextStart - windowStarts[i]);
+        }
+        return windowBytes;
+    }
+
+    /**
+     * Passes on the records of an overlapping query whose alignment start is in one of the intervals, so that a
+     * record that overlaps the intervals of two shards is only returned by one of them.
+     */
+    private static class AlignmentStartFilteringIterator implements CloseableIterator<SAMRecord> {
+        private final CloseableIterator<SAMRecord> iterator;
+        private final QueryInterval[] intervals;
+        private SAMRecord next = null;
+
+        AlignmentStartFilteringIterator(final CloseableIterator<SAMRecord> iterator, final QueryInterval[] intervals) {
+            this.iterator = iterator;
+            this.intervals = intervals;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (iterator.hasNext()) {
+                final SAMRecord record = iterator.next();
+                if (startsInIntervals(record)) {
+                    next = record;
+                    return;
+                }
+            }
+        }
+
+        private boolean startsInIntervals(final SAMRecord record) {
+            final int referenceIndex = record.getReferenceIndex();
+            final int start = record.getAlignmentStart();
+            for (final QueryInterval interval : intervals) {
+                if (interval.referenceIndex == referenceIndex) {
+                    return start >= interval.start && (interval.end <= 0 || start <= interval.end);
+                }
+            }
+            return false;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public SAMRecord next() {
+            if (next == null) throw new NoSuchElementException("BAMShard: no next element available");
+            final SAMRecord result = next;
+            advance();
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported: remove");
+        }
+
+        public void close() {
+            iterator.close();
+        }
+    }
+}
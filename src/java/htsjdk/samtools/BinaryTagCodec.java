@@ -276,15 +276,7 @@ class BinaryTagCodec {
 
         while (byteBuffer.hasRemaining()) {
             final short tag = byteBuffer.getShort();
-            final byte tagType = byteBuffer.get();
-            final SAMBinaryTagAndValue tmp;
-            if (tagType != 'B') {
-                tmp = new SAMBinaryTagAndValue(tag, readSingleValue(tagType, byteBuffer, validationStringency));
-            } else {
-                final TagValueAndUnsignedArrayFlag valueAndFlag = readArray(byteBuffer, validationStringency);
-                if (valueAndFlag.isUnsignedArray) tmp = new SAMBinaryTagAndUnsignedArrayValue(tag, valueAndFlag.value);
-                else tmp = new SAMBinaryTagAndValue(tag, valueAndFlag.value);
-            }
+            final SAMBinaryTagAndValue tmp = readTag(tag, byteBuffer, validationStringency);
 
             // If samjdk wrote the BAM then the attributes will be in lowest->highest tag order, to inserting at the
             // head each time will be very inefficient. To fix that we check here to see if the tag should go right on
@@ -305,6 +297,95 @@ class BinaryTagCodec {
         return head;
     }
 
+    /**
+     * Find a single tag in the little-endian disk representation of tags, skipping over the others without
+     * converting them to in-memory representation.
+     * @param binaryRep Byte buffer containing file representation of tags.
+     * @param offset Where in binaryRep tags start.
+     * @param length How many bytes in binaryRep are tag storage.
+     * @param tag Binary representation of the tag to find.
+     * @return The tag and its value, or null if the tag is not present.  If the tag appears more than once,
+     * the last value, which is the one readTags keeps.
+     */
+    static SAMBinaryTagAndValue findTag(final byte[] binaryRep, final int offset, final int length,
+                                        final short tag, final ValidationStringency validationStringency) {
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(binaryRep, offset, length);
+        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int valuePosition = -1;
+        while (byteBuffer.hasRemaining()) {
+            if (byteBuffer.getShort() == tag) valuePosition = byteBuffer.position();
+            skipValue(byteBuffer);
+        }
+        if (valuePosition == -1) return null;
+        byteBuffer.position(valuePosition);
+        return readTag(tag, byteBuffer, validationStringency);
+    }
+
+    /**
+     * Read the type and value of a tag whose binary representation has already been read from byteBuffer.
+     */
+    private static SAMBinaryTagAndValue readTag(final short tag, final ByteBuffer byteBuffer,
+                                                final ValidationStringency validationStringency) {
+        final byte tagType = byteBuffer.get();
+        if (tagType != 'B') {
+            return new SAMBinaryTagAndValue(tag, readSingleValue(tagType, byteBuffer, validationStringency));
+        }
+        final TagValueAndUnsignedArrayFlag valueAndFlag = readArray(byteBuffer, validationStringency);
+        if (valueAndFlag.isUnsignedArray) return new SAMBinaryTagAndUnsignedArrayValue(tag, valueAndFlag.value);
+        else return new SAMBinaryTagAndValue(tag, valueAndFlag.value);
+    }
+
+    /**
+     * Skip over the type and value of a tag whose binary representation has already been read from byteBuffer.
+     */
+    private static void skipValue(final ByteBuffer byteBuffer) {
+        final byte tagType = byteBuffer.get();
+        final int valueSize;
+        switch (tagType) {
+            case 'Z':
+            case 'H':
+                while (byteBuffer.get() != 0) {}
+                return;
+            case 'A':
+            case 'c':
+            case 'C':
+                valueSize = 1;
+                break;
+            case 's':
+            case 'S':
+                valueSize = 2;
+                break;
+            case 'i':
+            case 'I':
+            case 'f':
+                valueSize = 4;
+                break;
+            case 'B':
+                final byte arrayType = byteBuffer.get();
+                final int arrayLength = byteBuffer.getInt();
+                switch (Character.toLowerCase(arrayType)) {
+                    case 'c':
+                        valueSize = arrayLength;
+                        break;
+                    case 's':
+                        valueSize = arrayLength * 2;
+                        break;
+                    case 'i':
+                    case 'f':
+                        valueSize = arrayLength * 4;
+                        break;
+                    default:
+                        throw new SAMFormatException("Unrecognized tag array type: " + (char)arrayType);
+                }
+                break;
+            default:
+                throw new SAMFormatException("Unrecognized tag type: " + (char)tagType);
+        }
+        if (valueSize > byteBuffer.remaining()) throw new SAMFormatException("Tag value extends past end of record");
+        byteBuffer.position(byteBuffer.position() + valueSize);
+    }
+
     /**
      * Read value of specified non-array type.
      * @param tagType What type to read.
@@ -72,6 +72,11 @@ public class BinningIndexBuilder {
 
     public void processFeature(final FeatureToBeIndexed feature) {
 
+        if (feature.getStart() > GenomicIndexUtil.BIN_GENOMIC_SPAN || feature.getEnd() > GenomicIndexUtil.BIN_GENOMIC_SPAN) {
+            throw new SAMException("Feature at " + feature.getStart() + "-" + feature.getEnd() +
+                    " is beyond the range of a BAI or tabix index; use a CSI index instead");
+        }
+
         // process bins
 
         final Integer binNumber = feature.getIndexingBin();
@@ -17,24 +17,28 @@ package htsjdk.samtools;
 
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SamReader.Type;
-import htsjdk.samtools.cram.build.CramIO;
+import htsjdk.samtools.cram.index.CramIndex;
 import htsjdk.samtools.cram.ref.ReferenceSource;
-import htsjdk.samtools.cram.structure.Container;
+import htsjdk.samtools.cram.structure.Slice;
+import htsjdk.samtools.seekablestream.SeekableBufferedStream;
 import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.RuntimeEOFException;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * {@link htsjdk.samtools.BAMFileReader BAMFileReader} analogue for CRAM files.
- * Supports random access using BAI index file formats.
+ * Supports random access using either BAI or CRAI index file formats.
  *
  * @author vadim
  */
@@ -43,13 +47,21 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
     private final ReferenceSource referenceSource;
     private InputStream is;
     private CRAMIterator it;
+    // The iterator of the query in progress, if any.  Queries share the reader's stream, so only one may be open.
+    private CloseableIterator<SAMRecord> mCurrentIterator;
+    private boolean mIsClosed = false;
     private BAMIndex mIndex;
+    private List<CramIndex.Entry> mCraiEntries;
     private File mIndexFile;
     private boolean mEnableIndexCaching;
     private boolean mEnableIndexMemoryMapping;
+    private boolean mEnableIndexSharing;
 
     private ValidationStringency validationStringency;
 
+    // If greater than 1, iterators decode containers concurrently on worker threads.
+    private int decoderThreads = Defaults.RECORD_DECODER_THREADS;
+
     /**
      * Open CRAM data for reading using either the file or the input stream
      * supplied in the arguments. The
@@ -86,21 +98,22 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
     }
 
     /**
-     * Open CRAM file for reading. If index file is supplied than random access
-     * will be available.
+     * Open CRAM file for reading. If index file is supplied, or one is found
+     * next to the CRAM file, then random access will be available.
      *
      * @param cramFile        CRAM file to read
-     * @param indexFile       index file to be used for random access
+     * @param indexFile       BAI or CRAI index file to be used for random access, or null
+     *                        to look for one next to the CRAM file
      * @param referenceSource a {@link htsjdk.samtools.cram.ref.ReferenceSource source} of
      *                        reference sequences
      */
     public CRAMFileReader(final File cramFile, final File indexFile,
                           final ReferenceSource referenceSource) {
-        if (file == null)
+        if (cramFile == null)
             throw new IllegalArgumentException("File is required.");
 
         this.file = cramFile;
-        this.mIndexFile = indexFile;
+        this.mIndexFile = indexFile != null ? indexFile : SamFiles.findIndex(cramFile);
         this.referenceSource = referenceSource;
 
         getIterator();
@@ -133,6 +146,11 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
         mEnableIndexMemoryMapping = enabled;
     }
 
+    void enableIndexSharing(final boolean enabled) {
+        // relevant to BAI only
+        mEnableIndexSharing = enabled;
+    }
+
     @Override
     void enableCrcChecking(final boolean enabled) {
         // inapplicable to CRAM: do nothing
@@ -142,22 +160,55 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
     void setSAMRecordFactory(final SAMRecordFactory factory) {
     }
 
+    /**
+     * Sets the number of containers that iterators may decode concurrently on worker threads.
+     * Values less than 2 decode on the reading thread.
+     */
+    void setDecoderThreads(final int decoderThreads) {
+        this.decoderThreads = decoderThreads;
+        if (it != null)
+            it.setDecoderThreads(decoderThreads);
+    }
+
     @Override
     public boolean hasIndex() {
         return mIndex != null || mIndexFile != null;
     }
 
+    /**
+     * @return true if the index is in CRAI format, which lists the slices of the file, rather than BAI format.
+     */
+    private boolean hasCraiIndex() {
+        return mIndexFile != null && mIndexFile.getName().endsWith("." + Type.CRAM_TYPE.indexExtension());
+    }
+
+    private List<CramIndex.Entry> getCraiEntries() {
+        if (mCraiEntries == null) {
+            try {
+                mCraiEntries = new ArrayList<CramIndex.Entry>(CramIndex.readIndexFromCraiFile(mIndexFile));
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return mCraiEntries;
+    }
+
     @Override
     public BAMIndex getIndex() {
         if (!hasIndex())
             throw new SAMException("No index is available for this BAM file.");
+        if (hasCraiIndex())
+            throw new SAMException("CRAI index files cannot be read as BAM indexes: " + mIndexFile);
         if (mIndex == null) {
             final SAMSequenceDictionary dictionary = getFileHeader()
                     .getSequenceDictionary();
-            mIndex = mEnableIndexCaching ? new CachingBAMFileIndex(mIndexFile,
-                    dictionary, mEnableIndexMemoryMapping)
-                    : new DiskBasedBAMFileIndex(mIndexFile, dictionary,
-                    mEnableIndexMemoryMapping);
+            if (mEnableIndexSharing)
+                mIndex = SharedBAMFileIndex.getInstance(mIndexFile, dictionary);
+            else
+                mIndex = mEnableIndexCaching ? new CachingBAMFileIndex(mIndexFile,
+                        dictionary, mEnableIndexMemoryMapping)
+                        : new DiskBasedBAMFileIndex(mIndexFile, dictionary,
+                        mEnableIndexMemoryMapping);
         }
         return mIndex;
     }
@@ -174,12 +225,13 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
         try {
             final CRAMIterator si;
             if (file != null) {
-                si = new CRAMIterator(new FileInputStream(file),
+                si = new CRAMIterator(new BufferedInputStream(new FileInputStream(file)),
                         referenceSource);
             } else
                 si = new CRAMIterator(is, referenceSource);
 
             si.setValidationStringency(validationStringency);
+            si.setDecoderThreads(decoderThreads);
             it = si;
             return it;
         } catch (final Exception e) {
@@ -227,68 +279,135 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
     @Override
     public CloseableIterator<SAMRecord> queryAlignmentStart(final String sequence,
                                                             final int start) {
-        long[] filePointers = null;
-
-        // Hit the index to determine the chunk boundaries for the required
-        // data.
-        final SAMFileHeader fileHeader = getFileHeader();
-        final int referenceIndex = fileHeader.getSequenceIndex(sequence);
-        if (referenceIndex != -1) {
-            final BAMIndex fileIndex = getIndex();
-            final BAMFileSpan fileSpan = fileIndex.getSpanOverlapping(
-                    referenceIndex, start, -1);
-            filePointers = fileSpan != null ? fileSpan.toCoordinateArray()
-                    : null;
-        }
-
-        if (filePointers == null || filePointers.length == 0)
+        assertCanQuery();
+        final int referenceIndex = getFileHeader().getSequenceIndex(sequence);
+        if (referenceIndex == -1)
             return emptyIterator;
 
+        // Any record starting at the given position overlaps it, so only the slices overlapping it need be read.
+        final QueryInterval[] intervals = new QueryInterval[]{new QueryInterval(referenceIndex, start, start)};
+        return createIndexIterator(getFilePointersOverlapping(intervals), new CRAMIterator.RecordFilter() {
+            @Override
+            public boolean accept(final SAMRecord record) {
+                return record.getReferenceIndex() == referenceIndex && record.getAlignmentStart() == start;
+            }
+        });
+    }
+
+    @Override
+    public CloseableIterator<SAMRecord> queryUnmapped() {
+        assertCanQuery();
+        final long startOfLastLinearBin;
+        if (hasCraiIndex()) {
+            long firstUnmappedContainer = -1;
+            for (final CramIndex.Entry entry : getCraiEntries()) {
+                if (entry.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX &&
+                        (firstUnmappedContainer == -1 || entry.containerStartOffset < firstUnmappedContainer))
+                    firstUnmappedContainer = entry.containerStartOffset;
+            }
+            if (firstUnmappedContainer == -1)
+                return emptyIterator;
+            startOfLastLinearBin = firstUnmappedContainer;
+        } else
+            startOfLastLinearBin = getIndex().getStartOfLastLinearBin();
+
         final SeekableStream s = getSeekableStreamOrFailWithRTE();
         final CRAMIterator si;
         try {
             s.seek(0);
             si = new CRAMIterator(s, referenceSource);
             si.setValidationStringency(validationStringency);
+            s.seek(startOfLastLinearBin);
             it = si;
         } catch (final IOException e) {
             throw new RuntimeEOFException(e);
         }
 
-        Container c;
-        for (int i = 0; i < filePointers.length; i += 2) {
-            final long containerOffset = filePointers[i] >>> 16;
-            try {
-                s.seek(containerOffset);
-                c = CramIO.readContainerHeader(s);
-                if (c.alignmentStart + c.alignmentSpan > start) {
-                    s.seek(containerOffset);
-                    return si;
+        mCurrentIterator = new QueryIterator(it);
+        return mCurrentIterator;
+    }
+
+    private void assertCanQuery() {
+        if (mIsClosed) {
+            throw new IllegalStateException("File reader is closed");
+        }
+        if (mCurrentIterator != null) {
+            throw new IllegalStateException("Iteration in progress");
+        }
+    }
+
+    /**
+     * Finds the slices that may hold records overlapping any of the given intervals, using whichever kind of index
+     * is available.
+     *
+     * @return the slices as chunks whose bounds hold the container offset shifted left by 16 bits ORed with the
+     * slice index, in the format of {@link BAMFileSpan#toCoordinateArray()}, or null if there are none.
+     */
+    private long[] getFilePointersOverlapping(final QueryInterval[] intervals) {
+        final BAMFileSpan[] spans;
+        if (hasCraiIndex()) {
+            final List<Chunk> chunks = new ArrayList<Chunk>();
+            for (final CramIndex.Entry entry : getCraiEntries()) {
+                for (final QueryInterval interval : intervals) {
+                    if (overlaps(entry, interval)) {
+                        final long slicePointer = (entry.containerStartOffset << 16) | entry.sliceIndex;
+                        chunks.add(new Chunk(slicePointer, slicePointer + 1));
+                        break;
+                    }
                 }
-            } catch (final IOException e) {
-                throw new RuntimeException(e);
+            }
+            spans = new BAMFileSpan[]{new BAMFileSpan(chunks)};
+        } else {
+            final BAMIndex index = getIndex();
+            spans = new BAMFileSpan[intervals.length];
+            for (int i = 0; i < intervals.length; i++) {
+                spans[i] = index.getSpanOverlapping(intervals[i].referenceIndex,
+                        intervals[i].start, intervals[i].end);
             }
         }
-        return it;
+        final long[] filePointers = BAMFileSpan.merge(spans).toCoordinateArray();
+        return filePointers.length == 0 ? null : filePointers;
     }
 
-    @Override
-    public CloseableIterator<SAMRecord> queryUnmapped() {
-        final long startOfLastLinearBin = getIndex().getStartOfLastLinearBin();
+    /**
+     * @return true if the slice described by the CRAI entry may hold records overlapping the interval.
+     */
+    private static boolean overlaps(final CramIndex.Entry entry, final QueryInterval interval) {
+        // Slices with records on several references do not record which ones.
+        if (entry.sequenceId == Slice.MUTLIREF)
+            return true;
+        if (entry.sequenceId != interval.referenceIndex)
+            return false;
+        // interval.end <= 0 implies the end of the reference sequence.
+        final int intervalEnd = interval.end <= 0 ? Integer.MAX_VALUE : interval.end;
+        return entry.alignmentStart <= intervalEnd &&
+                entry.alignmentStart + entry.alignmentSpan > interval.start;
+    }
+
+    /**
+     * Iterates over the records accepted by the filter in the given slices, which are read by a new iterator on
+     * a seekable stream.
+     */
+    private CloseableIterator<SAMRecord> createIndexIterator(final long[] filePointers,
+                                                             final CRAMIterator.RecordFilter recordFilter) {
+        if (filePointers == null)
+            return emptyIterator;
 
         final SeekableStream s = getSeekableStreamOrFailWithRTE();
-        final CRAMIterator si;
+        if (s == null)
+            throw new UnsupportedOperationException("Cannot query stream-based CRAM file");
         try {
             s.seek(0);
-            si = new CRAMIterator(s, referenceSource);
+            final CRAMIterator si = new CRAMIterator(new SeekableBufferedStream(s),
+                    referenceSource, filePointers, recordFilter);
             si.setValidationStringency(validationStringency);
-            s.seek(startOfLastLinearBin);
+            si.setDecoderThreads(decoderThreads);
             it = si;
+            mCurrentIterator = new QueryIterator(it);
+            return mCurrentIterator;
         } catch (final IOException e) {
             throw new RuntimeEOFException(e);
         }
-
-        return it;
     }
 
     private SeekableStream getSeekableStreamOrFailWithRTE() {
@@ -306,6 +425,8 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
 
     @Override
     public void close() {
+        mIsClosed = true;
+        CloserUtil.close(mCurrentIterator);
         CloserUtil.close(it);
         CloserUtil.close(is);
         CloserUtil.close(mIndex);
@@ -321,20 +442,31 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
         return validationStringency;
     }
 
+    /**
+     * Only the slices that the index shows may overlap the intervals are read and decoded, and records outside
+     * the intervals are discarded before their MD and NM tags are restored or they are validated.
+     */
     @Override
     public CloseableIterator<SAMRecord> query(final QueryInterval[] intervals,
                                               final boolean contained) {
-        if (is == null) {
-            throw new IllegalStateException("File reader is closed");
-        }
-        if (it != null) {
-            throw new IllegalStateException("Iteration in progress");
-        }
-        if (mIndex == null && mIndexFile == null) {
+        assertCanQuery();
+        if (!hasIndex()) {
             throw new UnsupportedOperationException(
-                    "Cannot query stream-based BAM file");
+                    "Cannot query CRAM file without an index");
         }
-        throw new SAMException("Multiple interval queries not implemented.");
+        return createIndexIterator(getFilePointersOverlapping(intervals), new CRAMIterator.RecordFilter() {
+            @Override
+            public boolean accept(final SAMRecord record) {
+                // Uses the same rules as BAM queries, so that the intervals must be optimized.
+                final int intervalIndex = BAMFileReader.findFirstIntervalNotBefore(intervals, 0, record);
+                if (intervalIndex == intervals.length)
+                    return false;
+                final BAMFileReader.IntervalComparison comparison =
+                        BAMFileReader.compareIntervalToRecord(intervals[intervalIndex], record);
+                return comparison == BAMFileReader.IntervalComparison.CONTAINED ||
+                        (comparison == BAMFileReader.IntervalComparison.OVERLAPPING && !contained);
+            }
+        });
     }
 
     @Override
@@ -342,6 +474,39 @@ public class CRAMFileReader extends SamReader.ReaderImplementation {
         return Type.CRAM_TYPE;
     }
 
+    /**
+     * Lets the reader know when the query's iterator has been closed, so that another query may start.
+     */
+    private class QueryIterator implements CloseableIterator<SAMRecord> {
+        private final CloseableIterator<SAMRecord> iterator;
+
+        QueryIterator(final CloseableIterator<SAMRecord> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public SAMRecord next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+        }
+
+        @Override
+        public void close() {
+            if (mCurrentIterator == this)
+                mCurrentIterator = null;
+            iterator.close();
+        }
+    }
+
     @Override
     void enableFileSource(final SamReader reader, final boolean enabled) {
         if (it != null)
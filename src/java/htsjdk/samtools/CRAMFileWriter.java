@@ -21,31 +21,39 @@ import htsjdk.samtools.cram.build.CramIO;
 import htsjdk.samtools.cram.build.Sam2CramRecordFactory;
 import htsjdk.samtools.cram.common.CramVersions;
 import htsjdk.samtools.cram.common.Version;
+import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
 import htsjdk.samtools.cram.lossy.PreservationPolicy;
 import htsjdk.samtools.cram.lossy.QualityScorePreservation;
 import htsjdk.samtools.cram.ref.ReferenceSource;
 import htsjdk.samtools.cram.ref.ReferenceTracks;
+import htsjdk.samtools.cram.structure.BlockCompressionMethod;
 import htsjdk.samtools.cram.structure.Container;
 import htsjdk.samtools.cram.structure.CramCompressionRecord;
 import htsjdk.samtools.cram.structure.CramHeader;
 import htsjdk.samtools.cram.structure.Slice;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.SharedThreadPools;
 import htsjdk.samtools.util.StringLineReader;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class CRAMFileWriter extends SAMFileWriterImpl {
     private static final int REF_SEQ_INDEX_NOT_INITED = -2;
     private static final int DEFAULT_RECORDS_PER_SLICE = 10000;
     private static final int DEFAULT_SLICES_PER_CONTAINER = 1;
-    private static final Version cramVersion = CramVersions.CRAM_v2_1;
+    private final Version cramVersion;
 
     private String fileName;
     private List<SAMRecord> samRecords = new ArrayList<SAMRecord>();
@@ -54,7 +62,6 @@ public class CRAMFileWriter extends SAMFileWriterImpl {
     protected int containerSize = recordsPerSlice
             * DEFAULT_SLICES_PER_CONTAINER;
 
-    private Sam2CramRecordFactory sam2CramRecordFactory;
     private OutputStream os;
     private ReferenceSource source;
     private int refSeqIndex = REF_SEQ_INDEX_NOT_INITED;
@@ -68,8 +75,26 @@ public class CRAMFileWriter extends SAMFileWriterImpl {
     private Set<String> captureTags = new TreeSet<String>();
     private Set<String> ignoreTags = new TreeSet<String>();
 
+    private static final String ENCODER_POOL_NAME = "CRAMContainerEncoder";
+    private int encoderThreads = Defaults.DEFLATER_THREADS;
+    private final Deque<Future<ExposedByteArrayOutputStream>> pendingContainers = new ArrayDeque<Future<ExposedByteArrayOutputStream>>();
+    private long globalRecordCounter = 0;
+    private Set<BlockCompressionMethod> blockCompressionMethods = EnumSet.of(BlockCompressionMethod.GZIP);
+
     public CRAMFileWriter(OutputStream os, ReferenceSource source,
                           SAMFileHeader samFileHeader, String fileName) {
+        this(os, source, samFileHeader, fileName, CramVersions.CRAM_v2_1);
+    }
+
+    /**
+     * @param cramVersion the version of CRAM to write, either {@link CramVersions#CRAM_v2_1} or
+     *                    {@link CramVersions#CRAM_v3}; only CRAM 3.0 can hold RANS compressed blocks
+     */
+    public CRAMFileWriter(OutputStream os, ReferenceSource source,
+                          SAMFileHeader samFileHeader, String fileName, Version cramVersion) {
+        if (cramVersion.compareTo(CramVersions.CRAM_v2_1) != 0 && cramVersion.compareTo(CramVersions.CRAM_v3) != 0)
+            throw new IllegalArgumentException("Unsupported CRAM version: " + cramVersion);
+        this.cramVersion = cramVersion;
         this.os = os;
         this.source = source;
         this.samFileHeader = samFileHeader;
@@ -141,7 +166,8 @@ public class CRAMFileWriter extends SAMFileWriterImpl {
     }
 
     /**
-     * Complete the current container and flush it to the output stream.
+     * Complete the current container and flush it to the output stream. If encoder threads are in use the
+     * container is handed to a worker and written once it and all of the containers before it are ready.
      *
      * @throws IllegalArgumentException
      * @throws IllegalAccessException
@@ -157,127 +183,189 @@ public class CRAMFileWriter extends SAMFileWriterImpl {
             refs = source.getReferenceBases(
                     samFileHeader.getSequence(refSeqIndex), true);
 
-        int start = SAMRecord.NO_ALIGNMENT_START;
-        int stop = SAMRecord.NO_ALIGNMENT_START;
-        for (SAMRecord r : samRecords) {
-            if (r.getAlignmentStart() == SAMRecord.NO_ALIGNMENT_START)
-                continue;
+        if (containerFactory.isPreserveReadNames() != preserveReadNames ||
+                !containerFactory.getExternalBlockMethods().equals(blockCompressionMethods)) {
+            // pending containers share the factory, so they must be written before its settings change
+            writePendingContainers(0);
+            containerFactory.setPreserveReadNames(preserveReadNames);
+            containerFactory.setExternalBlockMethods(blockCompressionMethods);
+        }
 
-            if (start == SAMRecord.NO_ALIGNMENT_START)
-                start = r.getAlignmentStart();
+        final ContainerEncoder encoder = new ContainerEncoder(samRecords, refSeqIndex, refs, globalRecordCounter);
+        globalRecordCounter += samRecords.size();
+        samRecords = new ArrayList<SAMRecord>();
 
-            start = Math.min(r.getAlignmentStart(), start);
-            stop = Math.max(r.getAlignmentEnd(), stop);
+        if (encoderThreads > 1) {
+            pendingContainers.add(SharedThreadPools.getPool(ENCODER_POOL_NAME).submit(encoder));
+            writePendingContainers(encoderThreads);
+        } else {
+            writePendingContainers(0);
+            CramIO.writeContainer(cramVersion, encoder.buildContainer(), os);
         }
+    }
 
-        ReferenceTracks tracks = null;
-        if (preservation != null && preservation.areReferenceTracksRequired()) {
-            if (tracks == null || tracks.getSequenceId() != refSeqIndex)
-                tracks = new ReferenceTracks(refSeqIndex, refs);
-            tracks.ensureRange(start, stop - start + 1);
-            updateTracks(samRecords, tracks);
+    /**
+     * Write out, in order, completed containers from the head of the queue, and wait for further containers
+     * until no more than maxPending remain in flight.
+     */
+    private void writePendingContainers(final int maxPending) throws IOException {
+        while (!pendingContainers.isEmpty() &&
+                (pendingContainers.size() > maxPending || pendingContainers.peekFirst().isDone())) {
+            final ExposedByteArrayOutputStream bytes = SharedThreadPools.getResult(pendingContainers.pollFirst());
+            os.write(bytes.getBuffer(), 0, bytes.size());
         }
+    }
 
-        List<CramCompressionRecord> cramRecords = new ArrayList<CramCompressionRecord>(
-                samRecords.size());
-
-        sam2CramRecordFactory = new Sam2CramRecordFactory(refSeqIndex, refs,
-                samFileHeader);
-        sam2CramRecordFactory.preserveReadNames = preserveReadNames;
-        sam2CramRecordFactory.captureAllTags = captureAllTags;
-        sam2CramRecordFactory.captureTags.addAll(captureTags);
-        sam2CramRecordFactory.ignoreTags.addAll(ignoreTags);
-        containerFactory.setPreserveReadNames(preserveReadNames);
+    /**
+     * Converts one container's worth of SAMRecords into CRAM records and builds the container.  When run as a
+     * task it also compresses the blocks and serializes the container, leaving only the write to the caller.
+     */
+    private class ContainerEncoder implements Callable<ExposedByteArrayOutputStream> {
+        private final List<SAMRecord> samRecords;
+        private final int refSeqIndex;
+        private final byte[] refs;
+        private final long globalRecordCounter;
+        // snapshots of the writer's settings, which may otherwise change while the container is being encoded
+        private final ContainerFactory containerFactory = CRAMFileWriter.this.containerFactory;
+        private final QualityScorePreservation preservation = CRAMFileWriter.this.preservation;
+        private final boolean preserveReadNames = CRAMFileWriter.this.preserveReadNames;
+        private final boolean captureAllTags = CRAMFileWriter.this.captureAllTags;
+        private final Set<String> captureTags = new TreeSet<String>(CRAMFileWriter.this.captureTags);
+        private final Set<String> ignoreTags = new TreeSet<String>(CRAMFileWriter.this.ignoreTags);
+
+        ContainerEncoder(final List<SAMRecord> samRecords, final int refSeqIndex, final byte[] refs,
+                         final long globalRecordCounter) {
+            this.samRecords = samRecords;
+            this.refSeqIndex = refSeqIndex;
+            this.refs = refs;
+            this.globalRecordCounter = globalRecordCounter;
+        }
 
-        int index = 0;
-        int prevAlStart = start;
-        for (SAMRecord samRecord : samRecords) {
-            CramCompressionRecord cramRecord = sam2CramRecordFactory
-                    .createCramRecord(samRecord);
-            cramRecord.index = ++index;
-            cramRecord.alignmentDelta = samRecord.getAlignmentStart()
-                    - prevAlStart;
-            cramRecord.alignmentStart = samRecord.getAlignmentStart();
-            prevAlStart = samRecord.getAlignmentStart();
-
-            cramRecords.add(cramRecord);
-
-            if (preservation != null)
-                preservation.addQualityScores(samRecord, cramRecord, tracks);
-            else
-                cramRecord.setForcePreserveQualityScores(true);
+        public ExposedByteArrayOutputStream call() throws Exception {
+            final ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream();
+            CramIO.writeContainer(cramVersion, buildContainer(), bytes);
+            return bytes;
         }
 
-        // samRecords.clear();
+        Container buildContainer() throws IllegalArgumentException, IllegalAccessException, IOException {
+            int start = SAMRecord.NO_ALIGNMENT_START;
+            int stop = SAMRecord.NO_ALIGNMENT_START;
+            for (SAMRecord r : samRecords) {
+                if (r.getAlignmentStart() == SAMRecord.NO_ALIGNMENT_START)
+                    continue;
+
+                if (start == SAMRecord.NO_ALIGNMENT_START)
+                    start = r.getAlignmentStart();
+
+                start = Math.min(r.getAlignmentStart(), start);
+                stop = Math.max(r.getAlignmentEnd(), stop);
+            }
+
+            ReferenceTracks tracks = null;
+            if (preservation != null && preservation.areReferenceTracksRequired()) {
+                if (tracks == null || tracks.getSequenceId() != refSeqIndex)
+                    tracks = new ReferenceTracks(refSeqIndex, refs);
+                tracks.ensureRange(start, stop - start + 1);
+                updateTracks(samRecords, tracks);
+            }
+
+            List<CramCompressionRecord> cramRecords = new ArrayList<CramCompressionRecord>(
+                    samRecords.size());
+
+            final Sam2CramRecordFactory sam2CramRecordFactory = new Sam2CramRecordFactory(refSeqIndex, refs,
+                    samFileHeader);
+            sam2CramRecordFactory.preserveReadNames = preserveReadNames;
+            sam2CramRecordFactory.captureAllTags = captureAllTags;
+            sam2CramRecordFactory.captureTags.addAll(captureTags);
+            sam2CramRecordFactory.ignoreTags.addAll(ignoreTags);
+
+            int index = 0;
+            int prevAlStart = start;
+            for (SAMRecord samRecord : samRecords) {
+                CramCompressionRecord cramRecord = sam2CramRecordFactory
+                        .createCramRecord(samRecord);
+                cramRecord.index = ++index;
+                cramRecord.alignmentDelta = samRecord.getAlignmentStart()
+                        - prevAlStart;
+                cramRecord.alignmentStart = samRecord.getAlignmentStart();
+                prevAlStart = samRecord.getAlignmentStart();
+
+                cramRecords.add(cramRecord);
+
+                if (preservation != null)
+                    preservation.addQualityScores(samRecord, cramRecord, tracks);
+                else
+                    cramRecord.setForcePreserveQualityScores(true);
+            }
 
-        if (sam2CramRecordFactory.getBaseCount() < 3 * sam2CramRecordFactory
-                .getFeatureCount())
-            log.warn("Abnormally high number of mismatches, possibly wrong reference.");
+            if (sam2CramRecordFactory.getBaseCount() < 3 * sam2CramRecordFactory
+                    .getFeatureCount())
+                log.warn("Abnormally high number of mismatches, possibly wrong reference.");
+
+            // mating:
+            Map<String, CramCompressionRecord> primaryMateMap = new TreeMap<String, CramCompressionRecord>();
+            Map<String, CramCompressionRecord> secondaryMateMap = new TreeMap<String, CramCompressionRecord>();
+            for (CramCompressionRecord r : cramRecords) {
+                if (!r.isMultiFragment()) {
+                    r.setDetached(true);
+
+                    r.setHasMateDownStream(false);
+                    r.recordsToNextFragment = -1;
+                    r.next = null;
+                    r.previous = null;
+                } else {
+                    String name = r.readName;
+                    Map<String, CramCompressionRecord> mateMap = r
+                            .isSecondaryAlignment() ? secondaryMateMap
+                            : primaryMateMap;
+                    CramCompressionRecord mate = mateMap.get(name);
+                    if (mate == null) {
+                        mateMap.put(name, r);
+                    } else {
+                        mate.recordsToNextFragment = r.index - mate.index - 1;
+                        mate.next = r;
+                        r.previous = mate;
+                        r.previous.setHasMateDownStream(true);
+                        r.setHasMateDownStream(false);
+                        r.setDetached(false);
+                        r.previous.setDetached(false);
+
+                        mateMap.remove(name);
+                    }
+                }
+            }
 
-        // mating:
-        Map<String, CramCompressionRecord> primaryMateMap = new TreeMap<String, CramCompressionRecord>();
-        Map<String, CramCompressionRecord> secondaryMateMap = new TreeMap<String, CramCompressionRecord>();
-        for (CramCompressionRecord r : cramRecords) {
-            if (!r.isMultiFragment()) {
+            for (CramCompressionRecord r : primaryMateMap.values()) {
                 r.setDetached(true);
 
                 r.setHasMateDownStream(false);
                 r.recordsToNextFragment = -1;
                 r.next = null;
                 r.previous = null;
-            } else {
-                String name = r.readName;
-                Map<String, CramCompressionRecord> mateMap = r
-                        .isSecondaryAlignment() ? secondaryMateMap
-                        : primaryMateMap;
-                CramCompressionRecord mate = mateMap.get(name);
-                if (mate == null) {
-                    mateMap.put(name, r);
-                } else {
-                    mate.recordsToNextFragment = r.index - mate.index - 1;
-                    mate.next = r;
-                    r.previous = mate;
-                    r.previous.setHasMateDownStream(true);
-                    r.setHasMateDownStream(false);
-                    r.setDetached(false);
-                    r.previous.setDetached(false);
-
-                    mateMap.remove(name);
-                }
             }
-        }
-
-        for (CramCompressionRecord r : primaryMateMap.values()) {
-            r.setDetached(true);
 
-            r.setHasMateDownStream(false);
-            r.recordsToNextFragment = -1;
-            r.next = null;
-            r.previous = null;
-        }
+            for (CramCompressionRecord r : secondaryMateMap.values()) {
+                r.setDetached(true);
 
-        for (CramCompressionRecord r : secondaryMateMap.values()) {
-            r.setDetached(true);
+                r.setHasMateDownStream(false);
+                r.recordsToNextFragment = -1;
+                r.next = null;
+                r.previous = null;
+            }
 
-            r.setHasMateDownStream(false);
-            r.recordsToNextFragment = -1;
-            r.next = null;
-            r.previous = null;
-        }
+            Cram2SamRecordFactory f = new Cram2SamRecordFactory(samFileHeader);
+            for (int i = 0; i < samRecords.size(); i++) {
+                String s1 = samRecords.get(i).getSAMString();
+                SAMRecord r = f.create(cramRecords.get(i));
+                String s2 = r.getSAMString();
+                assert (s1.equals(s2));
+            }
 
-        Cram2SamRecordFactory f = new Cram2SamRecordFactory(samFileHeader);
-        for (int i = 0; i < samRecords.size(); i++) {
-            String s1 = samRecords.get(i).getSAMString();
-            SAMRecord r = f.create(cramRecords.get(i));
-            String s2 = r.getSAMString();
-            assert (s1.equals(s2));
+            Container container = containerFactory.buildContainer(cramRecords, null, globalRecordCounter);
+            for (Slice slice : container.slices)
+                slice.setRefMD5(refs);
+            return container;
         }
-
-        Container container = containerFactory.buildContainer(cramRecords);
-        for (Slice slice : container.slices)
-            slice.setRefMD5(refs);
-        CramIO.writeContainer(container, os);
-        samRecords.clear();
     }
 
     @Override
@@ -334,7 +422,8 @@ public class CRAMFileWriter extends SAMFileWriterImpl {
         try {
             if (!samRecords.isEmpty())
                 flushContainer();
-            CramIO.issueZeroB_EOF_marker(os);
+            writePendingContainers(0);
+            CramIO.issueEOF(cramVersion, os);
             os.flush();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -346,6 +435,43 @@ public class CRAMFileWriter extends SAMFileWriterImpl {
         return fileName;
     }
 
+    public Version getCramVersion() {
+        return cramVersion;
+    }
+
+    public int getEncoderThreads() {
+        return encoderThreads;
+    }
+
+    /**
+     * Set the number of containers that may be encoded concurrently on a shared pool of worker threads.  Values
+     * less than 2 encode every container on the writing thread.  Containers are always written in order.
+     */
+    public void setEncoderThreads(int encoderThreads) {
+        this.encoderThreads = encoderThreads;
+    }
+
+    public Set<BlockCompressionMethod> getBlockCompressionMethods() {
+        return blockCompressionMethods;
+    }
+
+    /**
+     * Set the compression methods to try on each external block of the containers; each block is stored with
+     * whichever method makes it smallest.  The default is GZIP only.  RANS is a CRAM 3.0 method, so it is refused
+     * when this writer produces CRAM 2.1 files, which other readers would reject.
+     */
+    public void setBlockCompressionMethods(Set<BlockCompressionMethod> blockCompressionMethods) {
+        for (BlockCompressionMethod method : blockCompressionMethods) {
+            if (method == BlockCompressionMethod.BZIP2 || method == BlockCompressionMethod.LZMA)
+                throw new IllegalArgumentException("Unsupported block compression method: " + method);
+            if (method == BlockCompressionMethod.RANS && cramVersion.compareTo(CramVersions.CRAM_v3) < 0)
+                throw new IllegalArgumentException("Block compression method " + method + " needs CRAM "
+                        + CramVersions.CRAM_v3 + " but this writer produces CRAM " + cramVersion);
+        }
+        this.blockCompressionMethods = blockCompressionMethods.isEmpty() ?
+                EnumSet.noneOf(BlockCompressionMethod.class) : EnumSet.copyOf(blockCompressionMethods);
+    }
+
     public boolean isPreserveReadNames() {
         return preserveReadNames;
     }
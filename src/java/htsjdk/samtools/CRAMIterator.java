@@ -26,21 +26,26 @@ import htsjdk.samtools.cram.structure.Container;
 import htsjdk.samtools.cram.structure.CramCompressionRecord;
 import htsjdk.samtools.cram.structure.CramHeader;
 import htsjdk.samtools.cram.structure.Slice;
+import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.RuntimeEOFException;
 import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.SharedThreadPools;
 
 import java.io.BufferedInputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class CRAMIterator implements SAMRecordIterator {
     private static Log log = Log.getInstance(CRAMIterator.class);
@@ -73,7 +78,31 @@ public class CRAMIterator implements SAMRecordIterator {
     }
 
     private long samRecordIndex;
-    private ArrayList<CramCompressionRecord> cramRecords;
+
+    // For queries: the stream to seek on, the slices to read in the format of BAMFileSpan.toCoordinateArray(),
+    // with the container offset in the high bits and the slice index in the low 16 bits of each pointer,
+    // and the filter selecting the records returned from those slices.
+    private SeekableStream seekableStream;
+    private long[] filePointers;
+    private int filePointerIndex = 0;
+    private long nextContainerOffset = -1;
+    private RecordFilter recordFilter;
+
+    // If greater than 1, containers are read ahead and decoded concurrently on worker threads.
+    private int decoderThreads = Defaults.RECORD_DECODER_THREADS;
+    private static final String DECODER_POOL_NAME = "CRAMContainerDecoder";
+    private final Deque<Future<DecodedContainer>> pendingContainers = new ArrayDeque<Future<DecodedContainer>>();
+    private boolean endOfContainers = false;
+    private boolean endOfRecords = false;
+    // Number of records in the containers read so far, which numbers the records of the next container.
+    private int readCounter = 0;
+
+    /**
+     * Decides which of the records decoded from the slices read by a query are returned.
+     */
+    interface RecordFilter {
+        boolean accept(SAMRecord record);
+    }
 
     public CRAMIterator(InputStream is, ReferenceSource referenceSource)
             throws IOException {
@@ -86,38 +115,98 @@ public class CRAMIterator implements SAMRecordIterator {
         parser = new ContainerParser(cramHeader.getSamFileHeader());
     }
 
+    /**
+     * Iterates over the records accepted by the filter in the given slices of the file only.  Containers that hold
+     * none of the slices are never read, and other slices of the containers that are read are not decoded.
+     *
+     * @param stream       stream positioned at the start of the file
+     * @param filePointers slices to read, as chunks whose bounds hold the container offset shifted left by 16 bits
+     *                     ORed with the slice index, in the format of {@link BAMFileSpan#toCoordinateArray()}
+     * @param recordFilter selects the records to return from the slices that are read
+     */
+    CRAMIterator(SeekableStream stream, ReferenceSource referenceSource,
+                 long[] filePointers, RecordFilter recordFilter) throws IOException {
+        this(stream, referenceSource);
+        this.seekableStream = stream;
+        this.filePointers = filePointers;
+        this.recordFilter = recordFilter;
+    }
+
     public CramHeader getCramHeader() {
         return cramHeader;
     }
 
+    /**
+     * Sets the number of containers that may be decoded concurrently on worker threads while reading ahead of the
+     * records returned.  Decoding includes block decompression, record decoding, normalization, SAMRecord
+     * construction and MD/NM restoration.  Values less than 2 decode each container on the reading thread.
+     */
+    public void setDecoderThreads(int decoderThreads) {
+        this.decoderThreads = decoderThreads;
+    }
+
+    public int getDecoderThreads() {
+        return decoderThreads;
+    }
+
     private void nextContainer() throws IOException, IllegalArgumentException,
             IllegalAccessException {
         recordCounter = 0;
 
-        containerOffset = is.getCount();
-        container = CramIO.readContainer(is);
-        if (container == null || container.isEOF()) {
+        final DecodedContainer decoded;
+        if (decoderThreads > 1 || !pendingContainers.isEmpty()) {
+            fillPendingContainers();
+            decoded = pendingContainers.isEmpty() ? null : SharedThreadPools.getResult(pendingContainers.poll());
+        } else {
+            final ContainerDecoder decoder = readContainerToDecode(false);
+            decoded = decoder == null ? null : decoder.call();
+        }
+        if (decoded == null) {
             records.clear();
             nextRecord = null;
-            recordCounter = -1;
+            endOfRecords = true;
             return;
         }
 
-        if (records == null)
-            records = new ArrayList<SAMRecord>(container.nofRecords);
-        else
-            records.clear();
-        if (cramRecords == null)
-            cramRecords = new ArrayList<CramCompressionRecord>(container.nofRecords);
-        else
-            cramRecords.clear();
+        records = decoded.records;
+        for (int i = 0; i < records.size(); i++) {
+            ++samRecordIndex;
+            if (decoded.validationErrors[i] != null)
+                SAMUtils.processValidationErrors(decoded.validationErrors[i],
+                        samRecordIndex, validationStringency);
+        }
+    }
 
-        try {
-            parser.getRecords(container, cramRecords);
-        } catch (EOFException e) {
-            throw e;
+    /**
+     * Reads containers and submits them for decoding until decoderThreads are in flight.
+     */
+    private void fillPendingContainers() throws IOException {
+        while (!endOfContainers && pendingContainers.size() < Math.max(1, decoderThreads)) {
+            final ContainerDecoder decoder = readContainerToDecode(true);
+            if (decoder != null)
+                pendingContainers.add(SharedThreadPools.getPool(DECODER_POOL_NAME).submit(decoder));
+        }
+    }
+
+    /**
+     * Reads the next container and prepares it for decoding.
+     *
+     * @param concurrent true if the container will be decoded on a worker thread, in which case its blocks are
+     *                   left compressed for the worker and it gets its own parser and normalizer
+     * @return the decoder, or null at the end of the file or of the queried slices
+     */
+    private ContainerDecoder readContainerToDecode(boolean concurrent) throws IOException {
+        if (filePointers == null) {
+            containerOffset = is.getCount();
+            container = CramIO.readContainer(cramHeader.getVersion(), is, !concurrent);
+        } else
+            container = nextQueriedContainer(!concurrent);
+        if (container == null || container.isEOF()) {
+            endOfContainers = true;
+            return null;
         }
 
+        // Look up the reference here rather than on the workers, to keep hold of it between containers.
         if (container.sequenceId == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
             refs = new byte[]{};
         } else if (container.sequenceId == -2) {
@@ -130,65 +219,184 @@ public class CRAMIterator implements SAMRecordIterator {
             prevSeqId = container.sequenceId;
         }
 
-        try {
-            for (int i = 0; i < container.slices.length; i++) {
-                Slice s = container.slices[i];
-                if (s.sequenceId < 0)
-                    continue;
-                if (!s.validateRefMD5(refs)) {
-                    log.error(String
-                            .format("Reference sequence MD5 mismatch for slice: seq id %d, start %d, span %d, expected MD5 %s",
-                                    s.sequenceId, s.alignmentStart, s.alignmentSpan,
-                                    String.format("%032x", new BigInteger(1, s.refMD5))));
+        final ContainerDecoder decoder;
+        if (concurrent) {
+            // Records in containers on a single reference need no other reference, so the normalizer of such a
+            // container can use its bases directly rather than sharing the reference source with other workers.
+            final CramNormalizer containerNormalizer = container.sequenceId >= 0
+                    ? new CramNormalizer(cramHeader.getSamFileHeader())
+                    : new CramNormalizer(cramHeader.getSamFileHeader(), referenceSource);
+            containerNormalizer.setReadCounter(readCounter);
+            decoder = new ContainerDecoder(container, containerOffset, refs,
+                    new ContainerParser(cramHeader.getSamFileHeader()), containerNormalizer);
+        } else
+            decoder = new ContainerDecoder(container, containerOffset, refs, parser, normalizer);
+
+        for (Slice slice : container.slices)
+            readCounter += slice.nofRecords;
+        return decoder;
+    }
+
+    /**
+     * The records of a container, with the validation errors found in each, or null for records without errors.
+     */
+    private static class DecodedContainer {
+        final ArrayList<SAMRecord> records;
+        final List<SAMValidationError>[] validationErrors;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        DecodedContainer(ArrayList<SAMRecord> records) {
+            this.records = records;
+            this.validationErrors = new List[records.size()];
+        }
+    }
+
+    /**
+     * Decodes the slices of a container into SAMRecords, either on the reading thread or on a worker thread.
+     */
+    private class ContainerDecoder implements Callable<DecodedContainer> {
+        private final Container container;
+        private final long containerOffset;
+        private final byte[] refs;
+        private final ContainerParser parser;
+        private final CramNormalizer normalizer;
+
+        ContainerDecoder(Container container, long containerOffset, byte[] refs,
+                         ContainerParser parser, CramNormalizer normalizer) {
+            this.container = container;
+            this.containerOffset = containerOffset;
+            this.refs = refs;
+            this.parser = parser;
+            this.normalizer = normalizer;
+        }
+
+        @Override
+        public DecodedContainer call() throws IOException, IllegalArgumentException,
+                IllegalAccessException {
+            ArrayList<CramCompressionRecord> cramRecords = new ArrayList<CramCompressionRecord>(container.nofRecords);
+            parser.getRecords(container, cramRecords);
+
+            try {
+                for (int i = 0; i < container.slices.length; i++) {
+                    Slice s = container.slices[i];
+                    if (s.sequenceId < 0)
+                        continue;
+                    if (!s.validateRefMD5(refs)) {
+                        log.error(String
+                                .format("Reference sequence MD5 mismatch for slice: seq id %d, start %d, span %d, expected MD5 %s",
+                                        s.sequenceId, s.alignmentStart, s.alignmentSpan,
+                                        String.format("%032x", new BigInteger(1, s.refMD5))));
+                    }
                 }
+            } catch (NoSuchAlgorithmException e1) {
+                throw new RuntimeException(e1);
             }
-        } catch (NoSuchAlgorithmException e1) {
-            throw new RuntimeException(e1);
-        }
 
-        normalizer.normalize(cramRecords, true, refs, container.alignmentStart,
-                container.h.substitutionMatrix, container.h.AP_seriesDelta);
+            normalizer.normalize(cramRecords, true, refs, container.alignmentStart,
+                    container.h.substitutionMatrix, container.h.AP_seriesDelta);
+
+            Cram2SamRecordFactory c2sFactory = new Cram2SamRecordFactory(
+                    cramHeader.getSamFileHeader());
+
+            ArrayList<SAMRecord> samRecords = new ArrayList<SAMRecord>(cramRecords.size());
+            List<List<SAMValidationError>> validationErrors = null;
+            for (CramCompressionRecord r : cramRecords) {
+                SAMRecord s = c2sFactory.create(r);
+                if (recordFilter != null && !recordFilter.accept(s))
+                    continue;
+                if (!r.isSegmentUnmapped()) {
+                    byte[] recordRefs = refs;
+                    if (r.sequenceId != container.sequenceId || recordRefs == null) {
+                        SAMSequenceRecord sequence = cramHeader.getSamFileHeader()
+                                .getSequence(r.sequenceId);
+                        recordRefs = referenceSource.getReferenceBases(sequence, true);
+                    }
+                    SequenceUtil.calculateMdAndNmTags(s, recordRefs, restoreMDTag, restoreNMTag);
+                }
+
+                s.setValidationStringency(validationStringency);
 
-        Cram2SamRecordFactory c2sFactory = new Cram2SamRecordFactory(
-                cramHeader.getSamFileHeader());
+                if (validationStringency != ValidationStringency.SILENT) {
+                    if (validationErrors == null)
+                        validationErrors = new ArrayList<List<SAMValidationError>>();
+                    while (validationErrors.size() < samRecords.size())
+                        validationErrors.add(null);
+                    validationErrors.add(s.isValid());
+                }
+
+                if (mReader != null) {
+                    final long chunkStart = (containerOffset << 16) | r.sliceIndex;
+                    final long chunkEnd = ((containerOffset << 16) | r.sliceIndex) + 1;
+                    s.setFileSource(new SAMFileSource(mReader,
+                            new BAMFileSpan(new Chunk(chunkStart, chunkEnd))));
+                }
 
-        for (CramCompressionRecord r : cramRecords) {
-            SAMRecord s = c2sFactory.create(r);
-            if (!r.isSegmentUnmapped()) {
-                SAMSequenceRecord sequence = cramHeader.getSamFileHeader()
-                        .getSequence(r.sequenceId);
-                refs = referenceSource.getReferenceBases(sequence, true);
-                SequenceUtil.calculateMdAndNmTags(s, refs, restoreMDTag, restoreNMTag);
+                samRecords.add(s);
             }
 
-            s.setValidationStringency(validationStringency);
+            final DecodedContainer decoded = new DecodedContainer(samRecords);
+            if (validationErrors != null)
+                validationErrors.toArray(decoded.validationErrors);
+            return decoded;
+        }
+    }
 
-            if (validationStringency != ValidationStringency.SILENT) {
-                final List<SAMValidationError> validationErrors = s.isValid();
-                SAMUtils.processValidationErrors(validationErrors,
-                        samRecordIndex, validationStringency);
+    /**
+     * Reads the next container holding any of the slices of a query, keeping only those slices.
+     *
+     * @return the container, or null if there are no more slices to read
+     */
+    private Container nextQueriedContainer(boolean uncompressBlocks) throws IOException {
+        while (filePointerIndex < filePointers.length) {
+            // Skip chunks that end before the next container, whose slices have all been read.
+            if (nextContainerOffset << 16 >= filePointers[filePointerIndex + 1]) {
+                filePointerIndex += 2;
+                continue;
+            }
+            final long chunkStartOffset = filePointers[filePointerIndex] >>> 16;
+            if (nextContainerOffset < chunkStartOffset) {
+                seekableStream.seek(chunkStartOffset);
+                nextContainerOffset = chunkStartOffset;
             }
 
-            if (mReader != null) {
-                final long chunkStart = (containerOffset << 16) | r.sliceIndex;
-                final long chunkEnd = ((containerOffset << 16) | r.sliceIndex) + 1;
-                nextRecord.setFileSource(new SAMFileSource(mReader,
-                        new BAMFileSpan(new Chunk(chunkStart, chunkEnd))));
+            containerOffset = nextContainerOffset;
+            final Container c = CramIO.readContainer(cramHeader.getVersion(), is, uncompressBlocks);
+            if (c == null || c.isEOF())
+                return null;
+            c.offset = containerOffset;
+            nextContainerOffset = seekableStream.position();
+
+            final List<Slice> slices = new ArrayList<Slice>(c.slices.length);
+            for (Slice slice : c.slices) {
+                if (isQueried((containerOffset << 16) | slice.index))
+                    slices.add(slice);
             }
+            c.slices = slices.toArray(new Slice[slices.size()]);
+            return c;
+        }
+        return null;
+    }
 
-            records.add(s);
+    /**
+     * @return true if the given slice pointer falls in one of the remaining chunks of the query
+     */
+    private boolean isQueried(long slicePointer) {
+        for (int i = filePointerIndex; i < filePointers.length
+                && filePointers[i] <= slicePointer; i += 2) {
+            if (slicePointer < filePointers[i + 1])
+                return true;
         }
-        cramRecords.clear();
+        return false;
     }
 
     @Override
     public boolean hasNext() {
-        if (container != null && container.isEOF()) return false;
-        if (container == null || recordCounter >= records.size()) {
+        // A container may hold no records, or none matching a query, so keep going until one does.
+        while (recordCounter >= records.size()) {
+            if (endOfRecords)
+                return false;
             try {
                 nextContainer();
-                if (records.isEmpty())
-                    return false;
             } catch (Exception e) {
                 throw new RuntimeEOFException(e);
             }
@@ -210,6 +418,9 @@ public class CRAMIterator implements SAMRecordIterator {
 
     @Override
     public void close() {
+        for (Future<DecodedContainer> pending : pendingContainers)
+            pending.cancel(false);
+        pendingContainers.clear();
         records.clear();
         try {
             is.close();
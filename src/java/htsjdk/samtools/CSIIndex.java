@@ -0,0 +1,435 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A coordinate-sorted index (CSI), which generalizes the BAI and tabix binning schemes to any size of
+ * smallest bin (2^minShift bases) and any number of levels, so that references longer than 2^29 bases
+ * can be indexed.  The whole index is held in memory, and once constructed an instance is immutable,
+ * so it may be queried by several threads at once.
+ * <p/>
+ * CSI has no linear index.  Instead each bin stores the smallest file offset of any record that overlaps
+ * the first 2^minShift bases covered by the bin, which serves the same purpose.
+ * <p/>
+ * The same file format is used to index BAM files and BGZF-compressed text files; the latter keep their
+ * tabix header in the auxiliary data of the index.
+ */
+public class CSIIndex implements BAMIndex {
+    public static final String CSI_INDEX_SUFFIX = ".csi";
+
+    private static final byte[] MAGIC = {'C', 'S', 'I', 1};
+    public static final int MAGIC_NUMBER = ByteBuffer.wrap(MAGIC).order(ByteOrder.LITTLE_ENDIAN).getInt();
+
+    /** The default size in bits of the smallest bins, as used by samtools. */
+    public static final int DEFAULT_MIN_SHIFT = GenomicIndexUtil.BAI_MIN_SHIFT;
+
+    /** The default number of levels below the root bin, as used by samtools.  Covers references up to 2^32 bases. */
+    public static final int DEFAULT_DEPTH = 6;
+
+    private final int minShift;
+    private final int depth;
+    private final byte[] aux;
+    private final ReferenceIndex[] references;
+    private final Long noCoordinateCount;
+
+    /**
+     * @param minShift          the smallest bins span 2^minShift bases.
+     * @param depth             the number of levels below the root bin.
+     * @param aux               format-specific data stored in the index, e.g. the tabix header.  May be null.
+     * @param references        the index of each reference, in order.  An element may be null if a reference
+     *                          has no features.
+     * @param noCoordinateCount number of records that have no coordinate, or null if not known.
+     */
+    public CSIIndex(final int minShift, final int depth, final byte[] aux, final List<ReferenceIndex> references,
+                    final Long noCoordinateCount) {
+        validateScheme(minShift, depth);
+        this.minShift = minShift;
+        this.depth = depth;
+        this.aux = aux == null ? new byte[0] : aux.clone();
+        this.references = references.toArray(new ReferenceIndex[references.size()]);
+        this.noCoordinateCount = noCoordinateCount;
+    }
+
+    /**
+     * Opens a BGZF-compressed CSI file and reads it entirely.
+     */
+    public CSIIndex(final File file) {
+        this(openFile(file), true);
+    }
+
+    /**
+     * @param inputStream the decompressed contents of a CSI file, starting with its magic number.
+     *                    Caller should close the stream after the ctor returns.
+     */
+    public CSIIndex(final InputStream inputStream) {
+        this(inputStream, false);
+    }
+
+    private CSIIndex(final InputStream inputStream, final boolean closeInputStream) {
+        final BinaryCodec codec = new BinaryCodec(inputStream);
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            codec.readBytes(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new SAMFormatException("Invalid CSI index file header");
+            }
+            minShift = codec.readInt();
+            depth = codec.readInt();
+            validateScheme(minShift, depth);
+            aux = new byte[codec.readInt()];
+            codec.readBytes(aux);
+            references = new ReferenceIndex[codec.readInt()];
+            for (int i = 0; i < references.length; ++i) {
+                references[i] = readReference(i, codec);
+            }
+            noCoordinateCount = readOptionalLong(codec);
+        } finally {
+            if (closeInputStream) CloserUtil.close(inputStream);
+        }
+    }
+
+    private static InputStream openFile(final File file) {
+        try {
+            return new BlockCompressedInputStream(file);
+        } catch (final IOException e) {
+            throw new RuntimeIOException("Exception opening CSI index " + file, e);
+        }
+    }
+
+    private static void validateScheme(final int minShift, final int depth) {
+        // bin numbers must fit in an int, and the largest position in a long
+        if (minShift <= 0 || depth <= 0 || depth > 9 || minShift + 3 * depth > 63) {
+            throw new IllegalArgumentException("Invalid CSI binning scheme: min_shift " + minShift + ", depth " + depth);
+        }
+    }
+
+    private static ReferenceIndex readReference(final int referenceSequence, final BinaryCodec codec) {
+        final int numBins = codec.readInt();
+        if (numBins == 0) return null;
+        final ReferenceIndex ret = new ReferenceIndex(referenceSequence);
+        for (int i = 0; i < numBins; ++i) {
+            final int binNumber = codec.readInt();
+            final long loffset = codec.readLong();
+            final int numChunks = codec.readInt();
+            final List<Chunk> chunks = new ArrayList<Chunk>(numChunks);
+            for (int j = 0; j < numChunks; ++j) {
+                chunks.add(new Chunk(codec.readLong(), codec.readLong()));
+            }
+            ret.addBin(binNumber, loffset, chunks);
+        }
+        return ret;
+    }
+
+    private static Long readOptionalLong(final BinaryCodec codec) {
+        final byte[] buffer = new byte[8];
+        final int numRead = codec.readBytesOrFewer(buffer, 0, buffer.length);
+        if (numRead <= 0) return null;
+        codec.readBytes(buffer, numRead, buffer.length - numRead);
+        return ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    /**
+     * Writes the index with BGZF.
+     */
+    public void write(final File file) {
+        final BlockCompressedOutputStream os = new BlockCompressedOutputStream(file);
+        write(os);
+        CloserUtil.close(os);
+    }
+
+    /**
+     * @param outputStream It is assumed that the caller has done the appropriate BlockCompressedOutputStream
+     *                     wrapping.  Caller should close the stream after invoking this method.
+     */
+    public void write(final OutputStream outputStream) {
+        final BinaryCodec codec = new BinaryCodec(outputStream);
+        codec.writeBytes(MAGIC);
+        codec.writeInt(minShift);
+        codec.writeInt(depth);
+        codec.writeInt(aux.length);
+        codec.writeBytes(aux);
+        codec.writeInt(references.length);
+        for (final ReferenceIndex reference : references) {
+            if (reference == null) {
+                codec.writeInt(0);
+                continue;
+            }
+            codec.writeInt(reference.bins.size());
+            for (final Bin bin : reference.bins.values()) {
+                codec.writeInt(bin.getBinNumber());
+                codec.writeLong(reference.getLoffset(bin.getBinNumber()));
+                final List<Chunk> chunks = bin.getChunkList();
+                codec.writeInt(chunks.size());
+                for (final Chunk chunk : chunks) {
+                    codec.writeLong(chunk.getChunkStart());
+                    codec.writeLong(chunk.getChunkEnd());
+                }
+            }
+        }
+        if (noCoordinateCount != null) codec.writeLong(noCoordinateCount);
+    }
+
+    /**
+     * @return a copy of this index with different auxiliary data.  The reference indices are shared.
+     */
+    public CSIIndex withAux(final byte[] aux) {
+        return new CSIIndex(minShift, depth, aux, Arrays.asList(references), noCoordinateCount);
+    }
+
+    /**
+     * Get the chunks of the indexed file that may contain features overlapping the given range.
+     * @param referenceIndex sequence of desired features
+     * @param startPos 1-based start of the desired interval, inclusive
+     * @param endPos 1-based end of the desired interval, inclusive, or <= 0 for the end of the reference
+     * @return the optimized list of chunks, or null if there is no content overlapping the region.
+     */
+    public List<Chunk> getChunksOverlapping(final int referenceIndex, final int startPos, final int endPos) {
+        if (referenceIndex < 0 || referenceIndex >= references.length || references[referenceIndex] == null) {
+            return null;
+        }
+        final ReferenceIndex reference = references[referenceIndex];
+        final int[] overlappingBins = GenomicIndexUtil.regionToBins(startPos, endPos, minShift, depth);
+        if (overlappingBins == null) return null;
+
+        final List<Chunk> chunkList = new ArrayList<Chunk>();
+        for (final int binNumber : overlappingBins) {
+            final Bin bin = reference.bins.get(binNumber);
+            if (bin != null) {
+                for (final Chunk chunk : bin.getChunkList()) {
+                    chunkList.add(chunk.clone());
+                }
+            }
+        }
+        if (chunkList.isEmpty()) return null;
+        return Chunk.optimizeChunkList(chunkList, getMinimumOffset(reference, startPos));
+    }
+
+    /**
+     * The smallest file offset that a record overlapping startPos can have is the loffset of the
+     * smallest bin containing startPos.  If that bin is empty, use the nearest bin that contains it.
+     */
+    private long getMinimumOffset(final ReferenceIndex reference, final int startPos) {
+        final long start = Math.min(Math.max(startPos - 1, 0), GenomicIndexUtil.getMaxPosition(minShift, depth) - 1);
+        int bin = AbstractBAMFileIndex.getFirstBinInLevel(depth) + (int) (start >> minShift);
+        while (true) {
+            final Long loffset = reference.loffsets.get(bin);
+            if (loffset != null) return loffset;
+            if (bin == 0) return 0;
+            bin = GenomicIndexUtil.getParentBin(bin);
+        }
+    }
+
+    @Override
+    public BAMFileSpan getSpanOverlapping(final int referenceIndex, final int startPos, final int endPos) {
+        final List<Chunk> chunkList = getChunksOverlapping(referenceIndex, startPos, endPos);
+        if (chunkList == null) return null;
+        return new BAMFileSpan(chunkList);
+    }
+
+    /**
+     * CSI has no linear index, so this is the start of the last chunk of any bin, which is at or before
+     * the first record without a coordinate.
+     * @return The file offset, or -1 if there are no chunks in any bin (i.e. no mapped reads).
+     */
+    @Override
+    public long getStartOfLastLinearBin() {
+        final int metaDataBin = GenomicIndexUtil.getBinCount(depth);
+        long ret = -1;
+        for (final ReferenceIndex reference : references) {
+            if (reference == null) continue;
+            for (final Bin bin : reference.bins.values()) {
+                if (bin.getBinNumber() >= metaDataBin) continue;
+                for (final Chunk chunk : bin.getChunkList()) {
+                    if (chunk.getChunkStart() > ret) ret = chunk.getChunkStart();
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return meta data for the given reference, stored in the same pseudo-bin as BAI uses,
+     * or null if the reference is out of range.
+     */
+    @Override
+    public BAMIndexMetaData getMetaData(final int reference) {
+        if (reference < 0 || reference >= references.length) return null;
+        if (references[reference] == null) return new BAMIndexMetaData(null);
+        final Bin bin = references[reference].bins.get(GenomicIndexUtil.getBinCount(depth));
+        return new BAMIndexMetaData(bin == null ? null : bin.getChunkList());
+    }
+
+    /**
+     * @return count of records with no coordinate, or null if the index does not record it
+     */
+    public Long getNoCoordinateCount() {
+        return noCoordinateCount;
+    }
+
+    public int getMinShift() {
+        return minShift;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return a copy of the format-specific data stored in the index
+     */
+    public byte[] getAux() {
+        return aux.clone();
+    }
+
+    public int getNumberOfReferences() {
+        return references.length;
+    }
+
+    /**
+     * @return the index of the given reference, or null if the reference has no features
+     */
+    public ReferenceIndex getReferenceIndex(final int referenceIndex) {
+        return references[referenceIndex];
+    }
+
+    /**
+     * Nothing to close, since the index is read entirely when it is constructed.
+     */
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final CSIIndex that = (CSIIndex) o;
+
+        if (minShift != that.minShift) return false;
+        if (depth != that.depth) return false;
+        if (!Arrays.equals(aux, that.aux)) return false;
+        if (!Arrays.equals(references, that.references)) return false;
+        return noCoordinateCount == null ? that.noCoordinateCount == null : noCoordinateCount.equals(that.noCoordinateCount);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = minShift;
+        result = 31 * result + depth;
+        result = 31 * result + Arrays.hashCode(aux);
+        result = 31 * result + Arrays.hashCode(references);
+        result = 31 * result + (noCoordinateCount != null ? noCoordinateCount.hashCode() : 0);
+        return result;
+    }
+
+    /**
+     * The bins of one reference, each with its chunks and the smallest file offset of a record
+     * overlapping the start of the bin.
+     */
+    public static class ReferenceIndex {
+        private final int referenceSequence;
+        private final SortedMap<Integer, Bin> bins = new TreeMap<Integer, Bin>();
+        private final Map<Integer, Long> loffsets = new HashMap<Integer, Long>();
+
+        ReferenceIndex(final int referenceSequence) {
+            this.referenceSequence = referenceSequence;
+        }
+
+        void addBin(final int binNumber, final long loffset, final List<Chunk> chunks) {
+            final Bin bin = new Bin(referenceSequence, binNumber);
+            bin.setChunkList(chunks);
+            if (bins.put(binNumber, bin) != null) {
+                throw new SAMFormatException("Bin " + binNumber + " appears more than once in CSI index");
+            }
+            loffsets.put(binNumber, loffset);
+        }
+
+        public int getReferenceSequence() {
+            return referenceSequence;
+        }
+
+        /**
+         * @return the non-empty bins, in ascending order of bin number
+         */
+        public Collection<Bin> getBins() {
+            return Collections.unmodifiableCollection(bins.values());
+        }
+
+        /**
+         * @return the smallest file offset of a record overlapping the start of the given bin, or 0 if
+         * the bin is not present
+         */
+        public long getLoffset(final int binNumber) {
+            final Long loffset = loffsets.get(binNumber);
+            return loffset == null ? 0 : loffset;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            final ReferenceIndex that = (ReferenceIndex) o;
+
+            if (referenceSequence != that.referenceSequence) return false;
+            if (!loffsets.equals(that.loffsets)) return false;
+            if (!bins.keySet().equals(that.bins.keySet())) return false;
+            // Bin.equals does not compare chunks
+            for (final Bin bin : bins.values()) {
+                if (!bin.getChunkList().equals(that.bins.get(bin.getBinNumber()).getChunkList())) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = referenceSequence;
+            result = 31 * result + loffsets.hashCode();
+            return result;
+        }
+    }
+}
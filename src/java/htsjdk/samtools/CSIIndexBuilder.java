@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builder for the {@link CSIIndex.ReferenceIndex} of one reference.  This is the CSI equivalent
+ * of {@link BinningIndexBuilder}, and accepts the same features.
+ */
+public class CSIIndexBuilder {
+    private final int referenceSequence;
+    private final int minShift;
+    private final int depth;
+
+    private final Map<Integer, Bin> bins = new HashMap<Integer, Bin>();
+
+    // smallest file offset in each 2^minShift window, from which the loffset of each bin is taken
+    private long[] index = new long[1024];
+    private int largestIndexSeen = -1;
+
+    // meta data for the pseudo-bin
+    private long firstOffset = -1;
+    private long lastOffset = 0;
+    private long featureCount = 0;
+
+    public CSIIndexBuilder(final int referenceSequence, final int minShift, final int depth) {
+        this.referenceSequence = referenceSequence;
+        this.minShift = minShift;
+        this.depth = depth;
+    }
+
+    public void processFeature(final BinningIndexBuilder.FeatureToBeIndexed feature) {
+        // reg2bin has zero-based, half-open API.  The indexing bin of the feature is not used,
+        // since it is computed with the BAI binning scheme.
+        final int start = feature.getStart() - 1;
+        int end = feature.getEnd();
+        final boolean endUnset = end == GenomicIndexUtil.UNSET_GENOMIC_LOCATION;
+        if (end <= start) {
+            // If feature end cannot be determined (e.g. because a read is not really aligned),
+            // then treat this as a one base feature for indexing purposes.
+            end = start + 1;
+        }
+        if (end > GenomicIndexUtil.getMaxPosition(minShift, depth)) {
+            throw new SAMException("Feature ending at " + end + " is beyond the range of a CSI index with min_shift " +
+                    minShift + " and depth " + depth);
+        }
+        final int binNumber = GenomicIndexUtil.reg2bin(start, end, minShift, depth);
+
+        Bin bin = bins.get(binNumber);
+        if (bin == null) {
+            bin = new Bin(referenceSequence, binNumber);
+            bins.put(binNumber, bin);
+        }
+
+        final Chunk newChunk = feature.getChunk();
+        final long chunkStart = newChunk.getChunkStart();
+        final long chunkEnd = newChunk.getChunkEnd();
+
+        if (!bin.containsChunks()) {
+            bin.addInitialChunk(newChunk.clone());
+        } else {
+            // Coalesce chunks that are in the same or adjacent file blocks, as BinningIndexBuilder does
+            final Chunk lastChunk = bin.getLastChunk();
+            if (BlockCompressedFilePointerUtil.areInSameOrAdjacentBlocks(lastChunk.getChunkEnd(), chunkStart)) {
+                lastChunk.setChunkEnd(chunkEnd);
+            } else {
+                final Chunk chunk = newChunk.clone();
+                bin.getChunkList().add(chunk);
+                bin.setLastChunk(chunk);
+            }
+        }
+
+        // set the smallest offset of every window that this feature overlaps
+        final int startWindow = (endUnset ? Math.max(start - 1, 0) : start) >> minShift;
+        final int endWindow = endUnset ? startWindow : (end - 1) >> minShift;
+        if (endWindow >= index.length) {
+            index = Arrays.copyOf(index, Math.max(endWindow + 1, index.length * 2));
+        }
+        if (endWindow > largestIndexSeen) {
+            largestIndexSeen = endWindow;
+        }
+        for (int win = startWindow; win <= endWindow; win++) {
+            if (index[win] == 0 || chunkStart < index[win]) {
+                index[win] = chunkStart;
+            }
+        }
+
+        if (firstOffset == -1 || chunkStart < firstOffset) firstOffset = chunkStart;
+        if (chunkEnd > lastOffset) lastOffset = chunkEnd;
+        ++featureCount;
+    }
+
+    /**
+     * Creates the index for this reference, with every feature counted as aligned in the meta data.
+     * Requires all features of the reference have already been processed.
+     *
+     * @return null if no features were processed.
+     */
+    public CSIIndex.ReferenceIndex generateIndexContent() {
+        return generateIndexContent(featureCount, 0);
+    }
+
+    /**
+     * Creates the index for this reference.
+     * Requires all features of the reference have already been processed.
+     *
+     * @param alignedRecords   stored in the meta data pseudo-bin.
+     * @param unalignedRecords records placed on this reference but not aligned, stored in the meta data pseudo-bin.
+     * @return null if no features were processed.
+     */
+    public CSIIndex.ReferenceIndex generateIndexContent(final long alignedRecords, final long unalignedRecords) {
+        if (bins.isEmpty()) return null;
+
+        // Fill in windows without features from the preceding window, as BinningIndexBuilder does.
+        long lastNonZeroOffset = 0;
+        for (int i = 0; i <= largestIndexSeen; i++) {
+            if (index[i] == 0) index[i] = lastNonZeroOffset;
+            else lastNonZeroOffset = index[i];
+        }
+
+        final CSIIndex.ReferenceIndex ret = new CSIIndex.ReferenceIndex(referenceSequence);
+        for (final Bin bin : bins.values()) {
+            ret.addBin(bin.getBinNumber(), getLoffset(bin.getBinNumber()), bin.getChunkList());
+        }
+        final List<Chunk> metaData = new ArrayList<Chunk>(2);
+        metaData.add(new Chunk(firstOffset, lastOffset));
+        metaData.add(new Chunk(alignedRecords, unalignedRecords));
+        ret.addBin(GenomicIndexUtil.getBinCount(depth), 0, metaData);
+        return ret;
+    }
+
+    /**
+     * @return the smallest offset in the first window covered by the bin
+     */
+    private long getLoffset(final int binNumber) {
+        int level = 0;
+        while (level < depth && AbstractBAMFileIndex.getFirstBinInLevel(level + 1) <= binNumber) ++level;
+        final long firstWindow = (long) (binNumber - AbstractBAMFileIndex.getFirstBinInLevel(level)) << (3 * (depth - level));
+        return firstWindow <= largestIndexSeen ? index[(int) firstWindow] : 0;
+    }
+}
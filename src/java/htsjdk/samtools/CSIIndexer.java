@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a CSI index for a coordinate-sorted BAM file, which unlike a BAI index can hold references longer
+ * than 2^29 bases.  As with {@link BAMIndexer}, processAlignment is called for each alignment record
+ * and finish() is called at the end.
+ */
+public class CSIIndexer {
+    private final File output;
+    private final SAMSequenceDictionary sequenceDictionary;
+    private final int minShift;
+    private final int depth;
+
+    private final List<CSIIndex.ReferenceIndex> references = new ArrayList<CSIIndex.ReferenceIndex>();
+    private CSIIndexBuilder indexBuilder = null;
+    // counts of aligned and unaligned records, and of records without coordinates
+    private final BAMIndexMetaData indexStats = new BAMIndexMetaData();
+
+    /**
+     * @param output     CSI index file, which will be written when finish() is called.
+     * @param fileHeader header for the corresponding bam file
+     * @param minShift   the smallest bins span 2^minShift bases.
+     * @param depth      the number of levels below the root bin.
+     */
+    public CSIIndexer(final File output, final SAMFileHeader fileHeader, final int minShift, final int depth) {
+        this.output = output;
+        this.sequenceDictionary = fileHeader.getSequenceDictionary();
+        this.minShift = minShift;
+        this.depth = depth;
+        // fail early if the scheme cannot hold the longest reference
+        long maxLength = 0;
+        for (final SAMSequenceRecord sequence : sequenceDictionary.getSequences()) {
+            maxLength = Math.max(maxLength, sequence.getSequenceLength());
+        }
+        if (maxLength > GenomicIndexUtil.getMaxPosition(minShift, depth)) {
+            throw new IllegalArgumentException("A CSI index with min_shift " + minShift + " and depth " + depth +
+                    " cannot hold a reference of length " + maxLength);
+        }
+    }
+
+    /**
+     * Uses the default CSI binning scheme, which indexes references of up to 2^32 bases.
+     */
+    public CSIIndexer(final File output, final SAMFileHeader fileHeader) {
+        this(output, fileHeader, CSIIndex.DEFAULT_MIN_SHIFT, CSIIndex.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Record any index information for a given BAM record.
+     * Requires a non-null value for rec.getFileSource().
+     *
+     * @param rec The BAM record
+     */
+    public void processAlignment(final SAMRecord rec) {
+        try {
+            final int reference = rec.getReferenceIndex();
+            if (reference != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX && reference != references.size() - 1) {
+                advanceToReference(reference);
+            }
+            indexStats.recordMetaData(rec);
+            if (rec.getAlignmentStart() == SAMRecord.NO_ALIGNMENT_START) {
+                return; // do nothing for records without coordinates, but count them
+            }
+            indexBuilder.processFeature(new BinningIndexBuilder.FeatureToBeIndexed() {
+                @Override
+                public int getStart() {
+                    return rec.getAlignmentStart();
+                }
+
+                @Override
+                public int getEnd() {
+                    return rec.getAlignmentEnd();
+                }
+
+                @Override
+                public Integer getIndexingBin() {
+                    return null;
+                }
+
+                @Override
+                public Chunk getChunk() {
+                    final SAMFileSource source = rec.getFileSource();
+                    if (source == null) {
+                        throw new SAMException("No source (virtual file offsets); needed for indexing on BAM Record " + rec);
+                    }
+                    return ((BAMFileSpan) source.getFilePointer()).getSingleChunk();
+                }
+            });
+        } catch (final Exception e) {
+            throw new SAMException("Exception creating CSI index for record " + rec, e);
+        }
+    }
+
+    /**
+     * After all the alignment records have been processed, finish is called to write the index.
+     */
+    public void finish() {
+        advanceToReference(sequenceDictionary.size());
+        new CSIIndex(minShift, depth, null, references, indexStats.getNoCoordinateRecordCount()).write(output);
+    }
+
+    /** finish the current reference and start the references up to and including the next one */
+    private void advanceToReference(final int nextReference) {
+        if (nextReference < references.size() - 1) {
+            throw new SAMException("Unexpected reference " + nextReference + " when constructing index for " +
+                    (references.size() - 1) + "; BAM must be coordinate-sorted");
+        }
+        while (references.size() - 1 < nextReference) {
+            if (indexBuilder != null) {
+                references.set(references.size() - 1, indexBuilder.generateIndexContent(
+                        indexStats.getAlignedRecordCount(), indexStats.getUnalignedRecordCount()));
+                indexBuilder = null;
+            }
+            if (references.size() == sequenceDictionary.size()) break;
+            indexStats.newReference();
+            indexBuilder = new CSIIndexBuilder(references.size(), minShift, depth);
+            references.add(null);
+        }
+    }
+
+    /**
+     * Generates a CSI index file from an input BAM file, with the default binning scheme.
+     *
+     * @param reader SamReader for input BAM file, which must be opened with
+     *               {@link SamReaderFactory.Option#INCLUDE_SOURCE_IN_RECORDS}
+     * @param output File for output index file
+     */
+    public static void createIndex(final SamReader reader, final File output) {
+        createIndex(reader, output, CSIIndex.DEFAULT_MIN_SHIFT, CSIIndex.DEFAULT_DEPTH, null);
+    }
+
+    /**
+     * Generates a CSI index file from an input BAM file
+     *
+     * @param reader SamReader for input BAM file, which must be opened with
+     *               {@link SamReaderFactory.Option#INCLUDE_SOURCE_IN_RECORDS}
+     * @param output File for output index file
+     */
+    public static void createIndex(final SamReader reader, final File output, final int minShift, final int depth,
+                                   final Log log) {
+        final CSIIndexer indexer = new CSIIndexer(output, reader.getFileHeader(), minShift, depth);
+        int totalRecords = 0;
+        for (final SAMRecord rec : reader) {
+            if (++totalRecords % 1000000 == 0) {
+                if (null != log) log.info(totalRecords + " reads processed ...");
+            }
+            indexer.processAlignment(rec);
+        }
+        indexer.finish();
+    }
+}
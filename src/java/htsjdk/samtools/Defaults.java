@@ -30,6 +30,47 @@ public class Defaults {
      */
     public static final int NON_ZERO_BUFFER_SIZE;
 
+    /**
+     * Number of BGZF blocks that each BlockCompressedInputStream reads ahead and inflates concurrently on a
+     * shared pool of worker threads.  Values less than 2 inflate every block on the reading thread.  Default = 0.
+     */
+    public static final int INFLATER_THREADS;
+
+    /**
+     * Number of BGZF blocks that each BlockCompressedOutputStream may compress concurrently on a shared pool of
+     * worker threads, and number of containers that CRAM writers may encode concurrently.
+     * Values less than 2 compress every block on the writing thread.  Default = 0.
+     */
+    public static final int DEFLATER_THREADS;
+
+    /**
+     * Number of batches of BAM records that iteration over a whole BAM file may decode concurrently on a shared
+     * pool of worker threads, number of CRAM containers that CRAM iterators may decode concurrently, and number of
+     * batches of VCF lines that iteration over a whole VCF file with {@link htsjdk.variant.vcf.VCFFileReader} may decode
+     * concurrently.
+     * Values less than 2 decode every record on the reading thread.  Default = 0.
+     */
+    public static final int RECORD_DECODER_THREADS;
+
+    /**
+     * Number of full buffers of records that each SortingCollection or BAMRecordCoordinateSorter may sort and spill
+     * to disk concurrently on background threads while more records are added.  Values less than 1 spill on the adding thread.  Default = 0.
+     */
+    public static final int SORTING_COLLECTION_SPILL_THREADS;
+
+    /**
+     * Should writers sort into coordinate order holding records in their BAM encoding rather than as SAMRecord
+     * objects?  The order is the same either way.  Default = true.
+     */
+    public static final boolean BINARY_COORDINATE_SORT;
+
+    /**
+     * Compression of temporary files written when sorting and queueing records: none, lz4, snappy, deflate, or the
+     * name of a class implementing htsjdk.samtools.util.TempStreamCodec.  Default = snappy, which is no compression
+     * if the Snappy library cannot be loaded.
+     */
+    public static final String TEMP_COMPRESSION;
+
     /** Should BlockCompressedOutputStream attempt to load libIntelDeflater? */
     public static final boolean TRY_USE_INTEL_DEFLATER;
 
@@ -45,6 +86,18 @@ public class Defaults {
      */
     public static final File REFERENCE_FASTA;
 
+    /**
+     * Should IndexedFastaSequenceFile memory-map fasta files rather than reading them through a channel on every
+     * request?  Default = false.
+     */
+    public static final boolean MEMORY_MAP_FASTA;
+
+    /**
+     * Maximum number of bytes of reference bases that the process-wide CRAM reference cache keeps in memory, evicting
+     * the least recently used sequences beyond that.  Default = a quarter of the maximum heap size.
+     */
+    public static final long REFERENCE_CACHE_BYTES;
+
     /** Custom reader factory able to handle URL based resources like ga4gh.
      *  Expected format: <url prefix>,<fully qualified factory class name>[,<jar file name>]
      *  E.g. https://www.googleapis.com/genomics/v1beta/reads/,com.google.genomics.ReaderFactory
@@ -65,6 +118,12 @@ public class Defaults {
         USE_ASYNC_IO = getBooleanProperty("use_async_io", false);
         COMPRESSION_LEVEL = getIntProperty("compression_level", 5);
         BUFFER_SIZE = getIntProperty("buffer_size", 1024 * 128);
+        INFLATER_THREADS = getIntProperty("inflater_threads", 0);
+        DEFLATER_THREADS = getIntProperty("deflater_threads", 0);
+        RECORD_DECODER_THREADS = getIntProperty("record_decoder_threads", 0);
+        SORTING_COLLECTION_SPILL_THREADS = getIntProperty("sorting_collection_spill_threads", 0);
+        BINARY_COORDINATE_SORT = getBooleanProperty("binary_coordinate_sort", true);
+        TEMP_COMPRESSION = getStringProperty("temp_compression", "snappy");
         TRY_USE_INTEL_DEFLATER = getBooleanProperty("try_use_intel_deflater", true);
         INTEL_DEFLATER_SHARED_LIBRARY_PATH = getStringProperty("intel_deflater_so_path", null);
         if (BUFFER_SIZE == 0) {
@@ -73,6 +132,8 @@ public class Defaults {
             NON_ZERO_BUFFER_SIZE = BUFFER_SIZE;
         }
         REFERENCE_FASTA = getFileProperty("reference_fasta", null);
+        MEMORY_MAP_FASTA = getBooleanProperty("memory_map_fasta", false);
+        REFERENCE_CACHE_BYTES = getLongProperty("reference_cache_bytes", Runtime.getRuntime().maxMemory() / 4);
         EBI_REFERENCE_SEVICE_URL_MASK = "http://www.ebi.ac.uk/ena/cram/md5/%s";
         CUSTOM_READER_FACTORY = getStringProperty("custom_reader", "");
     }
@@ -94,6 +155,12 @@ public class Defaults {
         return Integer.parseInt(value);
     }
 
+    /** Gets a long system property, prefixed with "samjdk." using the default if the property does not exist. */
+    private static long getLongProperty(final String name, final long def) {
+        final String value = getStringProperty(name, Long.toString(def));
+        return Long.parseLong(value);
+    }
+
     /** Gets a File system property, prefixed with "samdjk." using the default if the property does not exist. */
     private static File getFileProperty(final String name, final String def) {
         final String value = getStringProperty(name, def);
@@ -97,4 +97,80 @@ public class GenomicIndexUtil {
         return bitSet;
     }
 
+    /**
+     * The size in bits of the smallest bins of a BAI or tabix index.  CSI indices may use other values.
+     */
+    public static final int BAI_MIN_SHIFT = 14;
+
+    /**
+     * The number of levels below the root bin of a BAI or tabix index.  CSI indices may use other values.
+     */
+    public static final int BAI_DEPTH = 5;
+
+    /**
+     * @return the number of the bin that contains the given bin, in any binning scheme
+     */
+    public static int getParentBin(final int bin) {
+        return (bin - 1) >> 3;
+    }
+
+    /**
+     * @return the number of bins in a binning scheme with the given depth, which is also the number
+     * of the first pseudo-bin used for meta data.  For BAI this is {@link #MAX_BINS}.
+     */
+    public static int getBinCount(final int depth) {
+        return AbstractBAMFileIndex.getFirstBinInLevel(depth + 1) + 1;
+    }
+
+    /**
+     * @return the largest genomic position, exclusive, that can be indexed by a binning scheme
+     */
+    public static long getMaxPosition(final int minShift, final int depth) {
+        return 1L << (minShift + 3 * depth);
+    }
+
+    /**
+     * calculate the bin given an alignment in [beg,end) in a binning scheme whose smallest bins span
+     * 2^minShift bases and which has depth levels below the root bin.  reg2bin(beg, end, 14, 5) is
+     * the same as {@link #reg2bin(int, int)}.
+     * @param beg 0-based start of read (inclusive)
+     * @param end 0-based end of read (exclusive)
+     */
+    public static int reg2bin(final int beg, final int end, final int minShift, final int depth) {
+        final long last = end - 1;
+        int shift = minShift;
+        for (int level = depth; level > 0; --level, shift += 3) {
+            if (beg >> shift == last >> shift) return AbstractBAMFileIndex.getFirstBinInLevel(level) + (beg >> shift);
+        }
+        return 0;
+    }
+
+    /**
+     * Get candidate bins for the specified region in a binning scheme whose smallest bins span
+     * 2^minShift bases and which has depth levels below the root bin.
+     * @param startPos 1-based start of target region, inclusive.
+     * @param endPos 1-based end of target region, inclusive, or <= 0 for the end of the reference.
+     * @return the numbers of the bins that may contain features in the target region, in ascending order,
+     * or null if the region is empty.
+     */
+    public static int[] regionToBins(final int startPos, final int endPos, final int minShift, final int depth) {
+        final long maxPos = getMaxPosition(minShift, depth) - 1;
+        final long start = (startPos <= 0) ? 0 : Math.min(startPos - 1, maxPos);
+        final long end = (endPos <= 0) ? maxPos : Math.min(endPos - 1, maxPos);
+        if (start > end) {
+            return null;
+        }
+        int count = 0;
+        for (int level = 0, shift = minShift + 3 * depth; level <= depth; ++level, shift -= 3) {
+            count += (int) ((end >> shift) - (start >> shift)) + 1;
+        }
+        final int[] bins = new int[count];
+        int i = 0;
+        for (int level = 0, shift = minShift + 3 * depth; level <= depth; ++level, shift -= 3) {
+            final int first = AbstractBAMFileIndex.getFirstBinInLevel(level);
+            for (long k = start >> shift; k <= end >> shift; ++k) bins[i++] = first + (int) k;
+        }
+        return bins;
+    }
+
 }
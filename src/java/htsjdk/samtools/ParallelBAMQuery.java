@@ -0,0 +1,465 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SharedThreadPools;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-interval queries of an indexed BAM file that are decoded on several threads.
+ *
+ * The chunks of the file that overlap the intervals are found in the index and merged, exactly as for
+ * {@link SamReader#query(QueryInterval[], boolean)}, and the merged chunk list is then split into contiguous ranges
+ * of roughly equal compressed size.  Each range is read and decoded by a worker thread on its own stream, so the BAM
+ * must have been opened from a File.  Chunks are not split, so a query of one large region is read by one worker, which
+ * streams its records to the iterator through a bounded buffer rather than holding the whole range in memory.
+ *
+ * Results are available either as an iterator that returns exactly the records that the serial query would, in the
+ * same order, or through a callback that is passed each record once for every interval it matches, in no particular
+ * order.
+ */
+public class ParallelBAMQuery {
+    /** Lower bound on the compressed size of a range of chunks, so that tiny queries are not split needlessly. */
+    private static final long DEFAULT_MIN_RANGE_BYTES = 64 * 1024;
+    /**
+     * Upper bound on the compressed size of a range of several chunks.  A chunk larger than this is a range of its own,
+     * as ranges can only start at chunk boundaries.
+     */
+    private static final long DEFAULT_MAX_RANGE_BYTES = 1024 * 1024;
+    /** Records per batch passed from a worker to the iterator, and batches that may be decoded ahead per range. */
+    private static final int DEFAULT_RECORDS_PER_BATCH = 1000;
+    private static final int BATCHES_PER_RANGE = 4;
+    /** Ranges per thread when the query is small enough, so that uneven ranges still balance across threads. */
+    private static final int RANGES_PER_THREAD = 4;
+
+    private static final String POOL_NAME = "BAMQuery";
+
+    /**
+     * Receives the records matched by {@link #query(QueryInterval[], boolean, IntervalCallback)}.
+     * It is called concurrently from several worker threads, so implementations must be thread-safe.
+     */
+    public interface IntervalCallback {
+        /**
+         * @param intervalIndex index into the array of intervals passed to the query of the interval that was matched.
+         * @param record a record that overlaps, or is contained by, the interval.
+         */
+        void apply(final int intervalIndex, final SAMRecord record);
+    }
+
+    private final BAMFileReader reader;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long minRangeBytes = DEFAULT_MIN_RANGE_BYTES;
+    private long maxRangeBytes = DEFAULT_MAX_RANGE_BYTES;
+    private int recordsPerBatch = DEFAULT_RECORDS_PER_BATCH;
+
+    /**
+     * @param samReader reader of an indexed BAM file that was opened from a File.  It is only used on the calling
+     *                  thread, to read the index, and must not be closed while queries are running.
+     */
+    public ParallelBAMQuery(final SamReader samReader) {
+        if (!(samReader instanceof SamReader.PrimitiveSamReaderToSamReaderAdapter) ||
+                !(((SamReader.PrimitiveSamReaderToSamReaderAdapter) samReader).underlyingReader() instanceof BAMFileReader)) {
+            throw new IllegalArgumentException("Parallel queries are only supported for BAM files");
+        }
+        this.reader = (BAMFileReader) ((SamReader.PrimitiveSamReaderToSamReaderAdapter) samReader).underlyingReader();
+        if (!reader.hasIndex()) {
+            throw new SAMException("No index is available for this BAM file.");
+        }
+        if (!reader.canOpenSecondaryReader()) {
+            throw new IllegalArgumentException("Parallel queries are only supported for BAM files opened from a File");
+        }
+    }
+
+    /** Sets the number of ranges of the file that may be read concurrently.  Values less than 1 are treated as 1. */
+    public ParallelBAMQuery setThreads(final int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /** Overrides the bounds on the compressed size of each range of chunks.  For testing. */
+    ParallelBAMQuery setRangeBytes(final long minRangeBytes, final long maxRangeBytes) {
+        this.minRangeBytes = minRangeBytes;
+        this.maxRangeBytes = maxRangeBytes;
+        return this;
+    }
+
+    /** Overrides the number of records per batch passed from a worker to the iterator.  For testing. */
+    ParallelBAMQuery setRecordsPerBatch(final int recordsPerBatch) {
+        this.recordsPerBatch = recordsPerBatch;
+        return this;
+    }
+
+    /**
+     * Returns the records that overlap, or if contained is true are contained by, any of the given intervals, in
+     * the order they appear in the file.  Ranges of the file are decoded ahead of the iterator by worker threads.
+     * The iterator must be closed, so that the streams opened for the query are closed.
+     * @param intervals optimized intervals, as returned by {@link QueryInterval#optimizeIntervals(QueryInterval[])}
+     */
+    public CloseableIterator<SAMRecord> query(final QueryInterval[] intervals, final boolean contained) {
+        return new OrderedQueryIterator(splitFilePointers(reader.getFilePointersOverlapping(intervals)), intervals, contained);
+    }
+
+    /**
+     * Passes each record that overlaps, or if contained is true is contained by, one of the given intervals to the
+     * callback, once for every such interval.  Returns once all of the records have been passed to the callback.
+     * @param intervals optimized intervals, as returned by {@link QueryInterval#optimizeIntervals(QueryInterval[])}
+     */
+    public void query(final QueryInterval[] intervals, final boolean contained, final IntervalCallback callback) {
+        final Iterator<long[]> ranges = splitFilePointers(reader.getFilePointersOverlapping(intervals)).iterator();
+        final SecondaryReaders readers = new SecondaryReaders();
+        final Deque<Future<Void>> pendingRanges = new ArrayDeque<Future<Void>>();
+        try {
+            while (ranges.hasNext() || !pendingRanges.isEmpty()) {
+                while (pendingRanges.size() < threads && ranges.hasNext()) {
+                    final long[] range = ranges.next();
+                    pendingRanges.addLast(SharedThreadPools.getPool(POOL_NAME).submit(new Callable<Void>() {
+                        public Void call() {
+                            final BAMFileReader rangeReader = readers.acquire();
+                            try {
+                                invokeCallback(rangeReader, range, intervals, contained, callback);
+                            } finally {
+                                readers.release(rangeReader);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                SharedThreadPools.getResult(pendingRanges.removeFirst());
+            }
+        } finally {
+            cancelAndWait(pendingRanges);
+            readers.close();
+        }
+    }
+
+    private static void invokeCallback(final BAMFileReader rangeReader,
+                                       final long[] filePointers,
+                                       final QueryInterval[] intervals,
+                                       final boolean contained,
+                                       final IntervalCallback callback) {
+        final CloseableIterator<SAMRecord> iterator = rangeReader.queryFilePointers(filePointers, intervals, contained);
+        try {
+            int firstInterval = 0;
+            while (iterator.hasNext()) {
+                final SAMRecord record = iterator.next();
+                firstInterval = BAMFileReader.findFirstIntervalNotBefore(intervals, firstInterval, record);
+                for (int i = firstInterval; i < intervals.length; ++i) {
+                    final BAMFileReader.IntervalComparison comparison = BAMFileReader.compareIntervalToRecord(intervals[i], record);
+                    if (comparison == BAMFileReader.IntervalComparison.AFTER) break;
+                    if (comparison == BAMFileReader.IntervalComparison.CONTAINED ||
+                            (comparison == BAMFileReader.IntervalComparison.OVERLAPPING && !contained)) {
+                        callback.apply(i, record);
+                    }
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Splits the merged chunk list of a query into contiguous ranges of chunks, each in the same format as the
+     * input.  Chunks are never split, as they need not start or end at BGZF block boundaries and records may span
+     * blocks, so a range may be larger than the target size.
+     */
+    List<long[]> splitFilePointers(final long[] filePointers) {
+        if (filePointers == null || filePointers.length == 0) return Collections.emptyList();
+
+        long totalBytes = 0;
+        for (int i = 0; i < filePointers.length; i += 2) {
+            totalBytes += compressedSize(filePointers[i], filePointers[i + 1]);
+        }
+        final long targetBytes = Math.min(maxRangeBytes, Math.max(minRangeBytes, totalBytes / (threads * RANGES_PER_THREAD)));
+
+        final List<long[]> ranges = new ArrayList<long[]>();
+        int rangeStart = 0;
+        long rangeBytes = 0;
+        for (int i = 0; i < filePointers.length; i += 2) {
+            rangeBytes += compressedSize(filePointers[i], filePointers[i + 1]);
+            if (rangeBytes >= targetBytes || i + 2 == filePointers.length) {
+                ranges.add(Arrays.copyOfRange(filePointers, rangeStart, i + 2));
+                rangeStart = i + 2;
+                rangeBytes = 0;
+            }
+        }
+        return ranges;
+    }
+
+    /** Approximate number of bytes of compressed data between two virtual file pointers. */
+    private static long compressedSize(final long start, final long end) {
+        return BlockCompressedFilePointerUtil.getBlockAddress(end) - BlockCompressedFilePointerUtil.getBlockAddress(start) + 1;
+    }
+
+    private static void cancelAndWait(final Iterable<? extends Future<?>> futures) {
+        for (final Future<?> future : futures) {
+            if (!future.cancel(false)) {
+                // Already running or done, so wait for it to stop using its stream.
+                try {
+                    future.get();
+                } catch (final Exception e) {
+                    // Already reported, or the query has been abandoned.
+                }
+            }
+        }
+    }
+
+    /**
+     * Readers opened on the BAM for the ranges of one query.  Each worker takes an idle reader, or opens a new one,
+     * for each range it reads, so no more readers are opened than ranges are read concurrently.
+     */
+    private class SecondaryReaders {
+        private final Deque<BAMFileReader> idle = new ArrayDeque<BAMFileReader>();
+        private final List<BAMFileReader> all = new ArrayList<BAMFileReader>();
+
+        BAMFileReader acquire() {
+            synchronized (this) {
+                if (!idle.isEmpty()) return idle.removeFirst();
+            }
+            try {
+                final BAMFileReader secondaryReader = reader.openSecondaryReader();
+                synchronized (this) {
+                    all.add(secondaryReader);
+                }
+                return secondaryReader;
+            } catch (final IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+
+        synchronized void release(final BAMFileReader secondaryReader) {
+            idle.addLast(secondaryReader);
+        }
+
+        /** Must only be called once no worker is using a reader. */
+        synchronized void close() {
+            for (final BAMFileReader secondaryReader : all) secondaryReader.close();
+            all.clear();
+            idle.clear();
+        }
+    }
+
+    /**
+     * Decodes ranges of the query ahead of the consumer on worker threads, keeping a bounded number of ranges in
+     * flight, and returns their records in file order.
+     */
+    private class OrderedQueryIterator implements CloseableIterator<SAMRecord> {
+        private final Iterator<long[]> ranges;
+        private final QueryInterval[] intervals;
+        private final boolean contained;
+        private final SecondaryReaders readers = new SecondaryReaders();
+        private final Deque<RangeBuffer> pendingRanges = new ArrayDeque<RangeBuffer>();
+        private Iterator<SAMRecord> currentBatch = Collections.<SAMRecord>emptyList().iterator();
+        private boolean isClosed = false;
+
+        OrderedQueryIterator(final List<long[]> ranges, final QueryInterval[] intervals, final boolean contained) {
+            this.ranges = ranges.iterator();
+            this.intervals = intervals;
+            this.contained = contained;
+            while (pendingRanges.size() < threads && submitRange()) {}
+        }
+
+        private boolean submitRange() {
+            if (!ranges.hasNext()) return false;
+            final RangeBuffer range = new RangeBuffer(ranges.next(), intervals, contained, readers);
+            pendingRanges.addLast(range);
+            range.schedule();
+            return true;
+        }
+
+        public boolean hasNext() {
+            if (isClosed) throw new IllegalStateException("Iterator has been closed");
+            while (!currentBatch.hasNext()) {
+                if (pendingRanges.isEmpty()) return false;
+                final List<SAMRecord> batch = pendingRanges.peekFirst().takeBatch();
+                if (batch == null) {
+                    pendingRanges.removeFirst();
+                    submitRange();
+                } else {
+                    currentBatch = batch.iterator();
+                }
+            }
+            return true;
+        }
+
+        public SAMRecord next() {
+            if (!hasNext()) throw new NoSuchElementException("ParallelBAMQuery: no next element available");
+            return currentBatch.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported: remove");
+        }
+
+        public void close() {
+            if (isClosed) return;
+            isClosed = true;
+            for (final RangeBuffer range : pendingRanges) range.cancel();
+            pendingRanges.clear();
+            readers.close();
+        }
+    }
+
+    /**
+     * The records of one range, decoded by a worker into a bounded buffer of batches.  Rather than block a pool thread
+     * while the buffer is full, the worker returns and is scheduled again once the consumer has taken a batch, so that
+     * ranges of other queries sharing the pool can always make progress.
+     */
+    private class RangeBuffer implements Runnable {
+        private final long[] filePointers;
+        private final QueryInterval[] intervals;
+        private final boolean contained;
+        private final SecondaryReaders readers;
+        private final Deque<List<SAMRecord>> batches = new ArrayDeque<List<SAMRecord>>();
+        // only used by the worker, which runs on one thread at a time
+        private BAMFileReader rangeReader = null;
+        private CloseableIterator<SAMRecord> iterator = null;
+        // guarded by this
+        private boolean scheduled = false;
+        private boolean done = false;
+        private boolean cancelled = false;
+        private Throwable failure = null;
+
+        RangeBuffer(final long[] filePointers, final QueryInterval[] intervals, final boolean contained,
+                    final SecondaryReaders readers) {
+            this.filePointers = filePointers;
+            this.intervals = intervals;
+            this.contained = contained;
+            this.readers = readers;
+        }
+
+        /** Submits the worker unless it is already submitted or running, or the range is finished. */
+        synchronized void schedule() {
+            if (scheduled || done || cancelled || batches.size() >= BATCHES_PER_RANGE) return;
+            scheduled = true;
+            SharedThreadPools.getPool(POOL_NAME).execute(this);
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        if (cancelled || batches.size() >= BATCHES_PER_RANGE) {
+                            scheduled = false;
+                            notifyAll();
+                            return;
+                        }
+                    }
+                    if (iterator == null) {
+                        rangeReader = readers.acquire();
+                        iterator = rangeReader.queryFilePointers(filePointers, intervals, contained);
+                    }
+                    final List<SAMRecord> batch = new ArrayList<SAMRecord>(recordsPerBatch);
+                    while (batch.size() < recordsPerBatch && iterator.hasNext()) batch.add(iterator.next());
+                    final boolean exhausted = !iterator.hasNext();
+                    if (exhausted) closeIterator();
+                    synchronized (this) {
+                        if (!batch.isEmpty()) batches.addLast(batch);
+                        if (exhausted) {
+                            done = true;
+                            scheduled = false;
+                        }
+                        notifyAll();
+                        if (exhausted) return;
+                    }
+                }
+            } catch (final Throwable t) {
+                closeIterator();
+                synchronized (this) {
+                    failure = t;
+                    done = true;
+                    scheduled = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Waits for the next batch of records of the range, and schedules the worker to refill the buffer.
+         * @return the next batch, or null once all have been taken.
+         */
+        List<SAMRecord> takeBatch() {
+            final List<SAMRecord> batch;
+            synchronized (this) {
+                while (batches.isEmpty() && !done) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException ie) {
+                        throw new RuntimeException("Interrupted waiting on worker thread.", ie);
+                    }
+                }
+                if (failure != null) {
+                    if (failure instanceof Error) throw (Error) failure;
+                    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+                    throw new RuntimeException(failure);
+                }
+                batch = batches.pollFirst();
+            }
+            schedule();
+            return batch;
+        }
+
+        /** Stops the worker, waiting for it to stop using its stream, and closes the stream. */
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                while (scheduled) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException ie) {
+                        throw new RuntimeException("Interrupted waiting on worker thread.", ie);
+                    }
+                }
+                batches.clear();
+            }
+            closeIterator();
+        }
+
+        private void closeIterator() {
+            if (iterator != null) {
+                iterator.close();
+                iterator = null;
+                readers.release(rangeReader);
+                rangeReader = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SharedThreadPools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Merges many sorted inputs like {@link MergingSamRecordIterator}, but reads each input ahead of the consumer on
+ * worker threads, so that decompressing and decoding the inputs is not limited to the consuming thread.
+ *
+ * Each input is read in batches of records.  While the consumer works through the current batch of an input, the
+ * next batch of that input is read by a worker, which also applies the read group, program group and sequence index
+ * remapping of the {@link SamFileHeaderMerger}, so at most two batches per input are held in memory.  The heads of
+ * the current batches are merged with a loser tree, which takes one comparison per level of the tree for each record.
+ * Records that compare equal are returned in the order of their inputs.
+ *
+ * The readers must not reuse records ({@link SamReaderFactory.Option#REUSE_RECORDS}), since records are buffered.
+ */
+public class ParallelMergingSamRecordIterator implements CloseableIterator<SAMRecord> {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String POOL_NAME = "SamRecordMerge";
+
+    private final SamFileHeaderMerger samHeaderMerger;
+    private final SAMFileHeader mergedHeader;
+    private final SAMRecordComparator comparator;
+    private final List<Input> inputs = new ArrayList<Input>();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Tournament tree over the inputs.  tree[0] is the index of the input with the smallest head record, and
+     * tree[1..n-1] hold the inputs that lost the comparison at each internal node.  The inputs are the leaves, at
+     * positions n..2n-1 of the implicit tree.
+     */
+    private int[] tree;
+    private boolean initialized = false;
+    private boolean isClosed = false;
+
+    /**
+     * Constructs a merging iterator over all the records of the given readers, which must all be accounted for in the
+     * header merger.
+     *
+     * @param headerMerger The merged header and contents of readers.
+     * @param assumeSorted false ensures that the iterator checks the headers of the readers for appropriate sort order.
+     */
+    public ParallelMergingSamRecordIterator(final SamFileHeaderMerger headerMerger, final Collection<SamReader> readers, final boolean assumeSorted) {
+        this.samHeaderMerger = headerMerger;
+        this.mergedHeader = headerMerger.getMergedHeader();
+        this.comparator = mergedHeader.getSortOrder().getComparatorInstance();
+        for (final SamReader reader : readers) {
+            checkHeader(reader.getFileHeader(), assumeSorted);
+            inputs.add(new Input(reader, reader.getFileHeader(), null));
+        }
+    }
+
+    /**
+     * Constructs a merging iterator over the given iterators, for example to restrict the merge to a genomic interval.
+     *
+     * @param headerMerger The merged header and contents of readers.
+     * @param iterators    Iterator traversing over reader contents.
+     */
+    public ParallelMergingSamRecordIterator(final SamFileHeaderMerger headerMerger, final Map<SamReader, CloseableIterator<SAMRecord>> iterators, final boolean assumeSorted) {
+        this.samHeaderMerger = headerMerger;
+        this.mergedHeader = headerMerger.getMergedHeader();
+        this.comparator = mergedHeader.getSortOrder().getComparatorInstance();
+        for (final Map.Entry<SamReader, CloseableIterator<SAMRecord>> mapping : iterators.entrySet()) {
+            checkHeader(mapping.getKey().getFileHeader(), assumeSorted);
+            inputs.add(new Input(mapping.getKey(), mapping.getKey().getFileHeader(), mapping.getValue()));
+        }
+    }
+
+    private void checkHeader(final SAMFileHeader header, final boolean assumeSorted) {
+        if (!samHeaderMerger.getHeaders().contains(header))
+            throw new SAMException("All iterators to be merged must be accounted for in the SAM header merger");
+        if (!assumeSorted && mergedHeader.getSortOrder() != SAMFileHeader.SortOrder.unsorted &&
+                header.getSortOrder() != mergedHeader.getSortOrder()) {
+            throw new SAMException("Files are not compatible with sort order");
+        }
+    }
+
+    /**
+     * Sets the number of records read from an input by each worker task.  Up to twice this many records per input are
+     * held in memory.  Must be called before iteration starts.
+     */
+    public ParallelMergingSamRecordIterator setBatchSize(final int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        if (initialized) throw new IllegalStateException("Cannot change the batch size once iteration has started");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /** Returns the merged header that the merging iterator is working from. */
+    public SAMFileHeader getMergedHeader() {
+        return mergedHeader;
+    }
+
+    private void startIterationIfRequired() {
+        if (isClosed) throw new IllegalStateException("Iterator has been closed");
+        if (initialized) return;
+        initialized = true;
+        for (final Input input : inputs) {
+            input.submitBatch();
+        }
+        for (final Input input : inputs) {
+            input.nextBatch();
+        }
+        buildTree();
+    }
+
+    public boolean hasNext() {
+        startIterationIfRequired();
+        return !inputs.isEmpty() && inputs.get(tree[0]).head() != null;
+    }
+
+    public SAMRecord next() {
+        if (!hasNext()) throw new NoSuchElementException("ParallelMergingSamRecordIterator: no next element available");
+        final int winner = tree[0];
+        final SAMRecord record = inputs.get(winner).advance();
+        replay(winner);
+        return record;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("ParallelMergingSamRecordIterator.remove()");
+    }
+
+    /** Stops reading ahead and closes the iterators of all the inputs. */
+    public void close() {
+        if (isClosed) return;
+        isClosed = true;
+        for (final Input input : inputs) {
+            input.close();
+        }
+    }
+
+    /**
+     * @return true if the head record of input a should be returned before that of input b.  Exhausted inputs come
+     * last, and ties are broken by input order.
+     */
+    private boolean precedes(final int a, final int b) {
+        final SAMRecord recordA = inputs.get(a).head();
+        final SAMRecord recordB = inputs.get(b).head();
+        if (recordA == null) return false;
+        if (recordB == null) return true;
+        final int cmp = comparator == null ? 0 : comparator.compare(recordA, recordB);
+        return cmp < 0 || (cmp == 0 && a < b);
+    }
+
+    private void buildTree() {
+        final int n = inputs.size();
+        tree = new int[Math.max(1, n)];
+        if (n == 0) return;
+        // winners[i] is the winner of the subtree rooted at i; leaves are n..2n-1
+        final int[] winners = new int[2 * n];
+        for (int i = 0; i < n; ++i) {
+            winners[n + i] = i;
+        }
+        for (int i = n - 1; i >= 1; --i) {
+            final int left = winners[2 * i];
+            final int right = winners[2 * i + 1];
+            if (precedes(left, right)) {
+                winners[i] = left;
+                tree[i] = right;
+            } else {
+                winners[i] = right;
+                tree[i] = left;
+            }
+        }
+        tree[0] = n == 1 ? 0 : winners[1];
+    }
+
+    /** Replays the matches on the path from the leaf of the given input to the root, after its head has changed. */
+    private void replay(final int input) {
+        int winner = input;
+        for (int node = (input + inputs.size()) / 2; node >= 1; node /= 2) {
+            if (precedes(tree[node], winner)) {
+                final int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+     * One input to the merge: its iterator, the batch being consumed, and the next batch being read by a worker.
+     * Only one worker task reads from the iterator at a time.
+     */
+    private class Input {
+        private final SamReader reader;
+        private final SAMFileHeader header;
+        private CloseableIterator<SAMRecord> iterator;
+        private final int[] sequenceIndexMap;
+        private final Map<String, String> readGroupIds = new HashMap<String, String>();
+        private final Map<String, String> programGroupIds = new HashMap<String, String>();
+
+        private Future<List<SAMRecord>> pendingBatch = null;
+        private List<SAMRecord> batch = null;
+        private int batchIndex = 0;
+
+        Input(final SamReader reader, final SAMFileHeader header, final CloseableIterator<SAMRecord> iterator) {
+            this.reader = reader;
+            this.header = header;
+            this.iterator = iterator;
+            if (samHeaderMerger.hasMergedSequenceDictionary()) {
+                sequenceIndexMap = new int[header.getSequenceDictionary().size()];
+                for (int i = 0; i < sequenceIndexMap.length; ++i) {
+                    sequenceIndexMap[i] = samHeaderMerger.getMergedSequenceIndex(header, i);
+                }
+            } else {
+                sequenceIndexMap = null;
+            }
+        }
+
+        SAMRecord head() {
+            return batch == null ? null : batch.get(batchIndex);
+        }
+
+        /** Returns the head record and moves on to the next one, waiting for the next batch if need be. */
+        SAMRecord advance() {
+            final SAMRecord record = batch.get(batchIndex);
+            batch.set(batchIndex, null);
+            if (++batchIndex == batch.size()) {
+                nextBatch();
+            }
+            return record;
+        }
+
+        void submitBatch() {
+            pendingBatch = SharedThreadPools.getPool(POOL_NAME).submit(new Callable<List<SAMRecord>>() {
+                public List<SAMRecord> call() {
+                    return readBatch();
+                }
+            });
+        }
+
+        /** Makes the pending batch current and starts reading the one after it, unless the input is exhausted. */
+        void nextBatch() {
+            batch = null;
+            batchIndex = 0;
+            if (pendingBatch == null) return;
+            final List<SAMRecord> records = SharedThreadPools.getResult(pendingBatch);
+            pendingBatch = null;
+            if (records.isEmpty()) return;
+            batch = records;
+            if (records.size() == batchSize) {
+                submitBatch();
+            }
+        }
+
+        private List<SAMRecord> readBatch() {
+            if (iterator == null) {
+                iterator = reader.iterator();
+            }
+            final List<SAMRecord> records = new ArrayList<SAMRecord>(batchSize);
+            while (records.size() < batchSize && iterator.hasNext()) {
+                final SAMRecord record = iterator.next();
+                remap(record);
+                records.add(record);
+            }
+            return records;
+        }
+
+        /** Moves the record to the merged header, as {@link MergingSamRecordIterator#next()} does. */
+        private void remap(final SAMRecord record) {
+            record.setHeader(mergedHeader);
+
+            if (samHeaderMerger.hasReadGroupCollisions()) {
+                final String oldGroupId = (String) record.getAttribute(ReservedTagConstants.READ_GROUP_ID);
+                if (oldGroupId != null) {
+                    String newGroupId = readGroupIds.get(oldGroupId);
+                    if (newGroupId == null) {
+                        newGroupId = samHeaderMerger.getReadGroupId(header, oldGroupId);
+                        readGroupIds.put(oldGroupId, newGroupId);
+                    }
+                    record.setAttribute(ReservedTagConstants.READ_GROUP_ID, newGroupId);
+                }
+            }
+
+            if (samHeaderMerger.hasProgramGroupCollisions()) {
+                final String oldGroupId = (String) record.getAttribute(ReservedTagConstants.PROGRAM_GROUP_ID);
+                if (oldGroupId != null) {
+                    String newGroupId = programGroupIds.get(oldGroupId);
+                    if (newGroupId == null) {
+                        newGroupId = samHeaderMerger.getProgramGroupId(header, oldGroupId);
+                        programGroupIds.put(oldGroupId, newGroupId);
+                    }
+                    record.setAttribute(ReservedTagConstants.PROGRAM_GROUP_ID, newGroupId);
+                }
+            }
+
+            if (sequenceIndexMap != null) {
+                if (record.getReferenceIndex() != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    record.setReferenceIndex(sequenceIndexMap[record.getReferenceIndex()]);
+                }
+                if (record.getReadPairedFlag() && record.getMateReferenceIndex() != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    record.setMateReferenceIndex(sequenceIndexMap[record.getMateReferenceIndex()]);
+                }
+            }
+        }
+
+        void close() {
+            if (pendingBatch != null && !pendingBatch.cancel(false)) {
+                // Already running or done, so wait for it to stop using the iterator.
+                try {
+                    pendingBatch.get();
+                } catch (final Exception e) {
+                    // The merge has been abandoned.
+                }
+            }
+            pendingBatch = null;
+            batch = null;
+            if (iterator != null) {
+                iterator.close();
+            }
+        }
+    }
+}
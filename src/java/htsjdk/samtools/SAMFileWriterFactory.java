@@ -23,6 +23,8 @@
  */
 package htsjdk.samtools;
 
+import htsjdk.samtools.cram.common.CramVersions;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.ref.ReferenceSource;
 import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.IOUtil;
@@ -46,6 +48,8 @@ public class SAMFileWriterFactory {
     private boolean useAsyncIo = Defaults.USE_ASYNC_IO;
     private int asyncOutputBufferSize = AsyncSAMFileWriter.DEFAULT_QUEUE_SIZE;
     private int bufferSize = Defaults.BUFFER_SIZE;
+    private int deflaterThreads = Defaults.DEFLATER_THREADS;
+    private Version cramVersion = CramVersions.CRAM_v2_1;
     private File tmpDir;
 
 
@@ -131,6 +135,25 @@ public class SAMFileWriterFactory {
         return this;
     }
 
+    /**
+     * Sets the number of BGZF blocks that each BAM writer may compress concurrently on worker threads.
+     * Values less than 2 compress on the writing thread.  For CRAM writers this is the number of containers that may be encoded concurrently.
+     * Default value: [[htsjdk.samtools.Defaults#DEFLATER_THREADS]]
+     */
+    public SAMFileWriterFactory setDeflaterThreads(final int deflaterThreads) {
+        this.deflaterThreads = deflaterThreads;
+        return this;
+    }
+
+    /**
+     * Sets the version of CRAM files written, either CRAM 2.1 or 3.0.
+     * Default value: CRAM 2.1
+     */
+    public SAMFileWriterFactory setCramVersion(final Version cramVersion) {
+        this.cramVersion = cramVersion;
+        return this;
+    }
+
     /**
      * Set the temporary directory to use when sort data.
      *
@@ -185,6 +208,7 @@ public class SAMFileWriterFactory {
     }
 
     private void initializeBAMWriter(final BAMFileWriter writer, final SAMFileHeader header, final boolean presorted, final boolean createIndex) {
+        writer.setDeflaterThreads(deflaterThreads);
         writer.setSortOrder(header.getSortOrder(), presorted);
         if (maxRecordsInRam != null) {
             writer.setMaxRecordsInRam(maxRecordsInRam);
@@ -245,7 +269,11 @@ public class SAMFileWriterFactory {
      */
 
     public SAMFileWriter makeBAMWriter(final SAMFileHeader header, final boolean presorted, final OutputStream stream) {
-        return initWriter(header, presorted, true, new BAMFileWriter(stream, null));
+        final BAMFileWriter writer = new BAMFileWriter(stream, null);
+        initializeBAMWriter(writer, header, presorted, false);
+
+        if (this.useAsyncIo) return new AsyncSAMFileWriter(writer, this.asyncOutputBufferSize);
+        else return writer;
     }
 
     /**
@@ -299,7 +327,8 @@ public class SAMFileWriterFactory {
     }
 
     public CRAMFileWriter makeCRAMWriter(final SAMFileHeader header, final OutputStream stream, final File referenceFasta) {
-        final CRAMFileWriter writer = new CRAMFileWriter(stream, new ReferenceSource(referenceFasta), header, null);
+        final CRAMFileWriter writer = new CRAMFileWriter(stream, new ReferenceSource(referenceFasta), header, null, cramVersion);
+        writer.setEncoderThreads(deflaterThreads);
         writer.setPreserveReadNames(true);
         writer.setCaptureAllTags(true);
         return writer;
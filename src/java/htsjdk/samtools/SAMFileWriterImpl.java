@@ -42,6 +42,8 @@ public abstract class SAMFileWriterImpl implements SAMFileWriter
     private SAMFileHeader.SortOrder sortOrder;
     private SAMFileHeader header;
     private SortingCollection<SAMRecord> alignmentSorter;
+    // used instead of alignmentSorter for coordinate sorting, unless disabled by Defaults.BINARY_COORDINATE_SORT
+    private BAMRecordCoordinateSorter coordinateSorter;
     private File tmpDir = new File(System.getProperty("java.io.tmpdir"));
     private ProgressLoggerInterface progressLogger = null;
     private boolean isClosed = false;
@@ -144,6 +146,8 @@ public abstract class SAMFileWriterImpl implements SAMFileWriter
             } else {
                 sortOrderChecker = new SAMSortOrderChecker(sortOrder);
             }
+        } else if (sortOrder.equals(SAMFileHeader.SortOrder.coordinate) && Defaults.BINARY_COORDINATE_SORT) {
+            coordinateSorter = new BAMRecordCoordinateSorter(header, maxRecordsInRam, tmpDir);
         } else if (!sortOrder.equals(SAMFileHeader.SortOrder.unsorted)) {
             alignmentSorter = SortingCollection.newInstance(SAMRecord.class,
                     new BAMRecordCodec(header), makeComparator(), maxRecordsInRam, tmpDir);
@@ -176,6 +180,8 @@ public abstract class SAMFileWriterImpl implements SAMFileWriter
         } else if (presorted) {
             assertPresorted(alignment);
             writeAlignment(alignment);
+        } else if (coordinateSorter != null) {
+            coordinateSorter.add(alignment);
         } else {
             alignmentSorter.add(alignment);
         }
@@ -204,6 +210,13 @@ public abstract class SAMFileWriterImpl implements SAMFileWriter
                 }
                 alignmentSorter.cleanup();
             }
+            if (coordinateSorter != null) {
+                for (final SAMRecord alignment : coordinateSorter) {
+                    writeAlignment(alignment);
+                    if (progressLogger != null) progressLogger.record(alignment);
+                }
+                coordinateSorter.cleanup();
+            }
             finish();
         }
         isClosed = true;
@@ -194,6 +194,20 @@ public class SAMRecord implements Cloneable
         return mReadName.length();
     }
 
+    /**
+     * This method is preferred over getReadName().equals(), because for BAMRecord it may avoid decoding the name.
+     * @param readName read name as ASCII bytes, without a null terminator.
+     * @return true if the read name is equal to readName.
+     */
+    public boolean readNameEquals(final byte[] readName) {
+        final String name = getReadName();
+        if (name == null || name.length() != readName.length) return false;
+        for (int i = 0; i < readName.length; ++i) {
+            if (name.charAt(i) != (char) (readName[i] & 0xff)) return false;
+        }
+        return true;
+    }
+
     public void setReadName(final String value) {
         mReadName = value;
     }
@@ -272,6 +286,25 @@ public class SAMRecord implements Cloneable
         mBaseQualities = value;
     }
 
+    /**
+     * This method is preferred over getReadBases()[index], because for BAMRecord it avoids decoding all the bases.
+     * @param index 0-based offset into the read.
+     * @return the base at index, as ASCII.
+     */
+    public byte getReadBase(final int index) {
+        return getReadBases()[index];
+    }
+
+    /**
+     * This method is preferred over getBaseQualities()[index], because for BAMRecord it avoids copying all the
+     * qualities.  The read must have base qualities.
+     * @param index 0-based offset into the read.
+     * @return the quality of the base at index, as a binary phred score.
+     */
+    public byte getBaseQuality(final int index) {
+        return getBaseQualities()[index];
+    }
+
     /**
      * If the original base quality scores have been store in the "OQ" tag will return the numeric
      * score as a byte[]
@@ -588,6 +621,24 @@ public class SAMRecord implements Cloneable
         return getCigar().numCigarElements();
     }
 
+    /**
+     * This method is preferred over getCigar().getCigarElement(index), because for BAMRecord it avoids decoding
+     * the cigar.
+     * @return the operator of the cigar element at index.
+     */
+    public CigarOperator getCigarElementOperator(final int index) {
+        return getCigar().getCigarElement(index).getOperator();
+    }
+
+    /**
+     * This method is preferred over getCigar().getCigarElement(index), because for BAMRecord it avoids decoding
+     * the cigar.
+     * @return the length of the cigar element at index.
+     */
+    public int getCigarElementLength(final int index) {
+        return getCigar().getCigarElement(index).getLength();
+    }
+
     public void setCigar(final Cigar cigar) {
         initializeCigar(cigar);
         // Change to cigar could change alignmentEnd, and thus indexing bin
@@ -1054,7 +1105,7 @@ public class SAMRecord implements Cloneable
      * @throws SAMException if the tag is not present.
      */
     public boolean isUnsignedArrayAttribute(final String tag) {
-        final SAMBinaryTagAndValue tmp = this.mAttributes.find(SAMTagUtil.getSingleton().makeBinaryTag(tag));
+        final SAMBinaryTagAndValue tmp = findAttribute(SAMTagUtil.getSingleton().makeBinaryTag(tag));
         if (tmp != null) return tmp.isUnsignedArray();
         throw new SAMException("Tag " + tag + " is not present in this SAMRecord");
     }
@@ -1072,12 +1123,19 @@ public class SAMRecord implements Cloneable
      * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
      */
     public Object getAttribute(final short tag) {
+        final SAMBinaryTagAndValue tmp = findAttribute(tag);
+        if (tmp != null) return tmp.value;
+        else return null;
+    }
+
+    /**
+     * @param tag Binary representation of a 2-char String tag as created by SAMTagUtil.
+     * @return The tag and its value, or null if the tag is not present.  Subclasses that decode attributes lazily
+     * may look up the single tag without decoding the rest.
+     */
+    protected SAMBinaryTagAndValue findAttribute(final short tag) {
         if (this.mAttributes == null) return null;
-        else {
-            final SAMBinaryTagAndValue tmp = this.mAttributes.find(tag);
-            if (tmp != null) return tmp.value;
-            else return null;
-        }
+        return this.mAttributes.find(tag);
     }
 
     /**
@@ -1231,6 +1289,11 @@ public class SAMRecord implements Cloneable
             // then treat this as a one base alignment for indexing purposes.
             alignmentEnd = alignmentStart + 1;
         }
+        if (alignmentEnd > GenomicIndexUtil.BIN_GENOMIC_SPAN) {
+            // Beyond the range of BAI binning, so the record can only be indexed with CSI.
+            // The SAM spec says to use reg2bin(-1, 0) so that the bin still fits in 16 bits.
+            return GenomicIndexUtil.reg2bin(-1, 0);
+        }
         return GenomicIndexUtil.reg2bin(alignmentStart, alignmentEnd);
     }
 
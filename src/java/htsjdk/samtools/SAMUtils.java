@@ -292,7 +292,7 @@ public final class SAMUtils {
      * @param base One of COMPRESSED_*_LOW, a low-order nybble encoded base.
      * @return ASCII base, one of ACGTN=.
      */
-    private static byte compressedBaseToByteLow(final int base) {
+    static byte compressedBaseToByteLow(final int base) {
         return compressedBaseToByte((byte)(base & 0xf));
     }
 
@@ -302,7 +302,7 @@ public final class SAMUtils {
      * @param base One of COMPRESSED_*_HIGH, a high-order nybble encoded base.
      * @return ASCII base, one of ACGTN=.
      */
-    private static byte compressedBaseToByteHigh(final int base) {
+    static byte compressedBaseToByteHigh(final int base) {
         return compressedBaseToByte((byte)((base >> 4) & 0xf));
     }
 
@@ -15,6 +15,20 @@ public class SamFiles {
         // If input is foo.bam, look for foo.bai
         File indexFile;
         final String fileName = samFile.getName();
+
+        // If input is foo.cram, look for foo.cram.crai, then foo.crai, before looking for BAI-format indexes below
+        final String cramExtension = "." + SamReader.Type.CRAM_TYPE.fileExtension();
+        final String craiExtension = "." + SamReader.Type.CRAM_TYPE.indexExtension();
+        if (fileName.endsWith(cramExtension)) {
+            indexFile = new File(samFile.getParent(), fileName + craiExtension);
+            if (indexFile.isFile()) {
+                return indexFile;
+            }
+            indexFile = new File(samFile.getParent(), fileName.substring(0, fileName.length() - cramExtension.length()) + craiExtension);
+            if (indexFile.isFile()) {
+                return indexFile;
+            }
+        }
         if (fileName.endsWith(BamFileIoUtils.BAM_FILE_EXTENSION)) {
             final String bai = fileName.substring(0, fileName.length() - BamFileIoUtils.BAM_FILE_EXTENSION.length()) + BAMIndex.BAMIndexSuffix;
             indexFile = new File(samFile.getParent(), bai);
@@ -27,8 +41,15 @@ public class SamFiles {
         indexFile = new File(samFile.getParent(), samFile.getName() + BAMIndex.BAMIndexSuffix);
         if (indexFile.isFile()) {
             return indexFile;
-        } else {
-            return null;
         }
+
+        // Finally, for BAM files only, look for a CSI index, foo.bam.csi
+        if (fileName.endsWith(BamFileIoUtils.BAM_FILE_EXTENSION)) {
+            indexFile = new File(samFile.getParent(), fileName + CSIIndex.CSI_INDEX_SUFFIX);
+            if (indexFile.isFile()) {
+                return indexFile;
+            }
+        }
+        return null;
     }
 }
@@ -260,10 +260,11 @@ public abstract class SamReaderFactory {
                             bufferedStream = null;
                         }
                         // Handle case in which file is a named pipe, e.g. /dev/stdin or created by mkfifo
-                        if (referenceSequence != null) {
-                            primitiveSamReader = new CRAMFileReader(sourceFile, bufferedStream, new ReferenceSource(referenceSequence));
+                        final ReferenceSource referenceSource = new ReferenceSource(referenceSequence != null ? referenceSequence : Defaults.REFERENCE_FASTA);
+                        if (sourceFile != null) {
+                            primitiveSamReader = new CRAMFileReader(sourceFile, indexFile, referenceSource);
                         } else {
-                            primitiveSamReader = new CRAMFileReader(sourceFile, bufferedStream);
+                            primitiveSamReader = new CRAMFileReader(sourceFile, bufferedStream, referenceSource);
                         }
                     } else {
                         if (indexDefined) {
@@ -365,6 +366,30 @@ public abstract class SamReaderFactory {
             }
         },
 
+        /**
+         * The factory's {@link SamReader}s use the memory-mapped, thread-safe BAM index that is shared by all readers
+         * of the same index file in the process, instead of opening their own.  Recently queried references stay
+         * decoded in memory across readers, which suits serving many small queries against the same files.
+         *
+         * @see SharedBAMFileIndex
+         */
+        SHARE_INDEXES {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.enableIndexSharing(true);
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.enableIndexSharing(true);
+            }
+        },
+
         /**
          * Eagerly decode {@link htsjdk.samtools.SamReader}'s {@link htsjdk.samtools.SAMRecord}s, which can reduce memory footprint if many
          * fields are being read per record, or if fields are going to be updated.
@@ -406,6 +431,78 @@ public abstract class SamReaderFactory {
                 logDebugIgnoringOption(reader, this);
             }
 
+        },
+
+        /**
+         * For {@link htsjdk.samtools.SamReader}s backed by block-compressed streams, read blocks ahead and inflate them
+         * concurrently on worker threads.  The number of blocks in flight is {@link Defaults#INFLATER_THREADS} if that is
+         * set, otherwise the number of available processors.
+         */
+        INFLATE_BLOCKS_IN_PARALLEL {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.enableParallelInflation(true);
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+        },
+
+        /**
+         * When iterating over a whole BAM file, recycle a few {@link htsjdk.samtools.SAMRecord} objects and their
+         * buffers instead of allocating new ones for every record.  A record returned by the iterator is invalidated
+         * by the following call to next(), so it must be copied with {@link SAMRecord#clone()} if it is to be kept.
+         * This is intended for passes that look at each record once, such as counting or collecting statistics.
+         * Queries, and iteration with {@link #DECODE_RECORDS_IN_PARALLEL}, do not reuse records.
+         */
+        REUSE_RECORDS {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.setReuseRecords(true);
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+        },
+
+        /**
+         * When iterating over a whole BAM file, decode, validate and (with {@link #EAGERLY_DECODE}) eagerly decode
+         * batches of {@link htsjdk.samtools.SAMRecord}s concurrently on worker threads, returning them in file order.
+         * For CRAM files, whole containers are read ahead and decoded concurrently, both when iterating and when querying.
+         * The number of batches in flight is {@link Defaults#RECORD_DECODER_THREADS} if that is set, otherwise the
+         * number of available processors.  The factory's {@link SAMRecordFactory} must be thread-safe.
+         */
+        DECODE_RECORDS_IN_PARALLEL {
+            @Override
+            void applyTo(final BAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.setRecordDecoderThreads(Defaults.RECORD_DECODER_THREADS > 1 ?
+                        Defaults.RECORD_DECODER_THREADS : Runtime.getRuntime().availableProcessors());
+            }
+
+            @Override
+            void applyTo(final SAMTextReader underlyingReader, final SamReader reader) {
+                logDebugIgnoringOption(reader, this);
+            }
+
+            @Override
+            void applyTo(final CRAMFileReader underlyingReader, final SamReader reader) {
+                underlyingReader.setDecoderThreads(Defaults.RECORD_DECODER_THREADS > 1 ?
+                        Defaults.RECORD_DECODER_THREADS : Runtime.getRuntime().availableProcessors());
+            }
         };
 
         public static EnumSet<Option> DEFAULTS = EnumSet.noneOf(Option.class);
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A BAM index that is opened once per index file and shared by every reader that asks for it, in every thread.
+ *
+ * The index file is memory-mapped once.  The bins and linear index of each reference are decoded the first time the
+ * reference is queried and kept in a bounded least-recently-used cache, so queries of recently used references do not
+ * touch the file at all.  Queries from any number of threads may run concurrently; only decoding a reference that is
+ * not cached, and the few methods that read the file directly, are serialized.
+ *
+ * Shared indexes stay open after the readers that use them are closed, so that readers opened later can use them
+ * too.  {@link #close()} does nothing; use {@link #release(File)} or {@link #releaseAll()} to drop them.  If an index
+ * file changes on disk, the next request for it opens it afresh.
+ */
+public class SharedBAMFileIndex extends CachingBAMFileIndex {
+    public static final int DEFAULT_MAX_CACHED_REFERENCES = 256;
+
+    private static final ConcurrentMap<String, SharedBAMFileIndex> sharedIndexes = new ConcurrentHashMap<String, SharedBAMFileIndex>();
+
+    private final long fileLength;
+    private final long fileLastModified;
+    /** Guards the index file buffer and the sequence offsets cached by AbstractBAMFileIndex. */
+    private final Object fileLock = new Object();
+    private final ReferenceCache cachedReferences = new ReferenceCache();
+
+    private SharedBAMFileIndex(final File file, final SAMSequenceDictionary dictionary) {
+        super(file, dictionary, true);
+        this.fileLength = file.length();
+        this.fileLastModified = file.lastModified();
+    }
+
+    /**
+     * Returns the shared index for the given index file, opening it if no reader has done so yet, or if it has
+     * changed since it was opened.
+     *
+     * @param dictionary the sequence dictionary of the BAM file being indexed.
+     */
+    public static SharedBAMFileIndex getInstance(final File indexFile, final SAMSequenceDictionary dictionary) {
+        final String key = getKey(indexFile);
+        SharedBAMFileIndex index = sharedIndexes.get(key);
+        if (index != null && index.isCurrent(indexFile)) {
+            return index;
+        }
+        synchronized (sharedIndexes) {
+            index = sharedIndexes.get(key);
+            if (index == null || !index.isCurrent(indexFile)) {
+                index = new SharedBAMFileIndex(indexFile, dictionary);
+                sharedIndexes.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Stops sharing the index for the given file.  Readers that already have it may go on using it, and it is
+     * unmapped once they are all garbage collected.
+     */
+    public static void release(final File indexFile) {
+        sharedIndexes.remove(getKey(indexFile));
+    }
+
+    /** Stops sharing all indexes. */
+    public static void releaseAll() {
+        sharedIndexes.clear();
+    }
+
+    private static String getKey(final File indexFile) {
+        try {
+            return indexFile.getCanonicalPath();
+        } catch (final IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private boolean isCurrent(final File indexFile) {
+        return indexFile.length() == fileLength && indexFile.lastModified() == fileLastModified;
+    }
+
+    /** Sets the number of references whose decoded bins and linear index are kept in memory. */
+    public void setMaxCachedReferences(final int maxCachedReferences) {
+        if (maxCachedReferences < 1) {
+            throw new IllegalArgumentException("At least one reference must be cached: " + maxCachedReferences);
+        }
+        cachedReferences.maxSize = maxCachedReferences;
+    }
+
+    public int getMaxCachedReferences() {
+        return cachedReferences.maxSize;
+    }
+
+    @Override
+    protected BAMIndexContent getQueryResults(final int referenceIndex) {
+        synchronized (cachedReferences) {
+            final BAMIndexContent cached = cachedReferences.get(referenceIndex);
+            if (cached != null) return cached;
+        }
+        // Decode outside the cache lock, so that lookups of cached references are not held up.  Two threads may
+        // decode the same reference at once, which is harmless.
+        final BAMIndexContent queryResults = query(referenceIndex, 1, -1);
+        if (queryResults != null) {
+            synchronized (cachedReferences) {
+                cachedReferences.put(referenceIndex, queryResults);
+            }
+        }
+        return queryResults;
+    }
+
+    @Override
+    protected BAMIndexContent query(final int referenceSequence, final int startPos, final int endPos) {
+        synchronized (fileLock) {
+            return super.query(referenceSequence, startPos, endPos);
+        }
+    }
+
+    @Override
+    public int getNumberOfReferences() {
+        synchronized (fileLock) {
+            return super.getNumberOfReferences();
+        }
+    }
+
+    @Override
+    public long getStartOfLastLinearBin() {
+        synchronized (fileLock) {
+            return super.getStartOfLastLinearBin();
+        }
+    }
+
+    @Override
+    public BAMIndexMetaData getMetaData(final int reference) {
+        synchronized (fileLock) {
+            return super.getMetaData(reference);
+        }
+    }
+
+    @Override
+    public Long getNoCoordinateCount() {
+        synchronized (fileLock) {
+            return super.getNoCoordinateCount();
+        }
+    }
+
+    /** Does nothing, since other readers may be using this index.  See {@link #release(File)}. */
+    @Override
+    public void close() {
+    }
+
+    /** The decoded references, least recently used first, dropping the oldest when there are too many. */
+    private static class ReferenceCache extends LinkedHashMap<Integer, BAMIndexContent> {
+        private static final long serialVersionUID = 1L;
+
+        private volatile int maxSize = DEFAULT_MAX_CACHED_REFERENCES;
+
+        ReferenceCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Integer, BAMIndexContent> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
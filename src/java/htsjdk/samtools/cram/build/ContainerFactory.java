@@ -19,8 +19,10 @@ import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.cram.encoding.writer.DataWriterFactory;
 import htsjdk.samtools.cram.encoding.writer.Writer;
+import htsjdk.samtools.cram.io.ByteBufferUtils;
 import htsjdk.samtools.cram.io.DefaultBitOutputStream;
 import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
+import htsjdk.samtools.cram.io.RANS;
 import htsjdk.samtools.cram.structure.Block;
 import htsjdk.samtools.cram.structure.BlockCompressionMethod;
 import htsjdk.samtools.cram.structure.BlockContentType;
@@ -32,9 +34,11 @@ import htsjdk.samtools.cram.structure.SubstitutionMatrix;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ContainerFactory {
 	SAMFileHeader samFileHeader;
@@ -42,6 +46,8 @@ public class ContainerFactory {
 	boolean preserveReadNames = true;
 	long globalRecordCounter = 0;
 	boolean AP_delta = true;
+	Set<BlockCompressionMethod> externalBlockMethods = EnumSet
+			.of(BlockCompressionMethod.GZIP);
 
 	public ContainerFactory(SAMFileHeader samFileHeader, int recordsPerSlice) {
 		this.samFileHeader = samFileHeader;
@@ -58,6 +64,22 @@ public class ContainerFactory {
 			SubstitutionMatrix substitutionMatrix)
 			throws IllegalArgumentException, IllegalAccessException,
 			IOException {
+		Container c = buildContainer(records, substitutionMatrix,
+				globalRecordCounter);
+		globalRecordCounter += records.size();
+		return c;
+	}
+
+	/**
+	 * Build a container whose first record has the given global record
+	 * counter. Unlike the other build methods this does not advance the
+	 * factory's own counter, so several containers can be built concurrently
+	 * once the caller has assigned their counters.
+	 */
+	public Container buildContainer(List<CramCompressionRecord> records,
+			SubstitutionMatrix substitutionMatrix, long globalRecordCounter)
+			throws IllegalArgumentException, IllegalAccessException,
+			IOException {
 		// get stats, create compression header and slices
 		long time1 = System.nanoTime();
 		CompressionHeader h = new CompressionHeaderFactory().build(records,
@@ -82,7 +104,8 @@ public class ContainerFactory {
 		for (int i = 0; i < records.size(); i += recordsPerSlice) {
 			List<CramCompressionRecord> sliceRecords = records.subList(i,
 					Math.min(records.size(), i + recordsPerSlice));
-			Slice slice = buildSlice(sliceRecords, h, samFileHeader);
+			Slice slice = buildSlice(sliceRecords, h, samFileHeader,
+					externalBlockMethods);
 			slice.globalRecordCounter = lastGlobalRecordCounter;
 			lastGlobalRecordCounter += slice.nofRecords;
 			c.bases += slice.bases;
@@ -101,7 +124,6 @@ public class ContainerFactory {
 		c.buildHeaderTime = time2 - time1;
 		c.buildSlicesTime = time4 - time3;
 
-		globalRecordCounter += records.size();
 		return c;
 	}
 
@@ -122,7 +144,8 @@ public class ContainerFactory {
 	}
 
 	private static Slice buildSlice(List<CramCompressionRecord> records,
-			CompressionHeader h, SAMFileHeader fileHeader)
+			CompressionHeader h, SAMFileHeader fileHeader,
+			Set<BlockCompressionMethod> externalBlockMethods)
 			throws IllegalArgumentException, IllegalAccessException,
 			IOException {
 		Map<Integer, ExposedByteArrayOutputStream> map = new HashMap<Integer, ExposedByteArrayOutputStream>();
@@ -210,16 +233,72 @@ public class ContainerFactory {
 
 			Block externalBlock = new Block();
 			externalBlock.contentType = BlockContentType.EXTERNAL;
-			externalBlock.method = BlockCompressionMethod.GZIP;
 			externalBlock.contentId = i;
 
-			externalBlock.setRawContent(os.toByteArray());
+			compressExternalBlock(externalBlock, os.toByteArray(),
+					externalBlockMethods);
 			slice.external.put(i, externalBlock);
 		}
 
 		return slice;
 	}
 
+	/**
+	 * Compress the block with whichever of the given methods gives the
+	 * smallest result, preferring the cheaper method on ties. Each external
+	 * block holds a single data series, so this picks a method per series.
+	 */
+	private static void compressExternalBlock(Block block, byte[] raw,
+			Set<BlockCompressionMethod> methods) throws IOException {
+		BlockCompressionMethod bestMethod = BlockCompressionMethod.RAW;
+		byte[] best = raw;
+		for (BlockCompressionMethod method : methods) {
+			switch (method) {
+			case GZIP:
+				byte[] gzipped = ByteBufferUtils.gzip(raw);
+				if (gzipped.length < best.length) {
+					bestMethod = method;
+					best = gzipped;
+				}
+				break;
+			case RANS:
+				for (RANS.ORDER order : RANS.ORDER.values()) {
+					byte[] rans = RANS.compress(raw, order);
+					if (rans.length < best.length) {
+						bestMethod = method;
+						best = rans;
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		block.method = bestMethod;
+		block.setContent(raw, best);
+	}
+
+	public Set<BlockCompressionMethod> getExternalBlockMethods() {
+		return externalBlockMethods;
+	}
+
+	/**
+	 * Set the compression methods to try on each external block. RAW is
+	 * always considered.
+	 */
+	public void setExternalBlockMethods(
+			Set<BlockCompressionMethod> externalBlockMethods) {
+		for (BlockCompressionMethod method : externalBlockMethods) {
+			if (method == BlockCompressionMethod.BZIP2
+					|| method == BlockCompressionMethod.LZMA)
+				throw new IllegalArgumentException(
+						"Unsupported block compression method: " + method);
+		}
+		this.externalBlockMethods = externalBlockMethods.isEmpty() ? EnumSet
+				.noneOf(BlockCompressionMethod.class) : EnumSet
+				.copyOf(externalBlockMethods);
+	}
+
 	public boolean isPreserveReadNames() {
 		return preserveReadNames;
 	}
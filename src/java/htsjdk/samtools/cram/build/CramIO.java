@@ -18,6 +18,8 @@ package htsjdk.samtools.cram.build;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.cram.common.CramVersions;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.io.ByteBufferUtils;
 import htsjdk.samtools.cram.io.CountingInputStream;
 import htsjdk.samtools.cram.io.ExposedByteArrayOutputStream;
@@ -62,12 +64,18 @@ import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.CRC32;
 
 public class CramIO {
 	public static int DEFINITION_LENGTH = 4 + 1 + 1 + 20;
 	private static Log log = Log.getInstance(CramIO.class);
 	public static byte[] ZERO_B_EOF_MARKER = ByteBufferUtils
 			.bytesFromHex("0b 00 00 00 ff ff ff ff ff e0 45 4f 46 00 00 00 00 01 00 00 01 00 06 06 01 00 01 00 01 00");
+	/**
+	 * The CRAM 3.0 EOF container, which has the CRC32s of its header and block.
+	 */
+	public static byte[] ZERO_F_EOF_MARKER = ByteBufferUtils
+			.bytesFromHex("0f 00 00 00 ff ff ff ff 0f e0 45 4f 46 00 00 00 00 01 00 05 bd d9 4f 00 01 00 06 06 01 00 01 00 01 00 ee 63 01 4b");
 
 
 	public static String getFileName(String urlString) {
@@ -183,7 +191,7 @@ public class CramIO {
 		if (is instanceof SeekableStream) {
 			CramHeader cramHeader = CramIO.readFormatDefinition(is, new CramHeader());
 			SeekableStream s = (SeekableStream) is;
-			if (!CramIO.hasZeroB_EOF_marker(s))
+			if (!CramIO.checkEOF(cramHeader.getVersion(), s))
 				eofNotFound(cramHeader.getMajorVersion(), cramHeader.getMinorVersion());
 			s.seek(0);
 		} else
@@ -211,11 +219,12 @@ public class CramIO {
 	 * @throws IOException
 	 */
 	public static Container readContainer(CramHeader cramHeader, InputStream is) throws IOException {
-		Container c = CramIO.readContainer(is);
+		Version version = cramHeader.getVersion();
+		Container c = CramIO.readContainer(version, is);
 		if (c == null) {
 			// this will cause System.exit(1):
 			eofNotFound(cramHeader.getMajorVersion(), cramHeader.getMinorVersion());
-			return CramIO.readContainer(new ByteArrayInputStream(CramIO.ZERO_B_EOF_MARKER));
+			return CramIO.readContainer(version, new ByteArrayInputStream(eofMarker(version)));
 		}
 		if (c.isEOF())
 			log.debug("EOF marker found, file/stream is complete.");
@@ -228,6 +237,33 @@ public class CramIO {
 		return ZERO_B_EOF_MARKER.length;
 	}
 
+	private static byte[] eofMarker(Version version) {
+		return version.compareTo(CramVersions.CRAM_v3) >= 0 ? ZERO_F_EOF_MARKER : ZERO_B_EOF_MARKER;
+	}
+
+	/**
+	 * Write the EOF container of the given CRAM version.
+	 */
+	public static long issueEOF(Version version, OutputStream os) throws IOException {
+		byte[] marker = eofMarker(version);
+		os.write(marker);
+		return marker.length;
+	}
+
+	/**
+	 * Check that the stream ends with the EOF container of the given CRAM
+	 * version.
+	 */
+	public static boolean checkEOF(Version version, SeekableStream s) throws IOException {
+		if (version.compareTo(CramVersions.CRAM_v3) < 0)
+			return hasZeroB_EOF_marker(s);
+
+		byte[] tail = new byte[ZERO_F_EOF_MARKER.length];
+		s.seek(s.length() - ZERO_F_EOF_MARKER.length);
+		ByteBufferUtils.readFully(tail, s);
+		return Arrays.equals(tail, ZERO_F_EOF_MARKER);
+	}
+
 	public static boolean hasZeroB_EOF_marker(SeekableStream s) throws IOException {
 		byte[] tail = new byte[ZERO_B_EOF_MARKER.length];
 
@@ -265,7 +301,7 @@ public class CramIO {
 		for (int i = h.id.length; i < 20; i++)
 			os.write(0);
 
-		long len = writeContainerForSamFileHeader(h.getSamFileHeader(), os);
+		long len = writeContainerForSamFileHeader(h.getVersion(), h.getSamFileHeader(), os);
 
 		return DEFINITION_LENGTH + len;
 	}
@@ -290,17 +326,17 @@ public class CramIO {
 
 		readFormatDefinition(is, header);
 
-		header.setSamFileHeader(readSAMFileHeader(new String(header.id), is));
+		header.setSamFileHeader(readSAMFileHeader(header.getVersion(), new String(header.id), is));
 		return header;
 	}
 
-	public static int writeContainer(Container c, OutputStream os) throws IOException {
+	public static int writeContainer(Version version, Container c, OutputStream os) throws IOException {
 
 		long time1 = System.nanoTime();
 		ExposedByteArrayOutputStream baos = new ExposedByteArrayOutputStream();
 
 		Block block = new CompressionHeaderBLock(c.h);
-		block.write(baos);
+		block.write(version, baos);
 		c.blockCount = 1;
 
 		List<Integer> landmarks = new ArrayList<Integer>();
@@ -308,7 +344,7 @@ public class CramIO {
 		for (int i = 0; i < c.slices.length; i++) {
 			Slice s = c.slices[i];
 			landmarks.add(baos.size());
-			sio.write(s, baos);
+			sio.write(version, s, baos);
 			c.blockCount++;
 			c.blockCount++;
 			if (s.embeddedRefBlock != null)
@@ -323,7 +359,7 @@ public class CramIO {
 		calculateSliceOffsetsAndSizes(c);
 
 		ContainerHeaderIO chio = new ContainerHeaderIO();
-		int len = chio.writeContainerHeader(c, os);
+		int len = chio.writeContainerHeader(version, c, os);
 		os.write(baos.getBuffer(), 0, baos.size());
 		len += baos.size();
 
@@ -343,26 +379,44 @@ public class CramIO {
 	 * @return CRAM container or null if no more data
 	 * @throws IOException
 	 */
-	public static Container readContainer(InputStream is) throws IOException {
-		return readContainer(is, 0, Integer.MAX_VALUE);
+	public static Container readContainer(Version version, InputStream is) throws IOException {
+		return readContainer(version, is, true);
 	}
 
-	public static Container readContainerHeader(InputStream is) throws IOException {
+	/**
+	 * Reads next container from the stream.
+	 * 
+	 * @param is
+	 *            the stream to read from
+	 * @param uncompressBlocks
+	 *            if false, the slice blocks are left compressed until their
+	 *            content is first requested, so that this can be done on
+	 *            another thread
+	 * @return CRAM container or null if no more data
+	 * @throws IOException
+	 */
+	public static Container readContainer(Version version, InputStream is, boolean uncompressBlocks)
+			throws IOException {
+		return readContainer(version, is, 0, Integer.MAX_VALUE, uncompressBlocks);
+	}
+
+	public static Container readContainerHeader(Version version, InputStream is) throws IOException {
 		Container c = new Container();
 		ContainerHeaderIO chio = new ContainerHeaderIO();
-		if (!chio.readContainerHeader(c, is))
+		if (!chio.readContainerHeader(version, c, is))
 			return null;
 		return c;
 	}
 
-	private static Container readContainer(InputStream is, int fromSlice, int howManySlices) throws IOException {
+	private static Container readContainer(Version version, InputStream is, int fromSlice, int howManySlices,
+			boolean uncompressBlocks) throws IOException {
 
 		long time1 = System.nanoTime();
-		Container c = readContainerHeader(is);
+		Container c = readContainerHeader(version, is);
 		if (c == null)
 			return null;
 
-		CompressionHeaderBLock chb = new CompressionHeaderBLock(is);
+		CompressionHeaderBLock chb = new CompressionHeaderBLock(version, is);
 		c.h = chb.getCompressionHeader();
 		howManySlices = Math.min(c.landmarks.length, howManySlices);
 
@@ -374,8 +428,8 @@ public class CramIO {
 		for (int s = fromSlice; s < howManySlices - fromSlice; s++) {
 			Slice slice = new Slice();
 			slice.index = s ;
-			sio.readSliceHeadBlock(slice, is);
-			sio.readSliceBlocks(slice, true, is);
+			sio.readSliceHeadBlock(version, slice, is);
+			sio.readSliceBlocks(version, slice, uncompressBlocks, is);
 			slices.add(slice);
 		}
 
@@ -432,13 +486,15 @@ public class CramIO {
 		return headerOS.toByteArray();
 	}
 
-	private static long writeContainerForSamFileHeader(SAMFileHeader samFileHeader, OutputStream os) throws IOException {
+	private static long writeContainerForSamFileHeader(Version version, SAMFileHeader samFileHeader,
+			OutputStream os) throws IOException {
 		byte[] data = toByteArray(samFileHeader);
-		return writeContainerForSamFileHeaderData(data, 0, Math.max(1024, data.length + data.length / 2), os);
+		return writeContainerForSamFileHeaderData(version, data, 0, Math.max(1024, data.length + data.length / 2),
+				os);
 	}
 
-	private static long writeContainerForSamFileHeaderData(byte[] data, int offset, int len, OutputStream os)
-			throws IOException {
+	private static long writeContainerForSamFileHeaderData(Version version, byte[] data, int offset, int len,
+			OutputStream os) throws IOException {
 		Block block = new Block();
 		byte[] blockContent = new byte[len];
 		System.arraycopy(data, 0, blockContent, offset, Math.min(data.length - offset, len));
@@ -461,19 +517,23 @@ public class CramIO {
 		c.sequenceId = 0;
 
 		ExposedByteArrayOutputStream baos = new ExposedByteArrayOutputStream();
-		block.write(baos);
+		block.write(version, baos);
 		c.containerByteSize = baos.size();
 
 		ContainerHeaderIO chio = new ContainerHeaderIO();
-		int containerHeaderByteSize = chio.writeContainerHeader(c, os);
+		int containerHeaderByteSize = chio.writeContainerHeader(version, c, os);
 		os.write(baos.getBuffer(), 0, baos.size());
 
 		return containerHeaderByteSize + baos.size();
 	}
 
-	public static SAMFileHeader readSAMFileHeader(String id, InputStream is) throws IOException {
-		readContainerHeader(is);
-		Block b = new Block(is, true, true);
+	public static SAMFileHeader readSAMFileHeader(Version version, String id, InputStream is) throws IOException {
+		Container container = readContainerHeader(version, is);
+		// read the whole container, as other writers may follow the header
+		// block with padding blocks
+		byte[] containerBytes = new byte[container.containerByteSize];
+		ByteBufferUtils.readFully(containerBytes, is);
+		Block b = new Block(version, new ByteArrayInputStream(containerBytes), true, true);
 
 		is = new ByteArrayInputStream(b.getRawContent());
 
@@ -510,8 +570,9 @@ public class CramIO {
 			return false;
 		}
 
-		readContainerHeader(cis);
-		Block b = new Block(cis, false, false);
+		readContainerHeader(header.getVersion(), cis);
+		long blockStart = cis.getCount();
+		Block b = new Block(header.getVersion(), cis, false, false);
 		long dataStart = cis.getCount();
 		cis.close();
 
@@ -528,6 +589,18 @@ public class CramIO {
 		mapOut.put(data);
 		mapOut.force();
 
+		if (Block.hasCRC32(header.getVersion())) {
+			// the block's CRC32 follows its content and covers its header too
+			byte[] block = new byte[(int) (dataStart - blockStart) + b.getRawContentSize()];
+			raf.seek(blockStart);
+			raf.readFully(block);
+			CRC32 crc32 = new CRC32();
+			crc32.update(block);
+			ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt((int) crc32.getValue());
+			raf.write(buf.array());
+		}
+
 		channelOut.close();
 		raf.close();
 
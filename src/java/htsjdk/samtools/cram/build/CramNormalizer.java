@@ -52,6 +52,15 @@ public class CramNormalizer {
         this.referenceSource = referenceSource;
     }
 
+    /**
+     * Sets the number of records normalized so far.  Records are numbered from it, and the numbers are used to
+     * name records without a stored name, so a normalizer starting part way through a file must be told how many
+     * records came before.
+     */
+    public void setReadCounter(int readCounter) {
+        this.readCounter = readCounter;
+    }
+
     public void normalize(ArrayList<CramCompressionRecord> records, boolean resetPairing,
                           byte[] ref, int alignmentStart,
                           SubstitutionMatrix substitutionMatrix, boolean AP_delta) {
@@ -18,6 +18,7 @@ package htsjdk.samtools.cram.index;
 import htsjdk.samtools.CRAMIndexer;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.cram.build.CramIO;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.io.CountingInputStream;
 import htsjdk.samtools.cram.structure.Container;
 import htsjdk.samtools.cram.structure.CramHeader;
@@ -34,10 +35,12 @@ class BaiIndexer {
 	public CountingInputStream is;
 	public SAMFileHeader samFileHeader;
 	public CRAMIndexer indexer;
+	private Version version;
 
-	public BaiIndexer(InputStream is, SAMFileHeader samFileHeader, File output) {
+	public BaiIndexer(InputStream is, CramHeader cramHeader, File output) {
 		this.is = new CountingInputStream(is);
-		this.samFileHeader = samFileHeader;
+		this.samFileHeader = cramHeader.getSamFileHeader();
+		this.version = cramHeader.getVersion();
 
 		indexer = new CRAMIndexer(output, samFileHeader);
 	}
@@ -46,13 +49,14 @@ class BaiIndexer {
 		this.is = new CountingInputStream(is);
 		CramHeader cramHeader = CramIO.readCramHeader(this.is);
 		samFileHeader = cramHeader.getSamFileHeader();
+		version = cramHeader.getVersion();
 
 		indexer = new CRAMIndexer(output, samFileHeader);
 	}
 
 	private boolean nextContainer() throws IOException {
 		long offset = is.getCount();
-		Container c = CramIO.readContainer(is);
+		Container c = CramIO.readContainer(version, is);
 		if (c == null)
 			return false;
 		c.offset = offset;
@@ -17,6 +17,7 @@ package htsjdk.samtools.cram.index;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.cram.build.CramIO;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.io.CountingInputStream;
 import htsjdk.samtools.cram.structure.Container;
 import htsjdk.samtools.cram.structure.CramHeader;
@@ -35,6 +36,7 @@ class CraiIndexer {
 
 	private CountingInputStream is;
 	private SAMFileHeader samFileHeader;
+	private Version version;
 	private CramIndex index;
 
 	public CraiIndexer(InputStream is, File output)
@@ -42,6 +44,7 @@ class CraiIndexer {
 		this.is = new CountingInputStream(is);
 		CramHeader cramHeader = CramIO.readCramHeader(this.is);
 		samFileHeader = cramHeader.getSamFileHeader();
+		version = cramHeader.getVersion();
 
 		index = new CramIndex(new GZIPOutputStream(new BufferedOutputStream(
 				new FileOutputStream(output))));
@@ -50,7 +53,7 @@ class CraiIndexer {
 
 	private boolean nextContainer() throws IOException {
 		long offset = is.getCount();
-		Container c = CramIO.readContainer(is);
+		Container c = CramIO.readContainer(version, is);
 		if (c == null)
 			return false;
 		c.offset = offset;
@@ -16,6 +16,7 @@
 package htsjdk.samtools.cram.index;
 
 import htsjdk.samtools.cram.build.CramIO;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.io.CountingInputStream;
 import htsjdk.samtools.cram.structure.Container;
 import htsjdk.samtools.cram.structure.Slice;
@@ -128,16 +129,19 @@ public class CramIndex {
 			entry.containerStartOffset = containerStartOffset;
 			entry.sliceOffset = sliceOffset;
 			entry.sliceSize = sliceSize;
+			entry.sliceIndex = sliceIndex;
 			return entry;
 		}
 	}
 	
 	public static List<Entry> buildIndexForCramFile(InputStream is) throws IOException {
 		CountingInputStream cis = new CountingInputStream(is) ;
+		// skip the file definition and SAM header, so that the offsets are those of the containers:
+		Version version = CramIO.readCramHeader(cis).getVersion();
 		List<Entry> index = new ArrayList<CramIndex.Entry>() ;
 		while (true) {
 			long offset = cis.getCount();
-			Container c = CramIO.readContainer(cis); 
+			Container c = CramIO.readContainer(version, cis);
 			if (c == null || c.isEOF())
 				break;
 			c.offset = offset;
@@ -163,10 +167,18 @@ public class CramIndex {
 		Scanner scanner = new Scanner(is);
 
 		try {
+			Entry previous = null;
 			while (scanner.hasNextLine()) {
 				String line = scanner.nextLine();
 				Entry entry = new Entry(line);
+				// slice indexes are not stored, but the slices of a container are listed in order:
+				if (previous != null
+						&& previous.containerStartOffset == entry.containerStartOffset)
+					entry.sliceIndex = previous.sliceIndex + 1;
+				else
+					entry.sliceIndex = 0;
 				list.add(entry);
+				previous = entry;
 			}
 		} finally {
 			try {
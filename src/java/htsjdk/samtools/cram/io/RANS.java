@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright 2013 EMBL-EBI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package htsjdk.samtools.cram.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The static rANS entropy coder used for CRAM blocks. Four interleaved 32 bit
+ * states are renormalised a byte at a time, symbol frequencies are scaled to 12
+ * bits, and either an order-0 model or an order-1 model (conditioned on the
+ * previous byte) is used.
+ * <p>
+ * Compressed data starts with a 9 byte header: the order, followed by the
+ * compressed size (excluding the header) and the raw size as little endian
+ * 32 bit integers. The frequency tables follow, then the four initial states
+ * and finally the encoded bytes.
+ */
+public class RANS {
+	public enum ORDER {
+		ZERO, ONE
+	}
+
+	private static final int TF_SHIFT = 12;
+	private static final int TOTFREQ = 1 << TF_SHIFT;
+	private static final int MASK = TOTFREQ - 1;
+	private static final int RANS_BYTE_L = 1 << 23;
+	private static final int HEADER_LENGTH = 9;
+
+	/**
+	 * A buffer that the encoder fills from the end towards the start, since
+	 * rANS encodes symbols in the reverse of the order they are decoded.
+	 */
+	private static class ReverseOutput {
+		final byte[] buf;
+		int pos;
+
+		ReverseOutput(int size) {
+			buf = new byte[size];
+			pos = size;
+		}
+
+		int put(int x, int start, int freq) {
+			final int xMax = ((RANS_BYTE_L >> TF_SHIFT) << 8) * freq;
+			while (x >= xMax) {
+				buf[--pos] = (byte) x;
+				x >>>= 8;
+			}
+			return ((x / freq) << TF_SHIFT) + (x % freq) + start;
+		}
+
+		void flush(int x) {
+			pos -= 4;
+			buf[pos] = (byte) x;
+			buf[pos + 1] = (byte) (x >> 8);
+			buf[pos + 2] = (byte) (x >> 16);
+			buf[pos + 3] = (byte) (x >> 24);
+		}
+	}
+
+	public static byte[] compress(byte[] in, ORDER order) {
+		// order-1 splits the input into four runs, which needs a few bytes
+		if (order == ORDER.ONE && in.length >= 4)
+			return compressOrder1(in);
+		return compressOrder0(in);
+	}
+
+	public static byte[] uncompress(byte[] in) {
+		ByteBuffer buf = ByteBuffer.wrap(in).order(ByteOrder.LITTLE_ENDIAN);
+		int order = buf.get();
+		int compressedSize = buf.getInt();
+		int rawSize = buf.getInt();
+		if (compressedSize != in.length - HEADER_LENGTH)
+			throw new RuntimeException("Corrupt rANS data: expected "
+					+ compressedSize + " compressed bytes but found "
+					+ (in.length - HEADER_LENGTH));
+
+		byte[] out = new byte[rawSize];
+		if (rawSize == 0)
+			return out;
+
+		switch (order) {
+		case 0:
+			uncompressOrder0(buf, out);
+			break;
+		case 1:
+			uncompressOrder1(buf, out);
+			break;
+		default:
+			throw new RuntimeException("Unknown rANS order: " + order);
+		}
+		return out;
+	}
+
+	private static byte[] compressOrder0(byte[] in) {
+		int[] F = new int[256];
+		for (byte b : in)
+			F[b & 0xFF]++;
+		normalise(F, in.length);
+		int[] C = cumulative(F);
+
+		ReverseOutput data = new ReverseOutput(2 * in.length + 16);
+		int[] R = new int[] { RANS_BYTE_L, RANS_BYTE_L, RANS_BYTE_L,
+				RANS_BYTE_L };
+
+		int end = in.length & ~3;
+		for (int j = (in.length & 3) - 1; j >= 0; j--) {
+			int c = in[end + j] & 0xFF;
+			R[j] = data.put(R[j], C[c], F[c]);
+		}
+		for (int i = end; i > 0; i -= 4) {
+			for (int j = 3; j >= 0; j--) {
+				int c = in[i - 4 + j] & 0xFF;
+				R[j] = data.put(R[j], C[c], F[c]);
+			}
+		}
+		for (int j = 3; j >= 0; j--)
+			data.flush(R[j]);
+
+		ByteBuffer table = ByteBuffer.allocate(256 * 4 + 1);
+		if (in.length > 0)
+			writeFrequencies(table, F);
+		return assemble(0, in.length, table, data);
+	}
+
+	private static byte[] compressOrder1(byte[] in) {
+		int[][] F = new int[256][256];
+		int[] T = new int[256];
+		int last = 0;
+		for (byte b : in) {
+			int c = b & 0xFF;
+			F[last][c]++;
+			T[last]++;
+			last = c;
+		}
+		// each of the four runs starts in context zero
+		int isz4 = in.length >> 2;
+		for (int j = 1; j < 4; j++) {
+			F[0][in[j * isz4] & 0xFF]++;
+			T[0]++;
+		}
+
+		int[][] C = new int[256][];
+		for (int i = 0; i < 256; i++) {
+			if (T[i] == 0)
+				continue;
+			normalise(F[i], T[i]);
+			C[i] = cumulative(F[i]);
+		}
+
+		ReverseOutput data = new ReverseOutput(2 * in.length + 16);
+		int[] R = new int[] { RANS_BYTE_L, RANS_BYTE_L, RANS_BYTE_L,
+				RANS_BYTE_L };
+
+		// the last run takes whatever does not divide evenly by four
+		for (int p = in.length - 1; p >= 4 * isz4; p--) {
+			int c = in[p] & 0xFF, ctx = in[p - 1] & 0xFF;
+			R[3] = data.put(R[3], C[ctx][c], F[ctx][c]);
+		}
+		for (int i = isz4 - 1; i > 0; i--) {
+			for (int j = 3; j >= 0; j--) {
+				int p = j * isz4 + i;
+				int c = in[p] & 0xFF, ctx = in[p - 1] & 0xFF;
+				R[j] = data.put(R[j], C[ctx][c], F[ctx][c]);
+			}
+		}
+		for (int j = 3; j >= 0; j--) {
+			int c = in[j * isz4] & 0xFF;
+			R[j] = data.put(R[j], C[0][c], F[0][c]);
+		}
+		for (int j = 3; j >= 0; j--)
+			data.flush(R[j]);
+
+		ByteBuffer table = ByteBuffer.allocate(257 * (256 * 4 + 2));
+		int rle = 0;
+		for (int i = 0; i < 256; i++) {
+			if (T[i] == 0)
+				continue;
+			rle = writeSymbol(table, i, rle, T);
+			writeFrequencies(table, F[i]);
+		}
+		table.put((byte) 0);
+		return assemble(1, in.length, table, data);
+	}
+
+	private static byte[] assemble(int order, int rawSize, ByteBuffer table,
+			ReverseOutput data) {
+		int dataSize = data.buf.length - data.pos;
+		int compressedSize = table.position() + dataSize;
+		ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + compressedSize)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		out.put((byte) order);
+		out.putInt(compressedSize);
+		out.putInt(rawSize);
+		out.put(table.array(), 0, table.position());
+		out.put(data.buf, data.pos, dataSize);
+		return out.array();
+	}
+
+	private static void uncompressOrder0(ByteBuffer in, byte[] out) {
+		int[] F = new int[256];
+		int[] C = new int[256];
+		byte[] symbols = new byte[TOTFREQ];
+		readFrequencies(in, F, C, symbols);
+
+		int[] R = readStates(in);
+		int end = out.length & ~3;
+		for (int i = 0; i < end; i += 4) {
+			for (int j = 0; j < 4; j++) {
+				int c = symbols[R[j] & MASK] & 0xFF;
+				out[i + j] = (byte) c;
+				R[j] = advance(in, R[j], C[c], F[c]);
+			}
+		}
+		for (int j = 0; j < (out.length & 3); j++) {
+			int c = symbols[R[j] & MASK] & 0xFF;
+			out[end + j] = (byte) c;
+			R[j] = advance(in, R[j], C[c], F[c]);
+		}
+	}
+
+	private static void uncompressOrder1(ByteBuffer in, byte[] out) {
+		int[][] F = new int[256][];
+		int[][] C = new int[256][];
+		byte[][] symbols = new byte[256][];
+
+		int rle = 0;
+		int i = in.get() & 0xFF;
+		do {
+			F[i] = new int[256];
+			C[i] = new int[256];
+			symbols[i] = new byte[TOTFREQ];
+			readFrequencies(in, F[i], C[i], symbols[i]);
+
+			if (rle == 0 && i + 1 == (in.get(in.position()) & 0xFF)) {
+				i = in.get() & 0xFF;
+				rle = in.get() & 0xFF;
+			} else if (rle > 0) {
+				rle--;
+				i++;
+			} else
+				i = in.get() & 0xFF;
+		} while (i != 0);
+
+		int[] R = readStates(in);
+		int isz4 = out.length >> 2;
+		int[] last = new int[4];
+		for (int k = 0; k < isz4; k++) {
+			for (int j = 0; j < 4; j++) {
+				int ctx = last[j];
+				if (symbols[ctx] == null)
+					throw new RuntimeException(
+							"Corrupt rANS data: missing context " + ctx);
+				int c = symbols[ctx][R[j] & MASK] & 0xFF;
+				out[j * isz4 + k] = (byte) c;
+				R[j] = advance(in, R[j], C[ctx][c], F[ctx][c]);
+				last[j] = c;
+			}
+		}
+		for (int p = 4 * isz4; p < out.length; p++) {
+			int ctx = last[3];
+			if (symbols[ctx] == null)
+				throw new RuntimeException(
+						"Corrupt rANS data: missing context " + ctx);
+			int c = symbols[ctx][R[3] & MASK] & 0xFF;
+			out[p] = (byte) c;
+			R[3] = advance(in, R[3], C[ctx][c], F[ctx][c]);
+			last[3] = c;
+		}
+	}
+
+	private static int advance(ByteBuffer in, int x, int start, int freq) {
+		x = freq * (x >>> TF_SHIFT) + (x & MASK) - start;
+		while (x < RANS_BYTE_L)
+			x = (x << 8) | (in.get() & 0xFF);
+		return x;
+	}
+
+	private static int[] readStates(ByteBuffer in) {
+		int[] R = new int[4];
+		for (int j = 0; j < 4; j++)
+			R[j] = in.getInt();
+		return R;
+	}
+
+	/**
+	 * Scale the frequencies so that they sum to one less than TOTFREQ, keeping
+	 * every symbol that occurs at a frequency of at least one.
+	 */
+	private static void normalise(int[] F, int total) {
+		final int target = TOTFREQ - 1;
+		int sum = 0;
+		int M = 0;
+		for (int j = 0; j < 256; j++) {
+			if (F[j] == 0)
+				continue;
+			if (F[j] > F[M])
+				M = j;
+			F[j] = (int) ((long) F[j] * target / total);
+			if (F[j] == 0)
+				F[j] = 1;
+			sum += F[j];
+		}
+
+		if (sum <= target) {
+			F[M] += target - sum;
+			return;
+		}
+
+		// rounding rare symbols up overshot the target: take it back from
+		// the most frequent ones
+		int excess = sum - target;
+		while (excess > 0) {
+			M = 0;
+			for (int j = 1; j < 256; j++)
+				if (F[j] > F[M])
+					M = j;
+			int take = Math.min(excess, F[M] - 1);
+			F[M] -= take;
+			excess -= take;
+		}
+	}
+
+	private static int[] cumulative(int[] F) {
+		int[] C = new int[256];
+		for (int j = 1; j < 256; j++)
+			C[j] = C[j - 1] + F[j - 1];
+		return C;
+	}
+
+	/**
+	 * Write a symbol of a frequency table, run length encoding runs of
+	 * consecutive symbols: the first symbol of a run is followed by the number
+	 * of symbols that follow it, which are then left out.
+	 */
+	private static int writeSymbol(ByteBuffer out, int symbol, int rle,
+			int[] present) {
+		if (rle > 0)
+			return rle - 1;
+
+		out.put((byte) symbol);
+		if (symbol > 0 && present[symbol - 1] != 0) {
+			for (rle = symbol + 1; rle < 256 && present[rle] != 0; rle++)
+				;
+			rle -= symbol + 1;
+			out.put((byte) rle);
+		}
+		return rle;
+	}
+
+	private static void writeFrequencies(ByteBuffer out, int[] F) {
+		int rle = 0;
+		for (int j = 0; j < 256; j++) {
+			if (F[j] == 0)
+				continue;
+			rle = writeSymbol(out, j, rle, F);
+
+			if (F[j] < 128)
+				out.put((byte) F[j]);
+			else {
+				out.put((byte) (128 | (F[j] >> 8)));
+				out.put((byte) F[j]);
+			}
+		}
+		out.put((byte) 0);
+	}
+
+	private static void readFrequencies(ByteBuffer in, int[] F, int[] C,
+			byte[] symbols) {
+		int rle = 0;
+		int x = 0;
+		int j = in.get() & 0xFF;
+		do {
+			int f = in.get() & 0xFF;
+			if (f >= 128)
+				f = ((f & 127) << 8) | (in.get() & 0xFF);
+			if (x + f > TOTFREQ)
+				throw new RuntimeException(
+						"Corrupt rANS data: frequencies exceed " + TOTFREQ);
+			F[j] = f;
+			C[j] = x;
+			for (int k = 0; k < f; k++)
+				symbols[x + k] = (byte) j;
+			x += f;
+
+			if (rle == 0 && j + 1 == (in.get(in.position()) & 0xFF)) {
+				j = in.get() & 0xFF;
+				rle = in.get() & 0xFF;
+			} else if (rle > 0) {
+				rle--;
+				j++;
+			} else
+				j = in.get() & 0xFF;
+		} while (j != 0);
+	}
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2013 EMBL-EBI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package htsjdk.samtools.cram.ref;
+
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.util.SharedThreadPools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of reference sequence bases shared by all {@link ReferenceSource}s
+ * in the process, so that CRAM files read or written against the same
+ * reference load each sequence once.
+ * <p>
+ * The cache holds at most a fixed number of bytes and evicts the least
+ * recently used sequences when it grows beyond that. Lookups never block on
+ * each other; a thread asking for a sequence that another thread is loading
+ * waits for that load instead of starting its own.
+ */
+public class ReferenceCache {
+	private static final ReferenceCache instance = new ReferenceCache(
+			Defaults.REFERENCE_CACHE_BYTES);
+
+	private static class Entry {
+		final FutureTask<byte[]> load;
+		volatile long lastAccess;
+		// bytes counted towards the cache size, guarded by the cache's lock
+		long size;
+
+		Entry(FutureTask<byte[]> load, long lastAccess) {
+			this.load = load;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	private static class EvictionCandidate {
+		final String key;
+		final Entry entry;
+		final long lastAccess;
+
+		EvictionCandidate(String key, Entry entry) {
+			this.key = key;
+			this.entry = entry;
+			this.lastAccess = entry.lastAccess;
+		}
+	}
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong clock = new AtomicLong();
+	private long sizeInBytes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private volatile long maxBytes;
+
+	public ReferenceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cache shared by the whole process, sized by
+	 *         {@link Defaults#REFERENCE_CACHE_BYTES}
+	 */
+	public static ReferenceCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return the cached bases for the key, or null if they are not cached or
+	 *         are still being loaded
+	 */
+	public byte[] getIfPresent(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null || !entry.load.isDone())
+			return null;
+
+		byte[] bases = SharedThreadPools.getResult(entry.load);
+		if (bases != null) {
+			entry.lastAccess = clock.incrementAndGet();
+			hits.incrementAndGet();
+		}
+		return bases;
+	}
+
+	/**
+	 * Return the bases for the key, calling the loader to fetch them if they
+	 * are not cached. Only one thread loads any given key at a time. A null
+	 * result or an exception from the loader is passed on to every thread
+	 * waiting for it, and is not cached.
+	 */
+	public byte[] get(String key, Callable<byte[]> loader) {
+		Entry entry = entries.get(key);
+		boolean loaded = false;
+		if (entry == null) {
+			Entry newEntry = new Entry(new FutureTask<byte[]>(loader),
+					clock.incrementAndGet());
+			entry = entries.putIfAbsent(key, newEntry);
+			if (entry == null) {
+				entry = newEntry;
+				misses.incrementAndGet();
+				entry.load.run();
+				loaded = true;
+			}
+		}
+
+		byte[] bases;
+		try {
+			bases = SharedThreadPools.getResult(entry.load);
+		} catch (RuntimeException e) {
+			entries.remove(key, entry);
+			throw e;
+		}
+
+		if (bases == null) {
+			entries.remove(key, entry);
+		} else if (loaded) {
+			add(key, entry, bases.length);
+		} else {
+			entry.lastAccess = clock.incrementAndGet();
+			hits.incrementAndGet();
+		}
+		return bases;
+	}
+
+	/**
+	 * Remove every key starting with the given prefix.
+	 */
+	public synchronized void removeByPrefix(String prefix) {
+		for (String key : entries.keySet()) {
+			if (key.startsWith(prefix))
+				remove(key, entries.get(key));
+		}
+	}
+
+	public synchronized void clear() {
+		for (String key : entries.keySet())
+			remove(key, entries.get(key));
+	}
+
+	private synchronized void add(String key, Entry entry, long size) {
+		// the entry may have been removed while it was loading
+		if (entries.get(key) != entry)
+			return;
+		entry.size = size;
+		sizeInBytes += size;
+		evict();
+	}
+
+	private boolean remove(String key, Entry entry) {
+		if (entry == null || !entries.remove(key, entry))
+			return false;
+		sizeInBytes -= entry.size;
+		return true;
+	}
+
+	/**
+	 * Drop the least recently used sequences until the cache fits its budget.
+	 * Sequences that are still loading are left alone; they are accounted for
+	 * once their load completes.
+	 */
+	private synchronized void evict() {
+		if (sizeInBytes <= maxBytes)
+			return;
+
+		// snapshot the access times, which lookups keep updating
+		List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>();
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			if (e.getValue().size > 0)
+				candidates.add(new EvictionCandidate(e.getKey(), e.getValue()));
+		}
+		Collections.sort(candidates, new Comparator<EvictionCandidate>() {
+			@Override
+			public int compare(EvictionCandidate o1, EvictionCandidate o2) {
+				return o1.lastAccess < o2.lastAccess ? -1
+						: (o1.lastAccess == o2.lastAccess ? 0 : 1);
+			}
+		});
+
+		for (EvictionCandidate c : candidates) {
+			if (sizeInBytes <= maxBytes)
+				break;
+			if (remove(c.key, c.entry))
+				evictions.incrementAndGet();
+		}
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * @return the number of bytes of bases currently held by the cache
+	 */
+	public synchronized long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache, including those
+	 *         that waited for another thread's load
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that had to load their sequence
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of sequences dropped to keep within the byte budget
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+}
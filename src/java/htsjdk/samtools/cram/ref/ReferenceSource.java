@@ -19,7 +19,9 @@ import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.cram.io.ByteBufferUtils;
+import htsjdk.samtools.reference.FastaSequenceFile;
 import htsjdk.samtools.reference.FastaSequenceIndex;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
@@ -37,6 +39,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
 
 public class ReferenceSource {
@@ -45,9 +48,20 @@ public class ReferenceSource {
 	private FastaSequenceIndex fastaSequenceIndex;
 	private int downloadTriesBeforeFailing = 2;
 
-	private Map<String, WeakReference<byte[]>> cacheW = new HashMap<String, WeakReference<byte[]>>();
+	private ReferenceCache cache = ReferenceCache.getInstance();
+	/*
+	 * Sequences are cached by name under this prefix, which is the same for
+	 * every source reading the same FASTA file so that they share the cached
+	 * bases. Sources that cannot be tied to a file have no prefix and only
+	 * hold weak references to the sequences they find by name, since no
+	 * other source could ever look them up. Sequences found by md5 are cached
+	 * under the md5 alone.
+	 */
+	private final String namePrefix;
+	private final Map<String, WeakReference<byte[]>> weakCache = new HashMap<String, WeakReference<byte[]>>();
 
 	public ReferenceSource() {
+		namePrefix = null;
 	}
 
 	public ReferenceSource(File file) {
@@ -58,40 +72,70 @@ public class ReferenceSource {
 			File indexFile = new File(file.getAbsoluteFile() + ".fai");
 			if (indexFile.exists())
 				fastaSequenceIndex = new FastaSequenceIndex(indexFile);
-		}
+
+			namePrefix = filePrefix(file);
+		} else
+			namePrefix = null;
 	}
 
 	public ReferenceSource(ReferenceSequenceFile rsFile) {
 		this.rsFile = rsFile;
+		if (rsFile instanceof IndexedFastaSequenceFile)
+			namePrefix = filePrefix(((IndexedFastaSequenceFile) rsFile).getFile());
+		else if (rsFile instanceof FastaSequenceFile)
+			namePrefix = filePrefix(((FastaSequenceFile) rsFile).getFile());
+		else
+			namePrefix = null;
 	}
 
+	private static String filePrefix(File file) {
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (IOException e) {
+			path = file.getAbsolutePath();
+		}
+		return "file:" + path + ":" + file.lastModified() + ":";
+	}
+
+	/**
+	 * Drop the sequences this source has cached by name.
+	 */
 	public void clearCache() {
-		cacheW.clear();
+		if (namePrefix != null)
+			cache.removeByPrefix(namePrefix);
+		else
+			synchronized (weakCache) {
+				weakCache.clear();
+			}
 	}
 
-	private byte[] findInCache(String name) {
-		WeakReference<byte[]> r = cacheW.get(name);
-		if (r != null) {
-			byte[] bytes = r.get();
-			if (bytes != null)
-				return bytes;
-		}
-		return null;
+	/**
+	 * Use the given cache instead of the process-wide one.
+	 */
+	public void setCache(ReferenceCache cache) {
+		this.cache = cache;
 	}
 
-	public synchronized byte[] getReferenceBases(SAMSequenceRecord record,
-			boolean tryNameVariants) {
+	public ReferenceCache getCache() {
+		return cache;
+	}
+
+	public byte[] getReferenceBases(final SAMSequenceRecord record,
+			final boolean tryNameVariants) {
+		final String name = record.getSequenceName();
 		{ // check cache by sequence name:
-			String name = record.getSequenceName();
-			byte[] bases = findInCache(name);
+			byte[] bases = namePrefix == null ? findInWeakCache(name) : cache
+					.getIfPresent(namePrefix + name);
 			if (bases != null)
 				return bases;
 		}
 
-		String md5 = record.getAttribute(SAMSequenceRecord.MD5_TAG);
+		final String md5 = record.getAttribute(SAMSequenceRecord.MD5_TAG);
+		final String md5Key = "md5:" + md5;
 		{ // check cache by md5:
 			if (md5 != null) {
-				byte[] bases = findInCache(md5);
+				byte[] bases = cache.getIfPresent(md5Key);
 				if (bases != null)
 					return bases;
 			}
@@ -100,33 +144,65 @@ public class ReferenceSource {
 		byte[] bases;
 
 		{ // try to fetch sequence by name:
-			bases = findBasesByName(record.getSequenceName(), tryNameVariants);
-			if (bases != null) {
-				SequenceUtil.upperCase(bases);
-				cacheW.put(record.getSequenceName(), new WeakReference<byte[]>(
-						bases));
+			if (namePrefix == null) {
+				bases = loadBasesByName(name, tryNameVariants);
+				if (bases != null)
+					synchronized (weakCache) {
+						weakCache.put(name, new WeakReference<byte[]>(bases));
+					}
+			} else
+				bases = cache.get(namePrefix + name, new Callable<byte[]>() {
+					@Override
+					public byte[] call() {
+						return loadBasesByName(name, tryNameVariants);
+					}
+				});
+			if (bases != null)
 				return bases;
-			}
 		}
 
 		{ // try to fetch sequence by md5:
 			if (md5 != null)
-				try {
-					bases = findBasesByMD5(md5);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
-			if (bases != null) {
-				SequenceUtil.upperCase(bases);
-				cacheW.put(md5, new WeakReference<byte[]>(bases));
+				bases = cache.get(md5Key, new Callable<byte[]>() {
+					@Override
+					public byte[] call() {
+						byte[] bases;
+						try {
+							bases = findBasesByMD5(md5);
+						} catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+						if (bases != null)
+							SequenceUtil.upperCase(bases);
+						return bases;
+					}
+				});
+			if (bases != null)
 				return bases;
-			}
 		}
 
 		// sequence not found, give up:
 		return null;
 	}
 
+	private byte[] findInWeakCache(String name) {
+		synchronized (weakCache) {
+			WeakReference<byte[]> r = weakCache.get(name);
+			return r == null ? null : r.get();
+		}
+	}
+
+	private byte[] loadBasesByName(String name, boolean tryNameVariants) {
+		byte[] bases;
+		// sequence files are not safe for concurrent use
+		synchronized (this) {
+			bases = findBasesByName(name, tryNameVariants);
+		}
+		if (bases != null)
+			SequenceUtil.upperCase(bases);
+		return bases;
+	}
+
 	protected byte[] findBasesByName(String name, boolean tryVariants) {
 		if (rsFile == null || !rsFile.isIndexed())
 			return null;
@@ -15,12 +15,18 @@
  ******************************************************************************/
 package htsjdk.samtools.cram.structure;
 
+import htsjdk.samtools.cram.common.CramVersions;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.io.ByteBufferUtils;
+import htsjdk.samtools.cram.io.RANS;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 public class Block {
 	public BlockCompressionMethod method;
@@ -45,8 +51,17 @@ public class Block {
 			setCompressedContent(compressedContent);
 	}
 
-	public Block(InputStream is, boolean readContent, boolean uncompress)
-			throws IOException {
+	/**
+	 * Read a block. From CRAM 3.0 on, the block ends with a CRC32 of its
+	 * header and content, which is checked if the content is read.
+	 */
+	public Block(Version version, InputStream is, boolean readContent,
+			boolean uncompress) throws IOException {
+		final boolean hasCRC32 = hasCRC32(version);
+		final InputStream rawIs = is;
+		if (hasCRC32)
+			is = new CheckedInputStream(is, new CRC32());
+
 		method = BlockCompressionMethod.values()[is.read()];
 
 		int contentTypeId = is.read();
@@ -60,11 +75,27 @@ public class Block {
 			compressedContent = new byte[compressedContentSize];
 			ByteBufferUtils.readFully(compressedContent, is);
 
+			if (hasCRC32) {
+				final int crc32 = (int) ((CheckedInputStream) is).getChecksum()
+						.getValue();
+				if (ByteBufferUtils.int32(rawIs) != crc32)
+					throw new RuntimeException("Block CRC32 mismatch, content type "
+							+ contentType.name() + ", content id " + contentId);
+			}
+
 			if (uncompress)
 				uncompress();
 		}
 	}
 
+	/**
+	 * @return true if blocks and container headers of the given CRAM version
+	 *         end with a CRC32
+	 */
+	public static boolean hasCRC32(Version version) {
+		return version.compareTo(CramVersions.CRAM_v3) >= 0;
+	}
+
 	@Override
 	public String toString() {
 		String raw = rawContent == null ? "NULL" : Arrays.toString(Arrays
@@ -112,6 +143,17 @@ public class Block {
 		rawContentSize = 0;
 	}
 
+	/**
+	 * Set both the raw content and its compressed form, for when the caller
+	 * has already compressed the content with this block's method.
+	 */
+	public void setContent(byte[] raw, byte[] compressed) {
+		rawContent = raw;
+		rawContentSize = raw.length;
+		compressedContent = compressed;
+		compressedContentSize = compressed.length;
+	}
+
 	public byte[] getCompressedContent() {
 		if (compressedContent == null)
 			compress();
@@ -135,8 +177,16 @@ public class Block {
 			}
 			compressedContentSize = compressedContent.length;
 			break;
-		default:
+		case RANS:
+			// as htslib does, keep whichever model gives the smaller block
+			byte[] order0 = RANS.compress(rawContent, RANS.ORDER.ZERO);
+			byte[] order1 = RANS.compress(rawContent, RANS.ORDER.ONE);
+			compressedContent = order1.length < order0.length ? order1 : order0;
+			compressedContentSize = compressedContent.length;
 			break;
+		default:
+			throw new RuntimeException("Unsupported block compression method: "
+					+ method.name());
 		}
 	}
 
@@ -156,18 +206,25 @@ public class Block {
 				throw new RuntimeException("This should have never happned.", e);
 			}
 			break;
+		case RANS:
+			rawContent = RANS.uncompress(compressedContent);
+			break;
 		default:
-			throw new RuntimeException("Unknown block compression method: "
+			throw new RuntimeException("Unsupported block compression method: "
 					+ method.name());
 		}
 	}
 
-	public void write(OutputStream os) throws IOException {
+	public void write(Version version, OutputStream os) throws IOException {
 		if (!isCompressed())
 			compress();
 		if (!isUncompressed())
 			uncompress();
 
+		final OutputStream rawOs = os;
+		if (hasCRC32(version))
+			os = new CheckedOutputStream(os, new CRC32());
+
 		os.write(method.ordinal());
 		os.write(contentType.ordinal());
 		os.write(contentId);
@@ -176,5 +233,9 @@ public class Block {
 		ByteBufferUtils.writeUnsignedITF8(rawContentSize, os);
 
 		os.write(getCompressedContent());
+
+		if (os != rawOs)
+			ByteBufferUtils.writeInt32((int) ((CheckedOutputStream) os)
+					.getChecksum().getValue(), rawOs);
 	}
 }
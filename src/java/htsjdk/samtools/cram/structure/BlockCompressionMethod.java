@@ -15,6 +15,11 @@
  ******************************************************************************/
 package htsjdk.samtools.cram.structure;
 
+/**
+ * Block compression methods, in the order of their ids in the CRAM
+ * specification. BZIP2 and LZMA blocks are recognised but cannot be compressed
+ * or uncompressed because no codec for them is available.
+ */
 public enum BlockCompressionMethod {
-	RAW, GZIP ;
+	RAW, GZIP, BZIP2, LZMA, RANS ;
 }
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package htsjdk.samtools.cram.structure;
 
+import htsjdk.samtools.cram.common.Version;
+
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -40,8 +42,8 @@ public class CompressionHeaderBLock extends Block {
 		setRawContent(bytes);
 	}
 
-	public CompressionHeaderBLock(InputStream is) throws IOException {
-		super(is, true, true);
+	public CompressionHeaderBLock(Version version, InputStream is) throws IOException {
+		super(version, is, true, true);
 
 		if (contentType != BlockContentType.COMPRESSION_HEADER)
 			throw new RuntimeException("Content type does not match: "
@@ -61,7 +61,8 @@ public class Container {
 	}
 
 	public boolean isEOF() {
-		return containerByteSize == 11 && sequenceId == -1 && alignmentStart == 4542278 && blockCount == 1
+		// the CRAM 3.0 EOF container is 4 bytes longer for its block's CRC32
+		return (containerByteSize == 11 || containerByteSize == 15) && sequenceId == -1 && alignmentStart == 4542278 && blockCount == 1
 				&& nofRecords == 0 && (slices == null || slices.length == 0);
 	}
 }
@@ -16,15 +16,29 @@
 package htsjdk.samtools.cram.structure;
 
 import htsjdk.samtools.cram.common.NullOutputStream;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.io.ByteBufferUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 public class ContainerHeaderIO {
 
-	public boolean readContainerHeader(Container c, InputStream is) throws IOException {
+	/**
+	 * Read a container header, checking the CRC32 that ends it from CRAM 3.0
+	 * on.
+	 * 
+	 * @return false if the stream has no more data
+	 */
+	public boolean readContainerHeader(Version version, Container c, InputStream is) throws IOException {
+		final InputStream rawIs = is;
+		if (Block.hasCRC32(version))
+			is = new CheckedInputStream(is, new CRC32());
+
 		byte[] peek = new byte[4];
 		int ch = is.read();
 		if (ch == -1)
@@ -48,10 +62,20 @@ public class ContainerHeaderIO {
 		c.blockCount = ByteBufferUtils.readUnsignedITF8(is);
 		c.landmarks = ByteBufferUtils.array(is);
 
+		if (is != rawIs) {
+			final int crc32 = (int) ((CheckedInputStream) is).getChecksum().getValue();
+			if (ByteBufferUtils.int32(rawIs) != crc32)
+				throw new RuntimeException("Container header CRC32 mismatch.");
+		}
+
 		return true;
 	}
 
-	public int writeContainerHeader(Container c, OutputStream os) throws IOException {
+	public int writeContainerHeader(Version version, Container c, OutputStream os) throws IOException {
+		final OutputStream rawOs = os;
+		if (Block.hasCRC32(version))
+			os = new CheckedOutputStream(os, new CRC32());
+
 		int len = ByteBufferUtils.writeInt32(c.containerByteSize, os);
 		len += ByteBufferUtils.writeUnsignedITF8(c.sequenceId, os);
 		len += ByteBufferUtils.writeUnsignedITF8(c.alignmentStart, os);
@@ -62,11 +86,14 @@ public class ContainerHeaderIO {
 		len += ByteBufferUtils.writeUnsignedITF8(c.blockCount, os);
 		len += ByteBufferUtils.write(c.landmarks, os);
 
+		if (os != rawOs)
+			len += ByteBufferUtils.writeInt32((int) ((CheckedOutputStream) os).getChecksum().getValue(), rawOs);
+
 		return len;
 	}
 
-	public int sizeOfContainerHeader(Container c) throws IOException {
+	public int sizeOfContainerHeader(Version version, Container c) throws IOException {
 		NullOutputStream nos = new NullOutputStream();
-		return writeContainerHeader(c, nos);
+		return writeContainerHeader(version, c, nos);
 	}
 }
@@ -16,6 +16,7 @@
 package htsjdk.samtools.cram.structure;
 
 import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.cram.common.Version;
 
 import java.util.Arrays;
 
@@ -78,6 +79,10 @@ public final class CramHeader {
 		return getSamFileHeader().equals(h.getSamFileHeader());
 	}
 
+	public Version getVersion() {
+		return new Version(majorVersion, minorVersion, 0);
+	}
+
 	public byte getMajorVersion() {
 		return majorVersion;
 	}
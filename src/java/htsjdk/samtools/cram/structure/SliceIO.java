@@ -15,6 +15,8 @@
  ******************************************************************************/
 package htsjdk.samtools.cram.structure;
 
+import htsjdk.samtools.cram.common.CramVersions;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.io.ByteBufferUtils;
 
 import java.io.ByteArrayInputStream;
@@ -26,8 +28,8 @@ import java.util.HashMap;
 
 public class SliceIO {
 
-	public void readSliceHeadBlock(Slice s, InputStream is) throws IOException {
-		s.headerBlock = new Block(is, true, true);
+	public void readSliceHeadBlock(Version version, Slice s, InputStream is) throws IOException {
+		s.headerBlock = new Block(version, is, true, true);
 		parseSliceHeaderBlock(s);
 	}
 
@@ -46,9 +48,10 @@ public class SliceIO {
 		s.embeddedRefBlockContentID = ByteBufferUtils.readUnsignedITF8(is);
 		s.refMD5 = new byte[16];
 		ByteBufferUtils.readFully(s.refMD5, is);
+		// CRAM 3.0 slice headers may end with optional tags, which are not used
 	}
 
-	public byte[] createSliceHeaderBlockContent(Slice s) throws IOException {
+	public byte[] createSliceHeaderBlockContent(Version version, Slice s) throws IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		ByteBufferUtils.writeUnsignedITF8(s.sequenceId, baos);
 		ByteBufferUtils.writeUnsignedITF8(s.alignmentStart, baos);
@@ -64,24 +67,27 @@ public class SliceIO {
 		ByteBufferUtils.write(s.contentIDs, baos);
 		ByteBufferUtils.writeUnsignedITF8(s.embeddedRefBlockContentID, baos);
 		baos.write(s.refMD5 == null ? new byte[16]: s.refMD5);
-		ByteBufferUtils.writeUnsignedITF8(s.sequenceId, baos);
-		ByteBufferUtils.writeUnsignedITF8(s.sequenceId, baos);
-		ByteBufferUtils.writeUnsignedITF8(s.sequenceId, baos);
+		// CRAM 3.0 reads anything after the md5 as optional tags
+		if (version.compareTo(CramVersions.CRAM_v3) < 0) {
+			ByteBufferUtils.writeUnsignedITF8(s.sequenceId, baos);
+			ByteBufferUtils.writeUnsignedITF8(s.sequenceId, baos);
+			ByteBufferUtils.writeUnsignedITF8(s.sequenceId, baos);
+		}
 
 		return baos.toByteArray();
 	}
 
-	public void createSliceHeaderBlock(Slice s) throws IOException {
-		byte[] rawContent = createSliceHeaderBlockContent(s);
+	public void createSliceHeaderBlock(Version version, Slice s) throws IOException {
+		byte[] rawContent = createSliceHeaderBlockContent(version, s);
 		s.headerBlock = new Block(BlockCompressionMethod.RAW,
 				BlockContentType.MAPPED_SLICE, 0, rawContent, null);
 	}
 
-	public void readSliceBlocks(Slice s, boolean uncompressBlocks,
+	public void readSliceBlocks(Version version, Slice s, boolean uncompressBlocks,
 			InputStream is) throws IOException {
 		s.external = new HashMap<Integer, Block>();
 		for (int i = 0; i < s.nofBlocks; i++) {
-			Block b1 = new Block(is, true, uncompressBlocks);
+			Block b1 = new Block(version, is, true, uncompressBlocks);
 
 			switch (b1.contentType) {
 			case CORE:
@@ -101,7 +107,7 @@ public class SliceIO {
 		}
 	}
 
-	public void write(Slice s, OutputStream os) throws IOException {
+	public void write(Version version, Slice s, OutputStream os) throws IOException {
 
 		s.nofBlocks = 1 + s.external.size() + (s.embeddedRefBlock == null ? 0
 				: 1);
@@ -113,16 +119,16 @@ public class SliceIO {
 				s.contentIDs[i] = id;
 		}
 
-		createSliceHeaderBlock(s);
+		createSliceHeaderBlock(version, s);
 
-		s.headerBlock.write(os);
-		s.coreBlock.write(os);
+		s.headerBlock.write(version, os);
+		s.coreBlock.write(version, os);
 		for (Block e : s.external.values())
-			e.write(os);
+			e.write(version, os);
 	}
 
-	public void read(Slice s, InputStream is) throws IOException {
-		readSliceHeadBlock(s, is);
-		readSliceBlocks(s, true, is);
+	public void read(Version version, Slice s, InputStream is) throws IOException {
+		readSliceHeadBlock(version, s, is);
+		readSliceBlocks(version, s, true, is);
 	}
 }
@@ -36,12 +36,17 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
 /**
  * A fasta file driven by an index for fast, concurrent lookups.  Supports two interfaces:
  * the ReferenceSequenceFile for old-style, stateful lookups and a direct getter.
+ *
+ * The file may optionally be memory-mapped, in which case subsequences are copied straight out of the mapping
+ * using the line lengths recorded in the index, and {@link #getSubsequenceView} gives access to the bases without
+ * copying them at all.
  */
 public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implements Closeable {
     /**
@@ -59,6 +64,13 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
      */
     private Iterator<FastaSequenceIndexEntry> indexIterator;
 
+    /** Largest region of the file mapped by a single buffer; a buffer cannot address more than 2GB. */
+    private static final int DEFAULT_MAPPED_REGION_SIZE = 1 << 30;
+
+    /** Consecutive regions of the file if it is memory-mapped, otherwise null. */
+    private final MappedByteBuffer[] mappedRegions;
+    private final int mappedRegionSize;
+
     /**
      * Open the given indexed fasta sequence file.  Throw an exception if the file cannot be opened.
      * @param file The file to open.
@@ -66,6 +78,21 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
      * @throws FileNotFoundException If the fasta or any of its supporting files cannot be found.
      */
     public IndexedFastaSequenceFile(final File file, final FastaSequenceIndex index) {
+        this(file, index, Defaults.MEMORY_MAP_FASTA);
+    }
+
+    /**
+     * Open the given indexed fasta sequence file.  Throw an exception if the file cannot be opened.
+     * @param file The file to open.
+     * @param index Pre-built FastaSequenceIndex, for the case in which one does not exist on disk.
+     * @param memoryMap Whether to memory-map the file rather than reading it on every request.
+     */
+    public IndexedFastaSequenceFile(final File file, final FastaSequenceIndex index, final boolean memoryMap) {
+        this(file, index, memoryMap, DEFAULT_MAPPED_REGION_SIZE);
+    }
+
+    IndexedFastaSequenceFile(final File file, final FastaSequenceIndex index, final boolean memoryMap,
+                             final int mappedRegionSize) {
         super(file);
         if (index == null) throw new IllegalArgumentException("Null index for fasta " + file);
         this.index = index;
@@ -77,6 +104,8 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
             throw new SAMException("Fasta file should be readable but is not: " + file, e);
         }
         channel = in.getChannel();
+        this.mappedRegionSize = mappedRegionSize;
+        mappedRegions = memoryMap ? mapRegions() : null;
         reset();
 
         if(getSequenceDictionary() != null)
@@ -92,6 +121,35 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
         this(file, new FastaSequenceIndex((findRequiredFastaIndexFile(file))));
     }
 
+    /**
+     * Open the given indexed fasta sequence file.  Throw an exception if the file cannot be opened.
+     * @param file The file to open.
+     * @param memoryMap Whether to memory-map the file rather than reading it on every request.
+     * @throws FileNotFoundException If the fasta or any of its supporting files cannot be found.
+     */
+    public IndexedFastaSequenceFile(final File file, final boolean memoryMap) throws FileNotFoundException {
+        this(file, new FastaSequenceIndex((findRequiredFastaIndexFile(file))), memoryMap);
+    }
+
+    private MappedByteBuffer[] mapRegions() {
+        try {
+            final long fileSize = channel.size();
+            final MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((fileSize + mappedRegionSize - 1) / mappedRegionSize)];
+            for (int i = 0; i < regions.length; ++i) {
+                final long regionStart = (long) i * mappedRegionSize;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(mappedRegionSize, fileSize - regionStart));
+            }
+            return regions;
+        } catch (IOException e) {
+            throw new SAMException("Unable to memory-map fasta file " + file, e);
+        }
+    }
+
+    /** @return true if the file is memory-mapped. */
+    public boolean isMemoryMapped() {
+        return mappedRegions != null;
+    }
+
 
     public boolean isIndexed() {return true;}
 
@@ -183,6 +241,11 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
         int length = (int)(stop - start + 1);
 
         byte[] target = new byte[length];
+        if (mappedRegions != null) {
+            copyMappedBases(indexEntry, start, target, 0, length);
+            return new ReferenceSequence( contig, indexEntry.getSequenceIndex(), target );
+        }
+
         ByteBuffer targetBuffer = ByteBuffer.wrap(target);
 
         final int basesPerLine = indexEntry.getBasesPerLine();
@@ -231,6 +294,115 @@ public class IndexedFastaSequenceFile extends AbstractFastaSequenceFile implemen
         return new ReferenceSequence( contig, indexEntry.getSequenceIndex(), target );
     }
 
+    /**
+     * Copies bases of a contig from the mapped file, one line's worth at a time, skipping the line terminators.
+     * @param start 1-based position in the contig of the first base to copy.
+     */
+    private void copyMappedBases(final FastaSequenceIndexEntry indexEntry, final long start,
+                                 final byte[] target, final int targetOffset, final int length) {
+        final int basesPerLine = indexEntry.getBasesPerLine();
+        final int bytesPerLine = indexEntry.getBytesPerLine();
+
+        // positional bulk gets are not available, so work on a private duplicate of each region's buffer
+        ByteBuffer region = null;
+        int regionIndex = -1;
+        long position = start - 1;
+        int copied = 0;
+        while (copied < length) {
+            int run = (int) Math.min(basesPerLine - position % basesPerLine, length - copied);
+            long filePosition = indexEntry.getLocation() + (position / basesPerLine) * bytesPerLine + position % basesPerLine;
+            position += run;
+
+            // a line may straddle two mapped regions
+            while (run > 0) {
+                final int nextRegionIndex = (int) (filePosition / mappedRegionSize);
+                if (nextRegionIndex != regionIndex) {
+                    regionIndex = nextRegionIndex;
+                    region = mappedRegions[regionIndex].duplicate();
+                }
+                final int offsetInRegion = (int) (filePosition - (long) regionIndex * mappedRegionSize);
+                final int bytesToCopy = Math.min(run, region.limit() - offsetInRegion);
+                region.position(offsetInRegion);
+                region.get(target, targetOffset + copied, bytesToCopy);
+                copied += bytesToCopy;
+                filePosition += bytesToCopy;
+                run -= bytesToCopy;
+            }
+        }
+    }
+
+    /**
+     * Gets a view of the subsequence of the contig in the range [start,stop] that reads bases directly from
+     * the memory-mapped file, without copying the subsequence.  The file must have been opened memory-mapped.
+     * @param contig Contig whose subsequence to view.
+     * @param start inclusive, 1-based start of region.
+     * @param stop inclusive, 1-based stop of region.
+     * @return A view of the bases in the range.
+     */
+    public SubsequenceView getSubsequenceView(final String contig, final long start, final long stop) {
+        if (mappedRegions == null)
+            throw new IllegalStateException("Subsequence views require a memory-mapped fasta: " + file);
+        if(start > stop + 1)
+            throw new SAMException(String.format("Malformed query; start point %d lies after end point %d",start,stop));
+
+        final FastaSequenceIndexEntry indexEntry = index.getIndexEntry(contig);
+        if(stop > indexEntry.getSize())
+            throw new SAMException("Query asks for data past end of contig");
+
+        return new SubsequenceView(indexEntry, start, (int) (stop - start + 1));
+    }
+
+    /**
+     * Bases of a range of a contig, read on demand from the memory-mapped fasta.  Views may be used
+     * concurrently from several threads.
+     */
+    public final class SubsequenceView {
+        private final FastaSequenceIndexEntry indexEntry;
+        private final long start;
+        private final int length;
+
+        private SubsequenceView(final FastaSequenceIndexEntry indexEntry, final long start, final int length) {
+            this.indexEntry = indexEntry;
+            this.start = start;
+            this.length = length;
+        }
+
+        public String getContig() {
+            return indexEntry.getContig();
+        }
+
+        /** @return the 1-based position in the contig of the first base of the view. */
+        public long getStart() {
+            return start;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @param offset 0-based offset of the base within the view.
+         * @return the base, exactly as it appears in the fasta.
+         */
+        public byte getBase(final int offset) {
+            if (offset < 0 || offset >= length)
+                throw new IndexOutOfBoundsException("Offset " + offset + " outside view of length " + length);
+            final long position = start - 1 + offset;
+            final int basesPerLine = indexEntry.getBasesPerLine();
+            final long filePosition = indexEntry.getLocation() + (position / basesPerLine) * indexEntry.getBytesPerLine()
+                    + position % basesPerLine;
+            final int regionIndex = (int) (filePosition / mappedRegionSize);
+            return mappedRegions[regionIndex].get((int) (filePosition - (long) regionIndex * mappedRegionSize));
+        }
+
+        /** Copies length bases starting at the 0-based offset within the view into the target array. */
+        public void getBases(final int offset, final byte[] target, final int targetOffset, final int length) {
+            if (offset < 0 || length < 0 || offset + length > this.length)
+                throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " outside view of length " + this.length);
+            copyMappedBases(indexEntry, start + offset, target, targetOffset, length);
+        }
+    }
+
     /**
      * Gets the next sequence if available, or null if not present.
      * @return next sequence if available, or null if not present.
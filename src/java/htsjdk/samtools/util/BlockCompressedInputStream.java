@@ -24,6 +24,7 @@
 package htsjdk.samtools.util;
 
 
+import htsjdk.samtools.Defaults;
 import htsjdk.samtools.FileTruncatedException;
 import htsjdk.samtools.SAMException;
 import htsjdk.samtools.seekablestream.SeekableBufferedStream;
@@ -39,7 +40,12 @@ import java.io.RandomAccessFile;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /*
  * Utility class for reading BGZF block compressed files.  The caller can treat this file like any other InputStream.
@@ -47,6 +53,10 @@ import java.util.Arrays;
  * The advantage of BGZF over conventional GZip format is that BGZF allows for seeking without having to read the
  * entire file up to the location being sought.  Note that seeking is only possible if the ctor(File) is used.
  *
+ * If more than one inflater thread is requested (see {@link #setInflaterThreads(int)}), compressed blocks are read
+ * ahead of the caller and inflated concurrently on a shared worker pool, but are still handed back in file order, so
+ * that getFilePointer() and seek() behave exactly as they do when inflating on the caller's thread.
+ *
  * c.f. http://samtools.sourceforge.net/SAM1.pdf for details of BGZF format
  */
 public class BlockCompressedInputStream extends InputStream implements LocationAware {
@@ -58,6 +68,21 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
     private long mBlockAddress = 0;
     private int mLastBlockLength = 0;
     private final BlockGunzipper blockGunzipper = new BlockGunzipper();
+    private boolean mCheckCrcs = false;
+
+    // State for reading ahead and inflating blocks on worker threads.
+    private int mInflaterThreads = Defaults.INFLATER_THREADS;
+    private final Deque<PrefetchedBlock> mPrefetchedBlocks = new ArrayDeque<PrefetchedBlock>();
+    private long mPrefetchAddress = 0;
+    private boolean mPrefetchStopped = false;
+
+    private static final String INFLATER_POOL_NAME = "BlockInflater";
+    private static final ThreadLocal<BlockGunzipper> workerGunzippers = new ThreadLocal<BlockGunzipper>() {
+        @Override
+        protected BlockGunzipper initialValue() {
+            return new BlockGunzipper();
+        }
+    };
 
 
     /**
@@ -112,9 +137,24 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
      * operation and should be used accordingly.
      */
     public void setCheckCrcs(final boolean check) {
+        this.mCheckCrcs = check;
         this.blockGunzipper.setCheckCrcs(check);
     }
 
+    /**
+     * Sets the number of blocks that are read ahead of the caller and inflated concurrently.  Values less than 2
+     * inflate each block on the caller's thread when it is needed.  The default is taken from
+     * {@link Defaults#INFLATER_THREADS}.  Blocks that have already been read ahead are still returned if this
+     * is lowered, so this may be changed at any point while reading.
+     */
+    public void setInflaterThreads(final int threads) {
+        this.mInflaterThreads = threads;
+    }
+
+    public int getInflaterThreads() {
+        return mInflaterThreads;
+    }
+
     /**
      * @return the number of bytes that can be read (or skipped over) from this input stream without blocking by the
      * next caller of a method for this input stream. The next caller might be the same thread or another thread.
@@ -137,6 +177,7 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
      */
     public void close()
         throws IOException {
+        discardPrefetchedBlocks();
         if (mFile != null) {
             mFile.close();
             mFile = null;
@@ -285,7 +326,11 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
         final int available;
         if (mBlockAddress == compressedOffset && mCurrentBlock != null) {
             available = mCurrentBlock.length;
+        } else if (skipPrefetchedBlocksTo(compressedOffset)) {
+            readBlock();
+            available = available();
         } else {
+            discardPrefetchedBlocks();
             mFile.seek(compressedOffset);
             mBlockAddress = compressedOffset;
             mLastBlockLength = 0;
@@ -300,7 +345,7 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
     }
 
     private boolean eof() throws IOException {
-        if (mFile.eof()) {
+        if (mFile.eof() && mPrefetchedBlocks.isEmpty()) {
             return true;
         }
         // If the last remaining block is the size of the EMPTY_GZIP_BLOCK, this is the same as being at EOF.
@@ -357,18 +402,37 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
 
     private void readBlock()
         throws IOException {
-
-        if (mFileBuffer == null) {
-            mFileBuffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        if (mInflaterThreads > 1 || !mPrefetchedBlocks.isEmpty()) {
+            readPrefetchedBlock();
+            return;
         }
-        int count = readBytes(mFileBuffer, 0, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-        if (count == 0) {
+        final int blockLength = readCompressedBlock();
+        if (blockLength == 0) {
             // Handle case where there is no empty gzip block at end.
             mCurrentOffset = 0;
             mBlockAddress += mLastBlockLength;
             mCurrentBlock = new byte[0];
             return;
         }
+        inflateBlock(mFileBuffer, blockLength);
+        mCurrentOffset = 0;
+        mBlockAddress += mLastBlockLength;
+        mLastBlockLength = blockLength;
+    }
+
+    /**
+     * Reads the next compressed block into mFileBuffer.
+     * @return the length of the compressed block, or 0 if the end of the file has been reached.
+     */
+    private int readCompressedBlock()
+        throws IOException {
+        if (mFileBuffer == null) {
+            mFileBuffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+        }
+        int count = readBytes(mFileBuffer, 0, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+        if (count == 0) {
+            return 0;
+        }
         if (count != BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH) {
             throw new IOException("Premature end of file");
         }
@@ -381,10 +445,7 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
         if (count != remaining) {
             throw new FileTruncatedException("Premature end of file");
         }
-        inflateBlock(mFileBuffer, blockLength);
-        mCurrentOffset = 0;
-        mBlockAddress += mLastBlockLength;
-        mLastBlockLength = blockLength;
+        return blockLength;
     }
 
     private void inflateBlock(final byte[] compressedBlock, final int compressedLength)
@@ -393,16 +454,136 @@ public class BlockCompressedInputStream extends InputStream implements LocationA
         byte[] buffer = mCurrentBlock;
         mCurrentBlock = null;
         if (buffer == null || buffer.length != uncompressedLength) {
-            try {
-                buffer = new byte[uncompressedLength];
-            } catch (final NegativeArraySizeException e) {
-                throw new RuntimeException("BGZF file has invalid uncompressedLength: " + uncompressedLength, e);
-            }
+            buffer = allocateUncompressedBuffer(uncompressedLength);
         }
         blockGunzipper.unzipBlock(buffer, compressedBlock, compressedLength);
         mCurrentBlock = buffer;
     }
 
+    private static byte[] allocateUncompressedBuffer(final int uncompressedLength) {
+        try {
+            return new byte[uncompressedLength];
+        } catch (final NegativeArraySizeException e) {
+            throw new RuntimeException("BGZF file has invalid uncompressedLength: " + uncompressedLength, e);
+        }
+    }
+
+    /**
+     * Makes the oldest read-ahead block the current block, first topping up the read-ahead queue
+     * if parallel inflation is enabled.
+     */
+    private void readPrefetchedBlock()
+        throws IOException {
+        if (mPrefetchedBlocks.isEmpty()) {
+            // Nothing has been read ahead of the current block, e.g. on the first read, after a seek, or
+            // after the caller has moved past an empty block.
+            mPrefetchAddress = mBlockAddress + mLastBlockLength;
+            mPrefetchStopped = false;
+        }
+        prefetchBlocks();
+        final PrefetchedBlock block = mPrefetchedBlocks.poll();
+        mCurrentBlock = SharedThreadPools.getResult(block.uncompressedBlock);
+        mCurrentOffset = 0;
+        mBlockAddress = block.address;
+        if (block.compressedLength > 0) {
+            mLastBlockLength = block.compressedLength;
+        }
+    }
+
+    /**
+     * Reads compressed blocks and submits them for inflation until mInflaterThreads blocks are in flight.
+     * Reading ahead stops at the end of the file or at an empty block, since an empty block usually
+     * marks the end of the data even if the underlying stream has more bytes in it.
+     */
+    private void prefetchBlocks()
+        throws IOException {
+        while (!mPrefetchStopped && (mPrefetchedBlocks.isEmpty() || mPrefetchedBlocks.size() < mInflaterThreads)) {
+            final long address = mPrefetchAddress;
+            final int blockLength = readCompressedBlock();
+            if (blockLength == 0) {
+                mPrefetchedBlocks.add(new PrefetchedBlock(address, 0, new CompletedBlock(new byte[0])));
+                mPrefetchStopped = true;
+                break;
+            }
+            mPrefetchAddress += blockLength;
+            final int uncompressedLength = unpackInt32(mFileBuffer, blockLength - 4);
+            if (uncompressedLength == 0) {
+                mPrefetchStopped = true;
+            }
+            final InflateTask task = new InflateTask(Arrays.copyOf(mFileBuffer, blockLength), uncompressedLength, mCheckCrcs);
+            mPrefetchedBlocks.add(new PrefetchedBlock(address, blockLength,
+                    SharedThreadPools.getPool(INFLATER_POOL_NAME).submit(task)));
+        }
+    }
+
+    /**
+     * Drops read-ahead blocks that precede the given block address.
+     * @return true if the next read-ahead block starts at the given address, so no seek is needed.
+     */
+    private boolean skipPrefetchedBlocksTo(final long blockAddress) {
+        while (!mPrefetchedBlocks.isEmpty() && mPrefetchedBlocks.peek().address < blockAddress) {
+            mPrefetchedBlocks.poll().uncompressedBlock.cancel(false);
+        }
+        return !mPrefetchedBlocks.isEmpty() && mPrefetchedBlocks.peek().address == blockAddress;
+    }
+
+    private void discardPrefetchedBlocks() {
+        for (final PrefetchedBlock block : mPrefetchedBlocks) {
+            block.uncompressedBlock.cancel(false);
+        }
+        mPrefetchedBlocks.clear();
+        mPrefetchStopped = false;
+    }
+
+    /** A compressed block that has been read ahead, along with the (possibly pending) result of inflating it. */
+    private static class PrefetchedBlock {
+        final long address;
+        final int compressedLength;
+        final Future<byte[]> uncompressedBlock;
+
+        PrefetchedBlock(final long address, final int compressedLength, final Future<byte[]> uncompressedBlock) {
+            this.address = address;
+            this.compressedLength = compressedLength;
+            this.uncompressedBlock = uncompressedBlock;
+        }
+    }
+
+    /** Inflates a single block on a worker thread, using that thread's own BlockGunzipper. */
+    private static class InflateTask implements Callable<byte[]> {
+        private final byte[] compressedBlock;
+        private final int uncompressedLength;
+        private final boolean checkCrcs;
+
+        InflateTask(final byte[] compressedBlock, final int uncompressedLength, final boolean checkCrcs) {
+            this.compressedBlock = compressedBlock;
+            this.uncompressedLength = uncompressedLength;
+            this.checkCrcs = checkCrcs;
+        }
+
+        public byte[] call() {
+            final byte[] buffer = allocateUncompressedBuffer(uncompressedLength);
+            final BlockGunzipper gunzipper = workerGunzippers.get();
+            gunzipper.setCheckCrcs(checkCrcs);
+            gunzipper.unzipBlock(buffer, compressedBlock, compressedBlock.length);
+            return buffer;
+        }
+    }
+
+    /** A Future for a block that needs no inflating, i.e. the empty block returned at end of file. */
+    private static class CompletedBlock implements Future<byte[]> {
+        private final byte[] block;
+
+        CompletedBlock(final byte[] block) {
+            this.block = block;
+        }
+
+        public boolean cancel(final boolean mayInterruptIfRunning) { return false; }
+        public boolean isCancelled() { return false; }
+        public boolean isDone() { return true; }
+        public byte[] get() { return block; }
+        public byte[] get(final long timeout, final TimeUnit unit) { return block; }
+    }
+
     private int readBytes(final byte[] buffer, final int offset, final int length)
         throws IOException {
         if (mFile != null) {
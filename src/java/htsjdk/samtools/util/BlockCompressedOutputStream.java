@@ -23,11 +23,19 @@
  */
 package htsjdk.samtools.util;
 
+import htsjdk.samtools.Defaults;
 import htsjdk.samtools.util.zip.DeflaterFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 
@@ -44,6 +52,13 @@ import java.util.zip.Deflater;
  * number of buffered bytes has not reached threshold.  close(), on the other hand, must be called
  * when done writing in order to force the last gzip block to be written.
  *
+ * If more than one deflater thread is requested (see {@link #setDeflaterThreads(int)}), each filled block is handed
+ * to a shared pool of worker threads for compression, and compressed blocks are written in order as they complete.
+ * Because the address of a block depends on the compressed sizes of all the blocks before it, getFilePointer() must
+ * then wait for the blocks still being compressed.  Callers that need many file pointers, such as on-the-fly
+ * indexers, should instead use {@link #getUnresolvedFilePointer()} and {@link #resolveFilePointer(long)}, which
+ * only wait when a pointer is resolved before the blocks it depends on have been written.
+ *
  * c.f. http://samtools.sourceforge.net/SAM1.pdf for details of BGZF file format.
  */
 public class BlockCompressedOutputStream
@@ -75,6 +90,7 @@ public class BlockCompressedOutputStream
             new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
                     BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
     private final Deflater deflater;
+    private final int compressionLevel;
 
     // A second deflater is created for the very unlikely case where the regular deflation actually makes
     // things bigger, and the compressed block is too big.  It should be possible to downshift the
@@ -93,6 +109,26 @@ public class BlockCompressedOutputStream
     private File file = null;
     private long mBlockAddress = 0;
 
+    // State for compressing blocks on worker threads.  Blocks are numbered from zero in the order they are filled.
+    private int deflaterThreads = Defaults.DEFLATER_THREADS;
+    private final Deque<Future<CompressedBlock>> pendingBlocks = new ArrayDeque<Future<CompressedBlock>>();
+    private long blocksSubmitted = 0;
+    private long blocksWritten = 0;
+
+    // Start addresses of blocks firstTabledBlock, firstTabledBlock + 1, ..., blocksWritten, kept only while
+    // there are unresolved file pointers that may refer to them.
+    private final Deque<Long> blockAddresses = new ArrayDeque<Long>();
+    private long firstTabledBlock = 0;
+    private int unresolvedPointers = 0;
+
+    private static final String DEFLATER_POOL_NAME = "BlockDeflater";
+    private static final ThreadLocal<Map<Integer, Deflater>> workerDeflaters = new ThreadLocal<Map<Integer, Deflater>>() {
+        @Override
+        protected Map<Integer, Deflater> initialValue() {
+            return new HashMap<Integer, Deflater>();
+        }
+    };
+
 
     // Really a local variable, but allocate once to reduce GC burden.
     private final byte[] singleByteArray = new byte[1];
@@ -127,6 +163,7 @@ public class BlockCompressedOutputStream
         this.file = file;
         codec = new BinaryCodec(file, true);
         deflater = DeflaterFactory.makeDeflater(compressionLevel, true);
+        this.compressionLevel = compressionLevel;
     }
 
     /**
@@ -144,6 +181,20 @@ public class BlockCompressedOutputStream
             codec.setOutputFileName(file.getAbsolutePath());
         }
         deflater = DeflaterFactory.makeDeflater(compressionLevel, true);
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Sets the number of blocks that may be compressed concurrently on worker threads.  Values less than 2
+     * compress each block on the writing thread as soon as it is full.  The default is taken from
+     * {@link Defaults#DEFLATER_THREADS}.  This may be changed at any point while writing.
+     */
+    public void setDeflaterThreads(final int threads) {
+        this.deflaterThreads = threads;
+    }
+
+    public int getDeflaterThreads() {
+        return deflaterThreads;
     }
 
     /**
@@ -207,6 +258,7 @@ public class BlockCompressedOutputStream
         while (numUncompressedBytes > 0) {
             deflateBlock();
         }
+        writePendingBlocks(0);
         codec.getOutputStream().flush();
     }
 
@@ -250,9 +302,56 @@ public class BlockCompressedOutputStream
      * Lower 16 bits is the byte offset into the uncompressed stream inside the block.
      */
     public long getFilePointer(){
+        writePendingBlocks(0);
         return BlockCompressedFilePointerUtil.makeFilePointer(mBlockAddress, numUncompressedBytes);
     }
 
+    /**
+     * Returns a placeholder for the current virtual file pointer, without waiting for any blocks that are still
+     * being compressed.  The placeholder is not a virtual file pointer and must be passed to
+     * {@link #resolveFilePointer(long)}, which must be called exactly once for every placeholder, in the order
+     * in which the placeholders were obtained.
+     */
+    public long getUnresolvedFilePointer() {
+        if (unresolvedPointers == 0) {
+            blockAddresses.clear();
+            blockAddresses.add(mBlockAddress);
+            firstTabledBlock = blocksWritten;
+        }
+        ++unresolvedPointers;
+        return BlockCompressedFilePointerUtil.makeFilePointer(blocksSubmitted, numUncompressedBytes);
+    }
+
+    /**
+     * @return true if resolveFilePointer() can be called for the given placeholder without waiting for
+     * worker threads.
+     */
+    public boolean isFilePointerResolvable(final long unresolvedFilePointer) {
+        writeCompletedBlocks();
+        return BlockCompressedFilePointerUtil.getBlockAddress(unresolvedFilePointer) <= blocksWritten;
+    }
+
+    /**
+     * Converts a placeholder returned by {@link #getUnresolvedFilePointer()} into the virtual file pointer
+     * that getFilePointer() would have returned at the same point, waiting for blocks to be written if needed.
+     */
+    public long resolveFilePointer(final long unresolvedFilePointer) {
+        final long blockNumber = BlockCompressedFilePointerUtil.getBlockAddress(unresolvedFilePointer);
+        if (unresolvedPointers == 0 || blockNumber < firstTabledBlock || blockNumber > blocksSubmitted) {
+            throw new IllegalStateException("File pointers must be resolved once each, in the order they were obtained");
+        }
+        while (blockNumber > blocksWritten) {
+            writeOldestPendingBlock();
+        }
+        while (firstTabledBlock < blockNumber) {
+            blockAddresses.poll();
+            ++firstTabledBlock;
+        }
+        --unresolvedPointers;
+        return BlockCompressedFilePointerUtil.makeFilePointer(blockAddresses.peek(),
+                BlockCompressedFilePointerUtil.getBlockOffset(unresolvedFilePointer));
+    }
+
     @Override
     public long getPosition() {
         return getFilePointer();
@@ -269,29 +368,22 @@ public class BlockCompressedOutputStream
         if (numUncompressedBytes == 0) {
             return 0;
         }
+        if (deflaterThreads > 1) {
+            submitBlock();
+            return 0;
+        }
+        // Blocks compressed in parallel before a switch to serial compression must be written first.
+        writePendingBlocks(0);
         final int bytesToCompress = numUncompressedBytes;
         // Compress the input
-        deflater.reset();
-        deflater.setInput(uncompressedBuffer, 0, bytesToCompress);
-        deflater.finish();
-        int compressedSize = deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+        final int compressedSize = compress(deflater, noCompressionDeflater, uncompressedBuffer, bytesToCompress, compressedBuffer);
 
-        // If it didn't all fit in compressedBuffer.length, set compression level to NO_COMPRESSION
-        // and try again.  This should always fit.
-        if (!deflater.finished()) {
-            noCompressionDeflater.reset();
-            noCompressionDeflater.setInput(uncompressedBuffer, 0, bytesToCompress);
-            noCompressionDeflater.finish();
-            compressedSize = noCompressionDeflater.deflate(compressedBuffer, 0, compressedBuffer.length);
-            if (!noCompressionDeflater.finished()) {
-                throw new IllegalStateException("unpossible");
-            }
-        }
         // Data compressed small enough, so write it out.
         crc32.reset();
         crc32.update(uncompressedBuffer, 0, bytesToCompress);
 
-        final int totalBlockSize = writeGzipBlock(compressedSize, bytesToCompress, crc32.getValue());
+        ++blocksSubmitted;
+        final int totalBlockSize = writeGzipBlock(compressedBuffer, compressedSize, bytesToCompress, crc32.getValue());
         assert(bytesToCompress <= numUncompressedBytes);
 
         // Clear out from uncompressedBuffer the data that was written
@@ -302,15 +394,73 @@ public class BlockCompressedOutputStream
                     numUncompressedBytes - bytesToCompress);
             numUncompressedBytes -= bytesToCompress;
         }
-        mBlockAddress += totalBlockSize;
         return totalBlockSize;
     }
 
     /**
-     * Writes the entire gzip block, assuming the compressed data is stored in compressedBuffer
+     * Compresses the first length bytes of input into output, falling back to NO_COMPRESSION if the
+     * compressed data would not fit in output.
+     * @return the number of compressed bytes.
+     */
+    private static int compress(final Deflater deflater, final Deflater noCompressionDeflater, final byte[] input,
+                                final int length, final byte[] output) {
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int compressedSize = deflater.deflate(output, 0, output.length);
+
+        // If it didn't all fit in output.length, set compression level to NO_COMPRESSION
+        // and try again.  This should always fit.
+        if (!deflater.finished()) {
+            noCompressionDeflater.reset();
+            noCompressionDeflater.setInput(input, 0, length);
+            noCompressionDeflater.finish();
+            compressedSize = noCompressionDeflater.deflate(output, 0, output.length);
+            if (!noCompressionDeflater.finished()) {
+                throw new IllegalStateException("unpossible");
+            }
+        }
+        return compressedSize;
+    }
+
+    /**
+     * Hands the contents of uncompressedBuffer to a worker thread for compression, then writes out any blocks
+     * that have finished, waiting for the oldest ones if too many blocks are in flight.
+     */
+    private void submitBlock() {
+        final DeflateTask task = new DeflateTask(Arrays.copyOf(uncompressedBuffer, numUncompressedBytes), compressionLevel);
+        pendingBlocks.add(SharedThreadPools.getPool(DEFLATER_POOL_NAME).submit(task));
+        ++blocksSubmitted;
+        numUncompressedBytes = 0;
+        writeCompletedBlocks();
+        writePendingBlocks(deflaterThreads);
+    }
+
+    /** Writes compressed blocks, in order, until no more than maxPending remain in flight. */
+    private void writePendingBlocks(final int maxPending) {
+        while (pendingBlocks.size() > maxPending) {
+            writeOldestPendingBlock();
+        }
+    }
+
+    /** Writes out, in order, the blocks that have already been compressed, without waiting for the rest. */
+    private void writeCompletedBlocks() {
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().isDone()) {
+            writeOldestPendingBlock();
+        }
+    }
+
+    private void writeOldestPendingBlock() {
+        final CompressedBlock block = SharedThreadPools.getResult(pendingBlocks.poll());
+        writeGzipBlock(block.compressedData, block.compressedSize, block.uncompressedSize, block.crc);
+    }
+
+    /**
+     * Writes the entire gzip block, assuming the compressed data is stored in the first compressedSize
+     * bytes of compressedData, and advances the address of the next block.
      * @return  size of gzip block that was written.
      */
-    private int writeGzipBlock(final int compressedSize, final int uncompressedSize, final long crc) {
+    private int writeGzipBlock(final byte[] compressedData, final int compressedSize, final int uncompressedSize, final long crc) {
         // Init gzip header
         codec.writeByte(BlockCompressedStreamConstants.GZIP_ID1);
         codec.writeByte(BlockCompressedStreamConstants.GZIP_ID2);
@@ -328,9 +478,62 @@ public class BlockCompressedOutputStream
 
         // I don't know why we store block size - 1, but that is what the spec says
         codec.writeShort((short)(totalBlockSize - 1));
-        codec.writeBytes(compressedBuffer, 0, compressedSize);
+        codec.writeBytes(compressedData, 0, compressedSize);
         codec.writeInt((int)crc);
         codec.writeInt(uncompressedSize);
+
+        mBlockAddress += totalBlockSize;
+        ++blocksWritten;
+        if (unresolvedPointers > 0) {
+            blockAddresses.add(mBlockAddress);
+        }
         return totalBlockSize;
     }
+
+    /** A block compressed by a worker thread, ready to be written. */
+    private static class CompressedBlock {
+        final byte[] compressedData;
+        final int compressedSize;
+        final int uncompressedSize;
+        final long crc;
+
+        CompressedBlock(final byte[] compressedData, final int compressedSize, final int uncompressedSize, final long crc) {
+            this.compressedData = compressedData;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.crc = crc;
+        }
+    }
+
+    /** Compresses a single block on a worker thread, using that thread's own Deflaters. */
+    private static class DeflateTask implements Callable<CompressedBlock> {
+        private final byte[] uncompressedData;
+        private final int compressionLevel;
+
+        DeflateTask(final byte[] uncompressedData, final int compressionLevel) {
+            this.uncompressedData = uncompressedData;
+            this.compressionLevel = compressionLevel;
+        }
+
+        public CompressedBlock call() {
+            final Map<Integer, Deflater> deflaters = workerDeflaters.get();
+            Deflater deflater = deflaters.get(compressionLevel);
+            if (deflater == null) {
+                deflater = DeflaterFactory.makeDeflater(compressionLevel, true);
+                deflaters.put(compressionLevel, deflater);
+            }
+            Deflater noCompressionDeflater = deflaters.get(Deflater.NO_COMPRESSION);
+            if (noCompressionDeflater == null) {
+                // As above, don't bother with a hardware-assisted deflater for no-compression mode.
+                noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+                deflaters.put(Deflater.NO_COMPRESSION, noCompressionDeflater);
+            }
+            final byte[] compressedData = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
+                    BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+            final int compressedSize = compress(deflater, noCompressionDeflater, uncompressedData, uncompressedData.length, compressedData);
+            final CRC32 crc32 = new CRC32();
+            crc32.update(uncompressedData, 0, uncompressedData.length);
+            return new CompressedBlock(compressedData, compressedSize, uncompressedData.length, crc32.getValue());
+        }
+    }
 }
@@ -56,7 +56,7 @@ public class DiskBackedQueue<E> implements Queue<E> {
     private final int maxRecordsInRamQueue;
     private final Queue<E> ramRecords;
     private File diskRecords = null;
-    private final TempStreamFactory tempStreamFactory = new TempStreamFactory();
+    private TempStreamFactory tempStreamFactory = new TempStreamFactory();
     private OutputStream outputStream = null;
     private InputStream inputStream = null;
     private boolean canAdd = true;
@@ -113,6 +113,24 @@ public class DiskBackedQueue<E> implements Queue<E> {
         return this.canAdd;
     }
 
+    /**
+     * Set the codec used to compress the temporary file.  Must be called before any records are spilled to disk.
+     * Default value: [[htsjdk.samtools.Defaults#TEMP_COMPRESSION]]
+     */
+    public void setTempStreamCodec(final TempStreamCodec tempStreamCodec) {
+        if (this.diskRecords != null) {
+            throw new IllegalStateException("Cannot change temp file compression after records have been spilled");
+        }
+        this.tempStreamFactory = new TempStreamFactory(tempStreamCodec);
+    }
+
+    /**
+     * @return metrics for the temporary file, once it has been closed
+     */
+    public List<TempStreamFactory.SpillMetrics> getSpillMetrics() {
+        return this.tempStreamFactory.getSpillMetrics();
+    }
+
     public int getNumRecordsOnDisk() {
         return this.numRecordsOnDisk;
     }
@@ -252,7 +270,6 @@ public class DiskBackedQueue<E> implements Queue<E> {
                 this.codec.setOutputStream(this.outputStream);
             }
             this.codec.encode(record);
-            this.outputStream.flush();
             this.numRecordsOnDisk++;
         } catch (final IOException e) {
             throw new RuntimeIOException("Problem writing temporary file. Try setting TMP_DIR to a file system with lots of space.", e);
@@ -300,6 +317,11 @@ public class DiskBackedQueue<E> implements Queue<E> {
         }
         try {
             if (this.inputStream == null) {
+                // nothing more can be added once reading starts, so finish the file before reading it back
+                if (this.outputStream != null) {
+                    this.outputStream.close();
+                    this.outputStream = null;
+                }
                 inputStream = new FileInputStream(file);
                 this.codec.setInputStream(tempStreamFactory.wrapTempInputStream(inputStream, Defaults.BUFFER_SIZE));
             }
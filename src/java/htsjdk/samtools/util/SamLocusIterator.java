@@ -69,8 +69,8 @@ public class SamLocusIterator implements Iterable<SamLocusIterator.LocusInfo>, C
         /** Zero-based offset into the read corresponding to the current position in LocusInfo */
         public int getOffset() { return offset; }
         public SAMRecord getRecord() { return record; }
-        public byte getReadBase() { return record.getReadBases()[offset]; }
-        public byte getBaseQuality() { return record.getBaseQualities()[offset]; }
+        public byte getReadBase() { return record.getReadBase(offset); }
+        public byte getBaseQuality() { return record.getBaseQuality(offset); }
     }
 
     /**
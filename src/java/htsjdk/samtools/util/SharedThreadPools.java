@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide pools of daemon worker threads, shared by all of the readers and writers that farm
+ * out CPU-bound work such as block inflation and deflation.  Each pool is created lazily the first time
+ * it is requested and has one thread per available processor.
+ *
+ * Work at different levels of a pipeline must use differently-named pools: a task must never block waiting
+ * on another task submitted to its own pool, otherwise a pool full of waiting tasks will deadlock.
+ */
+public final class SharedThreadPools {
+    private static final Map<String, ExecutorService> pools = new HashMap<String, ExecutorService>();
+
+    private SharedThreadPools() {}
+
+    /** Returns the pool with the given name, creating it if this is the first request for it. */
+    public static synchronized ExecutorService getPool(final String name) {
+        ExecutorService pool = pools.get(name);
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory(name));
+            pools.put(name, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Waits for the given future to complete and returns its result, rethrowing any Error or RuntimeException
+     * raised by the task as-is, and wrapping any checked exception in a RuntimeException.
+     */
+    public static <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException ie) {
+            throw new RuntimeException("Interrupted waiting on worker thread.", ie);
+        } catch (final ExecutionException ee) {
+            final Throwable t = ee.getCause();
+            if (t instanceof Error) throw (Error) t;
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            else throw new RuntimeException(t);
+        }
+    }
+
+    /** Creates named daemon threads so that idle pools never keep the JVM alive. */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger threadsCreated = new AtomicInteger(0);
+
+        DaemonThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + "-" + threadsCreated.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
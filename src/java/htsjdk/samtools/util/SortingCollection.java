@@ -33,14 +33,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Array;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * Collection to which many records can be added.  After all records are added, the collection can be
@@ -52,8 +56,14 @@ import java.util.TreeSet;
  * When iterating over the collection, the number of file handles required is numRecordsInCollection/maxRecordsInRam.
  * If this becomes a limiting factor, a file handle cache could be added.
  *
- * If Snappy DLL is available and snappy.disable system property is not set to true, then Snappy is used
- * to compress temporary files.
+ * Temporary files are compressed with the codec set by setTempStreamCodec, by default the one named by the
+ * samjdk.temp_compression property.  That is Snappy, if the Snappy DLL is available and the snappy.disable system
+ * property is not set to true.
+ *
+ * If spill threads are enabled, a full buffer of records is sorted and written to disk on a background thread
+ * while the caller fills a fresh buffer, so up to spillThreads + 1 buffers of records may be in memory at once.
+ * If the number of files exceeds the merge fan-in limit, groups of files are merged into larger files before
+ * iteration so that no more than that many files are open at once.
  */
 public class SortingCollection<T> implements Iterable<T> {
 
@@ -129,6 +139,15 @@ public class SortingCollection<T> implements Iterable<T> {
 
     private TempStreamFactory tempStreamFactory = new TempStreamFactory();
 
+    private static final String SPILL_POOL_NAME = "SortingCollectionSpill";
+    private final Class<T> componentType;
+    private int spillThreads = Defaults.SORTING_COLLECTION_SPILL_THREADS;
+    private int maxFilesToMerge = Integer.MAX_VALUE;
+
+    /** Spills running on background threads, oldest first.  Each returns its emptied buffer for reuse. */
+    private final Deque<Future<T[]>> pendingSpills = new ArrayDeque<Future<T[]>>();
+    private final Deque<T[]> spareBuffers = new ArrayDeque<T[]>();
+
     /**
      * Prepare to accumulate records to be sorted
      * @param componentType Class of the record to be sorted.  Necessary because of Java generic lameness.
@@ -151,7 +170,70 @@ public class SortingCollection<T> implements Iterable<T> {
         this.codec = codec;
         this.comparator = comparator;
         this.maxRecordsInRam = maxRecordsInRam;
-        this.ramRecords = (T[])Array.newInstance(componentType, maxRecordsInRam);
+        this.componentType = componentType;
+        this.ramRecords = newRecordBuffer();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T[] newRecordBuffer() {
+        return (T[]) Array.newInstance(this.componentType, this.maxRecordsInRam);
+    }
+
+    /**
+     * Set the codec used to compress temporary files.  Must be called before any records are spilled to disk.
+     * Default value: [[htsjdk.samtools.Defaults#TEMP_COMPRESSION]]
+     */
+    public void setTempStreamCodec(final TempStreamCodec tempStreamCodec) {
+        if (!this.files.isEmpty()) {
+            throw new IllegalStateException("Cannot change temp file compression after records have been spilled");
+        }
+        this.tempStreamFactory = new TempStreamFactory(tempStreamCodec);
+    }
+
+    public TempStreamCodec getTempStreamCodec() {
+        return this.tempStreamFactory.getCodec();
+    }
+
+    /**
+     * @return metrics for each file of records spilled or merged so far
+     */
+    public List<TempStreamFactory.SpillMetrics> getSpillMetrics() {
+        return this.tempStreamFactory.getSpillMetrics();
+    }
+
+    /**
+     * @return the number of buffers of records that may be sorted and spilled to disk on background threads.
+     */
+    public int getSpillThreads() {
+        return spillThreads;
+    }
+
+    /**
+     * Set the number of buffers of records that may be sorted and spilled to disk concurrently on background
+     * threads while more records are added.  Values less than 1 spill on the thread that calls add().
+     * Default value: [[htsjdk.samtools.Defaults#SORTING_COLLECTION_SPILL_THREADS]]
+     */
+    public void setSpillThreads(final int spillThreads) {
+        this.spillThreads = spillThreads;
+    }
+
+    /**
+     * @return the maximum number of files that are merged at once.
+     */
+    public int getMaxFilesToMerge() {
+        return maxFilesToMerge;
+    }
+
+    /**
+     * Set the maximum number of files that are merged at once.  If more files than this have been spilled
+     * when adding is done, consecutive groups of files are merged into single files, repeatedly if necessary,
+     * until no more than this many remain.  By default there is no limit.
+     */
+    public void setMaxFilesToMerge(final int maxFilesToMerge) {
+        if (maxFilesToMerge < 2) {
+            throw new IllegalArgumentException("maxFilesToMerge must be at least 2");
+        }
+        this.maxFilesToMerge = maxFilesToMerge;
     }
 
     public void add(final T rec) {
@@ -189,9 +271,13 @@ public class SortingCollection<T> implements Iterable<T> {
         if (this.numRecordsInRam > 0) {
             spillToDisk();
         }
+        waitForSpills(0);
 
         // Facilitate GC
         this.ramRecords = null;
+        this.spareBuffers.clear();
+
+        mergeFiles();
     }
 
     /**
@@ -211,20 +297,60 @@ public class SortingCollection<T> implements Iterable<T> {
     }
 
     /**
-     * Sort the records in memory, write them to a file, and clear the buffer of records in memory.
+     * Sort the records in memory, write them to a file, and clear the buffer of records in memory.  With spill
+     * threads the buffer is handed to a background thread and replaced by an empty one.
      */
     private void spillToDisk() {
+        final File f;
+        try {
+            f = newTempFile();
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        // files are listed in the order they were spilled, which the merge relies on to keep the sort stable
+        this.files.add(f);
+
+        if (this.spillThreads < 1) {
+            sortAndWrite(this.ramRecords, this.numRecordsInRam, f, this.codec);
+        } else {
+            waitForSpills(this.spillThreads - 1);
+            final T[] records = this.ramRecords;
+            final int numRecords = this.numRecordsInRam;
+            final Codec<T> spillCodec = this.codec.clone();
+            this.pendingSpills.add(SharedThreadPools.getPool(SPILL_POOL_NAME).submit(new Callable<T[]>() {
+                public T[] call() {
+                    sortAndWrite(records, numRecords, f, spillCodec);
+                    return records;
+                }
+            }));
+            if (!doneAdding) {
+                this.ramRecords = spareBuffers.isEmpty() ? newRecordBuffer() : spareBuffers.poll();
+            }
+        }
+        this.numRecordsInRam = 0;
+    }
+
+    /**
+     * Wait until no more than maxPending spills are running, keeping the emptied buffers of finished spills.
+     */
+    private void waitForSpills(final int maxPending) {
+        while (this.pendingSpills.size() > maxPending ||
+                (!this.pendingSpills.isEmpty() && this.pendingSpills.peekFirst().isDone())) {
+            this.spareBuffers.add(SharedThreadPools.getResult(this.pendingSpills.pollFirst()));
+        }
+    }
+
+    private void sortAndWrite(final T[] records, final int numRecords, final File f, final Codec<T> codec) {
         try {
-            Arrays.sort(this.ramRecords, 0, this.numRecordsInRam, this.comparator);
-            final File f = newTempFile();
+            Arrays.sort(records, 0, numRecords, this.comparator);
             OutputStream os = null;
             try {
                 os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(f), Defaults.BUFFER_SIZE);
-                this.codec.setOutputStream(os);
-                for (int i = 0; i < this.numRecordsInRam; ++i) {
-                    this.codec.encode(ramRecords[i]);
+                codec.setOutputStream(os);
+                for (int i = 0; i < numRecords; ++i) {
+                    codec.encode(records[i]);
                     // Facilitate GC
-                    this.ramRecords[i] = null;
+                    records[i] = null;
                 }
 
                 os.flush();
@@ -236,16 +362,74 @@ public class SortingCollection<T> implements Iterable<T> {
                     os.close();
                 }
             }
-
-            this.numRecordsInRam = 0;
-            this.files.add(f);
-
         }
         catch (IOException e) {
             throw new RuntimeIOException(e);
         }
     }
 
+    /**
+     * Merge consecutive groups of files until no more than maxFilesToMerge remain.  Groups are merged
+     * concurrently if spill threads are enabled.
+     */
+    private void mergeFiles() {
+        while (this.files.size() > this.maxFilesToMerge) {
+            final List<File> mergedFiles = new ArrayList<File>();
+            final Deque<Future<File>> pendingMerges = new ArrayDeque<Future<File>>();
+            for (int i = 0; i < this.files.size(); i += this.maxFilesToMerge) {
+                final List<File> group = new ArrayList<File>(
+                        this.files.subList(i, Math.min(i + this.maxFilesToMerge, this.files.size())));
+                final File mergedFile;
+                try {
+                    mergedFile = newTempFile();
+                } catch (IOException e) {
+                    throw new RuntimeIOException(e);
+                }
+                mergedFiles.add(mergedFile);
+                final Codec<T> mergeCodec = this.codec.clone();
+                final Callable<File> merge = new Callable<File>() {
+                    public File call() {
+                        mergeFiles(group, mergedFile, mergeCodec);
+                        return mergedFile;
+                    }
+                };
+                if (this.spillThreads < 1) {
+                    mergeFiles(group, mergedFile, mergeCodec);
+                } else {
+                    // each merge holds a whole group of files open
+                    while (pendingMerges.size() >= this.spillThreads) {
+                        SharedThreadPools.getResult(pendingMerges.pollFirst());
+                    }
+                    pendingMerges.add(SharedThreadPools.getPool(SPILL_POOL_NAME).submit(merge));
+                }
+            }
+            while (!pendingMerges.isEmpty()) {
+                SharedThreadPools.getResult(pendingMerges.pollFirst());
+            }
+            this.files.clear();
+            this.files.addAll(mergedFiles);
+        }
+    }
+
+    private void mergeFiles(final List<File> inputs, final File output, final Codec<T> codec) {
+        final MergingIterator iterator = new MergingIterator(inputs);
+        OutputStream os = null;
+        try {
+            os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(output), Defaults.BUFFER_SIZE);
+            codec.setOutputStream(os);
+            while (iterator.hasNext()) {
+                codec.encode(iterator.next());
+            }
+            os.flush();
+        } catch (IOException e) {
+            throw new RuntimeIOException("Problem writing temporary file " + output.getAbsolutePath(), e);
+        } finally {
+            iterator.close();
+            CloserUtil.close(os);
+        }
+        IOUtil.deleteFiles(inputs);
+    }
+
     /**
      * Creates a new tmp file on one of the available temp filesystems, registers it for deletion
      * on JVM exit and then returns it.
@@ -279,6 +463,15 @@ public class SortingCollection<T> implements Iterable<T> {
         this.iterationStarted = true;
         this.cleanedUp = true;
 
+        // let background spills finish with their files before deleting them
+        while (!this.pendingSpills.isEmpty()) {
+            try {
+                SharedThreadPools.getResult(this.pendingSpills.pollFirst());
+            } catch (RuntimeException e) {
+                // the spill's file is being deleted anyway
+            }
+        }
+
         IOUtil.deleteFiles(this.files);
     }
 
@@ -395,9 +588,13 @@ public class SortingCollection<T> implements Iterable<T> {
         private final PollableTreeSet<PeekFileRecordIterator> queue;
 
         MergingIterator() {
+            this(SortingCollection.this.files);
+        }
+
+        MergingIterator(final List<File> files) {
             this.queue = new PollableTreeSet<PeekFileRecordIterator>(new PeekFileRecordIteratorComparator());
             int n = 0;
-            for (final File f : SortingCollection.this.files) {
+            for (final File f : files) {
                 final FileRecordIterator it = new FileRecordIterator(f);
                 if (it.hasNext()) {
                     this.queue.add(new PeekFileRecordIterator(it, n++));
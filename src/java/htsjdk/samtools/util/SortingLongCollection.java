@@ -23,6 +23,8 @@
  */
 package htsjdk.samtools.util;
 
+import htsjdk.samtools.Defaults;
+
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -69,6 +71,7 @@ public class SortingLongCollection {
      * Where files of sorted values go.
      */
     private final File[] tmpDir;
+    private TempStreamFactory tempStreamFactory = new TempStreamFactory();
 
     private final int maxValuesInRam;
     private int numValuesInRam = 0;
@@ -111,6 +114,24 @@ public class SortingLongCollection {
         this.ramValues = new long[maxValuesInRam];
     }
 
+    /**
+     * Set the codec used to compress temporary files.  Must be called before any values are spilled to disk.
+     * Default value: [[htsjdk.samtools.Defaults#TEMP_COMPRESSION]]
+     */
+    public void setTempStreamCodec(final TempStreamCodec tempStreamCodec) {
+        if (!this.files.isEmpty()) {
+            throw new IllegalStateException("Cannot change temp file compression after values have been spilled");
+        }
+        this.tempStreamFactory = new TempStreamFactory(tempStreamCodec);
+    }
+
+    /**
+     * @return metrics for each file of values spilled so far
+     */
+    public List<TempStreamFactory.SpillMetrics> getSpillMetrics() {
+        return this.tempStreamFactory.getSpillMetrics();
+    }
+
     /**
      * Add a value to the collection.
      *
@@ -147,7 +168,7 @@ public class SortingLongCollection {
         this.priorityQueue = new PriorityQueue<PeekFileValueIterator>(files.size(),
                 new PeekFileValueIteratorComparator());
         for (final File f : files) {
-            final FileValueIterator it = new FileValueIterator(f);
+            final FileValueIterator it = new FileValueIterator(f, this.tempStreamFactory);
             if (it.hasNext()) {
                 this.priorityQueue.offer(new PeekFileValueIterator(it));
             }
@@ -168,7 +189,7 @@ public class SortingLongCollection {
             DataOutputStream os = null;
             try {
                 final long numBytes = this.numValuesInRam * SIZEOF;
-                os = new DataOutputStream(IOUtil.maybeBufferOutputStream(new FileOutputStream(f)));
+                os = new DataOutputStream(tempStreamFactory.wrapTempOutputStream(new FileOutputStream(f), Defaults.BUFFER_SIZE));
                 f.deleteOnExit();
                 for (int i = 0; i < this.numValuesInRam; ++i) {
                     os.writeLong(ramValues[i]);
@@ -251,10 +272,10 @@ public class SortingLongCollection {
         private long currentRecord = 0;
         private boolean isCurrentRecord = true;
 
-        FileValueIterator(final File file) {
+        FileValueIterator(final File file, final TempStreamFactory tempStreamFactory) {
             this.file = file;
             try {
-                is = new DataInputStream(IOUtil.maybeBufferInputStream(new FileInputStream(file)));
+                is = new DataInputStream(tempStreamFactory.wrapTempInputStream(new FileInputStream(file), Defaults.BUFFER_SIZE));
                 next();
             } catch (FileNotFoundException e) {
                 throw new RuntimeIOException(file.getAbsolutePath(), e);
@@ -0,0 +1,45 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses temporary files written by {@link TempStreamFactory}.  Built-in codecs are in {@link TempStreamCodecs};
+ * other implementations may be selected by class name with the samjdk.temp_compression property, in which case
+ * they must have a public no-arg constructor.
+ *
+ * A stream returned by wrapOutputStream must make everything written to it readable by a stream returned by
+ * wrapInputStream once it has been flushed, because some callers read a file while it is still open for writing.
+ * Implementations must be safe to use from several threads at once.
+ */
+public interface TempStreamCodec {
+    /** @return a short name for the codec, used in spill metrics and to select it by name */
+    String getName();
+
+    OutputStream wrapOutputStream(OutputStream outputStream);
+
+    InputStream wrapInputStream(InputStream inputStream);
+}
@@ -0,0 +1,493 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.SAMException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The built-in {@link TempStreamCodec}s, in rough order of increasing CPU cost and decreasing file size:
+ * <ul>
+ *     <li>none: no compression</li>
+ *     <li>lz4: fast LZ77 compression in the LZ4 block format, in pure Java</li>
+ *     <li>snappy: Snappy, if the native library can be loaded, otherwise no compression</li>
+ *     <li>deflate: deflate at level 1</li>
+ * </ul>
+ */
+public final class TempStreamCodecs {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    public static final TempStreamCodec NONE = new TempStreamCodec() {
+        public String getName() {
+            return "none";
+        }
+
+        public OutputStream wrapOutputStream(final OutputStream outputStream) {
+            return outputStream;
+        }
+
+        public InputStream wrapInputStream(final InputStream inputStream) {
+            return inputStream;
+        }
+    };
+
+    public static final TempStreamCodec SNAPPY = new TempStreamCodec() {
+        private SnappyLoader snappyLoader = null;
+
+        private synchronized SnappyLoader getSnappyLoader() {
+            if (snappyLoader == null) snappyLoader = new SnappyLoader();
+            return snappyLoader;
+        }
+
+        public String getName() {
+            return "snappy";
+        }
+
+        public OutputStream wrapOutputStream(final OutputStream outputStream) {
+            if (!getSnappyLoader().SnappyAvailable) return outputStream;
+            try {
+                return getSnappyLoader().wrapOutputStream(outputStream);
+            } catch (Exception e) {
+                throw new SAMException("Error creating SnappyOutputStream", e);
+            }
+        }
+
+        public InputStream wrapInputStream(final InputStream inputStream) {
+            if (!getSnappyLoader().SnappyAvailable) return inputStream;
+            try {
+                return getSnappyLoader().wrapInputStream(inputStream);
+            } catch (Exception e) {
+                throw new SAMException("Error creating SnappyInputStream", e);
+            }
+        }
+    };
+
+    public static final TempStreamCodec LZ4 = new TempStreamCodec() {
+        public String getName() {
+            return "lz4";
+        }
+
+        public OutputStream wrapOutputStream(final OutputStream outputStream) {
+            return new BlockOutputStream(outputStream, new LZ4BlockCompressor());
+        }
+
+        public InputStream wrapInputStream(final InputStream inputStream) {
+            return new BlockInputStream(inputStream, new LZ4BlockCompressor());
+        }
+    };
+
+    public static final TempStreamCodec DEFLATE = new TempStreamCodec() {
+        public String getName() {
+            return "deflate";
+        }
+
+        public OutputStream wrapOutputStream(final OutputStream outputStream) {
+            return new BlockOutputStream(outputStream, new DeflateBlockCompressor());
+        }
+
+        public InputStream wrapInputStream(final InputStream inputStream) {
+            return new BlockInputStream(inputStream, new DeflateBlockCompressor());
+        }
+    };
+
+    private static TempStreamCodec defaultCodec = null;
+
+    private TempStreamCodecs() {
+    }
+
+    /**
+     * @return the codec named by the samjdk.temp_compression property.
+     */
+    public static synchronized TempStreamCodec getDefault() {
+        if (defaultCodec == null) defaultCodec = forName(Defaults.TEMP_COMPRESSION);
+        return defaultCodec;
+    }
+
+    /**
+     * @param name the name of a built-in codec, ignoring case, or the name of a class implementing TempStreamCodec
+     */
+    public static TempStreamCodec forName(final String name) {
+        for (final TempStreamCodec codec : new TempStreamCodec[]{NONE, SNAPPY, LZ4, DEFLATE}) {
+            if (codec.getName().equalsIgnoreCase(name)) return codec;
+        }
+        try {
+            return (TempStreamCodec) Class.forName(name).newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unknown temp file compression: " + name, e);
+        }
+    }
+
+    /**
+     * Compresses one block at a time.  An instance is used by a single stream.
+     */
+    interface BlockCompressor {
+        /**
+         * @return the compressed length, or -1 if compression would not make the block smaller
+         */
+        int compress(byte[] src, int srcLength, byte[] dest);
+
+        /** Decompress src into exactly rawLength bytes of dest. */
+        void decompress(byte[] src, int srcLength, byte[] dest, int rawLength) throws IOException;
+
+        /** @return a size of dest that is large enough for any block of srcLength bytes */
+        int maxCompressedLength(int srcLength);
+
+        /** Release any native resources; called once when the owning stream is closed. */
+        void end();
+    }
+
+    static class LZ4BlockCompressor implements BlockCompressor {
+        private static final int MIN_MATCH = 4;
+        private static final int HASH_LOG = 12;
+        private static final int MAX_OFFSET = 65535;
+        // as in LZ4, the last match starts at least this far from the end, and the last bytes are literals
+        private static final int MATCH_FIND_LIMIT = 12;
+        private static final int LAST_LITERALS = 5;
+
+        // positions + 1 of recently seen 4-byte sequences, 0 meaning none
+        private final int[] hashTable = new int[1 << HASH_LOG];
+
+        public int maxCompressedLength(final int srcLength) {
+            return srcLength + srcLength / 255 + 16;
+        }
+
+        public void end() {
+        }
+
+        public int compress(final byte[] src, final int srcLength, final byte[] dest) {
+            Arrays.fill(hashTable, 0);
+            int anchor = 0;
+            int destPosition = 0;
+            int ip = 0;
+            final int matchLimit = srcLength - MATCH_FIND_LIMIT;
+            while (ip < matchLimit) {
+                final int sequence = readInt(src, ip);
+                final int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+                final int ref = hashTable[hash] - 1;
+                hashTable[hash] = ip + 1;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    // skip faster through data that is not compressing
+                    ip += 1 + ((ip - anchor) >>> 6);
+                    continue;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < srcLength - LAST_LITERALS && src[ref + matchLength] == src[ip + matchLength]) {
+                    ++matchLength;
+                }
+                destPosition = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dest, destPosition);
+                ip += matchLength;
+                anchor = ip;
+            }
+            destPosition = writeSequence(src, anchor, srcLength - anchor, 0, 0, dest, destPosition);
+            return destPosition < srcLength ? destPosition : -1;
+        }
+
+        /** Write literals followed by a match, or only literals if matchLength is 0. */
+        private static int writeSequence(final byte[] src, final int literalStart, final int literalLength,
+                                         final int offset, final int matchLength, final byte[] dest, int destPosition) {
+            final int tokenPosition = destPosition++;
+            int token = Math.min(literalLength, 15) << 4;
+            if (literalLength >= 15) destPosition = writeLength(literalLength - 15, dest, destPosition);
+            System.arraycopy(src, literalStart, dest, destPosition, literalLength);
+            destPosition += literalLength;
+            if (matchLength > 0) {
+                dest[destPosition++] = (byte) offset;
+                dest[destPosition++] = (byte) (offset >>> 8);
+                final int length = matchLength - MIN_MATCH;
+                token |= Math.min(length, 15);
+                if (length >= 15) destPosition = writeLength(length - 15, dest, destPosition);
+            }
+            dest[tokenPosition] = (byte) token;
+            return destPosition;
+        }
+
+        private static int writeLength(int length, final byte[] dest, int destPosition) {
+            while (length >= 255) {
+                dest[destPosition++] = (byte) 255;
+                length -= 255;
+            }
+            dest[destPosition++] = (byte) length;
+            return destPosition;
+        }
+
+        private static int readInt(final byte[] buffer, final int offset) {
+            return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) |
+                    ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 3] & 0xff) << 24);
+        }
+
+        public void decompress(final byte[] src, final int srcLength, final byte[] dest, final int rawLength)
+                throws IOException {
+            int ip = 0;
+            int op = 0;
+            try {
+                while (true) {
+                    final int token = src[ip++] & 0xff;
+                    int literalLength = token >>> 4;
+                    if (literalLength == 15) {
+                        int b;
+                        do {
+                            b = src[ip++] & 0xff;
+                            literalLength += b;
+                        } while (b == 255);
+                    }
+                    System.arraycopy(src, ip, dest, op, literalLength);
+                    ip += literalLength;
+                    op += literalLength;
+                    if (ip == srcLength) break;
+
+                    final int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                    ip += 2;
+                    int matchLength = token & 0x0f;
+                    if (matchLength == 15) {
+                        int b;
+                        do {
+                            b = src[ip++] & 0xff;
+                            matchLength += b;
+                        } while (b == 255);
+                    }
+                    matchLength += MIN_MATCH;
+                    // the match may overlap the bytes it produces, so copy one byte at a time
+                    for (int ref = op - offset, end = op + matchLength; op < end; ) {
+                        dest[op++] = dest[ref++];
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt LZ4 block", e);
+            }
+            if (op != rawLength) throw new IOException("Corrupt LZ4 block");
+        }
+    }
+
+    static class DeflateBlockCompressor implements BlockCompressor {
+        // a stream only ever compresses or decompresses, so each is created on first use
+        private Deflater deflater;
+        private Inflater inflater;
+
+        public int maxCompressedLength(final int srcLength) {
+            return srcLength + srcLength / 1000 + 64;
+        }
+
+        public int compress(final byte[] src, final int srcLength, final byte[] dest) {
+            if (deflater == null) deflater = new Deflater(1, true);
+            deflater.reset();
+            deflater.setInput(src, 0, srcLength);
+            deflater.finish();
+            // stop once the output is no smaller than the input
+            final int compressedLength = deflater.deflate(dest, 0, srcLength);
+            return deflater.finished() && compressedLength < srcLength ? compressedLength : -1;
+        }
+
+        public void decompress(final byte[] src, final int srcLength, final byte[] dest, final int rawLength)
+                throws IOException {
+            if (inflater == null) inflater = new Inflater(true);
+            inflater.reset();
+            // nowrap inflation needs an extra byte after the input
+            inflater.setInput(src, 0, srcLength + 1);
+            try {
+                if (inflater.inflate(dest, 0, rawLength) != rawLength) throw new IOException("Corrupt deflate block");
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt deflate block", e);
+            }
+        }
+
+        public void end() {
+            if (deflater != null) deflater.end();
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    /**
+     * Writes blocks of up to BLOCK_SIZE bytes, each preceded by its raw and compressed lengths.  A block that does
+     * not compress is stored as is, with equal lengths.  Flushing ends the current block.
+     */
+    static class BlockOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final BlockCompressor compressor;
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] compressed;
+        private final byte[] header = new byte[8];
+        private int count = 0;
+
+        BlockOutputStream(final OutputStream out, final BlockCompressor compressor) {
+            this.out = out;
+            this.compressor = compressor;
+            this.compressed = new byte[compressor.maxCompressedLength(BLOCK_SIZE)];
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (count == buffer.length) writeBlock();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) writeBlock();
+                final int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (count == 0) return;
+            final int compressedLength = compressor.compress(buffer, count, compressed);
+            putInt(header, 0, count);
+            putInt(header, 4, compressedLength < 0 ? count : compressedLength);
+            out.write(header);
+            if (compressedLength < 0) {
+                out.write(buffer, 0, count);
+            } else {
+                out.write(compressed, 0, compressedLength);
+            }
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                out.close();
+            } finally {
+                compressor.end();
+            }
+        }
+
+        private static void putInt(final byte[] b, final int offset, final int value) {
+            b[offset] = (byte) value;
+            b[offset + 1] = (byte) (value >>> 8);
+            b[offset + 2] = (byte) (value >>> 16);
+            b[offset + 3] = (byte) (value >>> 24);
+        }
+    }
+
+    /**
+     * Reads the blocks written by BlockOutputStream.
+     */
+    static class BlockInputStream extends InputStream {
+        private final InputStream in;
+        private final BlockCompressor compressor;
+        private final byte[] header = new byte[8];
+        private byte[] buffer = new byte[0];
+        private byte[] compressed = new byte[0];
+        private int position = 0;
+        private int count = 0;
+
+        BlockInputStream(final InputStream in, final BlockCompressor compressor) {
+            this.in = in;
+            this.compressor = compressor;
+        }
+
+        /** @return false if there are no more blocks */
+        private boolean readBlock() throws IOException {
+            if (!readFully(header, 8, true)) return false;
+            final int rawLength = getInt(header, 0);
+            final int compressedLength = getInt(header, 4);
+            if (rawLength < 0 || compressedLength < 0 || compressedLength > rawLength) {
+                throw new IOException("Corrupt block header in temporary file");
+            }
+            if (buffer.length < rawLength) buffer = new byte[rawLength];
+            if (compressedLength == rawLength) {
+                readFully(buffer, rawLength, false);
+            } else {
+                // one spare byte for the inflater's benefit, see DeflateBlockCompressor.decompress
+                if (compressed.length < compressedLength + 1) compressed = new byte[compressedLength + 1];
+                readFully(compressed, compressedLength, false);
+                compressor.decompress(compressed, compressedLength, buffer, rawLength);
+            }
+            position = 0;
+            count = rawLength;
+            return true;
+        }
+
+        /** @return false if at end of stream before any bytes were read and eofAllowed */
+        private boolean readFully(final byte[] b, final int length, final boolean eofAllowed) throws IOException {
+            int total = 0;
+            while (total < length) {
+                final int n = in.read(b, total, length - total);
+                if (n < 0) {
+                    if (total == 0 && eofAllowed) return false;
+                    throw new EOFException("Premature end of temporary file");
+                }
+                total += n;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == count && !readBlock()) return -1;
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) return 0;
+            while (position == count) {
+                if (!readBlock()) return -1;
+            }
+            final int n = Math.min(len, count - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return count - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                compressor.end();
+            }
+        }
+
+        private static int getInt(final byte[] b, final int offset) {
+            return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8) |
+                    ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+        }
+    }
+}
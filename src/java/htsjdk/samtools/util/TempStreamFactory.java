@@ -23,61 +23,196 @@
  */
 package htsjdk.samtools.util;
 
-import htsjdk.samtools.SAMException;
+import htsjdk.samtools.Defaults;
 
 import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 
 /**
- * Factory class for wrapping input and output streams for temporary files.  If available, Snappy is used to
- * compress output files.  Therefore, if a temporary output file is written with an output stream obtained
- * from this class, it must be read by an input stream created by this class, otherwise a file written with
+ * Factory class for wrapping input and output streams for temporary files.  Files are compressed with a
+ * {@link TempStreamCodec}, by default the one named by the samjdk.temp_compression property (Snappy if available,
+ * unless set otherwise).  Therefore, if a temporary output file is written with an output stream obtained
+ * from this class, it must be read by an input stream created by the same factory, otherwise a file written with
  * compression will not be read with decompression.
+ *
+ * The factory keeps {@link SpillMetrics} for the most recently closed output streams it has created, and their
+ * totals over all of them.
  */
 public class TempStreamFactory {
-    private static SnappyLoader snappyLoader = null;
+    /** The number of closed streams whose metrics are kept individually. */
+    static final int MAX_SPILL_METRICS = 1000;
+
+    private final TempStreamCodec codec;
+    // guarded by spillMetrics
+    private final Deque<SpillMetrics> spillMetrics = new ArrayDeque<SpillMetrics>();
+    private long totalUncompressedBytes = 0;
+    private long totalCompressedBytes = 0;
+    private long totalCompressionNanos = 0;
+    private long totalWriteNanos = 0;
+
+    public TempStreamFactory() {
+        this(TempStreamCodecs.getDefault());
+    }
+
+    public TempStreamFactory(final TempStreamCodec codec) {
+        this.codec = codec;
+    }
 
-    private static synchronized SnappyLoader getSnappyLoader() {
-        if (snappyLoader == null) snappyLoader = new SnappyLoader();
-        return snappyLoader;
+    public TempStreamCodec getCodec() {
+        return codec;
     }
 
     /**
-     * Wrap the given InputStream in a SnappyInputStream if available.
-     * @return If Snappy is available, a SnappyInputStream wrapping inputStream.
-     * If not, and bufferSize > 0, a BufferedInputStream.
-     * Otherwise inputStream is returned.
+     * Wrap the given InputStream so that it decompresses a file written by this factory.
+     * If bufferSize > 0 inputStream is buffered before decompression.
      */
     public InputStream wrapTempInputStream(final InputStream inputStream, final int bufferSize) {
-        InputStream is = IOUtil.maybeBufferInputStream(inputStream, bufferSize);
-        if (getSnappyLoader().SnappyAvailable) {
-            try {
-                return getSnappyLoader().wrapInputStream(is);
-            } catch (Exception e) {
-                throw new SAMException("Error creating SnappyInputStream", e);
-            }
-        } else {
-            return is;
-        }
+        return codec.wrapInputStream(IOUtil.maybeBufferInputStream(inputStream, bufferSize));
     }
 
     /**
-     * Wrap the given OutputStream in a SnappyOutputStream if available.
-     * @return If Snappy is available, a SnappyOutputStream wrapping outputStream.
-     * If not, and bufferSize > 0, a BufferedOutputStream.
-     * Otherwise outputStream is returned.
+     * Wrap the given OutputStream so that it compresses what is written to it.
+     * If bufferSize > 0 writes are buffered before compression.  The compressed output is always buffered.
+     * Metrics for the stream are recorded when it is closed.
      */
     public OutputStream wrapTempOutputStream(final OutputStream outputStream, final int bufferSize) {
-        OutputStream os = outputStream;
-        if (bufferSize > 0) os = new BufferedOutputStream(os, bufferSize);
-        if (getSnappyLoader().SnappyAvailable) {
-            try {
-                os = getSnappyLoader().wrapOutputStream(os);
-            } catch (Exception e) {
-                throw new SAMException("Error creating SnappyOutputStream", e);
+        final MeteredOutputStream compressedStream = new MeteredOutputStream(
+                new BufferedOutputStream(outputStream, Defaults.NON_ZERO_BUFFER_SIZE), null);
+        final MeteredOutputStream rawStream = new MeteredOutputStream(codec.wrapOutputStream(compressedStream),
+                compressedStream);
+        if (bufferSize > 0) return new BufferedOutputStream(rawStream, bufferSize);
+        return rawStream;
+    }
+
+    /**
+     * @return the metrics of the closed streams created by this factory, in the order they were closed, for at most
+     * the last {@link #MAX_SPILL_METRICS} of them
+     */
+    public List<SpillMetrics> getSpillMetrics() {
+        synchronized (spillMetrics) {
+            return new ArrayList<SpillMetrics>(spillMetrics);
+        }
+    }
+
+    /**
+     * @return the metrics of all of the closed streams created by this factory, added together
+     */
+    public SpillMetrics getTotalSpillMetrics() {
+        synchronized (spillMetrics) {
+            return new SpillMetrics(codec.getName(), totalUncompressedBytes, totalCompressedBytes,
+                    totalCompressionNanos, totalWriteNanos);
+        }
+    }
+
+    private void addSpillMetrics(final SpillMetrics metrics) {
+        synchronized (spillMetrics) {
+            if (spillMetrics.size() == MAX_SPILL_METRICS) spillMetrics.removeFirst();
+            spillMetrics.addLast(metrics);
+            totalUncompressedBytes += metrics.getUncompressedBytes();
+            totalCompressedBytes += metrics.getCompressedBytes();
+            totalCompressionNanos += metrics.getCompressionNanos();
+            totalWriteNanos += metrics.getWriteNanos();
+        }
+    }
+
+    /**
+     * Bytes written to one temporary file, and the time spent writing it.
+     */
+    public static class SpillMetrics {
+        private final String codecName;
+        private final long uncompressedBytes;
+        private final long compressedBytes;
+        private final long compressionNanos;
+        private final long writeNanos;
+
+        SpillMetrics(final String codecName, final long uncompressedBytes, final long compressedBytes,
+                     final long compressionNanos, final long writeNanos) {
+            this.codecName = codecName;
+            this.uncompressedBytes = uncompressedBytes;
+            this.compressedBytes = compressedBytes;
+            this.compressionNanos = compressionNanos;
+            this.writeNanos = writeNanos;
+        }
+
+        public String getCodecName() { return codecName; }
+
+        /** @return the number of bytes written to the stream */
+        public long getUncompressedBytes() { return uncompressedBytes; }
+
+        /** @return the number of bytes written to the file */
+        public long getCompressedBytes() { return compressedBytes; }
+
+        /** @return the time spent in the codec, not counting time writing to the file */
+        public long getCompressionNanos() { return compressionNanos; }
+
+        /** @return the time spent writing compressed bytes to the file */
+        public long getWriteNanos() { return writeNanos; }
+
+        @Override
+        public String toString() {
+            return codecName + ": " + uncompressedBytes + " bytes compressed to " + compressedBytes + " in " +
+                    compressionNanos / 1000000 + " ms, written in " + writeNanos / 1000000 + " ms";
+        }
+    }
+
+    /**
+     * Counts the bytes written through it and the time spent writing them.  The stream above the codec refers
+     * to the one below it, so that it can subtract the time spent writing the file from the time in the codec.
+     * A codec may write a header to the file when it is created, outside of any call to the stream above it,
+     * so the difference is not allowed to go negative.
+     */
+    private class MeteredOutputStream extends FilterOutputStream {
+        private final MeteredOutputStream compressedStream;
+        private long bytes = 0;
+        private long nanos = 0;
+        private boolean closed = false;
+
+        MeteredOutputStream(final OutputStream out, final MeteredOutputStream compressedStream) {
+            super(out);
+            this.compressedStream = compressedStream;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+            ++bytes;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+            bytes += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            final long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            final long start = System.nanoTime();
+            out.close();
+            nanos += System.nanoTime() - start;
+            if (compressedStream != null) {
+                addSpillMetrics(new SpillMetrics(codec.getName(), bytes, compressedStream.bytes,
+                        Math.max(0, nanos - compressedStream.nanos), compressedStream.nanos));
             }
         }
-        return os;
     }
 }
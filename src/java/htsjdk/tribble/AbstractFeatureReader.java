@@ -175,7 +175,7 @@ public abstract class AbstractFeatureReader<T extends Feature, SOURCE> implement
 
         public boolean isTabix(String resourcePath, String indexPath) throws IOException{
             if(indexPath == null){
-                indexPath = ParsingUtils.appendToPath(resourcePath, TabixUtils.STANDARD_INDEX_EXTENSION);
+                indexPath = TabixUtils.getDefaultIndexPath(resourcePath);
             }
             return hasBlockCompressedExtension(resourcePath) && ParsingUtils.resourceExists(indexPath);
         }
@@ -23,6 +23,7 @@
  */
 package htsjdk.tribble.index;
 
+import htsjdk.samtools.CSIIndex;
 import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.BlockCompressedInputStream;
@@ -78,7 +79,9 @@ public class IndexFactory {
         LINEAR(LinearIndex.MAGIC_NUMBER, LinearIndex.INDEX_TYPE, LinearIndexCreator.class, LinearIndex.class, LinearIndexCreator.DEFAULT_BIN_WIDTH),
         INTERVAL_TREE(IntervalTreeIndex.MAGIC_NUMBER, IntervalTreeIndex.INDEX_TYPE, IntervalIndexCreator.class, IntervalTreeIndex.class, IntervalIndexCreator.DEFAULT_FEATURE_COUNT),
         // Tabix index initialization requires additional information, so generic construction won't work, thus indexCreatorClass is null.
-        TABIX(TabixIndex.MAGIC_NUMBER, null, null, TabixIndex.class, -1);
+        TABIX(TabixIndex.MAGIC_NUMBER, null, null, TabixIndex.class, -1),
+        // A CSI index of a BGZF-compressed text file, which is read and written by TabixIndex
+        CSI(CSIIndex.MAGIC_NUMBER, null, null, TabixIndex.class, -1);
 
         private final int magicNumber;
         private final Integer tribbleIndexType;
@@ -173,7 +176,7 @@ public class IndexFactory {
             if (indexFile.endsWith(".gz")) {
                 inputStream = new GZIPInputStream(inputStream);
             }
-            else if (indexFile.endsWith(TabixUtils.STANDARD_INDEX_EXTENSION)) {
+            else if (indexFile.endsWith(TabixUtils.STANDARD_INDEX_EXTENSION) || indexFile.endsWith(TabixUtils.CSI_INDEX_EXTENSION)) {
                 inputStream = new BlockCompressedInputStream(inputStream);
             }
             // Must be buffered, because getIndexType uses mark and reset
@@ -273,7 +276,8 @@ public class IndexFactory {
             case INTERVAL_TREE: return createIntervalIndex(inputFile, codec);
             case LINEAR:        return createLinearIndex(inputFile, codec);
             // Tabix index initialization requires additional information, so this construction method won't work.
-            case TABIX:         throw new UnsupportedOperationException("Tabix indices cannot be created through a generic interface");
+            case TABIX:
+            case CSI:           throw new UnsupportedOperationException("Tabix indices cannot be created through a generic interface");
         }
         throw new IllegalArgumentException("Unrecognized IndexType " + type);
     }
@@ -327,6 +331,22 @@ public class IndexFactory {
         return (TabixIndex)createIndex(inputFile, new FeatureIterator<FEATURE_TYPE, SOURCE_TYPE>(inputFile, codec), indexCreator);
     }
 
+    /**
+     * As {@link #createTabixIndex(File, FeatureCodec, TabixFormat, SAMSequenceDictionary)}, but creates a CSI index,
+     * which can hold sequences longer than 2^29 bases.
+     * @param minShift the smallest bins span 2^minShift bases, e.g. {@link CSIIndex#DEFAULT_MIN_SHIFT}
+     * @param depth    the number of levels below the root bin, e.g. {@link CSIIndex#DEFAULT_DEPTH}
+     */
+    public static <FEATURE_TYPE extends Feature, SOURCE_TYPE> TabixIndex createCSIIndex(final File inputFile,
+                                                                                   final FeatureCodec<FEATURE_TYPE, SOURCE_TYPE> codec,
+                                                                                   final TabixFormat tabixFormat,
+                                                                                   final SAMSequenceDictionary sequenceDictionary,
+                                                                                   final int minShift,
+                                                                                   final int depth) {
+        final TabixIndexCreator indexCreator = new TabixIndexCreator(sequenceDictionary, tabixFormat, minShift, depth);
+        return (TabixIndex)createIndex(inputFile, new FeatureIterator<FEATURE_TYPE, SOURCE_TYPE>(inputFile, codec), indexCreator);
+    }
+
 
 
     private static Index createIndex(final File inputFile, final FeatureIterator iterator, final IndexCreator creator) {
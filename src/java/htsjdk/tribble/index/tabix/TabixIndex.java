@@ -25,6 +25,7 @@ package htsjdk.tribble.index.tabix;
 
 import htsjdk.samtools.Bin;
 import htsjdk.samtools.BinningIndexContent;
+import htsjdk.samtools.CSIIndex;
 import htsjdk.samtools.Chunk;
 import htsjdk.samtools.LinearIndex;
 import htsjdk.samtools.util.BlockCompressedInputStream;
@@ -38,10 +39,13 @@ import htsjdk.tribble.util.LittleEndianInputStream;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import htsjdk.tribble.util.TabixUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
@@ -53,6 +57,9 @@ import java.util.Map;
 /**
  * This class represent a Tabix index that has been built in memory or read from a file.  It can be queried or
  * written to a file.
+ * <p/>
+ * The index may instead be in CSI format, which can hold sequences longer than 2^29 bases.  The tabix header
+ * is then stored in the auxiliary data of the CSI index.
  */
 public class TabixIndex implements Index {
     private static final byte[] MAGIC = {'T', 'B', 'I', 1};
@@ -68,6 +75,8 @@ public class TabixIndex implements Index {
     private final TabixFormat formatSpec;
     private final List<String> sequenceNames;
     private final BinningIndexContent[] indices;
+    // set instead of indices when the index is CSI
+    private final CSIIndex csiIndex;
 
     /**
      * @param formatSpec    Information about how to interpret the file being indexed.  Unused by this class other than
@@ -82,6 +91,31 @@ public class TabixIndex implements Index {
         this.formatSpec = formatSpec.clone();
         this.sequenceNames = Collections.unmodifiableList(new ArrayList<String>(sequenceNames));
         this.indices = indices;
+        this.csiIndex = null;
+    }
+
+    /**
+     * @param formatSpec    Information about how to interpret the file being indexed.
+     * @param sequenceNames Sequences in the file being indexed, in the order they appear in the file.
+     * @param csiIndex      Has one reference for each element of sequenceNames.  Its auxiliary data is replaced
+     *                      with the tabix header.
+     */
+    public TabixIndex(final TabixFormat formatSpec, final List<String> sequenceNames, final CSIIndex csiIndex) {
+        if (sequenceNames.size() != csiIndex.getNumberOfReferences()) {
+            throw new IllegalArgumentException("sequenceNames.size() != csiIndex.getNumberOfReferences()");
+        }
+        this.formatSpec = formatSpec.clone();
+        this.sequenceNames = Collections.unmodifiableList(new ArrayList<String>(sequenceNames));
+        this.indices = null;
+        try {
+            final ByteArrayOutputStream aux = new ByteArrayOutputStream();
+            final LittleEndianOutputStream los = new LittleEndianOutputStream(aux);
+            writeHeader(los);
+            los.close();
+            this.csiIndex = csiIndex.withAux(aux.toByteArray());
+        } catch (final IOException e) {
+            throw new TribbleException("Exception creating CSI index", e);
+        }
     }
 
     /**
@@ -101,18 +135,47 @@ public class TabixIndex implements Index {
 
     private TabixIndex(final InputStream inputStream, final boolean closeInputStream) throws IOException {
         final LittleEndianInputStream dis = new LittleEndianInputStream(inputStream);
-        if (dis.readInt() != MAGIC_NUMBER) {
-            throw new TribbleException(String.format("Unexpected magic number 0x%x", MAGIC_NUMBER));
+        final int magicNumber = dis.readInt();
+        if (magicNumber == CSIIndex.MAGIC_NUMBER) {
+            final ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(magicNumber);
+            try {
+                csiIndex = new CSIIndex(new SequenceInputStream(new ByteArrayInputStream(magic.array()), inputStream));
+            } finally {
+                if (closeInputStream) CloserUtil.close(dis);
+            }
+            indices = null;
+            final LittleEndianInputStream auxStream = new LittleEndianInputStream(new ByteArrayInputStream(csiIndex.getAux()));
+            formatSpec = readFormatSpec(auxStream);
+            sequenceNames = readSequenceNames(auxStream, csiIndex.getNumberOfReferences());
+            return;
+        }
+        if (magicNumber != MAGIC_NUMBER) {
+            throw new TribbleException(String.format("Unexpected magic number 0x%x", magicNumber));
         }
+        csiIndex = null;
         final int numSequences = dis.readInt();
         indices = new BinningIndexContent[numSequences];
-        formatSpec = new TabixFormat();
+        formatSpec = readFormatSpec(dis);
+        final List<String> sequenceNames = readSequenceNames(dis, numSequences);
+        for (int i = 0; i < numSequences; ++i) {
+            indices[i] = loadSequence(i, dis);
+        }
+        if (closeInputStream) CloserUtil.close(dis);
+        this.sequenceNames = sequenceNames;
+    }
+
+    private static TabixFormat readFormatSpec(final LittleEndianInputStream dis) throws IOException {
+        final TabixFormat formatSpec = new TabixFormat();
         formatSpec.flags = dis.readInt();
         formatSpec.sequenceColumn = dis.readInt();
         formatSpec.startPositionColumn = dis.readInt();
         formatSpec.endPositionColumn = dis.readInt();
         formatSpec.metaCharacter = (char) dis.readInt();
         formatSpec.numHeaderLinesToSkip = dis.readInt();
+        return formatSpec;
+    }
+
+    private static List<String> readSequenceNames(final LittleEndianInputStream dis, final int numSequences) throws IOException {
         final int nameBlockSize = dis.readInt();
         final byte[] nameBlock = new byte[nameBlockSize];
         if (dis.read(nameBlock) != nameBlockSize) throw new EOFException("Premature end of file reading Tabix header");
@@ -127,11 +190,7 @@ public class TabixIndex implements Index {
         if (startPos != nameBlockSize) {
             throw new TribbleException("Tabix header format exception.  Sequence name block is longer than expected");
         }
-        for (int i = 0; i < numSequences; ++i) {
-            indices[i] = loadSequence(i, dis);
-        }
-        if (closeInputStream) CloserUtil.close(dis);
-        this.sequenceNames = Collections.unmodifiableList(sequenceNames);
+        return Collections.unmodifiableList(sequenceNames);
     }
 
     /**
@@ -145,10 +204,20 @@ public class TabixIndex implements Index {
     @Override
     public List<Block> getBlocks(final String chr, final int start, final int end) {
         final int sequenceIndex = sequenceNames.indexOf(chr);
-        if (sequenceIndex == -1 || indices[sequenceIndex] == null) {
+        if (sequenceIndex == -1) {
+            return Collections.emptyList();
+        }
+        final List<Chunk> chunks;
+        if (csiIndex != null) {
+            chunks = csiIndex.getChunksOverlapping(sequenceIndex, start, end);
+        } else if (indices[sequenceIndex] != null) {
+            chunks = indices[sequenceIndex].getChunksOverlapping(start, end);
+        } else {
+            chunks = null;
+        }
+        if (chunks == null) {
             return Collections.emptyList();
         }
-        final List<Chunk> chunks = indices[sequenceIndex].getChunksOverlapping(start, end);
         final List<Block> ret = new ArrayList<Block>(chunks.size());
         for (final Chunk chunk : chunks) {
             ret.add(new Block(chunk.getChunkStart(), chunk.getChunkEnd() - chunk.getChunkStart()));
@@ -188,6 +257,7 @@ public class TabixIndex implements Index {
 
         if (!formatSpec.equals(that.formatSpec)) return false;
         if (!Arrays.equals(indices, that.indices)) return false;
+        if (csiIndex != null ? !csiIndex.equals(that.csiIndex) : that.csiIndex != null) return false;
         return sequenceNames.equals(that.sequenceNames);
 
     }
@@ -196,6 +266,13 @@ public class TabixIndex implements Index {
         return formatSpec;
     }
 
+    /**
+     * @return true if this index is in CSI rather than tabix format
+     */
+    public boolean isCSI() {
+        return csiIndex != null;
+    }
+
     /**
      * Writes the index with BGZF.
      *
@@ -219,7 +296,8 @@ public class TabixIndex implements Index {
     @Override
     public void writeBasedOnFeatureFile(final File featureFile) throws IOException {
         if (!featureFile.isFile()) return;
-        write(new File(featureFile.getAbsolutePath() + TabixUtils.STANDARD_INDEX_EXTENSION));
+        write(new File(featureFile.getAbsolutePath() +
+                (isCSI() ? TabixUtils.CSI_INDEX_EXTENSION : TabixUtils.STANDARD_INDEX_EXTENSION)));
     }
 
     /**
@@ -229,8 +307,23 @@ public class TabixIndex implements Index {
      */
     @Override
     public void write(final LittleEndianOutputStream los) throws IOException {
+        if (csiIndex != null) {
+            csiIndex.write(los);
+            return;
+        }
         los.writeInt(MAGIC_NUMBER);
         los.writeInt(sequenceNames.size());
+        writeHeader(los);
+        for (final BinningIndexContent index : indices) {
+            writeSequence(index, los);
+        }
+    }
+
+    /**
+     * Writes the format and sequence names, which follow the number of sequences in a tabix index and make up
+     * the auxiliary data of a CSI index.
+     */
+    private void writeHeader(final LittleEndianOutputStream los) throws IOException {
         los.writeInt(formatSpec.flags);
         los.writeInt(formatSpec.sequenceColumn);
         los.writeInt(formatSpec.startPositionColumn);
@@ -244,9 +337,6 @@ public class TabixIndex implements Index {
             los.write(StringUtil.stringToBytes(sequenceName));
             los.write(0);
         }
-        for (final BinningIndexContent index : indices) {
-            writeSequence(index, los);
-        }
     }
 
     private void writeSequence(final BinningIndexContent indexContent, final LittleEndianOutputStream los) throws IOException {
@@ -354,6 +444,7 @@ public class TabixIndex implements Index {
 
         if (!formatSpec.equals(index.formatSpec)) return false;
         if (!Arrays.equals(indices, index.indices)) return false;
+        if (csiIndex != null ? !csiIndex.equals(index.csiIndex) : index.csiIndex != null) return false;
         if (!sequenceNames.equals(index.sequenceNames)) return false;
 
         return true;
@@ -364,6 +455,7 @@ public class TabixIndex implements Index {
         int result = formatSpec.hashCode();
         result = 31 * result + sequenceNames.hashCode();
         result = 31 * result + Arrays.hashCode(indices);
+        result = 31 * result + (csiIndex != null ? csiIndex.hashCode() : 0);
         return result;
     }
 }
@@ -25,6 +25,8 @@ package htsjdk.tribble.index.tabix;
 
 import htsjdk.samtools.BinningIndexBuilder;
 import htsjdk.samtools.BinningIndexContent;
+import htsjdk.samtools.CSIIndex;
+import htsjdk.samtools.CSIIndexBuilder;
 import htsjdk.samtools.Chunk;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.tribble.Feature;
@@ -39,10 +41,12 @@ import java.util.Set;
 /**
  * IndexCreator for Tabix.
  * Features are expected to be 1-based, inclusive.
+ * Creates a CSI index instead if a CSI binning scheme is given, which is needed for sequences longer than 2^29 bases.
  */
 public class TabixIndexCreator implements IndexCreator {
     private final TabixFormat formatSpec;
     private final List<BinningIndexContent> indexContents = new ArrayList<BinningIndexContent>();
+    private final List<CSIIndex.ReferenceIndex> csiIndexContents = new ArrayList<CSIIndex.ReferenceIndex>();
     private final List<String> sequenceNames = new ArrayList<String>();
     // Merely a faster way to ensure that features are added in a specific sequence name order
     private final Set<String> sequenceNamesSeen = new HashSet<String>();
@@ -52,6 +56,10 @@ public class TabixIndexCreator implements IndexCreator {
 
     private String currentSequenceName = null;
     private BinningIndexBuilder indexBuilder = null;
+    // Used instead of indexBuilder for CSI, in which case csiMinShift is > 0
+    private CSIIndexBuilder csiIndexBuilder = null;
+    private final int csiMinShift;
+    private final int csiDepth;
     // A feature can't be added to the index until the next feature is added because the next feature
     // defines the location of the end of the previous feature in the output file.
     private TabixFeature previousFeature = null;
@@ -63,8 +71,23 @@ public class TabixIndexCreator implements IndexCreator {
      */
     public TabixIndexCreator(final SAMSequenceDictionary sequenceDictionary,
                              final TabixFormat formatSpec) {
+        this(sequenceDictionary, formatSpec, 0, 0);
+    }
+
+    /**
+     * Creates a CSI index rather than a tabix index.
+     *
+     * @param minShift the smallest bins span 2^minShift bases, e.g. {@link CSIIndex#DEFAULT_MIN_SHIFT}
+     * @param depth    the number of levels below the root bin, e.g. {@link CSIIndex#DEFAULT_DEPTH}
+     */
+    public TabixIndexCreator(final SAMSequenceDictionary sequenceDictionary,
+                             final TabixFormat formatSpec,
+                             final int minShift,
+                             final int depth) {
         this.sequenceDictionary = sequenceDictionary;
         this.formatSpec = formatSpec.clone();
+        this.csiMinShift = minShift;
+        this.csiDepth = depth;
     }
 
     public TabixIndexCreator(final TabixFormat formatSpec) {
@@ -103,13 +126,28 @@ public class TabixIndexCreator implements IndexCreator {
             throw new IllegalArgumentException(String.format("Feature start position %d >= feature end position %d",
                     previousFeature.featureStartFilePosition, previousFeature.featureEndFilePosition));
         }
-        indexBuilder.processFeature(previousFeature);
+        if (csiIndexBuilder != null) csiIndexBuilder.processFeature(previousFeature);
+        else indexBuilder.processFeature(previousFeature);
     }
 
-    private void advanceToReference(final String sequenceName) {
+    private void finishReference() {
         if (indexBuilder != null) {
             indexContents.add(indexBuilder.generateIndexContent());
         }
+        if (csiIndexBuilder != null) {
+            csiIndexContents.add(csiIndexBuilder.generateIndexContent());
+        }
+    }
+
+    private void advanceToReference(final String sequenceName) {
+        finishReference();
+        if (csiMinShift > 0) {
+            csiIndexBuilder = new CSIIndexBuilder(sequenceNames.size(), csiMinShift, csiDepth);
+            sequenceNames.add(sequenceName);
+            currentSequenceName = sequenceName;
+            sequenceNamesSeen.add(sequenceName);
+            return;
+        }
         // If sequence dictionary is provided, BinningIndexBuilder can reduce size of array it allocates.
         final int sequenceLength;
         if (sequenceDictionary != null) {
@@ -128,8 +166,9 @@ public class TabixIndexCreator implements IndexCreator {
         if (previousFeature != null) {
             finalizeFeature(finalFilePosition);
         }
-        if (indexBuilder != null) {
-            indexContents.add(indexBuilder.generateIndexContent());
+        finishReference();
+        if (csiMinShift > 0) {
+            return new TabixIndex(formatSpec, sequenceNames, new CSIIndex(csiMinShift, csiDepth, null, csiIndexContents, null));
         }
         // Make this as big as the sequence dictionary, even if there is not content for every sequence,
         // but truncate the sequence dictionary before its end if there are sequences in the sequence dictionary without
@@ -42,6 +42,7 @@ public class AsciiLineReader implements LineReader, LocationAware {
 
     PositionalBufferedStream is;
     char[] lineBuffer;
+    byte[] lineBytes;
 
     public AsciiLineReader(final InputStream is){
         this(new PositionalBufferedStream(is));
@@ -122,10 +123,56 @@ public class AsciiLineReader implements LineReader, LocationAware {
         return readLine(is);
     }
 
+    /**
+     * Read a line as raw bytes, without building a String from it, for parsers that tokenize lines in place.
+     * Lines are terminated as in {@link #readLine(PositionalBufferedStream)}.
+     *
+     * @return the length of the line, excluding the terminator, or -1 if the end of the stream has been reached.
+     * The line is in {@link #getLineBytes()} until the next call.
+     */
+    public final int readLineBytes() throws IOException {
+        if ( is == null ){
+            throw new TribbleException("readLineBytes() called but no default stream was provided to the class on creation");
+        }
+        if (lineBytes == null) lineBytes = new byte[lineBuffer.length];
+        int linePosition = 0;
+
+        while (true) {
+            final int b = is.read();
+
+            if (b == -1) {
+                // eof reached.  Return the last line, or -1 if this is a new line
+                return linePosition > 0 ? linePosition : -1;
+            }
+
+            if (b == LINEFEED || b == CARRIAGE_RETURN) {
+                if (b == CARRIAGE_RETURN && is.peek() == LINEFEED) {
+                    is.read(); // <= skip the trailing \n in case of \r\n termination
+                }
+                return linePosition;
+            }
+
+            if (linePosition == lineBytes.length) {
+                final byte[] temp = new byte[BUFFER_OVERFLOW_INCREASE_FACTOR * lineBytes.length];
+                System.arraycopy(lineBytes, 0, temp, 0, lineBytes.length);
+                lineBytes = temp;
+            }
+            lineBytes[linePosition++] = (byte) b;
+        }
+    }
+
+    /**
+     * @return the buffer holding the line most recently read by {@link #readLineBytes()}, starting at offset 0
+     */
+    public final byte[] getLineBytes() {
+        return lineBytes;
+    }
+
     @Override
     public void close() {
         if ( is != null ) is.close();
         lineBuffer = null;
+        lineBytes = null;
     }
 
     public static void main(final String[] args) throws Exception {
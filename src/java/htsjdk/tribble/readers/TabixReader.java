@@ -23,20 +23,24 @@
  */
 package htsjdk.tribble.readers;
 
+import htsjdk.samtools.CSIIndex;
+import htsjdk.samtools.Chunk;
 import htsjdk.samtools.seekablestream.ISeekableStreamFactory;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import htsjdk.samtools.seekablestream.SeekableStreamFactory;
 import htsjdk.samtools.util.BlockCompressedInputStream;
-import htsjdk.tribble.util.ParsingUtils;
 import htsjdk.tribble.util.TabixUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -86,6 +90,8 @@ public class TabixReader {
     }
 
     protected TIndex[] mIndex;
+    // set instead of mIndex when the index is CSI rather than tabix
+    private CSIIndex mCsiIndex;
 
     private static class TIntv {
         int tid, beg, end;
@@ -127,7 +133,7 @@ public class TabixReader {
         mFn = fn;
         mFp = new BlockCompressedInputStream(stream);
         if(idxFn == null){
-            mIdxFn = ParsingUtils.appendToPath(fn, TabixUtils.STANDARD_INDEX_EXTENSION);
+            mIdxFn = TabixUtils.getDefaultIndexPath(fn);
         } else {
             mIdxFn = idxFn;
         }
@@ -185,29 +191,15 @@ public class TabixReader {
         BlockCompressedInputStream is = new BlockCompressedInputStream(fp);
         byte[] buf = new byte[4];
 
-        is.read(buf, 0, 4); // read "TBI\1"
-        mSeq = new String[readInt(is)]; // # sequences
-        mChr2tid = new HashMap<String, Integer>();
-        mPreset = readInt(is);
-        mSc = readInt(is);
-        mBc = readInt(is);
-        mEc = readInt(is);
-        mMeta = readInt(is);
-        readInt(is);//unused
-        // read sequence dictionary
-        int i, j, k, l = readInt(is);
-        buf = new byte[l];
-        is.read(buf);
-        for (i = j = k = 0; i < buf.length; ++i) {
-            if (buf[i] == 0) {
-                byte[] b = new byte[i - j];
-                System.arraycopy(buf, j, b, 0, b.length);
-                String s = new String(b);
-                mChr2tid.put(s, k);
-                mSeq[k++] = s;
-                j = i + 1;
-            }
+        is.read(buf, 0, 4); // read "TBI\1" or "CSI\1"
+        if (ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN).getInt() == CSIIndex.MAGIC_NUMBER) {
+            readCsiIndex(new SequenceInputStream(new ByteArrayInputStream(buf), is));
+            is.close();
+            return;
         }
+        mSeq = new String[readInt(is)]; // # sequences
+        readHeader(is);
+        int i, j, k;
         // read the index
         mIndex = new TIndex[mSeq.length];
         for (i = 0; i < mSeq.length; ++i) {
@@ -234,6 +226,49 @@ public class TabixReader {
         is.close();
     }
 
+    /**
+     * Read the format and sequence dictionary, which follow the number of sequences in a tabix index,
+     * and make up the auxiliary data of a CSI index.  mSeq must be allocated already.
+     */
+    private void readHeader(final InputStream is) throws IOException {
+        mChr2tid = new HashMap<String, Integer>();
+        mPreset = readInt(is);
+        mSc = readInt(is);
+        mBc = readInt(is);
+        mEc = readInt(is);
+        mMeta = readInt(is);
+        readInt(is);//unused
+        // read sequence dictionary
+        int i, j, k, l = readInt(is);
+        byte[] buf = new byte[l];
+        is.read(buf);
+        for (i = j = k = 0; i < buf.length; ++i) {
+            if (buf[i] == 0) {
+                byte[] b = new byte[i - j];
+                System.arraycopy(buf, j, b, 0, b.length);
+                String s = new String(b);
+                mChr2tid.put(s, k);
+                mSeq[k++] = s;
+                j = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Read a CSI index, whose auxiliary data holds the tabix header.
+     *
+     * @param is the decompressed index, starting with the magic number
+     */
+    private void readCsiIndex(final InputStream is) throws IOException {
+        mCsiIndex = new CSIIndex(is);
+        final byte[] aux = mCsiIndex.getAux();
+        if (aux.length == 0) {
+            throw new IOException("CSI index " + mIdxFn + " does not contain a tabix header");
+        }
+        mSeq = new String[mCsiIndex.getNumberOfReferences()];
+        readHeader(new ByteArrayInputStream(aux));
+    }
+
     /**
      * Read the Tabix index from the default file.
      */
@@ -411,6 +446,7 @@ public class TabixReader {
     public Iterator query(final int tid, final int beg, final int end) {
         TPair64[] off, chunks;
         long min_off;
+        if (mCsiIndex != null) return csiQuery(tid, beg, end);
         if(tid< 0 || tid>=this.mIndex.length) return EOF_ITERATOR;
         TIndex idx = mIndex[tid];
         int[] bins = new int[MAX_BIN];
@@ -462,6 +498,20 @@ public class TabixReader {
         return new TabixReader.IteratorImpl(tid, beg, end, ret);
     }
 
+    /**
+     * CSIIndex does the binning and merging of chunks that {@link #query(int, int, int)} does for tabix.
+     */
+    private Iterator csiQuery(final int tid, final int beg, final int end) {
+        if (tid < 0 || tid >= mSeq.length) return EOF_ITERATOR;
+        final List<Chunk> chunks = mCsiIndex.getChunksOverlapping(tid, beg + 1, end);
+        if (chunks == null || chunks.isEmpty()) return EOF_ITERATOR;
+        final TPair64[] off = new TPair64[chunks.size()];
+        for (int i = 0; i < off.length; ++i) {
+            off[i] = new TPair64(chunks.get(i).getChunkStart(), chunks.get(i).getChunkEnd());
+        }
+        return new TabixReader.IteratorImpl(tid, beg, end, off);
+    }
+
     /**
      *
      * @see #parseReg(String)
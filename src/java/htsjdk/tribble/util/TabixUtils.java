@@ -31,6 +31,7 @@ import htsjdk.tribble.TribbleException;
 import htsjdk.tribble.readers.TabixReader;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -42,6 +43,24 @@ public class TabixUtils {
 
     public static final String STANDARD_INDEX_EXTENSION = ".tbi";
 
+    /**
+     * Extension of a CSI index, which can index sequences longer than 2^29 bases.
+     */
+    public static final String CSI_INDEX_EXTENSION = ".csi";
+
+    /**
+     * @return the path of the index of a BGZF-compressed feature file: its tabix index if that exists, otherwise
+     * its CSI index if that exists, otherwise the path the tabix index would have.
+     */
+    public static String getDefaultIndexPath(final String featurePath) throws IOException {
+        final String tabixPath = ParsingUtils.appendToPath(featurePath, STANDARD_INDEX_EXTENSION);
+        if (!ParsingUtils.resourceExists(tabixPath)) {
+            final String csiPath = ParsingUtils.appendToPath(featurePath, CSI_INDEX_EXTENSION);
+            if (ParsingUtils.resourceExists(csiPath)) return csiPath;
+        }
+        return tabixPath;
+    }
+
     public static class TPair64 implements Comparable<TPair64> {
         public long u, v;
 
@@ -52,9 +52,12 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Decode BCF2 files
@@ -102,6 +105,23 @@ public final class BCF2Codec extends BinaryFeatureCodec<VariantContext> {
      */
     private GenotypeBuilder[] builders = null;
 
+    /**
+     * The INFO and FORMAT fields to decode, or null to decode all of them
+     */
+    private Set<String> infoFieldsToDecode = null;
+    private Set<String> formatFieldsToDecode = null;
+
+    /**
+     * The samples whose genotypes are decoded, or null to decode all of them, along with the header restricted to
+     * them.  The decoded samples form runs of consecutive samples in the file, which are decoded together, with the
+     * values of the samples before each run and after the last one skipped
+     */
+    private Set<String> samplesToDecode = null;
+    private VCFHeader sampleSubsetHeader = null;
+    private GenotypeBuilder[][] decodedSampleRuns = null;
+    private int[] samplesSkippedBeforeRun = null;
+    private int samplesSkippedAfterRuns = 0;
+
     // for error handling
     private int recordNo = 0;
     private int pos = 0;
@@ -198,11 +218,7 @@ public final class BCF2Codec extends BinaryFeatureCodec<VariantContext> {
         gtFieldDecoders = new BCF2GenotypeFieldDecoders(header);
 
         // create and initialize the genotype builder array
-        final int nSamples = header.getNGenotypeSamples();
-        builders = new GenotypeBuilder[nSamples];
-        for ( int i = 0; i < nSamples; i++ ) {
-            builders[i] = new GenotypeBuilder(header.getGenotypeSamples().get(i));
-        }
+        initializeSampleSubset();
 
         // position right before next line (would be right before first real record byte at end of header)
         return new FeatureCodecHeader(header, inputStream.getPosition());
@@ -397,6 +413,11 @@ public final class BCF2Codec extends BinaryFeatureCodec<VariantContext> {
         final Map<String, Object> infoFieldEntries = new HashMap<String, Object>(numInfoFields);
         for ( int i = 0; i < numInfoFields; i++ ) {
             final String key = getDictionaryString();
+            if ( ! isInfoFieldDecoded(key) ) {
+                final byte typeDescriptor = decoder.readTypeDescriptor();
+                decoder.skipValues(typeDescriptor, decoder.decodeNumberOfElements(typeDescriptor));
+                continue;
+            }
             Object value = decoder.decodeTypedValue();
             final VCFCompoundHeaderLine metaData = VariantContextUtils.getMetaDataForField(header, key);
             if ( metaData.getType() == VCFHeaderLineType.Flag ) value = true; // special case for flags
@@ -406,6 +427,124 @@ public final class BCF2Codec extends BinaryFeatureCodec<VariantContext> {
         builder.attributes(infoFieldEntries);
     }
 
+    /**
+     * Restricts the INFO fields decoded into each record to the given keys.  The values of other fields are skipped
+     * without being decoded.  END is always decoded.
+     *
+     * @param keys the INFO keys to decode, or null to decode all of them
+     */
+    public void setInfoFieldsToDecode(final Collection<String> keys) {
+        infoFieldsToDecode = keys == null ? null : new HashSet<String>(keys);
+    }
+
+    /**
+     * Restricts the FORMAT fields decoded into the genotypes of each record to the given keys.  The values of other
+     * fields are skipped without being decoded; if GT is not among them the genotypes have no alleles.
+     *
+     * @param keys the FORMAT keys to decode, or null to decode all of them
+     */
+    public void setFormatFieldsToDecode(final Collection<String> keys) {
+        formatFieldsToDecode = keys == null ? null : new HashSet<String>(keys);
+    }
+
+    /**
+     * Restricts the genotypes decoded from each record to those of the given samples, in the order of the file.  The
+     * values of the other samples are skipped without being decoded.  The genotypes of the samples are decoded along
+     * with the rest of the record, rather than lazily, so that the raw bytes of all samples are never written out.
+     *
+     * @param samples the samples to decode, which must all be in the header, or null to decode all of them
+     */
+    public void setSamplesToDecode(final Collection<String> samples) {
+        samplesToDecode = samples == null ? null : new HashSet<String>(samples);
+        if ( header != null )
+            initializeSampleSubset();
+    }
+
+    /**
+     * @return the header restricted to the samples whose genotypes are decoded, which is the header itself when
+     * all of them are
+     */
+    public VCFHeader getDecodedSamplesHeader() {
+        return sampleSubsetHeader == null ? header : sampleSubsetHeader;
+    }
+
+    /**
+     * Create the genotype builders of the decoded samples, and the runs of them when only some samples are decoded
+     */
+    private void initializeSampleSubset() {
+        final List<String> samples = header.getGenotypeSamples();
+        sampleSubsetHeader = null;
+        decodedSampleRuns = null;
+        samplesSkippedBeforeRun = null;
+        samplesSkippedAfterRuns = 0;
+
+        if ( samplesToDecode == null ) {
+            builders = new GenotypeBuilder[samples.size()];
+            for ( int i = 0; i < samples.size(); i++ )
+                builders[i] = new GenotypeBuilder(samples.get(i));
+            return;
+        }
+
+        for ( final String sample : samplesToDecode )
+            if ( ! header.getSampleNameToOffset().containsKey(sample) )
+                throw new IllegalArgumentException("Sample " + sample + " is not in the BCF2 header");
+
+        final List<String> decodedSamples = new ArrayList<String>(samplesToDecode.size());
+        final List<GenotypeBuilder[]> runs = new ArrayList<GenotypeBuilder[]>();
+        final List<Integer> skips = new ArrayList<Integer>();
+        int skipped = 0;
+        for ( int i = 0; i < samples.size(); ) {
+            if ( ! samplesToDecode.contains(samples.get(i)) ) {
+                skipped++;
+                i++;
+                continue;
+            }
+            final int runStart = i;
+            while ( i < samples.size() && samplesToDecode.contains(samples.get(i)) )
+                i++;
+            final GenotypeBuilder[] run = new GenotypeBuilder[i - runStart];
+            for ( int j = 0; j < run.length; j++ ) {
+                run[j] = new GenotypeBuilder(samples.get(runStart + j));
+                decodedSamples.add(samples.get(runStart + j));
+            }
+            runs.add(run);
+            skips.add(skipped);
+            skipped = 0;
+        }
+
+        builders = new GenotypeBuilder[decodedSamples.size()];
+        int nBuilders = 0;
+        for ( final GenotypeBuilder[] run : runs )
+            for ( final GenotypeBuilder gb : run )
+                builders[nBuilders++] = gb;
+        decodedSampleRuns = runs.toArray(new GenotypeBuilder[runs.size()][]);
+        samplesSkippedBeforeRun = new int[skips.size()];
+        for ( int i = 0; i < samplesSkippedBeforeRun.length; i++ )
+            samplesSkippedBeforeRun[i] = skips.get(i);
+        samplesSkippedAfterRuns = skipped;
+        sampleSubsetHeader = new VCFHeader(header.getMetaDataInInputOrder(), decodedSamples);
+    }
+
+    protected GenotypeBuilder[][] getDecodedSampleRuns() {
+        return decodedSampleRuns;
+    }
+
+    protected int[] getSamplesSkippedBeforeRun() {
+        return samplesSkippedBeforeRun;
+    }
+
+    protected int getSamplesSkippedAfterRuns() {
+        return samplesSkippedAfterRuns;
+    }
+
+    private boolean isInfoFieldDecoded(final String key) {
+        return infoFieldsToDecode == null || infoFieldsToDecode.contains(key) || key.equals(VCFConstants.END_KEY);
+    }
+
+    protected boolean isFormatFieldDecoded(final String key) {
+        return formatFieldsToDecode == null || formatFieldsToDecode.contains(key);
+    }
+
     // --------------------------------------------------------------------------------
     //
     // Decoding Genotypes
@@ -426,10 +565,13 @@ public final class BCF2Codec extends BinaryFeatureCodec<VariantContext> {
                     new BCF2LazyGenotypesDecoder(this, siteInfo.alleles, siteInfo.nSamples, siteInfo.nFormatFields, builders);
 
             final LazyData lazyData = new LazyData(header, siteInfo.nFormatFields, decoder.getRecordBytes());
-            final LazyGenotypesContext lazy = new LazyGenotypesContext(lazyParser, lazyData, header.getNGenotypeSamples());
+            final VCFHeader decodedHeader = getDecodedSamplesHeader();
+            final LazyGenotypesContext lazy = new LazyGenotypesContext(lazyParser, lazyData, decodedHeader.getNGenotypeSamples());
 
-            // did we resort the sample names?  If so, we need to load the genotype data
-            if ( !header.samplesWereAlreadySorted() )
+            // did we resort the sample names?  If so, we need to load the genotype data.  The same goes for a subset
+            // of the samples, or of the FORMAT fields, as the raw bytes still hold all of them and must not be
+            // written back out
+            if ( !decodedHeader.samplesWereAlreadySorted() || sampleSubsetHeader != null || formatFieldsToDecode != null )
                 lazy.decode();
 
             builder.genotypesNoValidation(lazy);
@@ -154,6 +154,16 @@ public final class BCF2Decoder {
         }
     }
 
+    /**
+     * Skips over count values of the type in the typeDescriptor without decoding them, for fields the caller does
+     * not want
+     */
+    public final void skipValues(final byte typeDescriptor, final int count) {
+        final long nBytes = (long) BCF2Utils.decodeType(typeDescriptor).getSizeInBytes() * count;
+        if ( recordStream.skip(nBytes) != nBytes )
+            throw new TribbleException("Failed to skip " + nBytes + " bytes of BCF2 values");
+    }
+
     public final Object decodeSingleValue(final BCF2Type type) throws IOException {
         // TODO -- decodeTypedValue should integrate this routine
         final int value = decodeInt(type);
@@ -30,6 +30,7 @@ import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
 import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -51,6 +52,12 @@ public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.LazyParser
     private final int nFields;
     private final GenotypeBuilder[] builders;
 
+    // when only some samples are decoded, the builders of each run of consecutive decoded samples, and the number of
+    // samples skipped before each run and after the last one; null runs if all samples are decoded
+    private final GenotypeBuilder[][] sampleRuns;
+    private final int[] samplesSkippedBeforeRun;
+    private final int samplesSkippedAfterRuns;
+
     BCF2LazyGenotypesDecoder(final BCF2Codec codec, final List<Allele> alleles, final int nSamples,
                              final int nFields, final GenotypeBuilder[] builders) {
         this.codec = codec;
@@ -58,6 +65,9 @@ public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.LazyParser
         this.nSamples = nSamples;
         this.nFields = nFields;
         this.builders = builders;
+        this.sampleRuns = codec.getDecodedSampleRuns();
+        this.samplesSkippedBeforeRun = codec.getSamplesSkippedBeforeRun();
+        this.samplesSkippedAfterRuns = codec.getSamplesSkippedAfterRuns();
     }
 
     @Override
@@ -67,8 +77,8 @@ public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.LazyParser
             // load our byte[] data into the decoder
             final BCF2Decoder decoder = new BCF2Decoder(((BCF2Codec.LazyData)data).bytes);
 
-            for ( int i = 0; i < nSamples; i++ )
-                builders[i].reset(true);
+            for ( final GenotypeBuilder gb : builders )
+                gb.reset(true);
 
             for ( int i = 0; i < nFields; i++ ) {
                 // get the field name
@@ -78,20 +88,34 @@ public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.LazyParser
                 // the type of each element
                 final byte typeDescriptor = decoder.readTypeDescriptor();
                 final int numElements = decoder.decodeNumberOfElements(typeDescriptor);
+                if ( ! codec.isFormatFieldDecoded(field) ) {
+                    decoder.skipValues(typeDescriptor, numElements * nSamples);
+                    continue;
+                }
                 final BCF2GenotypeFieldDecoders.Decoder fieldDecoder = codec.getGenotypeFieldDecoder(field);
                 try {
-                    fieldDecoder.decode(siteAlleles, field, decoder, typeDescriptor, numElements, builders);
+                    if ( sampleRuns == null ) {
+                        fieldDecoder.decode(siteAlleles, field, decoder, typeDescriptor, numElements, builders);
+                    } else {
+                        // the values of the samples that aren't decoded are skipped over
+                        for ( int run = 0; run < sampleRuns.length; run++ ) {
+                            decoder.skipValues(typeDescriptor, numElements * samplesSkippedBeforeRun[run]);
+                            fieldDecoder.decode(siteAlleles, field, decoder, typeDescriptor, numElements, sampleRuns[run]);
+                        }
+                        decoder.skipValues(typeDescriptor, numElements * samplesSkippedAfterRuns);
+                    }
                 } catch ( ClassCastException e ) {
                     throw new TribbleException("BUG: expected encoding of field " + field
                             + " inconsistent with the value observed in the decoded value");
                 }
             }
 
-            final ArrayList<Genotype> genotypes = new ArrayList<Genotype>(nSamples);
+            final ArrayList<Genotype> genotypes = new ArrayList<Genotype>(builders.length);
             for ( final GenotypeBuilder gb : builders )
                 genotypes.add(gb.make());
 
-            return new LazyGenotypesContext.LazyData(genotypes, codec.getHeader().getSampleNamesInOrder(), codec.getHeader().getSampleNameToOffset());
+            final VCFHeader decodedHeader = codec.getDecodedSamplesHeader();
+            return new LazyGenotypesContext.LazyData(genotypes, decodedHeader.getSampleNamesInOrder(), decodedHeader.getSampleNameToOffset());
         } catch ( IOException e ) {
             throw new TribbleException("Unexpected IOException parsing already read genotypes data block", e);
         }
@@ -0,0 +1,526 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.variant.variantcontext;
+
+import htsjdk.variant.vcf.VCFConstants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A GenotypesContext that stores its genotypes column by column rather than as one Genotype object per sample, for
+ * sites with very many samples.
+ *
+ * The GT of each sample is stored as packed allele indices into the alleles of the site, DP and GQ as one int per
+ * sample, and AD and PL as one flat int array per field.  Filters and other attributes are stored per field too, and
+ * only allocated once some sample has a value.  The Genotypes returned by {@link #get(int)}, {@link #get(String)} and
+ * {@link #iterator()} are views made on request, and per-site statistics such as {@link #getAlleleCounts()} and
+ * {@link #getCallRate()} are computed straight from the columns.
+ *
+ * The columns are filled in with the set methods before the context is given to a VariantContext, which makes it
+ * immutable.  Once the context has been modified through the List interface it holds ordinary Genotypes, and the
+ * column accessors throw an IllegalStateException.
+ */
+public class ColumnarGenotypesContext extends GenotypesContext {
+    private final static ArrayList<Genotype> EMPTY = new ArrayList<Genotype>(0);
+    private final static int DEFAULT_PLOIDY = 2;
+
+    private final List<Allele> alleles;
+    private final List<String> sampleNames;
+    private final int nSamples;
+
+    /** GT: allele indices (-1 for a no-call) with a stride of maxPloidy, and the ploidy of each sample, 0 if it has no GT */
+    private int maxPloidy = DEFAULT_PLOIDY;
+    private short[] alleleIndices;
+    private final byte[] ploidies;
+    private final boolean[] phased;
+
+    private int[] DP = null;
+    private int[] GQ = null;
+    private final IntArrayColumn AD = new IntArrayColumn();
+    private final IntArrayColumn PL = new IntArrayColumn();
+    private String[] filters = null;
+    private Map<String, Object[]> attributes = null;
+
+    /** true until the context is modified through the List interface */
+    private boolean columnsValid = true;
+    private boolean materialized = false;
+
+    /**
+     * @param alleles the alleles of the site, which GT allele indices refer to
+     * @param sampleNames the sample of each column, in the order of the columns
+     */
+    public ColumnarGenotypesContext(final List<Allele> alleles, final List<String> sampleNames) {
+        this(alleles, sampleNames, null, null);
+    }
+
+    /**
+     * @param alleles the alleles of the site, which GT allele indices refer to
+     * @param sampleNames the sample of each column, in the order of the columns
+     * @param sampleNameToOffset the column of each sample, or null to compute it; may be shared with other contexts
+     * @param sampleNamesInOrder the sample names sorted alphabetically, or null to compute them; may be shared with other contexts
+     */
+    public ColumnarGenotypesContext(final List<Allele> alleles,
+                                    final List<String> sampleNames,
+                                    final Map<String, Integer> sampleNameToOffset,
+                                    final List<String> sampleNamesInOrder) {
+        super(EMPTY);
+        this.alleles = alleles;
+        this.sampleNames = sampleNames;
+        this.nSamples = sampleNames.size();
+        this.alleleIndices = new short[nSamples * maxPloidy];
+        this.ploidies = new byte[nSamples];
+        this.phased = new boolean[nSamples];
+
+        if ( sampleNameToOffset == null ) {
+            this.sampleNameToOffset = new HashMap<String, Integer>(nSamples);
+            for ( int i = 0; i < nSamples; i++ )
+                this.sampleNameToOffset.put(sampleNames.get(i), i);
+        } else {
+            this.sampleNameToOffset = sampleNameToOffset;
+        }
+
+        if ( sampleNamesInOrder == null ) {
+            this.sampleNamesInOrder = new ArrayList<String>(sampleNames);
+            Collections.sort(this.sampleNamesInOrder);
+        } else {
+            this.sampleNamesInOrder = sampleNamesInOrder;
+        }
+    }
+
+    // ---------------------------------------------------------------------------
+    //
+    // filling in the columns
+    //
+    // ---------------------------------------------------------------------------
+
+    /**
+     * Sets the GT of a sample
+     *
+     * @param sample the column of the sample
+     * @param indices the indices of the called alleles in the alleles of the site, or -1 for no-calls
+     * @param ploidy the number of entries of indices to use
+     * @param isPhased true if the genotype is phased
+     */
+    public void setGenotype(final int sample, final int[] indices, final int ploidy, final boolean isPhased) {
+        checkImmutability();
+        if ( ploidy > Byte.MAX_VALUE ) throw new IllegalArgumentException("Ploidy too large for columnar storage: " + ploidy);
+        if ( ploidy > maxPloidy ) restride(ploidy);
+        final int offset = sample * maxPloidy;
+        for ( int i = 0; i < ploidy; i++ ) {
+            final int index = indices[i];
+            if ( index < -1 || index >= alleles.size() )
+                throw new IllegalArgumentException("Allele index " + index + " is not defined in the alleles of the site " + alleles);
+            alleleIndices[offset + i] = (short) index;
+        }
+        ploidies[sample] = (byte) ploidy;
+        phased[sample] = isPhased;
+    }
+
+    private void restride(final int newMaxPloidy) {
+        final short[] restrided = new short[nSamples * newMaxPloidy];
+        for ( int sample = 0; sample < nSamples; sample++ )
+            System.arraycopy(alleleIndices, sample * maxPloidy, restrided, sample * newMaxPloidy, ploidies[sample]);
+        alleleIndices = restrided;
+        maxPloidy = newMaxPloidy;
+    }
+
+    /** Sets the DP of a sample; -1 means missing */
+    public void setDP(final int sample, final int dp) {
+        checkImmutability();
+        if ( DP == null ) DP = missingColumn();
+        DP[sample] = dp;
+    }
+
+    /** Sets the GQ of a sample; -1 means missing */
+    public void setGQ(final int sample, final int gq) {
+        checkImmutability();
+        if ( GQ == null ) GQ = missingColumn();
+        GQ[sample] = gq;
+    }
+
+    /** Sets the AD of a sample; null means missing */
+    public void setAD(final int sample, final int[] ad) {
+        checkImmutability();
+        AD.set(sample, ad, nSamples);
+    }
+
+    /** Sets the PL of a sample; null means missing */
+    public void setPL(final int sample, final int[] pl) {
+        checkImmutability();
+        PL.set(sample, pl, nSamples);
+    }
+
+    /** Sets the filters of a sample, as for {@link GenotypeBuilder#filter(String)} */
+    public void setFilter(final int sample, final String filter) {
+        checkImmutability();
+        if ( filters == null ) filters = new String[nSamples];
+        filters[sample] = VCFConstants.PASSES_FILTERS_v4.equals(filter) ? null : filter;
+    }
+
+    /** Sets an extended attribute of a sample; null removes it */
+    public void setAttribute(final int sample, final String key, final Object value) {
+        checkImmutability();
+        if ( attributes == null ) attributes = new LinkedHashMap<String, Object[]>();
+        Object[] column = attributes.get(key);
+        if ( column == null ) {
+            column = new Object[nSamples];
+            attributes.put(key, column);
+        }
+        column[sample] = value;
+    }
+
+    private int[] missingColumn() {
+        final int[] column = new int[nSamples];
+        Arrays.fill(column, -1);
+        return column;
+    }
+
+    // ---------------------------------------------------------------------------
+    //
+    // column accessors
+    //
+    // ---------------------------------------------------------------------------
+
+    /** @return the alleles of the site, which GT allele indices refer to */
+    public List<Allele> getSiteAlleles() {
+        return alleles;
+    }
+
+    /** @return the number of GT alleles of the sample, 0 if it has no GT */
+    public int getPloidy(final int sample) {
+        checkColumnsValid();
+        return ploidies[sample];
+    }
+
+    /** @return the index in the alleles of the site of the i-th GT allele of the sample, or -1 for a no-call */
+    public int getAlleleIndex(final int sample, final int i) {
+        checkColumnsValid();
+        if ( i >= ploidies[sample] ) throw new IndexOutOfBoundsException("Allele " + i + " of a sample with ploidy " + ploidies[sample]);
+        return alleleIndices[sample * maxPloidy + i];
+    }
+
+    public boolean isPhased(final int sample) {
+        checkColumnsValid();
+        return phased[sample];
+    }
+
+    /** @return the DP of the sample, or -1 if it is missing */
+    public int getDP(final int sample) {
+        checkColumnsValid();
+        return DP == null ? -1 : DP[sample];
+    }
+
+    /** @return the GQ of the sample, or -1 if it is missing */
+    public int getGQ(final int sample) {
+        checkColumnsValid();
+        return GQ == null ? -1 : GQ[sample];
+    }
+
+    /** @return a copy of the AD of the sample, or null if it is missing */
+    public int[] getAD(final int sample) {
+        checkColumnsValid();
+        return AD.get(sample);
+    }
+
+    /** @return a copy of the PL of the sample, or null if it is missing */
+    public int[] getPL(final int sample) {
+        checkColumnsValid();
+        return PL.get(sample);
+    }
+
+    /** @return the filters of the sample, or null if it passes */
+    public String getFilter(final int sample) {
+        checkColumnsValid();
+        return filters == null ? null : filters[sample];
+    }
+
+    /**
+     * @return the number of times each allele of the site is called across all samples, indexed as the alleles of the
+     * site
+     */
+    public int[] getAlleleCounts() {
+        checkColumnsValid();
+        final int[] counts = new int[alleles.size()];
+        for ( int sample = 0, offset = 0; sample < nSamples; sample++, offset += maxPloidy ) {
+            for ( int i = 0; i < ploidies[sample]; i++ ) {
+                final int index = alleleIndices[offset + i];
+                if ( index != -1 ) counts[index]++;
+            }
+        }
+        return counts;
+    }
+
+    /** @return the number of samples with at least one called allele, as for {@link Genotype#isCalled()} */
+    public int getCalledCount() {
+        checkColumnsValid();
+        int called = 0;
+        for ( int sample = 0, offset = 0; sample < nSamples; sample++, offset += maxPloidy ) {
+            for ( int i = 0; i < ploidies[sample]; i++ ) {
+                if ( alleleIndices[offset + i] != -1 ) {
+                    called++;
+                    break;
+                }
+            }
+        }
+        return called;
+    }
+
+    /** @return the fraction of samples with at least one called allele, or 0 if there are no samples */
+    public double getCallRate() {
+        return nSamples == 0 ? 0.0 : getCalledCount() / (double) nSamples;
+    }
+
+    private void checkColumnsValid() {
+        if ( ! columnsValid )
+            throw new IllegalStateException("The columns are no longer valid because the genotypes have been modified");
+    }
+
+    // ---------------------------------------------------------------------------
+    //
+    // GenotypesContext methods answered from the columns
+    //
+    // ---------------------------------------------------------------------------
+
+    /**
+     * Makes a Genotype view of every sample the first time the genotypes are needed as a list, as for the
+     * List methods that are not answered from the columns directly.
+     */
+    @Override
+    protected ArrayList<Genotype> getGenotypes() {
+        if ( ! materialized ) {
+            final ArrayList<Genotype> genotypes = new ArrayList<Genotype>(nSamples);
+            for ( int i = 0; i < nSamples; i++ )
+                genotypes.add(new GenotypeView(i));
+            notToBeDirectlyAccessedGenotypes = genotypes;
+            materialized = true;
+        }
+        return notToBeDirectlyAccessedGenotypes;
+    }
+
+    @Override
+    protected void invalidateSampleNameMap() {
+        modify();
+        super.invalidateSampleNameMap();
+    }
+
+    @Override
+    protected void invalidateSampleOrdering() {
+        modify();
+        super.invalidateSampleOrdering();
+    }
+
+    /** Called before the context is modified: from now on the genotypes in the list are the truth. */
+    private void modify() {
+        if ( columnsValid ) {
+            getGenotypes();
+            columnsValid = false;
+            // the sample map may be shared with other contexts, so take a copy before it is updated
+            if ( sampleNameToOffset != null ) sampleNameToOffset = new HashMap<String, Integer>(sampleNameToOffset);
+        }
+    }
+
+    @Override
+    public int size() {
+        return columnsValid ? nSamples : super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return columnsValid ? nSamples == 0 : super.isEmpty();
+    }
+
+    @Override
+    public Genotype get(final int i) {
+        if ( ! columnsValid ) return super.get(i);
+        if ( i < 0 || i >= nSamples ) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + nSamples);
+        return materialized ? notToBeDirectlyAccessedGenotypes.get(i) : new GenotypeView(i);
+    }
+
+    @Override
+    public Genotype get(final String sampleName) {
+        if ( ! columnsValid ) return super.get(sampleName);
+        final Integer offset = sampleNameToOffset.get(sampleName);
+        return offset == null ? null : get(offset);
+    }
+
+    @Override
+    public Iterator<Genotype> iterator() {
+        if ( ! columnsValid || materialized ) return super.iterator();
+        return new Iterator<Genotype>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < nSamples;
+            }
+
+            public Genotype next() {
+                if ( ! hasNext() ) throw new NoSuchElementException();
+                return new GenotypeView(next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int getMaxPloidy(final int defaultPloidy) {
+        if ( ! columnsValid ) return super.getMaxPloidy(defaultPloidy);
+        if ( defaultPloidy < 0 ) throw new IllegalArgumentException("defaultPloidy must be greater than or equal to 0");
+        int max = 0;
+        for ( final byte ploidy : ploidies )
+            max = Math.max(max, ploidy);
+        return max == 0 ? defaultPloidy : max;
+    }
+
+    /**
+     * A Genotype backed by one column of the context
+     */
+    private final class GenotypeView extends Genotype {
+        private final int sample;
+        private List<Allele> gtAlleles = null;
+        private Map<String, Object> extendedAttributes = null;
+
+        GenotypeView(final int sample) {
+            super(sampleNames.get(sample), filters == null ? null : filters[sample]);
+            this.sample = sample;
+        }
+
+        @Override public List<Allele> getAlleles() {
+            if ( gtAlleles == null ) {
+                final int ploidy = ploidies[sample];
+                final List<Allele> list = new ArrayList<Allele>(ploidy);
+                for ( int i = 0; i < ploidy; i++ )
+                    list.add(getAllele(i));
+                gtAlleles = Collections.unmodifiableList(list);
+            }
+            return gtAlleles;
+        }
+
+        @Override public Allele getAllele(final int i) {
+            if ( i >= ploidies[sample] ) throw new IndexOutOfBoundsException("Allele " + i + " of a genotype with ploidy " + ploidies[sample]);
+            final int index = alleleIndices[sample * maxPloidy + i];
+            return index == -1 ? Allele.NO_CALL : alleles.get(index);
+        }
+
+        @Override public int getPloidy() {
+            return ploidies[sample];
+        }
+
+        @Override public boolean isPhased() {
+            return phased[sample];
+        }
+
+        @Override public int getDP() {
+            return DP == null ? -1 : DP[sample];
+        }
+
+        @Override public int[] getAD() {
+            return AD.get(sample);
+        }
+
+        @Override public boolean hasAD() {
+            return AD.has(sample);
+        }
+
+        @Override public boolean hasPL() {
+            return PL.has(sample);
+        }
+
+        @Override public int getGQ() {
+            return GQ == null ? -1 : GQ[sample];
+        }
+
+        @Override public int[] getPL() {
+            return PL.get(sample);
+        }
+
+        @Override public Map<String, Object> getExtendedAttributes() {
+            if ( extendedAttributes == null ) {
+                extendedAttributes = Collections.emptyMap();
+                if ( attributes != null ) {
+                    for ( final Map.Entry<String, Object[]> column : attributes.entrySet() ) {
+                        final Object value = column.getValue()[sample];
+                        if ( value == null ) continue;
+                        if ( extendedAttributes.isEmpty() ) extendedAttributes = new LinkedHashMap<String, Object>();
+                        extendedAttributes.put(column.getKey(), value);
+                    }
+                }
+            }
+            return extendedAttributes;
+        }
+    }
+
+    /**
+     * Variable-length int arrays for each sample, packed end to end into one flat array.  Values are usually the same
+     * length for every sample, but need not be: PL depends on the ploidy of the sample.
+     */
+    private static final class IntArrayColumn {
+        private int[] values = null;
+        private int size = 0;
+        private int[] starts = null;
+        /** length of the value of each sample, or -1 if it is missing */
+        private int[] lengths = null;
+
+        void set(final int sample, final int[] value, final int nSamples) {
+            if ( lengths == null ) {
+                if ( value == null ) return;
+                starts = new int[nSamples];
+                lengths = new int[nSamples];
+                Arrays.fill(lengths, -1);
+                values = new int[nSamples * value.length];
+            }
+            if ( value == null ) {
+                lengths[sample] = -1;
+                return;
+            }
+            if ( lengths[sample] < value.length ) {
+                if ( size + value.length > values.length )
+                    values = Arrays.copyOf(values, Math.max(2 * values.length, size + value.length));
+                starts[sample] = size;
+                size += value.length;
+            }
+            System.arraycopy(value, 0, values, starts[sample], value.length);
+            lengths[sample] = value.length;
+        }
+
+        boolean has(final int sample) {
+            return lengths != null && lengths[sample] != -1;
+        }
+
+        int[] get(final int sample) {
+            if ( lengths == null || lengths[sample] == -1 ) return null;
+            return Arrays.copyOfRange(values, starts[sample], starts[sample] + lengths[sample]);
+        }
+    }
+}
@@ -27,6 +27,7 @@ package htsjdk.variant.variantcontext.writer;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.LocationAware;
 import htsjdk.tribble.index.DynamicIndexCreator;
 import htsjdk.tribble.index.Index;
@@ -39,6 +40,8 @@ import htsjdk.variant.vcf.VCFHeader;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * this class writes VCF files
@@ -51,6 +54,9 @@ abstract class IndexingVariantContextWriter implements VariantContextWriter {
     private OutputStream outputStream;
     private LocationAware locationSource = null;
     private IndexCreator indexer = null;
+    // For block compressed output, features are indexed once the blocks they start in have been written.
+    private BlockCompressedOutputStream blockCompressedSource = null;
+    private final Deque<PendingFeature> featuresToIndex = new ArrayDeque<PendingFeature>();
 
     private IndexingVariantContextWriter(final String name, final File location, final OutputStream output, final SAMSequenceDictionary refDict) {
         this.name = name;
@@ -99,7 +105,10 @@ abstract class IndexingVariantContextWriter implements VariantContextWriter {
 
     private void initIndexingWriter(final IndexCreator idxCreator) {
         indexer = idxCreator;
-        if (outputStream instanceof LocationAware) {
+        if (outputStream instanceof BlockCompressedOutputStream) {
+            blockCompressedSource = (BlockCompressedOutputStream)outputStream;
+            locationSource = blockCompressedSource;
+        } else if (outputStream instanceof LocationAware) {
             locationSource = (LocationAware)outputStream;
         } else {
             final PositionalOutputStream positionalOutputStream = new PositionalOutputStream(outputStream);
@@ -123,6 +132,10 @@ abstract class IndexingVariantContextWriter implements VariantContextWriter {
      */
     public void close() {
         try {
+            if (blockCompressedSource != null) {
+                indexFeatures(true);
+            }
+
             // close the underlying output stream
             outputStream.close();
 
@@ -155,8 +168,27 @@ abstract class IndexingVariantContextWriter implements VariantContextWriter {
      */
     public void add(final VariantContext vc) {
         // if we are doing on the fly indexing, add the record ***before*** we write any bytes
-        if ( indexer != null )
-            indexer.addFeature(vc, locationSource.getPosition());
+        if ( indexer != null ) {
+            if ( blockCompressedSource != null ) {
+                // getPosition() would wait for every block being compressed on other threads
+                featuresToIndex.add(new PendingFeature(vc, blockCompressedSource.getUnresolvedFilePointer()));
+                indexFeatures(false);
+            } else {
+                indexer.addFeature(vc, locationSource.getPosition());
+            }
+        }
+    }
+
+    /**
+     * Passes features whose file pointers can be resolved to the indexer.
+     * @param waitForBlocks if true, resolve all pending features, waiting for blocks to be written if necessary.
+     */
+    private void indexFeatures(final boolean waitForBlocks) {
+        while (!featuresToIndex.isEmpty() &&
+                (waitForBlocks || blockCompressedSource.isFilePointerResolvable(featuresToIndex.peek().filePointer))) {
+            final PendingFeature pending = featuresToIndex.poll();
+            indexer.addFeature(pending.vc, blockCompressedSource.resolveFilePointer(pending.filePointer));
+        }
     }
 
     /**
@@ -180,6 +212,19 @@ abstract class IndexingVariantContextWriter implements VariantContextWriter {
             indexCreator.addProperty(contig,length);
         }
     }
+
+    /**
+     * A feature that has been written but not yet indexed, with a placeholder for its file pointer.
+     */
+    private static class PendingFeature {
+        final VariantContext vc;
+        final long filePointer;
+
+        PendingFeature(final VariantContext vc, final long filePointer) {
+            this.vc = vc;
+            this.filePointer = filePointer;
+        }
+    }
 }
 
 /**
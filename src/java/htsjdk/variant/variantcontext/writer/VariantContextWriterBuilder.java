@@ -375,12 +375,18 @@ public class VariantContextWriterBuilder {
                 writer = createVCFWriter(outFile, outStreamFromFile);
                 break;
             case BLOCK_COMPRESSED_VCF:
-                if (refDict == null)
-                    idxCreator = new TabixIndexCreator(TabixFormat.VCF);
-                else
-                    idxCreator = new TabixIndexCreator(refDict, TabixFormat.VCF);
+                // Use a TabixIndexCreator set by the caller, e.g. one that creates a CSI index, but do not keep
+                // one created here, so that the next writer built gets a new one.
+                final IndexCreator callerIdxCreator = idxCreator;
+                if (!(idxCreator instanceof TabixIndexCreator)) {
+                    if (refDict == null)
+                        idxCreator = new TabixIndexCreator(TabixFormat.VCF);
+                    else
+                        idxCreator = new TabixIndexCreator(refDict, TabixFormat.VCF);
+                }
 
                 writer = createVCFWriter(outFile, new BlockCompressedOutputStream(outStreamFromFile, outFile));
+                idxCreator = callerIdxCreator;
                 break;
             case BCF:
                 if ((refDict == null) && (options.contains(Options.INDEX_ON_THE_FLY)))
@@ -26,6 +26,7 @@
 package htsjdk.variant.vcf;
 
 import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.StringUtil;
 import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.Feature;
 import htsjdk.tribble.NameAwareCodec;
@@ -33,6 +34,7 @@ import htsjdk.tribble.TribbleException;
 import htsjdk.tribble.util.ParsingUtils;
 import htsjdk.variant.utils.GeneralUtils;
 import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.ColumnarGenotypesContext;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
 import htsjdk.variant.variantcontext.GenotypeLikelihoods;
@@ -46,6 +48,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -84,6 +87,12 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
     protected String[] genotypeParts = null;
     protected final String[] locParts = new String[6];
 
+    // column boundaries and the standard field values for lines decoded from bytes
+    private final int[] columnStarts = new int[NUM_STANDARD_FIELDS + 1];
+    private final int[] columnEnds = new int[NUM_STANDARD_FIELDS + 1];
+    private final String[] byteParts = new String[NUM_STANDARD_FIELDS];
+    private String lastCachedString = null;
+
     // for performance we cache the hashmap of filter encodings for quick lookup
     protected HashMap<String,List<String>> filterHash = new HashMap<String,List<String>>();
 
@@ -107,6 +116,25 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
      */
     protected String remappedSampleName = null;
 
+    /**
+     * If true, genotypes are decoded into a ColumnarGenotypesContext
+     */
+    protected boolean columnarGenotypes = false;
+
+    /**
+     * The INFO and FORMAT fields to decode, or null to decode all of them
+     */
+    protected Set<String> infoFieldsToDecode = null;
+    protected Set<String> formatFieldsToDecode = null;
+
+    /**
+     * The samples whose genotypes are decoded, or null to decode all of them, along with the header restricted to
+     * them and whether each sample column of the file is decoded
+     */
+    protected Set<String> samplesToDecode = null;
+    private VCFHeader sampleSubsetHeader = null;
+    private boolean[] decodedSampleColumns = null;
+
     protected AbstractVCFCodec() {
         super(VariantContext.class);
     }
@@ -131,10 +159,33 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         @Override
         public LazyGenotypesContext.LazyData parse(final Object data) {
             //System.out.printf("Loading genotypes... %s:%d%n", contig, start);
+            if ( data instanceof GenotypeBytes )
+                return createGenotypeMap((GenotypeBytes) data, alleles, contig, start);
             return createGenotypeMap((String) data, alleles, contig, start);
         }
     }
 
+    /**
+     * The unparsed FORMAT and sample columns of a record decoded by {@link #decode(byte[], int, int)}, kept as the
+     * raw bytes of the line so that no Strings are made for the genotypes unless they are actually decoded.
+     */
+    public static class GenotypeBytes {
+        final byte[] bytes;
+
+        public GenotypeBytes(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return StringUtil.bytesToString(bytes);
+        }
+    }
+
     /**
      * parse the filter string, first checking to see if we already have parsed it in a previous attempt
      * @param filterString the string to parse
@@ -227,6 +278,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         this.header = new VCFHeader(metaData, sampleNames);
         if ( doOnTheFlyModifications )
             this.header = VCFStandardHeaderLines.repairStandardHeaderLines(this.header);
+        initializeSampleSubset();
         return this.header;
     }
 
@@ -241,6 +293,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
 
 		if (this.doOnTheFlyModifications) this.header = VCFStandardHeaderLines.repairStandardHeaderLines(header);
 		else this.header = header;
+		initializeSampleSubset();
 
 		return this.header;
 	}
@@ -263,6 +316,58 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         return decodeLine(line, true);
     }
 
+    /**
+     * decode a line held as ASCII bytes into a feature (VariantContext).  This produces the same VariantContext as
+     * {@link #decode(String)}, but tokenizes the line in place: POS is parsed straight from the bytes, and the
+     * FORMAT and sample columns are kept as bytes until the genotypes are needed, at which point integer fields
+     * such as GQ, DP, AD and PL and the GT alleles are also parsed without making a String per value.
+     *
+     * @param line the buffer holding the line, which may be reused by the caller once this method returns
+     * @param offset the offset of the first byte of the line in the buffer
+     * @param length the length of the line, excluding any line terminator
+     * @return a VariantContext, or null if the line is a header line
+     */
+    public VariantContext decode(final byte[] line, final int offset, final int length) {
+        // the same line reader is not used for parsing the header and parsing lines, if we see a #, we've seen a header line
+        if (length > 0 && line[offset] == VCFHeader.HEADER_INDICATOR.charAt(0)) return null;
+
+        // our header cannot be null, we need the genotype sample names and counts
+        if (header == null) throw new TribbleException("VCF Header cannot be null when decoding a record");
+
+        // find the columns; the last one runs to the end of the line, so the sample columns are kept as one block
+        final int end = offset + length;
+        final int nColumns = header.hasGenotypingData() ? NUM_STANDARD_FIELDS + 1 : NUM_STANDARD_FIELDS;
+        int nParts = 0;
+        int start = offset;
+        for (int i = offset; i < end && nParts < nColumns - 1; i++) {
+            if (line[i] == VCFConstants.FIELD_SEPARATOR_CHAR) {
+                columnStarts[nParts] = start;
+                columnEnds[nParts++] = i;
+                start = i + 1;
+            }
+        }
+        columnStarts[nParts] = start;
+        columnEnds[nParts++] = end;
+
+        if (nParts != nColumns)
+            throw new TribbleException("Line " + lineNo + ": there aren't enough columns for line " + StringUtil.bytesToString(line, offset, length) + " (we expected " + nColumns +
+                    " tokens, and saw " + nParts + " )");
+
+        lineNo++;
+
+        final String chr = getCachedString(line, columnStarts[0], columnEnds[0]);
+        final int pos = parseInt(line, columnStarts[1], columnEnds[1]);
+        if (pos == Integer.MIN_VALUE)
+            generateException(StringUtil.bytesToString(line, columnStarts[1], columnEnds[1] - columnStarts[1]) + " is not a valid start position in the VCF format");
+
+        for (int i = 2; i < NUM_STANDARD_FIELDS; i++)
+            byteParts[i] = StringUtil.bytesToString(line, columnStarts[i], columnEnds[i] - columnStarts[i]);
+
+        final GenotypeBytes genotypeData = nColumns > NUM_STANDARD_FIELDS ?
+                new GenotypeBytes(Arrays.copyOfRange(line, columnStarts[NUM_STANDARD_FIELDS], end)) : null;
+        return parseVCFLine(chr, pos, byteParts, genotypeData);
+    }
+
     private VariantContext decodeLine(final String line, final boolean includeGenotypes) {
         // the same line reader is not used for parsing the header and parsing lines, if we see a #, we've seen a header line
         if (line.startsWith(VCFHeader.HEADER_INDICATOR)) return null;
@@ -292,9 +397,6 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
      * @return a variant context object
      */
     private VariantContext parseVCFLine(final String[] parts, final boolean includeGenotypes) {
-        VariantContextBuilder builder = new VariantContextBuilder();
-        builder.source(getName());
-
         // increment the line count
         // TODO -- because of the way the engine utilizes Tribble, we can parse a line multiple times (especially when
         // TODO --   the first record is far along the contig) and the line counter can get out of sync
@@ -302,13 +404,27 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
 
         // parse out the required fields
         final String chr = getCachedString(parts[0]);
-        builder.chr(chr);
         int pos = -1;
         try {
             pos = Integer.valueOf(parts[1]);
         } catch (NumberFormatException e) {
             generateException(parts[1] + " is not a valid start position in the VCF format");
         }
+
+        return parseVCFLine(chr, pos, parts, parts.length > NUM_STANDARD_FIELDS && includeGenotypes ? parts[8] : null);
+    }
+
+    /**
+     * build the variant context from the already parsed CHROM and POS fields and the remaining standard fields
+     *
+     * @param parts the parts split up; only the ID through INFO columns are used
+     * @param genotypeData the unparsed FORMAT and sample columns, or null if genotypes should not be decoded
+     * @return a variant context object
+     */
+    private VariantContext parseVCFLine(final String chr, final int pos, final String[] parts, final Object genotypeData) {
+        VariantContextBuilder builder = new VariantContextBuilder();
+        builder.source(getName());
+        builder.chr(chr);
         builder.start(pos);
 
         if ( parts[2].length() == 0 )
@@ -343,13 +459,18 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         builder.alleles(alleles);
 
         // do we have genotyping data
-        if (parts.length > NUM_STANDARD_FIELDS && includeGenotypes) {
+        if (genotypeData != null && columnarGenotypes) {
+            builder.genotypesNoValidation(createColumnarGenotypes(genotypeData, alleles, chr, pos));
+        } else if (genotypeData != null) {
             final LazyGenotypesContext.LazyParser lazyParser = new LazyVCFGenotypesParser(alleles, chr, pos);
-            final int nGenotypes = header.getNGenotypeSamples();
-            LazyGenotypesContext lazy = new LazyGenotypesContext(lazyParser, parts[8], nGenotypes);
-
-            // did we resort the sample names?  If so, we need to load the genotype data
-            if ( !header.samplesWereAlreadySorted() )
+            final VCFHeader decodedHeader = getDecodedSamplesHeader();
+            final int nGenotypes = decodedHeader.getNGenotypeSamples();
+            LazyGenotypesContext lazy = new LazyGenotypesContext(lazyParser, genotypeData, nGenotypes);
+
+            // did we resort the sample names?  If so, we need to load the genotype data.  The same goes for a subset
+            // of the samples, or of the FORMAT fields, as the raw data still holds all of them and must not be
+            // written back out
+            if ( !decodedHeader.samplesWereAlreadySorted() || sampleSubsetHeader != null || formatFieldsToDecode != null )
                 lazy.decode();
 
             builder.genotypesNoValidation(lazy);
@@ -396,6 +517,21 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         return internedString;
     }
 
+    /**
+     * Return a cached copy of the string held in the given bytes, only making a new String the first time it is seen.
+     * The last string returned is checked first, since consecutive records usually share values such as the contig.
+     */
+    private String getCachedString(final byte[] bytes, final int start, final int end) {
+        if ( lastCachedString != null && lastCachedString.length() == end - start ) {
+            boolean same = true;
+            for ( int i = start; i < end && same; i++ )
+                same = lastCachedString.charAt(i - start) == (char) (bytes[i] & 0xff);
+            if ( same ) return lastCachedString;
+        }
+        lastCachedString = getCachedString(StringUtil.bytesToString(bytes, start, end - start));
+        return lastCachedString;
+    }
+
     /**
      * parse out the info fields
      * @param infoField the fields
@@ -419,6 +555,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
                 int eqI = infoFieldArray[i].indexOf("=");
                 if ( eqI != -1 ) {
                     key = infoFieldArray[i].substring(0, eqI);
+                    if ( ! isInfoFieldDecoded(key) ) continue;
                     String valueString = infoFieldArray[i].substring(eqI+1);
 
                     // split on the INFO field separator
@@ -438,6 +575,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
                     }
                 } else {
                     key = infoFieldArray[i];
+                    if ( ! isInfoFieldDecoded(key) ) continue;
                     final VCFInfoHeaderLine headerLine = header.getInfoHeaderLine(key);
                     if ( headerLine != null && headerLine.getType() != VCFHeaderLineType.Flag ) {
                         if ( GeneralUtils.DEBUG_MODE_ENABLED && ! warnedAboutNoEqualsForNonFlag ) {
@@ -666,7 +804,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         if (genotypeParts == null)
             genotypeParts = new String[header.getColumnCount() - NUM_STANDARD_FIELDS];
 
-        int nParts = ParsingUtils.split(str, genotypeParts, VCFConstants.FIELD_SEPARATOR_CHAR);
+        int nParts = decodedSampleColumns == null ? ParsingUtils.split(str, genotypeParts, VCFConstants.FIELD_SEPARATOR_CHAR) : splitDecodedColumns(str);
         if ( nParts != genotypeParts.length )
             generateException("there are " + (nParts-1) + " genotypes while the header requires that " + (genotypeParts.length-1) + " genotypes be present for all records at " + chr + ":" + pos, lineNo);
 
@@ -683,9 +821,12 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
 
         // cycle through the genotype strings
         for (int genotypeOffset = 1; genotypeOffset < nParts; genotypeOffset++) {
+            final String sampleName = sampleNameIterator.next();
+            if ( decodedSampleColumns != null && ! decodedSampleColumns[genotypeOffset - 1] )
+                continue;
+
             int GTValueSplitSize = ParsingUtils.split(genotypeParts[genotypeOffset], GTValueArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
 
-            final String sampleName = sampleNameIterator.next();
             final GenotypeBuilder gb = new GenotypeBuilder(sampleName);
 
             // check to see if the value list is longer than the key list, which is a problem
@@ -703,7 +844,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
                     // todo -- all of these on the fly parsing of the missing value should be static constants
                     if (gtKey.equals(VCFConstants.GENOTYPE_KEY)) {
                         genotypeAlleleLocation = i;
-                    } else if ( missing ) {
+                    } else if ( missing || ! isFormatFieldDecoded(gtKey) ) {
                         // if its truly missing (there no provided value) skip adding it to the attributes
                     } else if (gtKey.equals(VCFConstants.GENOTYPE_FILTER_KEY)) {
                         final List<String> filters = parseFilters(getCachedString(GTValueArray[i]));
@@ -737,9 +878,220 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
             if ( genotypeAlleleLocation > 0 )
                 generateException("Saw GT field at position " + genotypeAlleleLocation + ", but it must be at the first position for genotypes when present");
 
-            final List<Allele> GTalleles = (genotypeAlleleLocation == -1 ? new ArrayList<Allele>(0) : parseGenotypeAlleles(GTValueArray[genotypeAlleleLocation], alleles, alleleMap));
+            final boolean decodeGT = genotypeAlleleLocation != -1 && isFormatFieldDecoded(VCFConstants.GENOTYPE_KEY);
+            final List<Allele> GTalleles = (! decodeGT ? new ArrayList<Allele>(0) : parseGenotypeAlleles(GTValueArray[genotypeAlleleLocation], alleles, alleleMap));
             gb.alleles(GTalleles);
-            gb.phased(genotypeAlleleLocation != -1 && GTValueArray[genotypeAlleleLocation].indexOf(VCFConstants.PHASED) != -1);
+            gb.phased(decodeGT && GTValueArray[genotypeAlleleLocation].indexOf(VCFConstants.PHASED) != -1);
+
+            // add it to the list
+            try {
+                genotypes.add(gb.make());
+            } catch (TribbleException e) {
+                throw new TribbleException.InternalCodecException(e.getMessage() + ", at position " + chr+":"+pos);
+            }
+        }
+
+        final VCFHeader decodedHeader = getDecodedSamplesHeader();
+        return new LazyGenotypesContext.LazyData(genotypes, decodedHeader.getSampleNamesInOrder(), decodedHeader.getSampleNameToOffset());
+    }
+
+    /**
+     * split the FORMAT and sample columns into genotypeParts as ParsingUtils.split does, but only making Strings of
+     * the columns of the samples that are decoded; the others are left null
+     *
+     * @return the number of columns, up to the length of genotypeParts
+     */
+    private int splitDecodedColumns(final String str) {
+        int nParts = 0;
+        for (int start = 0; nParts < genotypeParts.length; nParts++) {
+            int end = str.indexOf(VCFConstants.FIELD_SEPARATOR_CHAR, start);
+            if ( end == -1 ) end = str.length();
+            genotypeParts[nParts] = nParts == 0 || decodedSampleColumns[nParts - 1] ? str.substring(start, end) : null;
+            if ( end == str.length() ) return nParts + 1;
+            start = end + 1;
+        }
+        return nParts;
+    }
+
+    // the FORMAT keys the byte-level genotype parser handles specially
+    private static final int OTHER_KEY = 0, GT_KEY = 1, FT_KEY = 2, GQ_KEY = 3, AD_KEY = 4, PL_KEY = 5, GL_KEY = 6, DP_KEY = 7, SKIP_KEY = 8;
+
+    private int[] genotypeKeyTypes = new int[100];
+    private int genotypeKeyLocation = -1;
+    private final Map<Long, List<Allele>> packedAlleleMap = new HashMap<Long, List<Allele>>();
+    private int[] genotypeIndices = new int[8];
+
+    /**
+     * create a genotype map from the raw bytes of the FORMAT and sample columns.  This mirrors
+     * {@link #createGenotypeMap(String, List, String, int)}, but walks the bytes in place, parses the integer
+     * fields and GT directly from them, and only makes Strings for the values stored as generic attributes.
+     *
+     * @param data the FORMAT and sample columns
+     * @param alleles the list of alleles
+     * @return a mapping of sample name to genotype object
+     */
+    public LazyGenotypesContext.LazyData createGenotypeMap(final GenotypeBytes data,
+                                                           final List<Allele> alleles,
+                                                           final String chr,
+                                                           final int pos) {
+        final ArrayList<Genotype> genotypes = decodeGenotypes(data.bytes, alleles, chr, pos, null);
+        final VCFHeader decodedHeader = getDecodedSamplesHeader();
+        return new LazyGenotypesContext.LazyData(genotypes, decodedHeader.getSampleNamesInOrder(), decodedHeader.getSampleNameToOffset());
+    }
+
+    /**
+     * create a columnar genotypes context from the FORMAT and sample columns, decoding the values as
+     * {@link #createGenotypeMap(GenotypeBytes, List, String, int)} does but storing them in columns
+     *
+     * @param data the FORMAT and sample columns, as a String or {@link GenotypeBytes}
+     * @param alleles the list of alleles
+     * @return the genotypes of all of the samples
+     */
+    public ColumnarGenotypesContext createColumnarGenotypes(final Object data,
+                                                            final List<Allele> alleles,
+                                                            final String chr,
+                                                            final int pos) {
+        final byte[] bytes = data instanceof GenotypeBytes ? ((GenotypeBytes) data).bytes : StringUtil.stringToBytes((String) data);
+        final VCFHeader decodedHeader = getDecodedSamplesHeader();
+        final ColumnarGenotypesContext columns = new ColumnarGenotypesContext(alleles, decodedHeader.getGenotypeSamples(),
+                decodedHeader.getSampleNameToOffset(), decodedHeader.getSampleNamesInOrder());
+        decodeGenotypes(bytes, alleles, chr, pos, columns);
+        return columns;
+    }
+
+    /**
+     * decode the FORMAT and sample columns, either into a list of genotypes or, if columns is not null, into columns
+     */
+    @SuppressWarnings("deprecation") // GL is still decoded into PLs
+    private ArrayList<Genotype> decodeGenotypes(final byte[] bytes,
+                                                final List<Allele> alleles,
+                                                final String chr,
+                                                final int pos,
+                                                final ColumnarGenotypesContext columns) {
+        final int expectedParts = header.getColumnCount() - NUM_STANDARD_FIELDS;
+
+        int nParts = 1;
+        for (final byte b : bytes)
+            if (b == VCFConstants.FIELD_SEPARATOR_CHAR) nParts++;
+        if ( nParts != expectedParts )
+            generateException("there are " + (nParts-1) + " genotypes while the header requires that " + (expectedParts-1) + " genotypes be present for all records at " + chr + ":" + pos, lineNo);
+
+        final ArrayList<Genotype> genotypes = columns == null ? new ArrayList<Genotype>(nParts) : null;
+
+        // get the format keys
+        int offset = indexOf(bytes, 0, bytes.length, VCFConstants.FIELD_SEPARATOR_CHAR);
+        if ( offset == -1 ) offset = bytes.length;
+        final int nGTKeys = parseFormatKeys(bytes, offset);
+
+        // cycle through the sample names
+        Iterator<String> sampleNameIterator = header.getGenotypeSamples().iterator();
+
+        // clear out our allele mappings, including the one used for calls that fall back to the String parser
+        packedAlleleMap.clear();
+        alleleMap.clear();
+
+        // cycle through the genotype columns, skipping over those of samples that aren't decoded
+        int nDecodedSamples = 0;
+        for ( int column = 0; offset < bytes.length; column++ ) {
+            final int sampleStart = offset + 1;
+            int sampleEnd = indexOf(bytes, sampleStart, bytes.length, VCFConstants.FIELD_SEPARATOR_CHAR);
+            if ( sampleEnd == -1 ) sampleEnd = bytes.length;
+            offset = sampleEnd;
+
+            final String sampleName = sampleNameIterator.next();
+            if ( decodedSampleColumns != null && ! decodedSampleColumns[column] )
+                continue;
+            final int sample = nDecodedSamples++;
+            final GenotypeBuilder gb = columns == null ? new GenotypeBuilder(sampleName) : null;
+            if ( gb != null && nGTKeys >= 1 ) gb.maxAttributes(nGTKeys - 1);
+
+            final int genotypeAlleleLocation = genotypeKeyLocation;
+            int ploidy = 0;
+            List<Allele> GTalleles = null;
+            boolean phased = false;
+
+            int i = 0;
+            for (int start = sampleStart, end = sampleStart; end <= sampleEnd; end++) {
+                if ( end != sampleEnd && bytes[end] != VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR )
+                    continue;
+
+                // check to see if the value list is longer than the key list, which is a problem
+                if ( i >= nGTKeys )
+                    generateException("There are too many keys for the sample " + sampleName + ", keys = " + genotypeKeyString(nGTKeys) + ", values = " + StringUtil.bytesToString(bytes, sampleStart, sampleEnd - sampleStart));
+
+                final int keyType = genotypeKeyTypes[i];
+                if ( keyType == SKIP_KEY ) {
+                    // a field the caller did not ask for
+                } else if ( keyType == GT_KEY ) {
+                    phased = indexOf(bytes, start, end, VCFConstants.PHASED.charAt(0)) != -1;
+                    ploidy = parseGenotypeIndices(bytes, start, end);
+                    if ( ploidy == -1 ) {
+                        // uncommon or malformed calls go through the String parser, which also reports the errors
+                        GTalleles = parseGenotypeAlleles(StringUtil.bytesToString(bytes, start, end - start), alleles, alleleMap);
+                        ploidy = GTalleles.size();
+                        if ( genotypeIndices.length < ploidy ) genotypeIndices = new int[ploidy];
+                        for ( int j = 0; j < ploidy; j++ )
+                            genotypeIndices[j] = GTalleles.get(j).isNoCall() ? -1 : alleles.indexOf(GTalleles.get(j));
+                    } else if ( gb != null ) {
+                        GTalleles = genotypeAlleles(ploidy, alleles);
+                    } else {
+                        for ( int j = 0; j < ploidy; j++ )
+                            if ( genotypeIndices[j] >= alleles.size() )
+                                throw new TribbleException.InternalCodecException("The allele with index " + genotypeIndices[j] + " is not defined in the REF/ALT columns in the record");
+                    }
+                } else if ( keyType == FT_KEY ) {
+                    final List<String> filters = parseFilters(getCachedString(StringUtil.bytesToString(bytes, start, end - start)));
+                    if ( filters != null ) {
+                        if ( gb != null ) gb.filters(filters);
+                        else columns.setFilter(sample, filters.isEmpty() ? null : filters.size() == 1 ? filters.get(0) : ParsingUtils.join(";", ParsingUtils.sortList(filters)));
+                    }
+                } else if ( end - start == 1 && bytes[start] == VCFConstants.MISSING_VALUE_v4.charAt(0) ) {
+                    // don't add missing values to the map
+                } else if ( keyType == GQ_KEY ) {
+                    int gq = parseInt(bytes, start, end);
+                    if ( gq == Integer.MIN_VALUE )
+                        gq = (int)Math.round(Double.valueOf(StringUtil.bytesToString(bytes, start, end - start)));
+                    if ( gb == null ) columns.setGQ(sample, gq);
+                    else if ( gq == -1 ) gb.noGQ();
+                    else gb.GQ(gq);
+                } else if ( keyType == AD_KEY ) {
+                    if ( gb != null ) gb.AD(decodeInts(bytes, start, end));
+                    else columns.setAD(sample, decodeInts(bytes, start, end));
+                } else if ( keyType == PL_KEY ) {
+                    if ( gb != null ) gb.PL(decodeInts(bytes, start, end));
+                    else columns.setPL(sample, decodeInts(bytes, start, end));
+                } else if ( keyType == GL_KEY ) {
+                    final int[] pl = GenotypeLikelihoods.fromGLField(StringUtil.bytesToString(bytes, start, end - start)).getAsPLs();
+                    if ( gb != null ) gb.PL(pl);
+                    else columns.setPL(sample, pl);
+                } else if ( keyType == DP_KEY ) {
+                    int dp = parseInt(bytes, start, end);
+                    if ( dp == Integer.MIN_VALUE ) dp = Integer.valueOf(StringUtil.bytesToString(bytes, start, end - start));
+                    if ( gb != null ) gb.DP(dp);
+                    else columns.setDP(sample, dp);
+                } else {
+                    final String value = StringUtil.bytesToString(bytes, start, end - start);
+                    if ( gb != null ) gb.attribute(genotypeKeyArray[i], value);
+                    else columns.setAttribute(sample, genotypeKeyArray[i], value);
+                }
+
+                i++;
+                start = end + 1;
+            }
+
+            // check to make sure we found a genotype field if our version is less than 4.1 file
+            if ( ! version.isAtLeastAsRecentAs(VCFHeaderVersion.VCF4_1) && genotypeAlleleLocation == -1 )
+                generateException("Unable to find the GT field for the record; the GT field is required before VCF4.1");
+            if ( genotypeAlleleLocation > 0 )
+                generateException("Saw GT field at position " + genotypeAlleleLocation + ", but it must be at the first position for genotypes when present");
+
+            if ( gb == null ) {
+                columns.setGenotype(sample, genotypeIndices, ploidy, phased);
+                continue;
+            }
+
+            gb.alleles(GTalleles == null ? new ArrayList<Allele>(0) : GTalleles);
+            gb.phased(phased);
 
             // add it to the list
             try {
@@ -749,7 +1101,141 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
             }
         }
 
-        return new LazyGenotypesContext.LazyData(genotypes, header.getSampleNamesInOrder(), header.getSampleNameToOffset());
+        return genotypes;
+    }
+
+    /**
+     * parse the FORMAT keys in bytes[0, end) into genotypeKeyArray and genotypeKeyTypes, and the position of GT
+     * into genotypeKeyLocation
+     *
+     * @return the number of keys
+     */
+    private int parseFormatKeys(final byte[] bytes, final int end) {
+        int nGTKeys = 0;
+        genotypeKeyLocation = -1;
+        for (int start = 0, i = 0; i <= end; i++) {
+            if ( i == end || bytes[i] == VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR ) {
+                if ( nGTKeys == genotypeKeyArray.length ) {
+                    genotypeKeyArray = Arrays.copyOf(genotypeKeyArray, 2 * nGTKeys);
+                    genotypeKeyTypes = Arrays.copyOf(genotypeKeyTypes, 2 * nGTKeys);
+                }
+                final String gtKey = getCachedString(StringUtil.bytesToString(bytes, start, i - start));
+                genotypeKeyArray[nGTKeys] = gtKey;
+                if ( gtKey.equals(VCFConstants.GENOTYPE_KEY) ) genotypeKeyLocation = nGTKeys;
+                genotypeKeyTypes[nGTKeys++] = isFormatFieldDecoded(gtKey) ? keyType(gtKey) : SKIP_KEY;
+                start = i + 1;
+            }
+        }
+        return nGTKeys;
+    }
+
+    @SuppressWarnings("deprecation") // GL is still decoded into PLs
+    private static int keyType(final String gtKey) {
+        if ( gtKey.equals(VCFConstants.GENOTYPE_KEY) ) return GT_KEY;
+        if ( gtKey.equals(VCFConstants.GENOTYPE_FILTER_KEY) ) return FT_KEY;
+        if ( gtKey.equals(VCFConstants.GENOTYPE_QUALITY_KEY) ) return GQ_KEY;
+        if ( gtKey.equals(VCFConstants.GENOTYPE_ALLELE_DEPTHS) ) return AD_KEY;
+        if ( gtKey.equals(VCFConstants.GENOTYPE_PL_KEY) ) return PL_KEY;
+        if ( gtKey.equals(VCFConstants.GENOTYPE_LIKELIHOODS_KEY) ) return GL_KEY;
+        if ( gtKey.equals(VCFConstants.DEPTH_KEY) ) return DP_KEY;
+        return OTHER_KEY;
+    }
+
+    private String genotypeKeyString(final int nGTKeys) {
+        return ParsingUtils.join(VCFConstants.GENOTYPE_FIELD_SEPARATOR, Arrays.asList(genotypeKeyArray).subList(0, nGTKeys));
+    }
+
+    /**
+     * parse the allele indices of a GT value into genotypeIndices, with -1 for no-calls
+     *
+     * @return the ploidy, or -1 if the value is not a simple list of allele indices and must be parsed as a String
+     */
+    private int parseGenotypeIndices(final byte[] bytes, final int start, final int end) {
+        int ploidy = 0;
+        for (int i = start, tokenStart = start; i <= end; i++) {
+            if ( i != end && bytes[i] != VCFConstants.PHASED.charAt(0) && bytes[i] != VCFConstants.UNPHASED.charAt(0) )
+                continue;
+            final int index;
+            if ( i - tokenStart == 1 && bytes[tokenStart] == VCFConstants.EMPTY_ALLELE.charAt(0) )
+                index = -1;
+            else
+                index = parseInt(bytes, tokenStart, i);
+            if ( index < -1 || i == tokenStart || bytes[tokenStart] == '+' || bytes[tokenStart] == '-' || ploidy == genotypeIndices.length )
+                return -1;
+            genotypeIndices[ploidy++] = index;
+            tokenStart = i + 1;
+        }
+        return ploidy;
+    }
+
+    /**
+     * get the allele list for the indices in genotypeIndices.  Calls of up to three alleles are cached by their packed
+     * allele indices, so the common calls of a record share one list without making a String to look it up.
+     */
+    private List<Allele> genotypeAlleles(final int ploidy, final List<Allele> alleles) {
+        long key = ploidy;
+        boolean cacheable = ploidy <= 3;
+        for ( int i = 0; i < ploidy && cacheable; i++ ) {
+            cacheable = genotypeIndices[i] < 0xffff;
+            key = (key << 16) | (genotypeIndices[i] + 1);
+        }
+
+        List<Allele> GTAlleles = cacheable ? packedAlleleMap.get(key) : null;
+        if ( GTAlleles == null ) {
+            GTAlleles = new ArrayList<Allele>(ploidy);
+            for ( int i = 0; i < ploidy; i++ ) {
+                final int index = genotypeIndices[i];
+                if ( index == -1 )
+                    GTAlleles.add(Allele.NO_CALL);
+                else if ( index >= alleles.size() )
+                    throw new TribbleException.InternalCodecException("The allele with index " + index + " is not defined in the REF/ALT columns in the record");
+                else
+                    GTAlleles.add(alleles.get(index));
+            }
+            if ( cacheable ) packedAlleleMap.put(key, GTAlleles);
+        }
+        return GTAlleles;
+    }
+
+    /**
+     * parse a decimal integer from the given bytes
+     *
+     * @return the value, or Integer.MIN_VALUE if the bytes are not a valid integer
+     */
+    private static int parseInt(final byte[] bytes, final int start, final int end) {
+        if ( start >= end ) return Integer.MIN_VALUE;
+        final boolean negative = bytes[start] == '-';
+        int i = (negative || bytes[start] == '+') ? start + 1 : start;
+        if ( i == end ) return Integer.MIN_VALUE;
+        long value = 0;
+        for ( ; i < end; i++ ) {
+            final int digit = bytes[i] - '0';
+            if ( digit < 0 || digit > 9 ) return Integer.MIN_VALUE;
+            value = value * 10 + digit;
+            if ( value > Integer.MAX_VALUE ) return Integer.MIN_VALUE;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    private static int indexOf(final byte[] bytes, final int start, final int end, final char c) {
+        for ( int i = start; i < end; i++ )
+            if ( bytes[i] == c ) return i;
+        return -1;
+    }
+
+    private static int[] decodeInts(final byte[] bytes, final int start, final int end) {
+        int nValues = 1;
+        for ( int i = start; i < end; i++ )
+            if ( bytes[i] == ',' ) nValues++;
+        final int[] values = new int[nValues];
+        for ( int i = start, n = 0, valueStart = start; i <= end; i++ ) {
+            if ( i == end || bytes[i] == ',' ) {
+                values[n] = parseInt(bytes, valueStart, i);
+                if ( values[n++] == Integer.MIN_VALUE ) return null;
+                valueStart = i + 1;
+            }
+        }
+        return values;
     }
 
     private final String[] INT_DECODE_ARRAY = new String[10000];
@@ -765,6 +1251,101 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         return values;
     }
 
+    /**
+     * Sets whether the genotypes of each record are decoded straight into a {@link ColumnarGenotypesContext} rather
+     * than lazily into one Genotype object per sample.  Columnar storage takes far less memory for records with many
+     * samples, but the genotypes are always decoded.
+     */
+    public void setColumnarGenotypes(final boolean columnarGenotypes) {
+        this.columnarGenotypes = columnarGenotypes;
+    }
+
+    public boolean getColumnarGenotypes() {
+        return columnarGenotypes;
+    }
+
+    /**
+     * Restricts the INFO fields decoded into each record to the given keys.  Other fields are skipped without their
+     * values being split or stored.  END is always decoded, as the stop of the record depends on it.
+     *
+     * @param keys the INFO keys to decode, or null to decode all of them
+     */
+    public void setInfoFieldsToDecode(final Collection<String> keys) {
+        infoFieldsToDecode = keys == null ? null : new HashSet<String>(keys);
+    }
+
+    public Set<String> getInfoFieldsToDecode() {
+        return infoFieldsToDecode;
+    }
+
+    /**
+     * Restricts the FORMAT fields decoded into the genotypes of each record to the given keys.  The values of other
+     * fields are skipped without being parsed; if GT is not among them the genotypes have no alleles.
+     *
+     * @param keys the FORMAT keys to decode, or null to decode all of them
+     */
+    public void setFormatFieldsToDecode(final Collection<String> keys) {
+        formatFieldsToDecode = keys == null ? null : new HashSet<String>(keys);
+    }
+
+    public Set<String> getFormatFieldsToDecode() {
+        return formatFieldsToDecode;
+    }
+
+    /**
+     * Restricts the genotypes decoded from each record to those of the given samples, in the order of the file.  The
+     * sample columns of the others are skipped without being parsed.  The genotypes of the samples are decoded along
+     * with the rest of the record, rather than lazily, so that the raw data of all samples is never written out.
+     *
+     * @param samples the samples to decode, which must all be in the header, or null to decode all of them
+     */
+    public void setSamplesToDecode(final Collection<String> samples) {
+        samplesToDecode = samples == null ? null : new LinkedHashSet<String>(samples);
+        initializeSampleSubset();
+    }
+
+    public Set<String> getSamplesToDecode() {
+        return samplesToDecode;
+    }
+
+    /**
+     * @return the header restricted to the samples whose genotypes are decoded, which is the header itself when
+     * all of them are
+     */
+    public VCFHeader getDecodedSamplesHeader() {
+        return sampleSubsetHeader == null ? header : sampleSubsetHeader;
+    }
+
+    private void initializeSampleSubset() {
+        sampleSubsetHeader = null;
+        decodedSampleColumns = null;
+        if ( samplesToDecode == null || header == null )
+            return;
+
+        for ( final String sample : samplesToDecode )
+            if ( ! header.getSampleNameToOffset().containsKey(sample) )
+                throw new IllegalArgumentException("Sample " + sample + " is not in the header of " + name);
+
+        final List<String> samples = header.getGenotypeSamples();
+        final List<String> decodedSamples = new ArrayList<String>(samplesToDecode.size());
+        decodedSampleColumns = new boolean[samples.size()];
+        for ( int i = 0; i < samples.size(); i++ ) {
+            if ( samplesToDecode.contains(samples.get(i)) ) {
+                decodedSampleColumns[i] = true;
+                decodedSamples.add(samples.get(i));
+            }
+        }
+        sampleSubsetHeader = new VCFHeader(header.getMetaDataInInputOrder(), decodedSamples);
+    }
+
+    private boolean isInfoFieldDecoded(final String key) {
+        return infoFieldsToDecode == null || infoFieldsToDecode.contains(key) || key.equals(VCFConstants.END_KEY);
+    }
+
+    private boolean isFormatFieldDecoded(final String key) {
+        return formatFieldsToDecode == null || formatFieldsToDecode.contains(key);
+    }
+
     /**
      * Forces all VCFCodecs to not perform any on the fly modifications to the VCF header
      * of VCF records.  Useful primarily for raw comparisons such as when comparing
@@ -0,0 +1,286 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.variant.vcf;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.SharedThreadPools;
+import htsjdk.tribble.CloseableTribbleIterator;
+import htsjdk.tribble.TribbleException;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over the records of a VCF stream, decoding them on worker threads, and returns them in file order.
+ *
+ * Lines are read in batches by one task at a time on a shared read pool, without making a String per line, and each
+ * batch is then decoded by {@link AbstractVCFCodec#decode(byte[], int, int)} on a shared decode pool.  Up to the given
+ * number of batches are read or decoded ahead of the consumer.  Each decode task uses a codec of its own, set up with
+ * the header of the codec that read the header of the stream.
+ *
+ * Genotypes are left undecoded unless {@link #setDecodeGenotypes(boolean)} is set, in which case they are decoded by
+ * the workers too.  Records with undecoded genotypes decode them with the codec of their batch, so those codecs are
+ * not reused by later batches.
+ */
+public class ParallelVCFIterator implements CloseableTribbleIterator<VariantContext> {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String READ_POOL_NAME = "VCFLineRead";
+    private static final String DECODE_POOL_NAME = "VCFDecode";
+
+    private final AsciiLineReader lineReader;
+    private final VCFCodec headerCodec;
+    private final int threads;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean decodeGenotypes = false;
+
+    private final Queue<VCFCodec> idleCodecs = new ConcurrentLinkedQueue<VCFCodec>();
+    private final Deque<Future<List<VariantContext>>> pendingBatches = new ArrayDeque<Future<List<VariantContext>>>();
+    private Future<LineBatch> pendingRead = null;
+    private boolean endOfStream = false;
+    private int linesRead = 0;
+
+    private List<VariantContext> batch = null;
+    private int batchIndex = 0;
+    private boolean initialized = false;
+    private boolean isClosed = false;
+
+    /**
+     * @param stream the text of the VCF, usually from the beginning of the file; header lines are skipped, and line
+     *               numbers in error messages count from the start of the stream
+     * @param codec the codec that read the header of the stream
+     * @param threads the number of batches that may be read or decoded ahead of the consumer
+     */
+    public ParallelVCFIterator(final InputStream stream, final VCFCodec codec, final int threads) {
+        if (codec.header == null) throw new IllegalArgumentException("The codec must have read the VCF header");
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.lineReader = new AsciiLineReader(stream);
+        this.headerCodec = codec;
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of lines read and decoded by each task.  Must be called before iteration starts.
+     */
+    public ParallelVCFIterator setBatchSize(final int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        if (initialized) throw new IllegalStateException("Cannot change the batch size once iteration has started");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets whether the genotypes of each record are decoded by the workers rather than lazily on first access.  Must be
+     * called before iteration starts.
+     */
+    public ParallelVCFIterator setDecodeGenotypes(final boolean decodeGenotypes) {
+        if (initialized) throw new IllegalStateException("Cannot change genotype decoding once iteration has started");
+        this.decodeGenotypes = decodeGenotypes;
+        return this;
+    }
+
+    public boolean getDecodeGenotypes() {
+        return decodeGenotypes;
+    }
+
+    private void startIterationIfRequired() {
+        if (isClosed) throw new IllegalStateException("Iterator has been closed");
+        if (initialized) return;
+        initialized = true;
+        submitRead();
+        nextBatch();
+    }
+
+    public boolean hasNext() {
+        startIterationIfRequired();
+        return batch != null;
+    }
+
+    public VariantContext next() {
+        if (!hasNext()) throw new NoSuchElementException("ParallelVCFIterator: no next element available");
+        final VariantContext vc = batch.get(batchIndex);
+        batch.set(batchIndex, null);
+        if (++batchIndex == batch.size()) {
+            nextBatch();
+        }
+        return vc;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("ParallelVCFIterator.remove()");
+    }
+
+    public Iterator<VariantContext> iterator() {
+        return this;
+    }
+
+    /** Stops reading ahead and closes the stream. */
+    public void close() {
+        if (isClosed) return;
+        isClosed = true;
+        for (final Future<List<VariantContext>> pending : pendingBatches) {
+            pending.cancel(false);
+        }
+        pendingBatches.clear();
+        if (pendingRead != null && !pendingRead.cancel(false)) {
+            // Already running or done, so wait for it to stop using the line reader.
+            try {
+                pendingRead.get();
+            } catch (final Exception e) {
+                // The iteration has been abandoned.
+            }
+        }
+        pendingRead = null;
+        batch = null;
+        CloserUtil.close(lineReader);
+    }
+
+    /**
+     * Makes the next non-empty decoded batch current, after topping up the batches in flight, or sets the current batch
+     * to null at the end of the stream.
+     */
+    private void nextBatch() {
+        batch = null;
+        batchIndex = 0;
+        while (true) {
+            while (pendingBatches.size() < threads && pendingRead != null) {
+                final LineBatch lines = SharedThreadPools.getResult(pendingRead);
+                pendingRead = null;
+                if (!endOfStream) submitRead();
+                if (lines.count > 0) submitDecode(lines);
+            }
+            if (pendingBatches.isEmpty()) return;
+            final List<VariantContext> decoded = SharedThreadPools.getResult(pendingBatches.removeFirst());
+            if (!decoded.isEmpty()) {
+                batch = decoded;
+                return;
+            }
+        }
+    }
+
+    private void submitRead() {
+        pendingRead = SharedThreadPools.getPool(READ_POOL_NAME).submit(new Callable<LineBatch>() {
+            public LineBatch call() {
+                return readBatch();
+            }
+        });
+    }
+
+    private void submitDecode(final LineBatch lines) {
+        pendingBatches.addLast(SharedThreadPools.getPool(DECODE_POOL_NAME).submit(new Callable<List<VariantContext>>() {
+            public List<VariantContext> call() {
+                return decodeBatch(lines);
+            }
+        }));
+    }
+
+    /** Reads up to a batch of lines, noting when the end of the stream has been reached. */
+    private LineBatch readBatch() {
+        final LineBatch lines = new LineBatch(batchSize, linesRead);
+        try {
+            while (lines.count < batchSize) {
+                final int length = lineReader.readLineBytes();
+                if (length == -1) {
+                    endOfStream = true;
+                    break;
+                }
+                lines.add(lineReader.getLineBytes(), length);
+            }
+        } catch (final IOException e) {
+            throw new TribbleException("Unable to read VCF lines", e);
+        }
+        linesRead += lines.count;
+        return lines;
+    }
+
+    private List<VariantContext> decodeBatch(final LineBatch lines) {
+        // codecs are only reused if no record can decode its genotypes lazily with them later
+        final boolean reuseCodec = decodeGenotypes || headerCodec.getColumnarGenotypes() || headerCodec.getSamplesToDecode() != null;
+        VCFCodec codec = reuseCodec ? idleCodecs.poll() : null;
+        if (codec == null) {
+            codec = new VCFCodec();
+            codec.setName(headerCodec.getName());
+            codec.setColumnarGenotypes(headerCodec.getColumnarGenotypes());
+            codec.setInfoFieldsToDecode(headerCodec.getInfoFieldsToDecode());
+            codec.setFormatFieldsToDecode(headerCodec.getFormatFieldsToDecode());
+            codec.setSamplesToDecode(headerCodec.getSamplesToDecode());
+            codec.disableOnTheFlyModifications(); // the header has already been repaired by the header codec
+            codec.setVCFHeader(headerCodec.header, headerCodec.version);
+        }
+        final List<VariantContext> decoded = new ArrayList<VariantContext>(lines.count);
+        for (int i = 0; i < lines.count; i++) {
+            // number the lines from the start of the stream, for error messages
+            codec.lineNo = lines.firstLine + i;
+            final VariantContext vc = codec.decode(lines.bytes, lines.offsets[i], lines.offsets[i + 1] - lines.offsets[i]);
+            if (vc == null) continue;
+            if (decodeGenotypes && vc.getGenotypes() instanceof LazyGenotypesContext) {
+                ((LazyGenotypesContext) vc.getGenotypes()).decode();
+            }
+            decoded.add(vc);
+        }
+
+        if (reuseCodec) idleCodecs.offer(codec);
+        return decoded;
+    }
+
+    /** A batch of lines packed end to end into one buffer. */
+    private static class LineBatch {
+        final int firstLine;
+        byte[] bytes = new byte[8192];
+        final int[] offsets;
+        int count = 0;
+
+        LineBatch(final int batchSize, final int firstLine) {
+            this.firstLine = firstLine;
+            this.offsets = new int[batchSize + 1];
+        }
+
+        void add(final byte[] line, final int length) {
+            final int start = offsets[count];
+            if (start + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, start + length));
+            }
+            System.arraycopy(line, 0, bytes, start, length);
+            offsets[++count] = start + length;
+        }
+    }
+}
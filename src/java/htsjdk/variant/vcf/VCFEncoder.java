@@ -121,7 +121,8 @@ public class VCFEncoder {
 
 		// FORMAT
 		final GenotypesContext gc = context.getGenotypes();
-		if (gc.isLazyWithData() && ((LazyGenotypesContext) gc).getUnparsedGenotypeData() instanceof String) {
+		if (gc.isLazyWithData() && (((LazyGenotypesContext) gc).getUnparsedGenotypeData() instanceof String ||
+				((LazyGenotypesContext) gc).getUnparsedGenotypeData() instanceof AbstractVCFCodec.GenotypeBytes)) {
 			stringBuilder.append(VCFConstants.FIELD_SEPARATOR);
 			stringBuilder.append(((LazyGenotypesContext) gc).getUnparsedGenotypeData().toString());
 		} else {
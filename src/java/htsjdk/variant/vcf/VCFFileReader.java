@@ -1,8 +1,10 @@
 package htsjdk.variant.vcf;
 
+import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.BlockCompressedInputStream;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalList;
@@ -13,9 +15,14 @@ import htsjdk.tribble.TribbleException;
 import htsjdk.variant.bcf2.BCF2Codec;
 import htsjdk.variant.variantcontext.VariantContext;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Simplified interface for reading from VCF/BCF files.
@@ -23,6 +30,9 @@ import java.io.IOException;
 public class VCFFileReader implements Closeable, Iterable<VariantContext> {
 
 	private final FeatureReader<VariantContext> reader;
+	private final File file;
+	private final FeatureCodec<VariantContext, ?> codec;
+	private int decoderThreads = Defaults.RECORD_DECODER_THREADS;
 
 	/**
 	 * Returns true if the given file appears to be a BCF file.
@@ -55,6 +65,8 @@ public class VCFFileReader implements Closeable, Iterable<VariantContext> {
 	  // Note how we deal with type safety here, just casting to (FeatureCodec)
 	  // in the call to getFeatureReader is not enough for Java 8.
       FeatureCodec<VariantContext, ?> codec = isBCF(file) ? new BCF2Codec() : new VCFCodec();
+      this.file = file;
+      this.codec = codec;
       this.reader = AbstractFeatureReader.getFeatureReader(
                       file.getAbsolutePath(),
                       codec,
@@ -66,6 +78,8 @@ public class VCFFileReader implements Closeable, Iterable<VariantContext> {
       // Note how we deal with type safety here, just casting to (FeatureCodec)
       // in the call to getFeatureReader is not enough for Java 8.
       FeatureCodec<VariantContext, ?> codec = isBCF(file) ? new BCF2Codec() : new VCFCodec();
+      this.file = file;
+      this.codec = codec;
       this.reader = AbstractFeatureReader.getFeatureReader(
                       file.getAbsolutePath(),
                       indexFile.getAbsolutePath(),
@@ -128,8 +142,64 @@ public class VCFFileReader implements Closeable, Iterable<VariantContext> {
 		return (VCFHeader) reader.getHeader();
 	}
 
+    /**
+     * Returns the header of the records returned by this reader, which only has the samples set by
+     * {@link #setSamplesToDecode(Collection)} when those are restricted.
+     */
+    public VCFHeader getDecodedHeader() {
+        if (codec instanceof BCF2Codec) return ((BCF2Codec) codec).getDecodedSamplesHeader();
+        return ((AbstractVCFCodec) codec).getDecodedSamplesHeader();
+    }
+
+    /**
+     * Sets the number of batches of records that {@link #iterator()} may decode concurrently on a shared pool of worker
+     * threads.  Values less than 2 decode every record on the iterating thread.  BCF files are always decoded serially.
+     * Defaults to {@link Defaults#RECORD_DECODER_THREADS}.
+     */
+    public void setDecoderThreads(final int decoderThreads) {
+        this.decoderThreads = decoderThreads;
+    }
+
+    public int getDecoderThreads() {
+        return decoderThreads;
+    }
+
+    /**
+     * Restricts the INFO fields decoded into the records of this file to the given keys, or decodes all of them if
+     * keys is null.  The values of other fields are skipped.  END is always decoded.
+     */
+    public void setInfoFieldsToDecode(final Collection<String> keys) {
+        if (codec instanceof BCF2Codec) ((BCF2Codec) codec).setInfoFieldsToDecode(keys);
+        else ((AbstractVCFCodec) codec).setInfoFieldsToDecode(keys);
+    }
+
+    /**
+     * Restricts the FORMAT fields decoded into the genotypes of this file to the given keys, or decodes all of them
+     * if keys is null.  The values of other fields are skipped; if GT is not among them the genotypes have no alleles.
+     */
+    public void setFormatFieldsToDecode(final Collection<String> keys) {
+        if (codec instanceof BCF2Codec) ((BCF2Codec) codec).setFormatFieldsToDecode(keys);
+        else ((AbstractVCFCodec) codec).setFormatFieldsToDecode(keys);
+    }
+
+    /**
+     * Restricts the genotypes decoded into the records of this file to those of the given samples, or decodes all of
+     * them if samples is null.  The genotype data of the other samples is skipped, so extracting a few samples from a
+     * large file costs little more than reading its sites.  {@link #getDecodedHeader()} has just these samples.
+     */
+    public void setSamplesToDecode(final Collection<String> samples) {
+        if (codec instanceof BCF2Codec) ((BCF2Codec) codec).setSamplesToDecode(samples);
+        else ((AbstractVCFCodec) codec).setSamplesToDecode(samples);
+    }
+
     /** Returns an iterator over all records in this VCF/BCF file. */
 	public CloseableIterator<VariantContext> iterator() {
+		if (decoderThreads > 1 && codec instanceof VCFCodec) {
+			try { return new ParallelVCFIterator(openDecompressedStream(), (VCFCodec) codec, decoderThreads); }
+			catch (final IOException ioe) {
+				throw new TribbleException("Could not open " + file + " for iteration.", ioe);
+			}
+		}
 		try { return reader.iterator(); }
         catch (final IOException ioe) {
 			throw new TribbleException("Could not create an iterator from a feature reader.", ioe);
@@ -144,6 +214,14 @@ public class VCFFileReader implements Closeable, Iterable<VariantContext> {
         }
     }
 
+	/** Opens the text of the file, decompressing it if it is block gzipped or gzipped. */
+	private InputStream openDecompressedStream() throws IOException {
+		final InputStream stream = new BufferedInputStream(new FileInputStream(file), Defaults.NON_ZERO_BUFFER_SIZE);
+		if (BlockCompressedInputStream.isValidFile(stream)) return new BlockCompressedInputStream(stream);
+		if (file.getName().endsWith(".gz")) return new GZIPInputStream(stream);
+		return stream;
+	}
+
 	public void close() {
 		try { this.reader.close(); }
         catch (final IOException ioe) {
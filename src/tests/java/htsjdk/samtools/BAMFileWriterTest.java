@@ -29,7 +29,10 @@ import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
 
 /**
  * Test that BAM writing doesn't blow up.  For presorted writing, the resulting BAM file is read and contents are
@@ -120,4 +123,49 @@ public class BAMFileWriterTest {
         testHelper(getSAMReader(true, SAMFileHeader.SortOrder.coordinate), SAMFileHeader.SortOrder.queryname, true);
         Assert.fail("Exception should be thrown");
     }
+
+    @Test
+    public void testParallelDeflationWithIndex() throws Exception {
+        final File input = new File("testdata/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+        final File serialBam = writeIndexedCopy(input, 0);
+        final File parallelBam = writeIndexedCopy(input, 4);
+        Assert.assertTrue(Arrays.equals(readBytes(parallelBam), readBytes(serialBam)));
+        Assert.assertTrue(Arrays.equals(readBytes(SamFiles.findIndex(parallelBam)), readBytes(SamFiles.findIndex(serialBam))));
+    }
+
+    @Test
+    public void testParallelDeflationWithIndexOfReusedRecords() throws Exception {
+        final File input = new File("testdata/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+        final File serialBam = writeIndexedCopy(input, 0);
+        final File parallelBam = writeIndexedCopy(input, 4, SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.REUSE_RECORDS));
+        Assert.assertTrue(Arrays.equals(readBytes(parallelBam), readBytes(serialBam)));
+        Assert.assertTrue(Arrays.equals(readBytes(SamFiles.findIndex(parallelBam)), readBytes(SamFiles.findIndex(serialBam))));
+    }
+
+    private File writeIndexedCopy(final File input, final int deflaterThreads) throws Exception {
+        return writeIndexedCopy(input, deflaterThreads, SamReaderFactory.makeDefault());
+    }
+
+    private File writeIndexedCopy(final File input, final int deflaterThreads, final SamReaderFactory readerFactory) throws Exception {
+        final File output = File.createTempFile("parallelDeflation.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        output.deleteOnExit();
+        final SamReader reader = readerFactory.open(input);
+        final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).setDeflaterThreads(deflaterThreads)
+                .makeBAMWriter(reader.getFileHeader(), true, output);
+        for (final SAMRecord rec : reader) {
+            writer.addAlignment(rec);
+        }
+        writer.close();
+        reader.close();
+        SamFiles.findIndex(output).deleteOnExit();
+        return output;
+    }
+
+    private byte[] readBytes(final File file) throws Exception {
+        final byte[] bytes = new byte[(int) file.length()];
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(bytes);
+        in.close();
+        return bytes;
+    }
 }
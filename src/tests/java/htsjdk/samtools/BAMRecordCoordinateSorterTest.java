@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class BAMRecordCoordinateSorterTest {
+
+    /**
+     * Records piled up on a few positions with a few names, so that every field the comparator looks at
+     * is needed to order some of them, and some compare equal.
+     */
+    private List<SAMRecord> makeRecords(final SAMRecordSetBuilder builder, final int numRecords) {
+        final Random random = new Random(numRecords);
+        for (int i = 0; builder.getRecords().size() < numRecords; ++i) {
+            final String name = "r" + random.nextInt(i % 7 == 0 ? 1000 : 20);
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.addUnmappedFragment(name);
+                    break;
+                case 1:
+                    builder.addPair(name, random.nextInt(3), 1 + random.nextInt(30), 1 + random.nextInt(30));
+                    break;
+                default:
+                    builder.addFrag(name, random.nextInt(3), 1 + random.nextInt(30), random.nextBoolean());
+            }
+        }
+        final List<SAMRecord> records = new ArrayList<SAMRecord>(builder.getRecords());
+        for (int i = 0; i < records.size(); ++i) {
+            // tells apart records that compare equal, so the test sees whether the sort is stable
+            records.get(i).setAttribute("XI", i);
+            if (random.nextInt(5) == 0) {
+                records.get(i).setMappingQuality(random.nextInt(3));
+            }
+        }
+        return records;
+    }
+
+    @DataProvider(name = "sizes")
+    public Object[][] sizes() {
+        return new Object[][]{{0, 10}, {1, 10}, {10, 10}, {1000, 5000}, {1000, 100}, {1000, 1}, {20000, 3000}};
+    }
+
+    @Test(dataProvider = "sizes")
+    public void testMatchesCoordinateComparator(final int numRecords, final int maxRecordsInRam) throws Exception {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(false, SAMFileHeader.SortOrder.unsorted);
+        final List<SAMRecord> records = makeRecords(builder, numRecords);
+        final File tmpDir = IOUtil.createTempDir("BAMRecordCoordinateSorterTest", null);
+        try {
+            final BAMRecordCoordinateSorter sorter = new BAMRecordCoordinateSorter(builder.getHeader(), maxRecordsInRam, tmpDir);
+            for (final SAMRecord record : records) {
+                sorter.add(record);
+            }
+            Assert.assertEquals(tmpDir.list().length, Math.max(0, records.size() - 1) / maxRecordsInRam);
+
+            final List<SAMRecord> expectedRecords = new ArrayList<SAMRecord>(records);
+            Collections.sort(expectedRecords, new SAMRecordCoordinateComparator());
+            final List<String> expected = new ArrayList<String>();
+            for (final SAMRecord record : expectedRecords) {
+                expected.add(record.getSAMString());
+            }
+
+            final List<String> actual = new ArrayList<String>();
+            final CloseableIterator<SAMRecord> iterator = sorter.iterator();
+            while (iterator.hasNext()) {
+                actual.add(iterator.next().getSAMString());
+            }
+            iterator.close();
+            Assert.assertEquals(actual, expected);
+
+            sorter.cleanup();
+            Assert.assertEquals(tmpDir.list().length, 0);
+        } finally {
+            IOUtil.deleteDirectoryTree(tmpDir);
+        }
+    }
+
+    @DataProvider(name = "spilling")
+    public Object[][] spilling() {
+        return new Object[][]{{0, Integer.MAX_VALUE}, {0, 2}, {2, Integer.MAX_VALUE}, {2, 3}, {4, 2}};
+    }
+
+    /**
+     * Sort with background spills and multi-level merges, checking that the sort is still stable and that
+     * every temporary file is deleted.
+     */
+    @Test(dataProvider = "spilling")
+    public void testSpillThreadsAndMergeFanIn(final int spillThreads, final int maxFilesToMerge) {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(false, SAMFileHeader.SortOrder.unsorted);
+        final List<SAMRecord> records = makeRecords(builder, 5000);
+        final File tmpDir = IOUtil.createTempDir("BAMRecordCoordinateSorterTest", null);
+        try {
+            final BAMRecordCoordinateSorter sorter = new BAMRecordCoordinateSorter(builder.getHeader(), 97, tmpDir);
+            sorter.setSpillThreads(spillThreads);
+            sorter.setMaxFilesToMerge(maxFilesToMerge);
+            for (final SAMRecord record : records) {
+                sorter.add(record);
+            }
+
+            final List<SAMRecord> expected = new ArrayList<SAMRecord>(records);
+            Collections.sort(expected, new SAMRecordCoordinateComparator());
+            final CloseableIterator<SAMRecord> iterator = sorter.iterator();
+            if (maxFilesToMerge != Integer.MAX_VALUE) {
+                Assert.assertTrue(tmpDir.list().length <= maxFilesToMerge);
+            }
+            int i = 0;
+            while (iterator.hasNext()) {
+                Assert.assertEquals(iterator.next().getSAMString(), expected.get(i++).getSAMString());
+            }
+            iterator.close();
+            Assert.assertEquals(i, expected.size());
+
+            sorter.cleanup();
+            Assert.assertEquals(tmpDir.list().length, 0);
+        } finally {
+            IOUtil.deleteDirectoryTree(tmpDir);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxFilesToMergeTooSmall() {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(false, SAMFileHeader.SortOrder.unsorted);
+        new BAMRecordCoordinateSorter(builder.getHeader(), 10, new File(System.getProperty("java.io.tmpdir")))
+                .setMaxFilesToMerge(1);
+    }
+
+    @Test
+    public void testOversizedRecords() {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(false, SAMFileHeader.SortOrder.unsorted);
+        builder.setReadLength(3 * 1024 * 1024);
+        final List<SAMRecord> records = makeRecords(builder, 5);
+        final BAMRecordCoordinateSorter sorter = new BAMRecordCoordinateSorter(builder.getHeader(), 10,
+                new File(System.getProperty("java.io.tmpdir")));
+        for (final SAMRecord record : records) {
+            sorter.add(record);
+        }
+        final List<SAMRecord> expected = new ArrayList<SAMRecord>(records);
+        Collections.sort(expected, new SAMRecordCoordinateComparator());
+        int i = 0;
+        for (final SAMRecord record : sorter) {
+            Assert.assertEquals(record.getAttribute("XI"), expected.get(i++).getAttribute("XI"));
+        }
+        Assert.assertEquals(i, expected.size());
+        sorter.cleanup();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testAddAfterIteration() {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(false, SAMFileHeader.SortOrder.unsorted);
+        final BAMRecordCoordinateSorter sorter = new BAMRecordCoordinateSorter(builder.getHeader(), 10,
+                new File(System.getProperty("java.io.tmpdir")));
+        sorter.iterator();
+        sorter.add(makeRecords(builder, 1).get(0));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class BAMRecordTest {
+
+    private SAMRecord makeRecord() {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder();
+        builder.addFrag("read", 0, 100, false);
+        final SAMRecord record = builder.getRecords().iterator().next();
+        record.setAttribute("XZ", "string");
+        record.setAttribute("XA", 'c');
+        record.setAttribute("XI", 70000);
+        record.setAttribute("XS", -300);
+        record.setAttribute("XC", 200);
+        record.setAttribute("XF", 1.5f);
+        record.setAttribute("XH", new byte[]{1, 2, 3});
+        record.setAttribute("XB", new short[]{1, -2});
+        record.setUnsignedArrayAttribute("XU", new int[]{3, 4, 5});
+        record.setAttribute("XL", new float[]{0.5f});
+        record.setAttribute("NM", 2);
+        return record;
+    }
+
+    private BAMRecord roundTrip(final SAMRecord record) {
+        final BAMRecordCodec codec = new BAMRecordCodec(record.getHeader());
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        codec.setOutputStream(os);
+        codec.encode(record);
+        codec.setInputStream(new ByteArrayInputStream(os.toByteArray()));
+        return (BAMRecord) codec.decode();
+    }
+
+    @Test
+    public void testSingleTagLookup() {
+        final SAMRecord record = makeRecord();
+        final BAMRecord bamRecord = roundTrip(record);
+        for (final SAMRecord.SAMTagAndValue tagAndValue : record.getAttributes()) {
+            final Object value = bamRecord.getAttribute(tagAndValue.tag);
+            if (tagAndValue.value.getClass().isArray()) {
+                Assert.assertEquals(value.getClass(), tagAndValue.value.getClass(), tagAndValue.tag);
+            } else {
+                Assert.assertEquals(value, tagAndValue.value, tagAndValue.tag);
+            }
+            // and again, answered from the remembered lookup
+            Assert.assertSame(bamRecord.getAttribute(tagAndValue.tag), value);
+        }
+        Assert.assertEquals(bamRecord.getSignedShortArrayAttribute("XB"), new short[]{1, -2});
+        Assert.assertEquals(bamRecord.getUnsignedIntArrayAttribute("XU"), new int[]{3, 4, 5});
+        Assert.assertTrue(bamRecord.isUnsignedArrayAttribute("XU"));
+        Assert.assertFalse(bamRecord.isUnsignedArrayAttribute("XB"));
+        Assert.assertNull(bamRecord.getAttribute("YY"));
+        Assert.assertEquals(bamRecord.getReadGroup(), record.getReadGroup());
+
+        // the binary block is still usable as is
+        Assert.assertNotNull(bamRecord.getVariableBinaryRepresentation());
+        Assert.assertEquals(bamRecord.getSAMString(), record.getSAMString());
+    }
+
+    @Test
+    public void testSetAfterLookup() {
+        final BAMRecord bamRecord = roundTrip(makeRecord());
+        Assert.assertEquals(bamRecord.getIntegerAttribute("NM"), Integer.valueOf(2));
+        bamRecord.setAttribute("NM", 5);
+        Assert.assertEquals(bamRecord.getIntegerAttribute("NM"), Integer.valueOf(5));
+        bamRecord.setAttribute("XZ", null);
+        Assert.assertNull(bamRecord.getAttribute("XZ"));
+        Assert.assertEquals(roundTrip(bamRecord).getIntegerAttribute("NM"), Integer.valueOf(5));
+        Assert.assertNull(roundTrip(bamRecord).getAttribute("XZ"));
+    }
+
+    @Test
+    public void testClearAfterLookup() {
+        final BAMRecord bamRecord = roundTrip(makeRecord());
+        Assert.assertEquals(bamRecord.getStringAttribute("XZ"), "string");
+        bamRecord.clearAttributes();
+        Assert.assertNull(bamRecord.getAttribute("XZ"));
+    }
+
+    @Test
+    public void testFieldAccessors() {
+        final SAMRecord record = makeRecord();
+        record.setCigarString("3S20M1I12M");
+        record.setReadBases("ACGTNACGTN=ACGTACGTACGTACGTACGTACGTACGTA".substring(0, 36).getBytes());
+        final BAMRecord bamRecord = roundTrip(record);
+
+        for (int i = 0; i < record.getReadLength(); ++i) {
+            Assert.assertEquals(bamRecord.getReadBase(i), record.getReadBases()[i]);
+            Assert.assertEquals(bamRecord.getBaseQuality(i), record.getBaseQualities()[i]);
+        }
+        for (int i = 0; i < record.getCigarLength(); ++i) {
+            Assert.assertEquals(bamRecord.getCigarElementOperator(i), record.getCigar().getCigarElement(i).getOperator());
+            Assert.assertEquals(bamRecord.getCigarElementLength(i), record.getCigar().getCigarElement(i).getLength());
+        }
+        Assert.assertTrue(bamRecord.readNameEquals("read".getBytes()));
+        Assert.assertFalse(bamRecord.readNameEquals("reae".getBytes()));
+        Assert.assertFalse(bamRecord.readNameEquals("read1".getBytes()));
+
+        // nothing was decoded, so the record still has its binary block and gives the same answers once decoded
+        Assert.assertNotNull(bamRecord.getVariableBinaryRepresentation());
+        Assert.assertEquals(bamRecord.getSAMString(), record.getSAMString());
+        Assert.assertEquals(bamRecord.getReadBase(5), record.getReadBases()[5]);
+        Assert.assertEquals(bamRecord.getCigarElementLength(2), 1);
+        Assert.assertTrue(bamRecord.readNameEquals("read".getBytes()));
+    }
+
+    @Test
+    public void testAccessorsAfterSetters() {
+        final BAMRecord bamRecord = roundTrip(makeRecord());
+        bamRecord.setReadBases(new byte[]{'T', 'T'});
+        bamRecord.setBaseQualities(new byte[]{7, 8});
+        bamRecord.setCigarString("2M");
+        bamRecord.setReadName("other");
+        Assert.assertEquals(bamRecord.getReadBase(1), 'T');
+        Assert.assertEquals(bamRecord.getBaseQuality(1), 8);
+        Assert.assertEquals(bamRecord.getCigarElementOperator(0), CigarOperator.M);
+        Assert.assertEquals(bamRecord.getCigarElementLength(0), 2);
+        Assert.assertTrue(bamRecord.readNameEquals("other".getBytes()));
+    }
+
+    @Test(expectedExceptions = ArrayIndexOutOfBoundsException.class)
+    public void testMissingQualities() {
+        final SAMRecord record = makeRecord();
+        record.setBaseQualities(SAMRecord.NULL_QUALS);
+        roundTrip(record).getBaseQuality(0);
+    }
+
+    @Test(expectedExceptions = ArrayIndexOutOfBoundsException.class)
+    public void testBaseOutOfRange() {
+        roundTrip(makeRecord()).getReadBase(36);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BAMShardTest {
+    private static final File BAM_FILE = new File("testdata/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    @DataProvider(name = "shardCounts")
+    public Object[][] shardCounts() {
+        return new Object[][]{{1}, {2}, {7}, {64}, {10000}};
+    }
+
+    @Test(dataProvider = "shardCounts")
+    public void testEachRecordInExactlyOneShard(final int shardCount) {
+        final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        final List<String> expected = new ArrayList<String>();
+        final SAMRecordIterator all = reader.iterator();
+        while (all.hasNext()) expected.add(all.next().getSAMString());
+        all.close();
+
+        final List<BAMShard> shards = BAMShard.createShards(reader, shardCount);
+        int mappedShards = 0;
+        final List<String> actual = new ArrayList<String>();
+        for (final BAMShard shard : shards) {
+            if (!shard.isUnmapped()) {
+                ++mappedShards;
+                Assert.assertNotNull(shard.getFileSpan());
+            }
+            final CloseableIterator<SAMRecord> iterator = shard.iterator(reader);
+            while (iterator.hasNext()) actual.add(iterator.next().getSAMString());
+            iterator.close();
+        }
+        CloserUtil.close(reader);
+
+        Assert.assertTrue(mappedShards <= shardCount);
+        if (shardCount > 1) Assert.assertTrue(mappedShards > 1);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        Assert.assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testShardsAreBalanced() {
+        final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        final List<BAMShard> shards = BAMShard.createShards(reader, 4);
+        CloserUtil.close(reader);
+
+        long total = 0;
+        long largest = 0;
+        int mappedShards = 0;
+        for (final BAMShard shard : shards) {
+            if (shard.isUnmapped()) continue;
+            ++mappedShards;
+            total += shard.getCompressedBytes();
+            largest = Math.max(largest, shard.getCompressedBytes());
+        }
+        Assert.assertEquals(mappedShards, 4);
+        // A shard can only overshoot its share by one window of the linear index.
+        Assert.assertTrue(largest < total / 2, shards.toString());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsZeroShards() {
+        final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        try {
+            BAMShard.createShards(reader, 0);
+        } finally {
+            CloserUtil.close(reader);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.cram.build.CramIO;
+import htsjdk.samtools.cram.index.CramIndex;
+import htsjdk.samtools.cram.io.CountingInputStream;
+import htsjdk.samtools.cram.ref.ReferenceSource;
+import htsjdk.samtools.cram.structure.Container;
+import htsjdk.samtools.cram.structure.CramHeader;
+import htsjdk.samtools.cram.structure.Slice;
+import htsjdk.samtools.reference.InMemoryReferenceSequenceFile;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CoordMath;
+import htsjdk.samtools.util.Log;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class CRAMFileReaderTest {
+    private static final int CHROMOSOME_LENGTH = 200000;
+
+    private final InMemoryReferenceSequenceFile referenceFile = new InMemoryReferenceSequenceFile();
+    private File cramFile;
+    private File baiFile;
+    private File craiFile;
+    private final List<SAMRecord> allRecords = new ArrayList<SAMRecord>();
+
+    @BeforeClass
+    public void writeCramAndIndexes() throws IOException {
+        Log.setGlobalLogLevel(Log.LogLevel.ERROR);
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate, true, CHROMOSOME_LENGTH);
+        final Random random = new Random(5);
+        for (final SAMSequenceRecord sequence : builder.getHeader().getSequenceDictionary().getSequences()) {
+            final byte[] bases = new byte[CHROMOSOME_LENGTH];
+            for (int i = 0; i < bases.length; ++i) bases[i] = (byte) "ACGT".charAt(random.nextInt(4));
+            referenceFile.add(sequence.getSequenceName(), bases);
+        }
+        for (int i = 0; i < 40000; ++i) {
+            builder.addFrag("frag" + i, random.nextInt(3), 1 + random.nextInt(CHROMOSOME_LENGTH - 100), random.nextBoolean());
+        }
+
+        cramFile = writeCram(builder, true);
+
+        baiFile = new File(cramFile.getPath() + ".bai");
+        baiFile.deleteOnExit();
+        final CountingInputStream cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(cramFile)));
+        final CramHeader cramHeader = CramIO.readCramHeader(cis);
+        final CRAMIndexer indexer = new CRAMIndexer(baiFile, cramHeader.getSamFileHeader());
+        while (true) {
+            final long offset = cis.getCount();
+            final Container container = CramIO.readContainer(cramHeader.getVersion(), cis);
+            if (container == null || container.isEOF()) break;
+            for (final Slice slice : container.slices) {
+                slice.containerOffset = offset;
+                indexer.processAlignment(slice);
+            }
+        }
+        indexer.finish();
+        cis.close();
+
+        craiFile = new File(cramFile.getPath() + ".crai");
+        craiFile.deleteOnExit();
+        final OutputStream craiStream = new GZIPOutputStream(new FileOutputStream(craiFile));
+        for (final CramIndex.Entry entry : CramIndex.buildIndexForCramFile(cramFile)) {
+            craiStream.write((entry + "\n").getBytes());
+        }
+        craiStream.close();
+
+        final CRAMFileReader reader = new CRAMFileReader(cramFile, (File) null, new ReferenceSource(referenceFile));
+        final SAMRecordIterator iterator = reader.getIterator();
+        while (iterator.hasNext()) allRecords.add(iterator.next());
+        reader.close();
+        Assert.assertEquals(allRecords.size(), 40000);
+    }
+
+    private File writeCram(final SAMRecordSetBuilder builder, final boolean preserveReadNames) throws IOException {
+        final File file = File.createTempFile("CRAMFileReaderTest.", ".cram");
+        file.deleteOnExit();
+        final CRAMFileWriter writer = new CRAMFileWriter(new FileOutputStream(file), new ReferenceSource(referenceFile),
+                builder.getHeader(), file.getName());
+        writer.setPreserveReadNames(preserveReadNames);
+        for (final SAMRecord record : builder) {
+            writer.addAlignment(record);
+        }
+        writer.close();
+        return file;
+    }
+
+    @DataProvider(name = "indexes")
+    public Object[][] indexes() {
+        return new Object[][]{{baiFile, 0}, {craiFile, 0}, {baiFile, 4}, {craiFile, 4}};
+    }
+
+    private static boolean matches(final QueryInterval[] intervals, final boolean contained, final SAMRecord record) {
+        for (final QueryInterval interval : intervals) {
+            if (record.getReferenceIndex() != interval.referenceIndex) continue;
+            final int end = interval.end <= 0 ? Integer.MAX_VALUE : interval.end;
+            if (contained ? CoordMath.encloses(interval.start, end, record.getAlignmentStart(), record.getAlignmentEnd())
+                          : CoordMath.overlaps(interval.start, end, record.getAlignmentStart(), record.getAlignmentEnd())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test(dataProvider = "indexes")
+    public void testMultipleIntervalQuery(final File indexFile, final int decoderThreads) {
+        final CRAMFileReader reader = new CRAMFileReader(cramFile, indexFile, new ReferenceSource(referenceFile));
+        reader.setDecoderThreads(decoderThreads);
+        final Random random = new Random(11);
+        for (int i = 0; i < 20; ++i) {
+            final QueryInterval[] intervals = new QueryInterval[1 + random.nextInt(10)];
+            for (int j = 0; j < intervals.length; ++j) {
+                final int start = 1 + random.nextInt(CHROMOSOME_LENGTH);
+                intervals[j] = new QueryInterval(random.nextInt(4), start, random.nextInt(8) == 0 ? 0 : start + random.nextInt(5000));
+            }
+            final QueryInterval[] optimized = QueryInterval.optimizeIntervals(intervals);
+            final boolean contained = random.nextBoolean();
+
+            final List<String> expected = new ArrayList<String>();
+            for (final SAMRecord record : allRecords) {
+                if (matches(optimized, contained, record)) expected.add(record.getSAMString());
+            }
+            final List<String> actual = new ArrayList<String>();
+            final CloseableIterator<SAMRecord> iterator = reader.query(optimized, contained);
+            while (iterator.hasNext()) actual.add(iterator.next().getSAMString());
+            iterator.close();
+
+            Assert.assertEquals(actual, expected);
+        }
+        reader.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testQueryWhileIterationInProgress() {
+        final CRAMFileReader reader = new CRAMFileReader(cramFile, craiFile, new ReferenceSource(referenceFile));
+        final QueryInterval[] intervals = new QueryInterval[]{new QueryInterval(0, 1, 1000)};
+        reader.query(intervals, false);
+        try {
+            reader.queryAlignmentStart(allRecords.get(0).getReferenceName(), allRecords.get(0).getAlignmentStart());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testQueryAfterClose() {
+        final CRAMFileReader reader = new CRAMFileReader(cramFile, craiFile, new ReferenceSource(referenceFile));
+        reader.close();
+        reader.queryUnmapped();
+    }
+
+    @Test(dataProvider = "indexes")
+    public void testQueryAlignmentStart(final File indexFile, final int decoderThreads) {
+        final CRAMFileReader reader = new CRAMFileReader(cramFile, indexFile, new ReferenceSource(referenceFile));
+        reader.setDecoderThreads(decoderThreads);
+        for (int i = 0; i < allRecords.size(); i += 4999) {
+            final SAMRecord target = allRecords.get(i);
+            final List<String> expected = new ArrayList<String>();
+            for (final SAMRecord record : allRecords) {
+                if (record.getReferenceIndex().equals(target.getReferenceIndex()) &&
+                        record.getAlignmentStart() == target.getAlignmentStart()) {
+                    expected.add(record.getSAMString());
+                }
+            }
+            final List<String> actual = new ArrayList<String>();
+            final CloseableIterator<SAMRecord> iterator = reader.queryAlignmentStart(target.getReferenceName(), target.getAlignmentStart());
+            while (iterator.hasNext()) actual.add(iterator.next().getSAMString());
+            iterator.close();
+
+            Assert.assertEquals(actual, expected);
+        }
+        reader.close();
+    }
+
+    private List<String> readAll(final File file, final int decoderThreads) {
+        final CRAMFileReader reader = new CRAMFileReader(file, (File) null, new ReferenceSource(referenceFile));
+        reader.setDecoderThreads(decoderThreads);
+        final List<String> records = new ArrayList<String>();
+        final SAMRecordIterator iterator = reader.getIterator();
+        while (iterator.hasNext()) records.add(iterator.next().getSAMString());
+        iterator.close();
+        reader.close();
+        return records;
+    }
+
+    @Test
+    public void testParallelDecoding() {
+        final List<String> expected = new ArrayList<String>();
+        for (final SAMRecord record : allRecords) expected.add(record.getSAMString());
+        Assert.assertEquals(readAll(cramFile, 4), expected);
+    }
+
+    @Test
+    public void testParallelDecodingGeneratesSameReadNames() throws IOException {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate, true, CHROMOSOME_LENGTH);
+        final Random random = new Random(9);
+        for (int i = 0; i < 25000; ++i) {
+            builder.addFrag("frag" + i, random.nextInt(2), 1 + random.nextInt(CHROMOSOME_LENGTH - 100), random.nextBoolean());
+        }
+        final File file = writeCram(builder, false);
+        final List<String> serial = readAll(file, 0);
+        Assert.assertEquals(serial.size(), 25000);
+        Assert.assertEquals(readAll(file, 3), serial);
+    }
+
+    /**
+     * A CRAM 3.0 file laid out the way htslib writes it: CRC32 on every container header and block, a padded
+     * SAM header container, external data series compressed with rANS order-0 and order-1, and the v3 EOF container.
+     */
+    @Test
+    public void testReadsRansCram3File() throws IOException {
+        final File dir = new File("testdata/htsjdk/samtools");
+        final CRAMFileReader reader = new CRAMFileReader(new File(dir, "cram/rans_3.0.cram"), (File) null,
+                new ReferenceSource(new File(dir, "reference/Homo_sapiens_assembly18.trimmed.fasta")));
+        final SamReader expectedReader = SamReaderFactory.makeDefault().open(new File(dir, "cram/rans_3.0.sam"));
+
+        final List<String> expected = new ArrayList<String>();
+        for (final SAMRecord record : expectedReader) expected.add(record.getSAMString());
+        expectedReader.close();
+        final List<String> actual = new ArrayList<String>();
+        final SAMRecordIterator iterator = reader.getIterator();
+        while (iterator.hasNext()) {
+            final SAMRecord record = iterator.next();
+            // NM is restored from the reference on decoding but is not stored in the file
+            record.setAttribute(SAMTag.NM.name(), null);
+            actual.add(record.getSAMString());
+        }
+        iterator.close();
+        reader.close();
+
+        Assert.assertEquals(actual.size(), 440);
+        Assert.assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testFindsCraiIndex() {
+        Assert.assertEquals(SamFiles.findIndex(cramFile), craiFile);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.CoordMath;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+public class CSIIndexTest {
+    private static final File BAM_FILE = new File("testdata/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+    private static final int LONG_CHROMOSOME_LENGTH = (1 << 30) + 100000;
+
+    private File csiFile;
+
+    @BeforeClass
+    public void createIndex() throws IOException {
+        csiFile = File.createTempFile("CSIIndexTest.", CSIIndex.CSI_INDEX_SUFFIX);
+        csiFile.deleteOnExit();
+        final SamReader reader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(BAM_FILE);
+        CSIIndexer.createIndex(reader, csiFile);
+        CloserUtil.close(reader);
+    }
+
+    @Test
+    public void testBaiSchemeMatchesBai() {
+        final Random random = new Random(3);
+        for (int i = 0; i < 10000; ++i) {
+            final int start = random.nextInt(GenomicIndexUtil.BIN_GENOMIC_SPAN);
+            final int end = Math.min(start + 1 + random.nextInt(1 << (random.nextInt(28) + 1)), GenomicIndexUtil.BIN_GENOMIC_SPAN);
+            Assert.assertEquals(GenomicIndexUtil.reg2bin(start, end, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH),
+                    GenomicIndexUtil.reg2bin(start, end));
+
+            final BitSet expected = GenomicIndexUtil.regionToBins(start + 1, end);
+            final BitSet actual = new BitSet();
+            for (final int bin : GenomicIndexUtil.regionToBins(start + 1, end, GenomicIndexUtil.BAI_MIN_SHIFT, GenomicIndexUtil.BAI_DEPTH)) {
+                actual.set(bin);
+            }
+            Assert.assertEquals(actual, expected);
+        }
+        Assert.assertEquals(GenomicIndexUtil.getBinCount(GenomicIndexUtil.BAI_DEPTH), GenomicIndexUtil.MAX_BINS);
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        final CSIIndex index = new CSIIndex(csiFile);
+        Assert.assertEquals(index.getMinShift(), CSIIndex.DEFAULT_MIN_SHIFT);
+        Assert.assertEquals(index.getDepth(), CSIIndex.DEFAULT_DEPTH);
+        final File copy = File.createTempFile("CSIIndexTest.", CSIIndex.CSI_INDEX_SUFFIX);
+        copy.deleteOnExit();
+        index.write(copy);
+        Assert.assertEquals(new CSIIndex(copy), index);
+    }
+
+    @Test
+    public void testMetaDataMatchesBai() {
+        final SamReader baiReader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        final BAMIndex bai = baiReader.indexing().getIndex();
+        final CSIIndex csi = new CSIIndex(csiFile);
+        Assert.assertEquals(csi.getNumberOfReferences(), baiReader.getFileHeader().getSequenceDictionary().size());
+        for (int i = 0; i < csi.getNumberOfReferences(); ++i) {
+            Assert.assertEquals(csi.getMetaData(i).getAlignedRecordCount(), bai.getMetaData(i).getAlignedRecordCount());
+            Assert.assertEquals(csi.getMetaData(i).getUnalignedRecordCount(), bai.getMetaData(i).getUnalignedRecordCount());
+        }
+        Assert.assertEquals(csi.getNoCoordinateCount(), ((AbstractBAMFileIndex) bai).getNoCoordinateCount());
+        CloserUtil.close(baiReader);
+    }
+
+    @Test
+    public void testQueriesMatchBai() {
+        final SamReader baiReader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        final SamReader csiReader = SamReaderFactory.makeDefault().open(SamInputResource.of(BAM_FILE).index(csiFile));
+        Assert.assertTrue(csiReader.indexing().getIndex() instanceof CSIIndex);
+        final int numReferences = baiReader.getFileHeader().getSequenceDictionary().size();
+        final Random random = new Random(7);
+        for (int i = 0; i < 200; ++i) {
+            final int start = 1 + random.nextInt(10000000);
+            final QueryInterval interval = new QueryInterval(random.nextInt(numReferences), start,
+                    random.nextInt(10) == 0 ? 0 : start + random.nextInt(100000));
+            final boolean contained = random.nextBoolean();
+            Assert.assertEquals(query(csiReader, interval, contained), query(baiReader, interval, contained), interval.toString());
+        }
+        Assert.assertEquals(toStrings(csiReader.queryUnmapped()), toStrings(baiReader.queryUnmapped()));
+        CloserUtil.close(baiReader);
+        CloserUtil.close(csiReader);
+    }
+
+    @Test
+    public void testPositionsBeyondBai() throws IOException {
+        final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, SAMFileHeader.SortOrder.coordinate, true, LONG_CHROMOSOME_LENGTH);
+        final Random random = new Random(5);
+        for (int i = 0; i < 2000; ++i) {
+            builder.addFrag("frag" + i, random.nextInt(2), 1 + random.nextInt(LONG_CHROMOSOME_LENGTH - 100), random.nextBoolean());
+        }
+        builder.addUnmappedFragment("unmapped");
+
+        final File bamFile = File.createTempFile("CSIIndexTest.", BamFileIoUtils.BAM_FILE_EXTENSION);
+        bamFile.deleteOnExit();
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(builder.getHeader(), true, bamFile);
+        final List<SAMRecord> mapped = new ArrayList<SAMRecord>();
+        for (final SAMRecord record : builder) {
+            writer.addAlignment(record);
+            if (!record.getReadUnmappedFlag()) mapped.add(record);
+        }
+        writer.close();
+
+        final File indexFile = new File(bamFile.getPath() + CSIIndex.CSI_INDEX_SUFFIX);
+        indexFile.deleteOnExit();
+        final SamReader indexingReader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(bamFile);
+        CSIIndexer.createIndex(indexingReader, indexFile);
+        CloserUtil.close(indexingReader);
+        Assert.assertEquals(SamFiles.findIndex(bamFile), indexFile);
+
+        final SamReader reader = SamReaderFactory.makeDefault().open(bamFile);
+        Assert.assertTrue(reader.hasIndex());
+        for (int i = 0; i < 50; ++i) {
+            final int start = 1 + random.nextInt(LONG_CHROMOSOME_LENGTH);
+            final QueryInterval interval = new QueryInterval(random.nextInt(2), start, start + random.nextInt(10000000));
+            final List<String> expected = new ArrayList<String>();
+            for (final SAMRecord record : mapped) {
+                if (record.getReferenceIndex() == interval.referenceIndex &&
+                        CoordMath.overlaps(interval.start, interval.end, record.getAlignmentStart(), record.getAlignmentEnd())) {
+                    expected.add(record.getSAMString());
+                }
+            }
+            Assert.assertEquals(query(reader, interval, false), expected, interval.toString());
+        }
+        Assert.assertEquals(toStrings(reader.queryUnmapped()).size(), 1);
+        CloserUtil.close(reader);
+    }
+
+    @Test
+    public void testCsiIndexOnlyFoundForBam() throws IOException {
+        final File cramFile = File.createTempFile("CSIIndexTest.", "." + SamReader.Type.CRAM_TYPE.fileExtension());
+        final File indexFile = new File(cramFile.getPath() + CSIIndex.CSI_INDEX_SUFFIX);
+        cramFile.deleteOnExit();
+        indexFile.deleteOnExit();
+        Assert.assertTrue(indexFile.createNewFile());
+        Assert.assertNull(SamFiles.findIndex(cramFile));
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testBaiRejectsPositionsBeyondRange() {
+        final BinningIndexBuilder builder = new BinningIndexBuilder(0);
+        builder.processFeature(new BinningIndexBuilder.FeatureToBeIndexed() {
+            public int getStart() { return GenomicIndexUtil.BIN_GENOMIC_SPAN + 1; }
+            public int getEnd() { return GenomicIndexUtil.BIN_GENOMIC_SPAN + 100; }
+            public Integer getIndexingBin() { return null; }
+            public Chunk getChunk() { return new Chunk(0, 1); }
+        });
+    }
+
+    private static List<String> query(final SamReader reader, final QueryInterval interval, final boolean contained) {
+        return toStrings(reader.query(new QueryInterval[]{interval}, contained));
+    }
+
+    private static List<String> toStrings(final CloseableIterator<SAMRecord> iterator) {
+        final List<String> ret = new ArrayList<String>();
+        while (iterator.hasNext()) ret.add(iterator.next().getSAMString());
+        iterator.close();
+        return ret;
+    }
+}
@@ -23,7 +23,15 @@
  */
 package htsjdk.samtools;
 
+import htsjdk.samtools.cram.build.CramIO;
+import htsjdk.samtools.cram.common.CramVersions;
+import htsjdk.samtools.cram.common.Version;
 import htsjdk.samtools.cram.ref.ReferenceSource;
+import htsjdk.samtools.cram.structure.Block;
+import htsjdk.samtools.cram.structure.BlockCompressionMethod;
+import htsjdk.samtools.cram.structure.Container;
+import htsjdk.samtools.cram.structure.CramHeader;
+import htsjdk.samtools.cram.structure.Slice;
 import htsjdk.samtools.reference.InMemoryReferenceSequenceFile;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.Log.LogLevel;
@@ -33,7 +41,9 @@ import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
@@ -94,6 +104,153 @@ public class CramFileWriterTest {
 		cReader.close();
 	}
 
+	private byte[] writeCram(SAMFileHeader header, ReferenceSource source,
+			List<SAMRecord> samRecords, int encoderThreads) {
+		return writeCram(header, source, samRecords, encoderThreads,
+				EnumSet.of(BlockCompressionMethod.GZIP));
+	}
+
+	private byte[] writeCram(SAMFileHeader header, ReferenceSource source,
+			List<SAMRecord> samRecords, int encoderThreads,
+			Set<BlockCompressionMethod> methods) {
+		return writeCram(header, source, samRecords, encoderThreads, methods,
+				CramVersions.CRAM_v2_1);
+	}
+
+	private byte[] writeCram(SAMFileHeader header, ReferenceSource source,
+			List<SAMRecord> samRecords, int encoderThreads,
+			Set<BlockCompressionMethod> methods, Version version) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		CRAMFileWriter writer = new CRAMFileWriter(os, source, header, null,
+				version);
+		writer.setEncoderThreads(encoderThreads);
+		writer.setBlockCompressionMethods(methods);
+		for (SAMRecord record : samRecords) {
+			writer.addAlignment(record);
+		}
+		writer.close();
+		return os.toByteArray();
+	}
+
+	@Test(description = "Encoding containers in parallel must not change the output.")
+	public void parallel_encoding() throws Exception {
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		header.addSequence(new SAMSequenceRecord("chr1", 1024 * 1024));
+		SAMReadGroupRecord readGroupRecord = new SAMReadGroupRecord("1");
+		header.addReadGroup(readGroupRecord);
+
+		byte[] refBases = new byte[1024 * 1024];
+		Arrays.fill(refBases, (byte) 'A');
+		InMemoryReferenceSequenceFile rsf = new InMemoryReferenceSequenceFile();
+		rsf.add("chr1", refBases);
+		ReferenceSource source = new ReferenceSource(rsf);
+
+		List<SAMRecord> samRecords = createRecords(50000,
+				readGroupRecord.getId());
+		byte[] serial = writeCram(header, source, samRecords, 0);
+		Assert.assertEquals(writeCram(header, source, samRecords, 2), serial);
+		Assert.assertEquals(writeCram(header, source, samRecords, 8), serial);
+
+		CRAMFileReader cReader = new CRAMFileReader(null,
+				new ByteArrayInputStream(serial), new ReferenceSource(rsf));
+		SAMRecordIterator iterator = cReader.iterator();
+		int count = 0;
+		while (iterator.hasNext()) {
+			Assert.assertEquals(iterator.next().getReadName(),
+					samRecords.get(count++).getReadName());
+		}
+		Assert.assertEquals(count, samRecords.size());
+		cReader.close();
+	}
+
+	@Test(description = "rANS is a CRAM 3.0 method, so a CRAM 2.1 writer must refuse it.", expectedExceptions = IllegalArgumentException.class)
+	public void rans_block_compression_needs_cram_3() throws Exception {
+		final SAMFileHeader header = new SAMFileHeader();
+		InMemoryReferenceSequenceFile rsf = new InMemoryReferenceSequenceFile();
+		CRAMFileWriter writer = new CRAMFileWriter(new ByteArrayOutputStream(),
+				new ReferenceSource(rsf), header, null);
+		writer.setBlockCompressionMethods(EnumSet.of(
+				BlockCompressionMethod.GZIP, BlockCompressionMethod.RANS));
+	}
+
+	@Test(description = "A CRAM 3.0 writer may use rANS, and its files read back.")
+	public void cram_3_rans_round_trip() throws Exception {
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		header.addSequence(new SAMSequenceRecord("chr1", 1024 * 1024));
+		SAMReadGroupRecord readGroupRecord = new SAMReadGroupRecord("1");
+		header.addReadGroup(readGroupRecord);
+
+		byte[] refBases = new byte[1024 * 1024];
+		Arrays.fill(refBases, (byte) 'A');
+		InMemoryReferenceSequenceFile rsf = new InMemoryReferenceSequenceFile();
+		rsf.add("chr1", refBases);
+		ReferenceSource source = new ReferenceSource(rsf);
+
+		List<SAMRecord> samRecords = createRecords(20000,
+				readGroupRecord.getId());
+		byte[] cram = writeCram(header, source, samRecords, 0,
+				EnumSet.of(BlockCompressionMethod.GZIP, BlockCompressionMethod.RANS),
+				CramVersions.CRAM_v3);
+		Assert.assertEquals(cram[4], 3);
+		Assert.assertEquals(cram[5], 0);
+		Assert.assertEquals(Arrays.copyOfRange(cram, cram.length - CramIO.ZERO_F_EOF_MARKER.length, cram.length),
+				CramIO.ZERO_F_EOF_MARKER);
+
+		// the rANS blocks must actually be exercised
+		ByteArrayInputStream bais = new ByteArrayInputStream(cram);
+		CramHeader cramHeader = CramIO.readCramHeader(bais);
+		Assert.assertEquals(cramHeader.getVersion().compareTo(CramVersions.CRAM_v3), 0);
+		boolean sawRans = false;
+		for (Container c = CramIO.readContainer(cramHeader.getVersion(), bais); !c.isEOF();
+			 c = CramIO.readContainer(cramHeader.getVersion(), bais)) {
+			for (Slice slice : c.slices)
+				for (Block block : slice.external.values())
+					sawRans |= block.method == BlockCompressionMethod.RANS;
+		}
+		Assert.assertTrue(sawRans);
+
+		CRAMFileReader cReader = new CRAMFileReader(null,
+				new ByteArrayInputStream(cram), new ReferenceSource(rsf));
+		SAMRecordIterator iterator = cReader.iterator();
+		int count = 0;
+		while (iterator.hasNext()) {
+			SAMRecord r1 = iterator.next();
+			SAMRecord r2 = samRecords.get(count++);
+			Assert.assertEquals(r1.getReadName(), r2.getReadName());
+			Assert.assertEquals(r1.getFlags(), r2.getFlags());
+			Assert.assertEquals(r1.getAlignmentStart(), r2.getAlignmentStart());
+			Assert.assertEquals(r1.getCigarString(), r2.getCigarString());
+			Assert.assertEquals(r1.getMateAlignmentStart(), r2.getMateAlignmentStart());
+			Assert.assertEquals(r1.getReadBases(), r2.getReadBases());
+			Assert.assertEquals(r1.getBaseQualities(), r2.getBaseQualities());
+		}
+		Assert.assertEquals(count, samRecords.size());
+		cReader.close();
+	}
+
+	@Test(description = "A corrupt CRAM 3.0 block fails its CRC32 check.", expectedExceptions = RuntimeException.class,
+			expectedExceptionsMessageRegExp = ".*CRC32 mismatch.*")
+	public void cram_3_crc32_is_checked() throws Exception {
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		header.addSequence(new SAMSequenceRecord("chr1", 1024));
+		InMemoryReferenceSequenceFile rsf = new InMemoryReferenceSequenceFile();
+		rsf.add("chr1", new byte[1024]);
+		byte[] cram = writeCram(header, new ReferenceSource(rsf), new ArrayList<SAMRecord>(), 0,
+				EnumSet.of(BlockCompressionMethod.GZIP), CramVersions.CRAM_v3);
+		// flip a bit in the SAM header text
+		cram[CramIO.DEFINITION_LENGTH + 40] ^= 1;
+		CramIO.readCramHeader(new ByteArrayInputStream(cram));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void unsupported_cram_version() throws Exception {
+		new CRAMFileWriter(new ByteArrayOutputStream(), new ReferenceSource(new InMemoryReferenceSequenceFile()),
+				new SAMFileHeader(), null, new Version(1, 0, 0));
+	}
+
 	private List<SAMRecord> createRecords(int count, String rg) {
 		List<SAMRecord> list = new ArrayList<SAMRecord>(count);
 		final SAMRecordSetBuilder builder = new SAMRecordSetBuilder();
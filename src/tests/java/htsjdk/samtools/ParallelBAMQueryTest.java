@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class ParallelBAMQueryTest {
+    private static final File BAM_FILE = new File("testdata/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+
+    @DataProvider(name = "queries")
+    public Object[][] queries() {
+        return new Object[][]{
+                {1, 10, false, 1L}, {1, 10, true, 1L},
+                {4, 10, false, 1L}, {4, 1000, false, 1L}, {4, 1000, true, 1L},
+                {4, 1000, false, 65536L}, {8, 5000, false, 1L}
+        };
+    }
+
+    private QueryInterval[] randomIntervals(final SAMFileHeader header, final int count, final long seed) {
+        final Random random = new Random(seed);
+        final int numReferences = header.getSequenceDictionary().size();
+        final QueryInterval[] intervals = new QueryInterval[count];
+        for (int i = 0; i < count; ++i) {
+            final int start = 1 + random.nextInt(10000000);
+            intervals[i] = new QueryInterval(random.nextInt(numReferences), start, start + random.nextInt(100000));
+        }
+        return QueryInterval.optimizeIntervals(intervals);
+    }
+
+    @Test(dataProvider = "queries")
+    public void testOrderedQuery(final int threads, final int intervalCount, final boolean contained, final long rangeBytes) {
+        final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        final QueryInterval[] intervals = randomIntervals(reader.getFileHeader(), intervalCount, intervalCount);
+
+        final List<String> expected = new ArrayList<String>();
+        final SAMRecordIterator serialIterator = reader.query(intervals, contained);
+        while (serialIterator.hasNext()) expected.add(serialIterator.next().getSAMString());
+        serialIterator.close();
+
+        final List<String> actual = new ArrayList<String>();
+        final CloseableIterator<SAMRecord> parallelIterator = new ParallelBAMQuery(reader).setThreads(threads).setRangeBytes(rangeBytes, rangeBytes).query(intervals, contained);
+        while (parallelIterator.hasNext()) actual.add(parallelIterator.next().getSAMString());
+        parallelIterator.close();
+
+        Assert.assertEquals(actual, expected);
+        CloserUtil.close(reader);
+    }
+
+    @Test(dataProvider = "queries")
+    public void testCallbackQuery(final int threads, final int intervalCount, final boolean contained, final long rangeBytes) {
+        final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        final QueryInterval[] intervals = randomIntervals(reader.getFileHeader(), intervalCount, intervalCount);
+
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < intervals.length; ++i) {
+            final SAMRecordIterator iterator = reader.query(new QueryInterval[]{intervals[i]}, contained);
+            while (iterator.hasNext()) expected.add(i + " " + iterator.next().getSAMString());
+            iterator.close();
+        }
+
+        final List<String> actual = Collections.synchronizedList(new ArrayList<String>());
+        new ParallelBAMQuery(reader).setThreads(threads).setRangeBytes(rangeBytes, rangeBytes).query(intervals, contained, new ParallelBAMQuery.IntervalCallback() {
+            public void apply(final int intervalIndex, final SAMRecord record) {
+                actual.add(intervalIndex + " " + record.getSAMString());
+            }
+        });
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        Assert.assertEquals(actual, expected);
+        CloserUtil.close(reader);
+    }
+
+    @DataProvider(name = "batchSizes")
+    public Object[][] batchSizes() {
+        return new Object[][]{{1, 1}, {4, 1}, {4, 7}, {4, 1000}};
+    }
+
+    @Test(dataProvider = "batchSizes")
+    public void testOrderedQueryOfLargeRangeInBatches(final int threads, final int recordsPerBatch) {
+        final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        // whole references, so that each range is one large chunk streamed through many batches
+        final QueryInterval[] intervals = QueryInterval.optimizeIntervals(new QueryInterval[]{
+                new QueryInterval(0, 1, -1), new QueryInterval(1, 1, -1)});
+
+        final List<String> expected = new ArrayList<String>();
+        final SAMRecordIterator serialIterator = reader.query(intervals, false);
+        while (serialIterator.hasNext()) expected.add(serialIterator.next().getSAMString());
+        serialIterator.close();
+
+        final List<String> actual = new ArrayList<String>();
+        final CloseableIterator<SAMRecord> parallelIterator = new ParallelBAMQuery(reader).setThreads(threads)
+                .setRecordsPerBatch(recordsPerBatch).query(intervals, false);
+        while (parallelIterator.hasNext()) actual.add(parallelIterator.next().getSAMString());
+        parallelIterator.close();
+
+        Assert.assertTrue(expected.size() > 10 * recordsPerBatch || recordsPerBatch == 1000);
+        Assert.assertEquals(actual, expected);
+        CloserUtil.close(reader);
+    }
+
+    @Test
+    public void testCloseBeforeExhausted() {
+        final SamReader reader = SamReaderFactory.makeDefault().open(BAM_FILE);
+        final QueryInterval[] intervals = randomIntervals(reader.getFileHeader(), 1000, 3);
+        final CloseableIterator<SAMRecord> iterator = new ParallelBAMQuery(reader).setThreads(4).setRangeBytes(1, 1).query(intervals, false);
+        Assert.assertTrue(iterator.hasNext());
+        iterator.next();
+        iterator.close();
+
+        // and with workers waiting for their buffers to be drained
+        final CloseableIterator<SAMRecord> batchedIterator = new ParallelBAMQuery(reader).setThreads(4).setRecordsPerBatch(1).query(intervals, false);
+        Assert.assertTrue(batchedIterator.hasNext());
+        batchedIterator.next();
+        batchedIterator.close();
+        CloserUtil.close(reader);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsSamFile() {
+        new ParallelBAMQuery(SamReaderFactory.makeDefault().open(new File("testdata/htsjdk/samtools/uncompressed.sam")));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloserUtil;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class ParallelMergingSamRecordIteratorTest {
+
+    private List<SAMRecordSetBuilder> makeInputs(final int count, final SAMFileHeader.SortOrder sortOrder) {
+        final Random random = new Random(count);
+        final List<SAMRecordSetBuilder> builders = new ArrayList<SAMRecordSetBuilder>();
+        for (int i = 0; i < count; ++i) {
+            final SAMRecordSetBuilder builder = new SAMRecordSetBuilder(true, sortOrder);
+            final int records = random.nextInt(200);
+            for (int j = 0; j < records; ++j) {
+                builder.addFrag("input" + i + "_read" + j, random.nextInt(4), 1 + random.nextInt(10000), random.nextBoolean());
+            }
+            builder.addUnmappedFragment("input" + i + "_unmapped");
+            builders.add(builder);
+        }
+        return builders;
+    }
+
+    /** Opens the inputs, giving the read groups different samples so that their IDs collide when merged. */
+    private List<SamReader> openReaders(final List<SAMRecordSetBuilder> builders) {
+        final List<SamReader> readers = new ArrayList<SamReader>();
+        for (int i = 0; i < builders.size(); ++i) {
+            final SamReader reader = builders.get(i).getSamReader();
+            for (final SAMReadGroupRecord readGroup : reader.getFileHeader().getReadGroups()) {
+                readGroup.setSample("sample" + i);
+            }
+            readers.add(reader);
+        }
+        return readers;
+    }
+
+    private static List<SAMFileHeader> getHeaders(final List<SamReader> readers) {
+        final List<SAMFileHeader> headers = new ArrayList<SAMFileHeader>();
+        for (final SamReader reader : readers) headers.add(reader.getFileHeader());
+        return headers;
+    }
+
+    @DataProvider(name = "merges")
+    public Object[][] merges() {
+        return new Object[][]{
+                {1, 1000, SAMFileHeader.SortOrder.coordinate},
+                {5, 1, SAMFileHeader.SortOrder.coordinate},
+                {33, 7, SAMFileHeader.SortOrder.coordinate},
+                {33, 1000, SAMFileHeader.SortOrder.coordinate},
+                {12, 10, SAMFileHeader.SortOrder.queryname},
+        };
+    }
+
+    @Test(dataProvider = "merges")
+    public void testMatchesMergingSamRecordIterator(final int inputCount, final int batchSize, final SAMFileHeader.SortOrder sortOrder) {
+        final List<SAMRecordSetBuilder> builders = makeInputs(inputCount, sortOrder);
+
+        final List<SamReader> serialReaders = openReaders(builders);
+        final SamFileHeaderMerger serialMerger = new SamFileHeaderMerger(sortOrder, getHeaders(serialReaders), false);
+        Assert.assertEquals(serialMerger.hasReadGroupCollisions(), inputCount > 1);
+        final MergingSamRecordIterator serialIterator = new MergingSamRecordIterator(serialMerger, serialReaders, false);
+        final List<String> expected = new ArrayList<String>();
+        while (serialIterator.hasNext()) expected.add(serialIterator.next().getSAMString());
+        serialIterator.close();
+        CloserUtil.close(serialReaders);
+
+        final List<SamReader> parallelReaders = openReaders(builders);
+        final SamFileHeaderMerger parallelMerger = new SamFileHeaderMerger(sortOrder, getHeaders(parallelReaders), false);
+        final ParallelMergingSamRecordIterator parallelIterator =
+                new ParallelMergingSamRecordIterator(parallelMerger, parallelReaders, false).setBatchSize(batchSize);
+        final SAMRecordComparator comparator = sortOrder.getComparatorInstance();
+        final List<String> actual = new ArrayList<String>();
+        SAMRecord previous = null;
+        while (parallelIterator.hasNext()) {
+            final SAMRecord record = parallelIterator.next();
+            Assert.assertSame(record.getHeader(), parallelMerger.getMergedHeader());
+            if (previous != null) Assert.assertTrue(comparator.fileOrderCompare(previous, record) <= 0);
+            actual.add(record.getSAMString());
+            previous = record;
+        }
+        parallelIterator.close();
+        CloserUtil.close(parallelReaders);
+
+        // Records that compare equal may be merged in a different order
+        Collections.sort(expected);
+        Collections.sort(actual);
+        Assert.assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testCloseBeforeExhausted() {
+        final List<SamReader> readers = openReaders(makeInputs(10, SAMFileHeader.SortOrder.coordinate));
+        final SamFileHeaderMerger merger = new SamFileHeaderMerger(SAMFileHeader.SortOrder.coordinate, getHeaders(readers), false);
+        final ParallelMergingSamRecordIterator iterator = new ParallelMergingSamRecordIterator(merger, readers, false).setBatchSize(2);
+        Assert.assertTrue(iterator.hasNext());
+        iterator.next();
+        iterator.close();
+        CloserUtil.close(readers);
+    }
+
+    @Test(expectedExceptions = SAMException.class)
+    public void testRejectsIncompatibleSortOrder() {
+        final List<SamReader> readers = openReaders(makeInputs(2, SAMFileHeader.SortOrder.queryname));
+        final SamFileHeaderMerger merger = new SamFileHeaderMerger(SAMFileHeader.SortOrder.coordinate, getHeaders(readers), false);
+        try {
+            new ParallelMergingSamRecordIterator(merger, readers, false);
+        } finally {
+            CloserUtil.close(readers);
+        }
+    }
+}
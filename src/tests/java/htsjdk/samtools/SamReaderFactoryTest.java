@@ -17,7 +17,9 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -65,6 +67,45 @@ public class SamReaderFactoryTest {
         };
     }
 
+    @Test(dataProvider = "parallelReadingTestCases")
+    public void parallelReadingTest(final SamReaderFactory.Option[] options) throws IOException {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final SamReader serialReader = SamReaderFactory.makeDefault()
+                .enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(input);
+        final SamReader parallelReader = SamReaderFactory.makeDefault()
+                .enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).enable(options).open(input);
+        final SAMRecordIterator serialIterator = serialReader.iterator();
+        final SAMRecordIterator parallelIterator = parallelReader.iterator();
+        while (serialIterator.hasNext()) {
+            Assert.assertTrue(parallelIterator.hasNext());
+            final SAMRecord serialRecord = serialIterator.next();
+            final SAMRecord parallelRecord = parallelIterator.next();
+            Assert.assertEquals(parallelRecord.getSAMString(), serialRecord.getSAMString());
+            Assert.assertEquals(parallelRecord.getFileSource().getFilePointer().toString(),
+                    serialRecord.getFileSource().getFilePointer().toString());
+        }
+        Assert.assertFalse(parallelIterator.hasNext());
+        serialIterator.close();
+        parallelIterator.close();
+
+        final QueryInterval query = new QueryInterval(parallelReader.getFileHeader().getSequenceIndex("chr1"), 1, 100000000);
+        Assert.assertEquals(countRecordsInQueryInterval(parallelReader, query), countRecordsInQueryInterval(serialReader, query));
+        serialReader.close();
+        parallelReader.close();
+    }
+
+    @DataProvider(name = "parallelReadingTestCases")
+    public Object[][] parallelReadingTestCases() {
+        return new Object[][]{
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.INFLATE_BLOCKS_IN_PARALLEL}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL, SamReaderFactory.Option.EAGERLY_DECODE}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.DECODE_RECORDS_IN_PARALLEL, SamReaderFactory.Option.INFLATE_BLOCKS_IN_PARALLEL}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.REUSE_RECORDS}},
+                {new SamReaderFactory.Option[]{SamReaderFactory.Option.REUSE_RECORDS, SamReaderFactory.Option.EAGERLY_DECODE}},
+        };
+    }
+
     @DataProvider(name = "variousFormatReaderTestCases")
     public Object[][] variousFormatReaderTestCases() {
         return new Object[][]{
@@ -110,6 +151,49 @@ public class SamReaderFactoryTest {
         else if (inputFile.endsWith(".bam")) Assert.assertEquals(recordFactory.bamRecordsCreated, i);
     }
 
+    @Test
+    public void reuseRecordsTest() throws Exception {
+        final File input = new File(TEST_DATA_DIR, "BAMFileIndexTest/index_test.bam");
+        final List<String> expected = new ArrayList<String>();
+        final SamReader serialReader = SamReaderFactory.makeDefault().open(input);
+        for (final SAMRecord record : serialReader) {
+            expected.add(record.getSAMString());
+        }
+        serialReader.close();
+
+        final SAMRecordFactoryTester recordFactory = new SAMRecordFactoryTester();
+        final SamReader reader = SamReaderFactory.makeDefault().samRecordFactory(recordFactory)
+                .enable(SamReaderFactory.Option.REUSE_RECORDS).open(input);
+        final File output = File.createTempFile("reuseRecordsTest.", ".bam");
+        output.deleteOnExit();
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(reader.getFileHeader(), true, output);
+        final List<SAMRecord> clones = new ArrayList<SAMRecord>();
+        final Set<SAMRecord> distinctRecords = Collections.newSetFromMap(new IdentityHashMap<SAMRecord, Boolean>());
+        int i = 0;
+        for (final SAMRecord record : reader) {
+            Assert.assertEquals(record.getSAMString(), expected.get(i));
+            writer.addAlignment(record);
+            distinctRecords.add(record);
+            if (i % 1000 == 0) clones.add((SAMRecord) record.clone());
+            ++i;
+        }
+        reader.close();
+        writer.close();
+        Assert.assertEquals(i, expected.size());
+        Assert.assertTrue(recordFactory.bamRecordsCreated <= 3);
+        Assert.assertEquals(distinctRecords.size(), recordFactory.bamRecordsCreated);
+        for (int j = 0; j < clones.size(); ++j) {
+            Assert.assertEquals(clones.get(j).getSAMString(), expected.get(j * 1000));
+        }
+
+        final SamReader rereader = SamReaderFactory.makeDefault().open(output);
+        i = 0;
+        for (final SAMRecord record : rereader) {
+            Assert.assertEquals(record.getSAMString(), expected.get(i++));
+        }
+        rereader.close();
+        Assert.assertEquals(i, expected.size());
+    }
 
     /**
      * Unit tests for asserting all permutations of data and index sources read the same records and header.
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.SharedThreadPools;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SharedBAMFileIndexTest {
+    private static final File BAM_FILE = new File("testdata/htsjdk/samtools/BAMFileIndexTest/index_test.bam");
+    private static final File INDEX_FILE = new File("testdata/htsjdk/samtools/BAMFileIndexTest/index_test.bam.bai");
+
+    @AfterMethod
+    public void releaseIndexes() {
+        SharedBAMFileIndex.releaseAll();
+    }
+
+    private static SamReader openReader(final boolean shareIndex) {
+        final SamReaderFactory factory = SamReaderFactory.makeDefault();
+        if (shareIndex) factory.enable(SamReaderFactory.Option.SHARE_INDEXES);
+        return factory.open(BAM_FILE);
+    }
+
+    @Test
+    public void testReadersShareIndex() {
+        final SamReader reader1 = openReader(true);
+        final SamReader reader2 = openReader(true);
+        final BAMIndex index = reader1.indexing().getIndex();
+        Assert.assertTrue(index instanceof SharedBAMFileIndex);
+        Assert.assertSame(reader2.indexing().getIndex(), index);
+        CloserUtil.close(reader1);
+        CloserUtil.close(reader2);
+
+        // Still shared after the readers are closed, until released.
+        final SamReader reader3 = openReader(true);
+        Assert.assertSame(reader3.indexing().getIndex(), index);
+        SharedBAMFileIndex.release(INDEX_FILE);
+        final SamReader reader4 = openReader(true);
+        Assert.assertNotSame(reader4.indexing().getIndex(), index);
+        CloserUtil.close(reader3);
+        CloserUtil.close(reader4);
+    }
+
+    @Test
+    public void testQueriesMatchPrivateIndex() {
+        final SamReader sharedReader = openReader(true);
+        final SamReader privateReader = openReader(false);
+        final Random random = new Random(3);
+        final int references = sharedReader.getFileHeader().getSequenceDictionary().size();
+        for (int i = 0; i < 50; ++i) {
+            final int reference = random.nextInt(references);
+            final int start = 1 + random.nextInt(10000000);
+            final int end = start + random.nextInt(100000);
+            final SAMRecordIterator expected = privateReader.queryOverlapping(
+                    sharedReader.getFileHeader().getSequence(reference).getSequenceName(), start, end);
+            final SAMRecordIterator actual = sharedReader.queryOverlapping(
+                    sharedReader.getFileHeader().getSequence(reference).getSequenceName(), start, end);
+            while (expected.hasNext()) {
+                Assert.assertTrue(actual.hasNext());
+                Assert.assertEquals(actual.next().getSAMString(), expected.next().getSAMString());
+            }
+            Assert.assertFalse(actual.hasNext());
+            expected.close();
+            actual.close();
+        }
+        CloserUtil.close(sharedReader);
+        CloserUtil.close(privateReader);
+    }
+
+    /** The disk-based index returns an empty span where the caching ones return null. */
+    private static String spanToString(final BAMFileSpan span) {
+        return span == null ? "" : span.toString();
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        final SamReader reader = openReader(false);
+        final SAMSequenceDictionary dictionary = reader.getFileHeader().getSequenceDictionary();
+        CloserUtil.close(reader);
+        final DiskBasedBAMFileIndex privateIndex = new DiskBasedBAMFileIndex(INDEX_FILE, dictionary);
+        final SharedBAMFileIndex sharedIndex = SharedBAMFileIndex.getInstance(INDEX_FILE, dictionary);
+        // Keep fewer references than are queried, so that decoding and eviction happen concurrently too.
+        sharedIndex.setMaxCachedReferences(2);
+
+        final Random random = new Random(5);
+        final int[][] queries = new int[2000][];
+        final String[] expected = new String[queries.length];
+        for (int i = 0; i < queries.length; ++i) {
+            final int start = 1 + random.nextInt(10000000);
+            queries[i] = new int[]{random.nextInt(dictionary.size()), start, start + random.nextInt(100000)};
+            expected[i] = spanToString(privateIndex.getSpanOverlapping(queries[i][0], queries[i][1], queries[i][2]));
+        }
+        privateIndex.close();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int thread = 0; thread < 8; ++thread) {
+                final int offset = thread;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        for (int i = offset; i < queries.length; i += 8) {
+                            Assert.assertEquals(spanToString(sharedIndex.getSpanOverlapping(queries[i][0], queries[i][1], queries[i][2])), expected[i]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) SharedThreadPools.getResult(future);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
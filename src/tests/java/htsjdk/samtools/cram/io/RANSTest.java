@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.cram.io;
+
+import htsjdk.samtools.cram.structure.Block;
+import htsjdk.samtools.cram.structure.BlockCompressionMethod;
+import htsjdk.samtools.cram.structure.BlockContentType;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class RANSTest {
+
+    /**
+     * Quality-score-like data: a few dominant symbols, a long tail of rare ones and strong correlation with the
+     * previous byte.
+     */
+    private static byte[] skewed(final Random random) {
+        final byte[] skewed = new byte[250003];
+        byte previous = 30;
+        for (int i = 0; i < skewed.length; i++) {
+            final int roll = random.nextInt(1000);
+            if (roll < 700) skewed[i] = previous;
+            else if (roll < 995) skewed[i] = (byte) (20 + random.nextInt(20));
+            else skewed[i] = (byte) random.nextInt(256);
+            previous = skewed[i];
+        }
+        return skewed;
+    }
+
+    @DataProvider(name = "data")
+    public Object[][] data() {
+        final Random random = new Random(3);
+        final List<Object[]> data = new ArrayList<Object[]>();
+        for (int size = 0; size < 12; size++) {
+            final byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            data.add(new Object[]{bytes});
+        }
+
+        final byte[] uniform = new byte[100001];
+        random.nextBytes(uniform);
+        data.add(new Object[]{uniform});
+
+        final byte[] single = new byte[5000];
+        Arrays.fill(single, (byte) 'A');
+        data.add(new Object[]{single});
+
+        data.add(new Object[]{skewed(random)});
+
+        // every symbol present, so the frequency tables have to be run length encoded
+        final byte[] allSymbols = new byte[256 * 40 + 3];
+        for (int i = 0; i < allSymbols.length; i++) allSymbols[i] = (byte) (i % 256);
+        data.add(new Object[]{allSymbols});
+
+        return data.toArray(new Object[data.size()][]);
+    }
+
+    @Test(dataProvider = "data")
+    public void testRoundTrip(final byte[] raw) {
+        for (final RANS.ORDER order : RANS.ORDER.values()) {
+            final byte[] compressed = RANS.compress(raw, order);
+            Assert.assertEquals(RANS.uncompress(compressed), raw, "order " + order);
+        }
+    }
+
+    @Test
+    public void testCompressesSkewedData() {
+        final byte[] raw = skewed(new Random(5));
+        final int order0 = RANS.compress(raw, RANS.ORDER.ZERO).length;
+        final int order1 = RANS.compress(raw, RANS.ORDER.ONE).length;
+        Assert.assertTrue(order0 < raw.length * 0.6, "order-0 size " + order0);
+        Assert.assertTrue(order1 < order0, "order-1 size " + order1 + " should beat order-0 size " + order0);
+    }
+
+    @Test
+    public void testHeader() {
+        final byte[] raw = "ACGTACGTTTGA".getBytes();
+        final byte[] compressed = RANS.compress(raw, RANS.ORDER.ONE);
+        Assert.assertEquals(compressed[0], 1);
+        Assert.assertEquals(compressed[1] & 0xFF | (compressed[2] & 0xFF) << 8, compressed.length - 9);
+        Assert.assertEquals(compressed[5], raw.length);
+    }
+
+    /**
+     * "abracadabra abracadabra" as compressed by htslib's rans_compress_O0 and rans_compress_O1.  Both frequency
+     * tables run length encode consecutive symbols.
+     */
+    @DataProvider(name = "htslib")
+    public Object[][] htslib() {
+        return new Object[][]{
+                {new byte[]{0, 38, 0, 0, 0, 23, 0, 0, 0, 32, -128, -78, 97, -122, -11, 98, 2, -126, -56, -127, 100,
+                        -127, 100, 114, -126, -56, 0, 110, -25, 65, 45, 57, -103, 80, 11, 114, -1, 64, 45, -72, -43,
+                        65, 1, 58, -69, 120, -34}},
+                {new byte[]{1, 60, 0, 0, 0, 23, 0, 0, 0, 0, 97, -113, -1, 0, 32, 97, -113, -1, 0, 97, 32, -127, -57,
+                        98, -121, 28, 99, 1, -125, -114, -125, -114, 0, 98, 2, 114, -113, -1, 0, 97, -113, -1, 0, 97,
+                        -113, -1, 0, 114, 97, -113, -1, 0, 0, 103, -93, 17, 5, 4, -98, 17, 5, -84, 34, 35, 10, 43, 86,
+                        -45, 22}}
+        };
+    }
+
+    @Test(dataProvider = "htslib")
+    public void testUncompressHtslibStream(final byte[] compressed) {
+        Assert.assertEquals(new String(RANS.uncompress(compressed)), "abracadabra abracadabra");
+    }
+
+    @Test
+    public void testBlockKeepsSmallerOrder() {
+        final byte[] raw = skewed(new Random(7));
+        final Block block = new Block(BlockCompressionMethod.RANS, BlockContentType.EXTERNAL, 1, raw, null);
+        Assert.assertEquals(block.getCompressedContent()[0], 1);
+        Assert.assertEquals(block.getCompressedContent().length, RANS.compress(raw, RANS.ORDER.ONE).length);
+
+        final Block uniform = new Block(BlockCompressionMethod.RANS, BlockContentType.EXTERNAL, 1,
+                "ACGTTGCAGTCATGCA".getBytes(), null);
+        Assert.assertEquals(uniform.getCompressedContent()[0], 0);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testTruncated() {
+        final byte[] compressed = RANS.compress("some text to compress".getBytes(), RANS.ORDER.ZERO);
+        RANS.uncompress(Arrays.copyOf(compressed, compressed.length - 3));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.cram.ref;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReferenceCacheTest {
+    private static final File REFERENCE = new File("testdata/htsjdk/samtools/reference/Homo_sapiens_assembly18.trimmed.fasta");
+
+    private static class CountingLoader implements Callable<byte[]> {
+        final AtomicInteger calls = new AtomicInteger();
+        final int size;
+
+        CountingLoader(final int size) {
+            this.size = size;
+        }
+
+        public byte[] call() throws Exception {
+            calls.incrementAndGet();
+            return size < 0 ? null : new byte[size];
+        }
+    }
+
+    @Test
+    public void testLoadsOnceAndCountsHits() {
+        final ReferenceCache cache = new ReferenceCache(1000);
+        final CountingLoader loader = new CountingLoader(10);
+        Assert.assertNull(cache.getIfPresent("a"));
+        final byte[] first = cache.get("a", loader);
+        Assert.assertSame(cache.get("a", loader), first);
+        Assert.assertSame(cache.getIfPresent("a"), first);
+        Assert.assertEquals(loader.calls.get(), 1);
+        Assert.assertEquals(cache.getMisses(), 1);
+        Assert.assertEquals(cache.getHits(), 2);
+        Assert.assertEquals(cache.getSizeInBytes(), 10);
+    }
+
+    @Test
+    public void testNullIsNotCached() {
+        final ReferenceCache cache = new ReferenceCache(1000);
+        final CountingLoader loader = new CountingLoader(-1);
+        Assert.assertNull(cache.get("a", loader));
+        Assert.assertNull(cache.get("a", loader));
+        Assert.assertEquals(loader.calls.get(), 2);
+        Assert.assertEquals(cache.getSizeInBytes(), 0);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final ReferenceCache cache = new ReferenceCache(250);
+        cache.get("a", new CountingLoader(100));
+        cache.get("b", new CountingLoader(100));
+        // touch a so that b becomes the least recently used
+        Assert.assertNotNull(cache.getIfPresent("a"));
+        cache.get("c", new CountingLoader(100));
+
+        Assert.assertNotNull(cache.getIfPresent("a"));
+        Assert.assertNull(cache.getIfPresent("b"));
+        Assert.assertNotNull(cache.getIfPresent("c"));
+        Assert.assertEquals(cache.getEvictions(), 1);
+        Assert.assertEquals(cache.getSizeInBytes(), 200);
+
+        cache.setMaxBytes(150);
+        Assert.assertNull(cache.getIfPresent("a"));
+        Assert.assertEquals(cache.getSizeInBytes(), 100);
+
+        cache.removeByPrefix("c");
+        Assert.assertEquals(cache.getSizeInBytes(), 0);
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneLoad() throws Exception {
+        final ReferenceCache cache = new ReferenceCache(1000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<byte[]> slowLoader = new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new byte[10];
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+        results.add(executor.submit(new Callable<byte[]>() {
+            public byte[] call() {
+                return cache.get("a", slowLoader);
+            }
+        }));
+        started.await();
+        for (int i = 0; i < 3; i++) {
+            results.add(executor.submit(new Callable<byte[]>() {
+                public byte[] call() {
+                    return cache.get("a", slowLoader);
+                }
+            }));
+        }
+        // other sequences are not held up by the slow load
+        Assert.assertNotNull(cache.get("b", new CountingLoader(5)));
+        release.countDown();
+
+        for (final Future<byte[]> result : results) {
+            Assert.assertSame(result.get(), results.get(0).get());
+        }
+        executor.shutdown();
+        Assert.assertEquals(calls.get(), 1);
+    }
+
+    @Test
+    public void testSourcesOnTheSameFileShareTheCache() {
+        final ReferenceCache cache = new ReferenceCache(Long.MAX_VALUE);
+        final ReferenceSource source1 = new ReferenceSource(REFERENCE);
+        final ReferenceSource source2 = new ReferenceSource(REFERENCE);
+        source1.setCache(cache);
+        source2.setCache(cache);
+
+        final SAMSequenceRecord chrM = new SAMSequenceRecord("chrM", 16571);
+        final byte[] bases = source1.getReferenceBases(chrM, false);
+        Assert.assertEquals(bases.length, 16571);
+        Assert.assertSame(source2.getReferenceBases(chrM, false), bases);
+        Assert.assertEquals(cache.getMisses(), 1);
+
+        source2.clearCache();
+        Assert.assertEquals(cache.getSizeInBytes(), 0);
+    }
+
+    @Test
+    public void testSequenceFilesOnTheSameFileShareTheCache() throws FileNotFoundException {
+        final ReferenceCache cache = new ReferenceCache(Long.MAX_VALUE);
+        final ReferenceSource source1 = new ReferenceSource(REFERENCE);
+        final File samePath = new File(REFERENCE.getParentFile(), "../reference/" + REFERENCE.getName());
+        final ReferenceSource source2 = new ReferenceSource(new IndexedFastaSequenceFile(samePath));
+        source1.setCache(cache);
+        source2.setCache(cache);
+
+        final SAMSequenceRecord chrM = new SAMSequenceRecord("chrM", 16571);
+        final byte[] bases = source1.getReferenceBases(chrM, false);
+        Assert.assertSame(source2.getReferenceBases(chrM, false), bases);
+        Assert.assertEquals(cache.getMisses(), 1);
+    }
+
+    @Test
+    public void testOtherSequenceFilesStayOutOfTheCache() throws FileNotFoundException {
+        final ReferenceCache cache = new ReferenceCache(Long.MAX_VALUE);
+        final IndexedFastaSequenceFile fasta = new IndexedFastaSequenceFile(REFERENCE);
+        // a sequence file that can't be traced back to a file on disk
+        final ReferenceSequenceFile wrapped = new ReferenceSequenceFile() {
+            public SAMSequenceDictionary getSequenceDictionary() { return fasta.getSequenceDictionary(); }
+            public ReferenceSequence nextSequence() { return fasta.nextSequence(); }
+            public void reset() { fasta.reset(); }
+            public boolean isIndexed() { return true; }
+            public ReferenceSequence getSequence(final String contig) { return fasta.getSequence(contig); }
+            public ReferenceSequence getSubsequenceAt(final String contig, final long start, final long stop) {
+                return fasta.getSubsequenceAt(contig, start, stop);
+            }
+            public void close() { }
+        };
+        final ReferenceSource source = new ReferenceSource(wrapped);
+        source.setCache(cache);
+
+        final SAMSequenceRecord chrM = new SAMSequenceRecord("chrM", 16571);
+        final byte[] bases = source.getReferenceBases(chrM, false);
+        Assert.assertEquals(bases.length, 16571);
+        Assert.assertSame(source.getReferenceBases(chrM, false), bases);
+        Assert.assertEquals(cache.getMisses(), 0);
+        Assert.assertEquals(cache.getSizeInBytes(), 0);
+    }
+}
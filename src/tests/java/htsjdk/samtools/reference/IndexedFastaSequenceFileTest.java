@@ -33,6 +33,8 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Test the indexed fasta sequence file reader.
@@ -53,7 +55,9 @@ public class IndexedFastaSequenceFileTest{
     public Object[][] provideSequenceFile() throws FileNotFoundException {
         return new Object[][] { new Object[]
                 { new IndexedFastaSequenceFile(SEQUENCE_FILE) },
-                { new IndexedFastaSequenceFile(SEQUENCE_FILE_NODICT) }};
+                { new IndexedFastaSequenceFile(SEQUENCE_FILE_NODICT) },
+                { new IndexedFastaSequenceFile(SEQUENCE_FILE, true) },
+                { new IndexedFastaSequenceFile(SEQUENCE_FILE_NODICT, true) }};
     }
 
     @DataProvider(name="comparative")
@@ -62,7 +66,9 @@ public class IndexedFastaSequenceFileTest{
                 new Object[] { ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE),
                                                new IndexedFastaSequenceFile(SEQUENCE_FILE) },
                 new Object[] { ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE, true),
-                                               new IndexedFastaSequenceFile(SEQUENCE_FILE) },};
+                                               new IndexedFastaSequenceFile(SEQUENCE_FILE) },
+                new Object[] { ReferenceSequenceFileFactory.getReferenceSequenceFile(SEQUENCE_FILE),
+                                               new IndexedFastaSequenceFile(SEQUENCE_FILE, true) },};
     }
 
     @Test(dataProvider="homosapiens")
@@ -299,4 +305,43 @@ public class IndexedFastaSequenceFileTest{
         new IndexedFastaSequenceFile(new File(TEST_DATA_DIR, "non-existent.fasta"));
         Assert.fail("FileNotFoundException should have been thrown");
     }
+
+    @Test
+    public void testMappedMatchesChannel() throws FileNotFoundException {
+        final IndexedFastaSequenceFile channelFile = new IndexedFastaSequenceFile(SEQUENCE_FILE, false);
+        // small regions with an odd size, so that many lines straddle two of them
+        final IndexedFastaSequenceFile mappedFile = new IndexedFastaSequenceFile(SEQUENCE_FILE,
+                new FastaSequenceIndex(new File(SEQUENCE_FILE.getPath() + ".fai")), true, 4099);
+        Assert.assertFalse(channelFile.isMemoryMapped());
+        Assert.assertTrue(mappedFile.isMemoryMapped());
+
+        final Random random = new Random(13);
+        for (int i = 0; i < 2000; i++) {
+            final String contig = random.nextBoolean() ? "chrM" : "chr20";
+            final int contigLength = contig.equals("chrM") ? 16571 : CHR20_LENGTH;
+            final int start = 1 + random.nextInt(contigLength);
+            final int stop = Math.min(contigLength, start - 1 + random.nextInt(i % 10 == 0 ? 20000 : 200));
+            final byte[] expected = channelFile.getSubsequenceAt(contig, start, stop).getBases();
+            Assert.assertEquals(mappedFile.getSubsequenceAt(contig, start, stop).getBases(), expected);
+
+            final IndexedFastaSequenceFile.SubsequenceView view = mappedFile.getSubsequenceView(contig, start, stop);
+            Assert.assertEquals(view.length(), expected.length);
+            for (int j = 0; j < expected.length; j += 1 + j / 7) {
+                Assert.assertEquals(view.getBase(j), expected[j]);
+            }
+            if (expected.length > 2) {
+                final byte[] middle = new byte[expected.length - 2];
+                view.getBases(1, middle, 0, middle.length);
+                Assert.assertEquals(middle, Arrays.copyOfRange(expected, 1, expected.length - 1));
+            }
+        }
+        Assert.assertEquals(mappedFile.getSequence("chr20").getBases(), channelFile.getSequence("chr20").getBases());
+        CloserUtil.close(channelFile);
+        CloserUtil.close(mappedFile);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testViewRequiresMapping() throws FileNotFoundException {
+        new IndexedFastaSequenceFile(SEQUENCE_FILE, false).getSubsequenceView("chrM", 1, 10);
+    }
 }
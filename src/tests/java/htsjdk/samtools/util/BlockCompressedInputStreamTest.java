@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BlockCompressedInputStreamTest {
+    private File bgzfFile;
+    private final List<String> linesWritten = new ArrayList<String>();
+    private final List<Long> linePointers = new ArrayList<Long>();
+
+    @BeforeClass
+    public void writeFile() throws Exception {
+        bgzfFile = File.createTempFile("BCIST.", ".gz");
+        bgzfFile.deleteOnExit();
+        final BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(bgzfFile);
+        final Random random = new Random(42);
+        for (int i = 0; i < 50000; ++i) {
+            final String line = "line " + i + "\t" + random.nextLong() + "\t" + random.nextInt();
+            linesWritten.add(line);
+            bcos.write((line + "\n").getBytes());
+        }
+        bcos.close();
+
+        final BlockCompressedInputStream bcis = new BlockCompressedInputStream(bgzfFile);
+        bcis.available();
+        for (int i = 0; i < linesWritten.size(); ++i) {
+            linePointers.add(bcis.getFilePointer());
+            bcis.readLine();
+        }
+        bcis.close();
+    }
+
+    @DataProvider(name = "inflaterThreads")
+    public Object[][] inflaterThreads() {
+        return new Object[][]{{0}, {2}, {8}};
+    }
+
+    @Test(dataProvider = "inflaterThreads")
+    public void testSequentialRead(final int threads) throws Exception {
+        final BlockCompressedInputStream bcis = new BlockCompressedInputStream(bgzfFile);
+        bcis.setInflaterThreads(threads);
+        bcis.available();
+        for (int i = 0; i < linesWritten.size(); ++i) {
+            Assert.assertEquals(bcis.getFilePointer(), (long) linePointers.get(i));
+            Assert.assertEquals(bcis.readLine(), linesWritten.get(i));
+        }
+        Assert.assertNull(bcis.readLine());
+        Assert.assertEquals(bcis.read(), -1);
+        bcis.close();
+    }
+
+    @Test(dataProvider = "inflaterThreads")
+    public void testStreamRead(final int threads) throws Exception {
+        final BlockCompressedInputStream bcis = new BlockCompressedInputStream(new FileInputStream(bgzfFile));
+        bcis.setInflaterThreads(threads);
+        for (final String line : linesWritten) {
+            Assert.assertEquals(bcis.readLine(), line);
+        }
+        Assert.assertNull(bcis.readLine());
+        bcis.close();
+    }
+
+    @Test(dataProvider = "inflaterThreads")
+    public void testSeek(final int threads) throws Exception {
+        final BlockCompressedInputStream bcis = new BlockCompressedInputStream(bgzfFile);
+        bcis.setInflaterThreads(threads);
+        final Random random = new Random(7);
+        for (int i = 0; i < 200; ++i) {
+            final int index = random.nextInt(linesWritten.size());
+            bcis.seek(linePointers.get(index));
+            // Seek forward in small steps so that some seeks land in blocks that have already been read ahead.
+            for (int j = index; j < Math.min(index + 1000, linesWritten.size()); j += 100) {
+                bcis.seek(linePointers.get(j));
+                Assert.assertEquals(bcis.readLine(), linesWritten.get(j));
+            }
+        }
+        bcis.close();
+    }
+
+    @Test
+    public void testChangeThreadsWhileReading() throws Exception {
+        final BlockCompressedInputStream bcis = new BlockCompressedInputStream(bgzfFile);
+        bcis.available();
+        for (int i = 0; i < linesWritten.size(); ++i) {
+            if (i % 10000 == 0) bcis.setInflaterThreads(bcis.getInflaterThreads() > 1 ? 0 : 4);
+            Assert.assertEquals(bcis.getFilePointer(), (long) linePointers.get(i));
+            Assert.assertEquals(bcis.readLine(), linesWritten.get(i));
+        }
+        Assert.assertNull(bcis.readLine());
+        bcis.close();
+    }
+}
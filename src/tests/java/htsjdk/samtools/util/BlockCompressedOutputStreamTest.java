@@ -91,6 +91,47 @@ public class BlockCompressedOutputStreamTest {
         Assert.assertEquals(i, INPUT_SIZE);
     }
 
+    @Test
+    public void testParallelDeflation() throws Exception {
+        final File serialFile = File.createTempFile("BCOST.", ".gz");
+        serialFile.deleteOnExit();
+        final File parallelFile = File.createTempFile("BCOST.", ".gz");
+        parallelFile.deleteOnExit();
+        final BlockCompressedOutputStream serialStream = new BlockCompressedOutputStream(serialFile);
+        final BlockCompressedOutputStream parallelStream = new BlockCompressedOutputStream(parallelFile);
+        parallelStream.setDeflaterThreads(4);
+        final List<Long> unresolvedPointers = new ArrayList<Long>();
+        final List<Long> serialPointers = new ArrayList<Long>();
+        final Random r = new Random(15555);
+        for (int i = 0; i < 100000; ++i) {
+            final byte[] bytes = ("line " + i + " " + r.nextInt() + "\n").getBytes();
+            serialPointers.add(serialStream.getFilePointer());
+            unresolvedPointers.add(parallelStream.getUnresolvedFilePointer());
+            serialStream.write(bytes);
+            parallelStream.write(bytes);
+            if (i % 10000 == 0) {
+                // Mix in some blocking file pointer requests and short blocks.
+                Assert.assertEquals(parallelStream.getFilePointer(), serialStream.getFilePointer());
+                serialStream.flush();
+                parallelStream.flush();
+            }
+        }
+        serialStream.close();
+        parallelStream.close();
+        for (int i = 0; i < unresolvedPointers.size(); ++i) {
+            Assert.assertEquals(parallelStream.resolveFilePointer(unresolvedPointers.get(i)), (long) serialPointers.get(i));
+        }
+        Assert.assertEquals(parallelFile.length(), serialFile.length());
+
+        final BlockCompressedInputStream bcis = new BlockCompressedInputStream(parallelFile);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(bcis));
+        for (int i = 0; i < 100000; ++i) {
+            Assert.assertTrue(reader.readLine().startsWith("line " + i + " "));
+        }
+        Assert.assertNull(reader.readLine());
+        reader.close();
+    }
+
     // PIC-393 exception closing BGZF stream opened to /dev/null
     // I don't think this will work on Windows, because /dev/null doesn't work
     @Test(groups = "broken")
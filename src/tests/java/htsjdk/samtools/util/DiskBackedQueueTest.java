@@ -109,4 +109,17 @@ public class DiskBackedQueueTest extends SortingCollectionTest {
         Assert.assertTrue(queue.canAdd());
     }
 
+    @Test
+    public void testSpilledRecordsAreCompressedTogether() {
+        final DiskBackedQueue<String> queue = makeDiskBackedQueue(1);
+        queue.setTempStreamCodec(TempStreamCodecs.LZ4);
+        for (int i = 0; i < 10000; i++) queue.add("record " + (i % 10));
+        for (int i = 0; i < 10000; i++) Assert.assertEquals(queue.poll(), "record " + (i % 10));
+
+        // the file is finished when reading starts
+        final TempStreamFactory.SpillMetrics metrics = queue.getSpillMetrics().get(0);
+        Assert.assertTrue(metrics.getCompressedBytes() < metrics.getUncompressedBytes() / 4, metrics.toString());
+        queue.clear();
+    }
+
 }
@@ -108,6 +108,74 @@ public class SortingCollectionTest {
         Assert.assertEquals(tmpDir.list().length, 0);
     }
 
+    @DataProvider(name = "spilling")
+    public Object[][] createSpillingData() {
+        return new Object[][] {
+                {0, Integer.MAX_VALUE},
+                {0, 2},
+                {2, Integer.MAX_VALUE},
+                {2, 3},
+                {4, 2},
+        };
+    }
+
+    /**
+     * Sort with background spills and multi-level merges, comparing only a prefix of each string so that ties
+     * confirm records that compare equal come out in the order they were added.
+     */
+    @Test(dataProvider = "spilling")
+    public void testSpillThreadsAndMergeFanIn(final int spillThreads, final int maxFilesToMerge) {
+        final Comparator<String> prefixComparator = new Comparator<String>() {
+            public int compare(final String s, final String s1) {
+                return s.substring(0, Math.min(3, s.length())).compareTo(s1.substring(0, Math.min(3, s1.length())));
+            }
+        };
+        final SortingCollection<String> sortingCollection = SortingCollection.newInstance(String.class,
+                new StringCodec(), prefixComparator, 37, tmpDir);
+        sortingCollection.setSpillThreads(spillThreads);
+        sortingCollection.setMaxFilesToMerge(maxFilesToMerge);
+        final String[] strings = new String[1000];
+        int numStringsGenerated = 0;
+        for (final String s : new RandomStringGenerator(strings.length)) {
+            sortingCollection.add(s);
+            strings[numStringsGenerated++] = s;
+        }
+        Arrays.sort(strings, prefixComparator);
+
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+        sortingCollection.cleanup();
+        Assert.assertEquals(tmpDir.list().length, 0);
+    }
+
+    @DataProvider(name = "codecs")
+    public Object[][] createCodecData() {
+        return new Object[][] {{TempStreamCodecs.NONE}, {TempStreamCodecs.LZ4}, {TempStreamCodecs.DEFLATE}};
+    }
+
+    @Test(dataProvider = "codecs")
+    public void testTempStreamCodec(final TempStreamCodec codec) {
+        final SortingCollection<String> sortingCollection = makeSortingCollection(100);
+        sortingCollection.setTempStreamCodec(codec);
+        final String[] strings = new String[550];
+        int numStringsGenerated = 0;
+        for (final String s : new RandomStringGenerator(strings.length)) {
+            sortingCollection.add(s);
+            strings[numStringsGenerated++] = s;
+        }
+        Arrays.sort(strings, new StringComparator());
+
+        assertIteratorEqualsList(strings, sortingCollection.iterator());
+        Assert.assertEquals(sortingCollection.getSpillMetrics().size(), 6);
+        Assert.assertEquals(sortingCollection.getSpillMetrics().get(0).getCodecName(), codec.getName());
+        sortingCollection.cleanup();
+        Assert.assertEquals(tmpDir.list().length, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxFilesToMergeTooSmall() {
+        makeSortingCollection(10).setMaxFilesToMerge(1);
+    }
+
     private void assertIteratorEqualsList(final String[] strings, final Iterator<String> sortingCollection) {
         int i = 0;
         while (sortingCollection.hasNext()) {
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.samtools.util;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+public class TempStreamFactoryTest {
+
+    @DataProvider(name = "codecs")
+    public Object[][] codecs() {
+        return new Object[][]{{TempStreamCodecs.NONE}, {TempStreamCodecs.SNAPPY}, {TempStreamCodecs.LZ4}, {TempStreamCodecs.DEFLATE}};
+    }
+
+    @DataProvider(name = "roundTrip")
+    public Object[][] roundTrip() {
+        final Object[][] codecs = codecs();
+        final int[] sizes = {0, 1, 13, 100000, 300000};
+        final Object[][] ret = new Object[codecs.length * sizes.length * 2][];
+        int i = 0;
+        for (final Object[] codec : codecs) {
+            for (final int size : sizes) {
+                ret[i++] = new Object[]{codec[0], size, false};
+                ret[i++] = new Object[]{codec[0], size, true};
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return a mix of runs of random bytes, which do not compress, and of repeated text, some of it matching
+     * text long before it
+     */
+    private static byte[] makeData(final int size, final Random random) {
+        final byte[] data = new byte[size];
+        int i = 0;
+        while (i < size) {
+            final int runLength = Math.min(size - i, 1 + random.nextInt(2000));
+            if (random.nextBoolean()) {
+                for (int j = 0; j < runLength; ++j) data[i + j] = (byte) random.nextInt(256);
+            } else {
+                final byte[] word = ("read" + random.nextInt(30) + "\t").getBytes();
+                for (int j = 0; j < runLength; ++j) data[i + j] = word[j % word.length];
+            }
+            i += runLength;
+        }
+        return data;
+    }
+
+    @Test(dataProvider = "roundTrip")
+    public void testRoundTrip(final TempStreamCodec codec, final int size, final boolean flushOften) throws IOException {
+        final Random random = new Random(size);
+        final byte[] data = makeData(size, random);
+        final File file = File.createTempFile("TempStreamFactoryTest.", ".tmp");
+        file.deleteOnExit();
+        final TempStreamFactory factory = new TempStreamFactory(codec);
+
+        final OutputStream os = factory.wrapTempOutputStream(new FileOutputStream(file), 1000);
+        for (int i = 0; i < size; ) {
+            if (random.nextInt(10) == 0) {
+                os.write(data[i++]);
+            } else {
+                final int n = Math.min(size - i, random.nextInt(70000));
+                os.write(data, i, n);
+                i += n;
+            }
+            if (flushOften) os.flush();
+        }
+        os.close();
+
+        final InputStream is = factory.wrapTempInputStream(new FileInputStream(file), 1000);
+        final byte[] actual = new byte[size];
+        for (int i = 0; i < size; ) {
+            if (random.nextInt(10) == 0) {
+                final int b = is.read();
+                Assert.assertTrue(b >= 0);
+                actual[i++] = (byte) b;
+            } else {
+                final int n = is.read(actual, i, Math.min(size - i, random.nextInt(70000)));
+                Assert.assertTrue(n >= 0);
+                i += n;
+            }
+        }
+        Assert.assertEquals(is.read(), -1);
+        is.close();
+        Assert.assertEquals(actual, data);
+
+        final List<TempStreamFactory.SpillMetrics> metrics = factory.getSpillMetrics();
+        Assert.assertEquals(metrics.size(), 1);
+        Assert.assertEquals(metrics.get(0).getCodecName(), codec.getName());
+        Assert.assertEquals(metrics.get(0).getUncompressedBytes(), size);
+        Assert.assertEquals(metrics.get(0).getCompressedBytes(), file.length());
+        Assert.assertTrue(metrics.get(0).getCompressionNanos() >= 0);
+        file.delete();
+    }
+
+    @Test(dataProvider = "codecs")
+    public void testReadBeforeClose(final TempStreamCodec codec) throws IOException {
+        final File file = File.createTempFile("TempStreamFactoryTest.", ".tmp");
+        file.deleteOnExit();
+        final TempStreamFactory factory = new TempStreamFactory(codec);
+        final OutputStream os = factory.wrapTempOutputStream(new FileOutputStream(file), 1000);
+        final byte[] data = makeData(5000, new Random(3));
+        os.write(data);
+        os.flush();
+
+        final InputStream is = factory.wrapTempInputStream(new FileInputStream(file), 1000);
+        final byte[] actual = new byte[data.length];
+        for (int i = 0; i < actual.length; ) {
+            final int n = is.read(actual, i, actual.length - i);
+            Assert.assertTrue(n > 0);
+            i += n;
+        }
+        Assert.assertEquals(actual, data);
+        is.close();
+        os.close();
+        file.delete();
+    }
+
+    @Test
+    public void testBlockCodecsCompress() throws IOException {
+        final byte[] data = makeData(1000000, new Random(7));
+        for (final TempStreamCodec codec : new TempStreamCodec[]{TempStreamCodecs.LZ4, TempStreamCodecs.DEFLATE}) {
+            final TempStreamFactory factory = new TempStreamFactory(codec);
+            final OutputStream os = factory.wrapTempOutputStream(new ByteCountingOutputStream(), 0);
+            os.write(data);
+            os.close();
+            final TempStreamFactory.SpillMetrics metrics = factory.getSpillMetrics().get(0);
+            Assert.assertTrue(metrics.getCompressedBytes() < 0.75 * data.length, metrics.toString());
+        }
+    }
+
+    @Test
+    public void testBlockStreamsEndTheirCompressor() throws IOException {
+        final byte[] data = makeData(100000, new Random(11));
+        final EndCountingCompressor writeCompressor = new EndCountingCompressor();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream os = new TempStreamCodecs.BlockOutputStream(bytes, writeCompressor);
+        os.write(data);
+        os.close();
+        Assert.assertEquals(writeCompressor.ends, 1);
+
+        final EndCountingCompressor readCompressor = new EndCountingCompressor();
+        final InputStream is = new TempStreamCodecs.BlockInputStream(new ByteArrayInputStream(bytes.toByteArray()), readCompressor);
+        final byte[] readBack = new byte[data.length];
+        new DataInputStream(is).readFully(readBack);
+        is.close();
+        Assert.assertEquals(readBack, data);
+        Assert.assertEquals(readCompressor.ends, 1);
+    }
+
+    private static class EndCountingCompressor extends TempStreamCodecs.DeflateBlockCompressor {
+        int ends = 0;
+
+        @Override
+        public void end() {
+            super.end();
+            ends++;
+        }
+    }
+
+    @Test
+    public void testSpillMetricsAreCapped() throws IOException {
+        final TempStreamFactory factory = new TempStreamFactory(TempStreamCodecs.NONE);
+        final int streams = TempStreamFactory.MAX_SPILL_METRICS + 5;
+        for (int i = 0; i < streams; i++) {
+            final OutputStream os = factory.wrapTempOutputStream(new ByteCountingOutputStream(), 0);
+            os.write(new byte[10]);
+            os.close();
+        }
+        Assert.assertEquals(factory.getSpillMetrics().size(), TempStreamFactory.MAX_SPILL_METRICS);
+        Assert.assertEquals(factory.getTotalSpillMetrics().getUncompressedBytes(), 10L * streams);
+    }
+
+    @Test
+    public void testForName() {
+        Assert.assertSame(TempStreamCodecs.forName("none"), TempStreamCodecs.NONE);
+        Assert.assertSame(TempStreamCodecs.forName("LZ4"), TempStreamCodecs.LZ4);
+        Assert.assertSame(TempStreamCodecs.forName("Snappy"), TempStreamCodecs.SNAPPY);
+        Assert.assertSame(TempStreamCodecs.forName("deflate"), TempStreamCodecs.DEFLATE);
+        Assert.assertTrue(TempStreamCodecs.forName(PassThroughCodec.class.getName()) instanceof PassThroughCodec);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testForNameUnknown() {
+        TempStreamCodecs.forName("zstd");
+    }
+
+    public static class PassThroughCodec implements TempStreamCodec {
+        public String getName() {
+            return "passthrough";
+        }
+
+        public OutputStream wrapOutputStream(final OutputStream outputStream) {
+            return outputStream;
+        }
+
+        public InputStream wrapInputStream(final InputStream inputStream) {
+            return inputStream;
+        }
+    }
+
+    private static class ByteCountingOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    }
+}
@@ -23,18 +23,30 @@
  */
 package htsjdk.tribble.index.tabix;
 
+import htsjdk.samtools.CSIIndex;
 import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.tribble.index.IndexFactory;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import htsjdk.tribble.util.TabixUtils;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFFileReader;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
 
 public class TabixIndexTest {
     private static final File SMALL_TABIX_FILE = new File("testdata/htsjdk/tribble/tabix/trioDup.vcf.gz.tbi");
     private static final File BIGGER_TABIX_FILE = new File("testdata/htsjdk/tribble/tabix/bigger.vcf.gz.tbi");
+    private static final File VCF_FILE = new File("testdata/htsjdk/variant/dbsnp_135.b37.1000.vcf");
 
     /**
      * Read an existing index from disk, write it to a temp file, read that in, and assert that both in-memory
@@ -63,4 +75,62 @@ public class TabixIndexTest {
         };
     }
 
+    /**
+     * Write a block-compressed VCF with a CSI index, and check that the index can be read back and that queries
+     * through it find the same records as scanning the whole file.
+     */
+    @Test
+    public void csiTest() throws Exception {
+        final File vcfFile = File.createTempFile("TabixIndexTest.", ".vcf.gz");
+        vcfFile.deleteOnExit();
+        final File csiFile = new File(vcfFile.getPath() + TabixUtils.CSI_INDEX_EXTENSION);
+        csiFile.deleteOnExit();
+
+        final VCFFileReader inputReader = new VCFFileReader(VCF_FILE, false);
+        final VariantContextWriter writer = new VariantContextWriterBuilder()
+                .setOutputFile(vcfFile)
+                .setIndexCreator(new TabixIndexCreator(null, TabixFormat.VCF, CSIIndex.DEFAULT_MIN_SHIFT, CSIIndex.DEFAULT_DEPTH))
+                .setOptions(EnumSet.of(Options.INDEX_ON_THE_FLY, Options.ALLOW_MISSING_FIELDS_IN_HEADER))
+                .build();
+        writer.writeHeader(inputReader.getFileHeader());
+        final List<VariantContext> records = new ArrayList<VariantContext>();
+        for (final VariantContext vc : inputReader) {
+            writer.add(vc);
+            records.add(vc);
+        }
+        writer.close();
+        inputReader.close();
+        Assert.assertTrue(csiFile.isFile());
+
+        final TabixIndex index = new TabixIndex(csiFile);
+        Assert.assertTrue(index.isCSI());
+        Assert.assertEquals(index.getFormatSpec(), TabixFormat.VCF);
+        final File copy = File.createTempFile("TabixIndexTest.", TabixUtils.CSI_INDEX_EXTENSION);
+        copy.deleteOnExit();
+        index.write(copy);
+        Assert.assertEquals(new TabixIndex(copy), index);
+        Assert.assertEquals(IndexFactory.loadIndex(csiFile.getPath()), index);
+
+        // no .tbi exists, so the .csi is found
+        final VCFFileReader reader = new VCFFileReader(vcfFile, true);
+        for (int i = 0; i < records.size(); i += 10) {
+            final VariantContext target = records.get(i);
+            final int start = target.getStart();
+            final int end = start + 1000;
+            final List<String> expected = new ArrayList<String>();
+            for (final VariantContext vc : records) {
+                if (vc.getChr().equals(target.getChr()) && vc.getStart() <= end && vc.getEnd() >= start) {
+                    expected.add(vc.toStringWithoutGenotypes());
+                }
+            }
+            final List<String> actual = new ArrayList<String>();
+            final CloseableIterator<VariantContext> it = reader.query(target.getChr(), start, end);
+            while (it.hasNext()) actual.add(it.next().toStringWithoutGenotypes());
+            it.close();
+            Assert.assertEquals(actual, expected);
+            Assert.assertFalse(index.getBlocks(target.getChr(), start, end).isEmpty());
+        }
+        reader.close();
+    }
+
 }
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.variant.variantcontext;
+
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.VariantBaseTest;
+import htsjdk.variant.vcf.VCFCodec;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ColumnarGenotypesContextUnitTest extends VariantBaseTest {
+    private final Allele A = Allele.create("A", true);
+    private final Allele C = Allele.create("C");
+    private final Allele G = Allele.create("G");
+
+    private ColumnarGenotypesContext makeContext() {
+        final ColumnarGenotypesContext columns = new ColumnarGenotypesContext(Arrays.asList(A, C, G), Arrays.asList("s2", "s1", "s3", "s4"));
+        columns.setGenotype(0, new int[]{0, 1}, 2, false);
+        columns.setGenotype(1, new int[]{2, 2}, 2, true);
+        columns.setGenotype(2, new int[]{-1, -1}, 2, false);
+        columns.setDP(0, 10);
+        columns.setGQ(1, 30);
+        columns.setAD(0, new int[]{6, 4, 0});
+        columns.setPL(1, new int[]{90, 60, 30, 20, 10, 0});
+        columns.setPL(3, new int[]{0, 10, 20});
+        columns.setFilter(2, "lowDP");
+        columns.setAttribute(1, "XX", "value");
+        return columns;
+    }
+
+    @Test
+    public void testGenotypeViews() {
+        final ColumnarGenotypesContext columns = makeContext();
+        Assert.assertEquals(columns.size(), 4);
+
+        final Genotype het = columns.get("s2");
+        Assert.assertEquals(het.getSampleName(), "s2");
+        Assert.assertEquals(het.getAlleles(), Arrays.asList(A, C));
+        Assert.assertTrue(het.isHet());
+        Assert.assertFalse(het.isPhased());
+        Assert.assertEquals(het.getDP(), 10);
+        Assert.assertFalse(het.hasGQ());
+        Assert.assertEquals(het.getAD(), new int[]{6, 4, 0});
+        Assert.assertFalse(het.hasPL());
+        Assert.assertTrue(het.getExtendedAttributes().isEmpty());
+
+        final Genotype homVar = columns.get(1);
+        Assert.assertTrue(homVar.isHomVar());
+        Assert.assertTrue(homVar.isPhased());
+        Assert.assertEquals(homVar.getGQ(), 30);
+        Assert.assertEquals(homVar.getPL(), new int[]{90, 60, 30, 20, 10, 0});
+        Assert.assertEquals(homVar.getExtendedAttribute("XX"), "value");
+
+        Assert.assertTrue(columns.get("s3").isNoCall());
+        Assert.assertEquals(columns.get("s3").getFilters(), "lowDP");
+        Assert.assertFalse(columns.get("s4").isAvailable());
+        Assert.assertEquals(columns.get("s4").getPL(), new int[]{0, 10, 20});
+        Assert.assertNull(columns.get("missing"));
+
+        Assert.assertEquals(columns.getSampleNamesOrderedByName(), Arrays.asList("s1", "s2", "s3", "s4"));
+        int n = 0;
+        for (final Genotype g : columns) Assert.assertEquals(g.getSampleName(), Arrays.asList("s2", "s1", "s3", "s4").get(n++));
+        Assert.assertEquals(n, 4);
+    }
+
+    @Test
+    public void testSiteStatistics() {
+        final ColumnarGenotypesContext columns = makeContext();
+        Assert.assertEquals(columns.getAlleleCounts(), new int[]{1, 1, 2});
+        Assert.assertEquals(columns.getCalledCount(), 2);
+        Assert.assertEquals(columns.getCallRate(), 0.5);
+        Assert.assertEquals(columns.getMaxPloidy(2), 2);
+
+        final VariantContext vc = new VariantContextBuilder("test", "1", 10, 10, Arrays.asList(A, C, G)).genotypes(columns).make();
+        Assert.assertEquals(vc.getCalledChrCount(A), 1);
+        Assert.assertEquals(vc.getCalledChrCount(G), 2);
+        Assert.assertEquals(vc.getHetCount(), 1);
+        Assert.assertEquals(vc.getNoCallCount(), 1);
+    }
+
+    @Test
+    public void testMixedPloidy() {
+        final ColumnarGenotypesContext columns = new ColumnarGenotypesContext(Arrays.asList(A, C), Arrays.asList("haploid", "diploid", "triploid"));
+        columns.setGenotype(0, new int[]{1}, 1, false);
+        columns.setGenotype(1, new int[]{0, 1}, 2, false);
+        columns.setGenotype(2, new int[]{1, 1, 0}, 3, true);
+        Assert.assertEquals(columns.get(0).getAlleles(), Collections.singletonList(C));
+        Assert.assertEquals(columns.get(1).getAlleles(), Arrays.asList(A, C));
+        Assert.assertEquals(columns.get(2).getAlleles(), Arrays.asList(C, C, A));
+        Assert.assertEquals(columns.getAlleleIndex(2, 2), 0);
+        Assert.assertEquals(columns.getMaxPloidy(2), 3);
+        Assert.assertEquals(columns.getAlleleCounts(), new int[]{2, 4});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUndefinedAllele() {
+        new ColumnarGenotypesContext(Arrays.asList(A, C), Arrays.asList("s1")).setGenotype(0, new int[]{0, 2}, 2, false);
+    }
+
+    @Test
+    public void testModificationInvalidatesColumns() {
+        final ColumnarGenotypesContext columns = makeContext();
+        final Genotype added = GenotypeBuilder.create("s5", Arrays.asList(C, C));
+        columns.add(added);
+        Assert.assertEquals(columns.size(), 5);
+        Assert.assertEquals(columns.get("s5"), added);
+        Assert.assertEquals(columns.get("s2").getAlleles(), Arrays.asList(A, C));
+        try {
+            columns.getAlleleCounts();
+            Assert.fail("Expected the columns to be invalid");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @DataProvider(name = "vcfFiles")
+    public Object[][] vcfFiles() {
+        return new Object[][]{
+                {"ex2.vcf"}, {"HiSeq.10000.vcf"},
+                {"ILLUMINA.wex.broad_phase2_baseline.20111114.both.exome.genotypes.1000.vcf"}
+        };
+    }
+
+    @Test(dataProvider = "vcfFiles")
+    public void testCodecDecodesColumns(final String fileName) throws IOException {
+        final File file = new File(variantTestDataRoot + fileName);
+        final List<VariantContext> expected = readAll(file, false);
+        final List<VariantContext> actual = readAll(file, true);
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < actual.size(); i++) {
+            final VariantContext vc = actual.get(i);
+            Assert.assertEquals(vc.toStringDecodeGenotypes(), expected.get(i).toStringDecodeGenotypes());
+            if (!vc.hasGenotypes()) continue;
+
+            final ColumnarGenotypesContext columns = (ColumnarGenotypesContext) vc.getGenotypes();
+            final int[] counts = columns.getAlleleCounts();
+            for (int a = 0; a < vc.getNAlleles(); a++) {
+                Assert.assertEquals(counts[a], expected.get(i).getCalledChrCount(vc.getAlleles().get(a)));
+            }
+            int called = 0;
+            for (final Genotype g : expected.get(i).getGenotypes()) if (g.isCalled()) called++;
+            Assert.assertEquals(columns.getCalledCount(), called);
+        }
+    }
+
+    private static List<VariantContext> readAll(final File file, final boolean columnar) throws IOException {
+        final VCFCodec codec = new VCFCodec();
+        codec.setColumnarGenotypes(columnar);
+        final AsciiLineReaderIterator lines = new AsciiLineReaderIterator(new AsciiLineReader(new FileInputStream(file)));
+        codec.readActualHeader(lines);
+        final List<VariantContext> records = new ArrayList<VariantContext>();
+        while (lines.hasNext()) records.add(codec.decode(lines.next()));
+        lines.close();
+        return records;
+    }
+}
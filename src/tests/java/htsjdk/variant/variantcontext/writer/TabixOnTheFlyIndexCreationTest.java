@@ -23,17 +23,25 @@
  */
 package htsjdk.variant.variantcontext.writer;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.CloseableTribbleIterator;
 import htsjdk.tribble.FeatureReader;
+import htsjdk.tribble.index.tabix.TabixFormat;
 import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
 import htsjdk.tribble.util.TabixUtils;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCF3Codec;
+import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.EnumSet;
 
 public class TabixOnTheFlyIndexCreationTest {
@@ -63,4 +71,38 @@ public class TabixOnTheFlyIndexCreationTest {
         // Hard to validate, so just confirm that index can be read.
         new TabixIndex(tabix);
     }
+
+    /**
+     * Writes a block compressed VCF with its index, compressing blocks on the given number of threads.
+     * @return the VCF file
+     */
+    private File writeIndexedVcf(final File inputVcf, final int deflaterThreads) throws IOException {
+        final File vcf = File.createTempFile("TabixOnTheFlyIndexCreationTest.", ".vcf.gz");
+        final File tabix = new File(vcf.getAbsolutePath() + TabixUtils.STANDARD_INDEX_EXTENSION);
+        vcf.deleteOnExit();
+        tabix.deleteOnExit();
+        final BlockCompressedOutputStream os = new BlockCompressedOutputStream(new FileOutputStream(vcf), vcf);
+        os.setDeflaterThreads(deflaterThreads);
+        final VCFFileReader reader = new VCFFileReader(inputVcf, false);
+        final VariantContextWriter vcfWriter = new VCFWriter(vcf, os, null, new TabixIndexCreator(TabixFormat.VCF),
+                true, false, true, false);
+        vcfWriter.writeHeader(reader.getFileHeader());
+        final CloseableIterator<VariantContext> it = reader.iterator();
+        while (it.hasNext()) {
+            vcfWriter.add(it.next());
+        }
+        it.close();
+        reader.close();
+        vcfWriter.close();
+        return vcf;
+    }
+
+    @Test
+    public void testParallelDeflation() throws Exception {
+        final File input = new File("testdata/htsjdk/variant/HiSeq.10000.vcf");
+        final File serialVcf = writeIndexedVcf(input, 1);
+        final File parallelVcf = writeIndexedVcf(input, 4);
+        Assert.assertEquals(new TabixIndex(new File(parallelVcf.getAbsolutePath() + TabixUtils.STANDARD_INDEX_EXTENSION)),
+                new TabixIndex(new File(serialVcf.getAbsolutePath() + TabixUtils.STANDARD_INDEX_EXTENSION)));
+    }
 }
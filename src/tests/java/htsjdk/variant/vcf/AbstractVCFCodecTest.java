@@ -1,11 +1,26 @@
 package htsjdk.variant.vcf;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
 import htsjdk.variant.VariantBaseTest;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 
@@ -21,4 +36,277 @@ public class AbstractVCFCodecTest extends VariantBaseTest {
 		// Tools processing VCF files are not required to preserve case in the allele String, except for IDs, which are case sensitive.
 		Assert.assertTrue(variant.getAlternateAllele(0).getDisplayString().contains("chr12"));
 	}
+
+	@DataProvider(name = "vcfFiles")
+	public Object[][] vcfFiles() {
+		return new Object[][] {
+				{"ex2.vcf"}, {"HiSeq.10000.vcf"}, {"dbsnp_135.b37.1000.vcf"},
+				{"ILLUMINA.wex.broad_phase2_baseline.20111114.both.exome.genotypes.1000.vcf"}
+		};
+	}
+
+	@Test(dataProvider = "vcfFiles")
+	public void testDecodeBytesMatchesDecodeString(final String fileName) throws IOException {
+		final File file = new File(VariantBaseTest.variantTestDataRoot + fileName);
+		final VCFCodec stringCodec = new VCFCodec();
+		final AsciiLineReaderIterator lines = new AsciiLineReaderIterator(new AsciiLineReader(new FileInputStream(file)));
+		final VCFHeader header = (VCFHeader) stringCodec.readActualHeader(lines);
+
+		final VCFCodec bytesCodec = new VCFCodec();
+		bytesCodec.setVCFHeader(header, VCFHeaderVersion.VCF4_1);
+		final AsciiLineReader byteLines = new AsciiLineReader(new FileInputStream(file));
+
+		int records = 0;
+		int length;
+		while ((length = byteLines.readLineBytes()) != -1) {
+			final VariantContext fromBytes = bytesCodec.decode(byteLines.getLineBytes(), 0, length);
+			if (fromBytes == null) continue;
+			final VariantContext fromString = stringCodec.decode(lines.next());
+
+			if (fromBytes.getGenotypes().isLazyWithData()) {
+				Assert.assertTrue(((LazyGenotypesContext) fromBytes.getGenotypes()).getUnparsedGenotypeData() instanceof AbstractVCFCodec.GenotypeBytes);
+			}
+			Assert.assertEquals(fromBytes.toStringDecodeGenotypes(), fromString.toStringDecodeGenotypes());
+			records++;
+		}
+		Assert.assertFalse(lines.hasNext());
+		Assert.assertTrue(records > 0);
+		lines.close();
+		byteLines.close();
+	}
+
+	@Test
+	public void testDecodeBytesAtOffset() {
+		final VCFCodec codec = new VCFCodec();
+		final VCFFileReader reader = new VCFFileReader(new File(VariantBaseTest.variantTestDataRoot + "ex2.vcf"), false);
+		codec.setVCFHeader(reader.getFileHeader(), VCFHeaderVersion.VCF4_1);
+		reader.close();
+
+		final String line = "20\t1110696\trs6040355\tA\tG,T\t67\tPASS\tNS=2;DP=10;AF=0.333,0.667;AA=T;DB\tGT:GQ:DP:HQ\t1|2:21:6:23,27\t2|1:2:0:18,2\t2/2:35:4:10,20";
+		final byte[] buffer = ("xx" + line + "\nyy").getBytes();
+		final VariantContext vc = codec.decode(buffer, 2, line.length());
+		Assert.assertEquals(vc.getStart(), 1110696);
+		Assert.assertEquals(vc.getID(), "rs6040355");
+		Assert.assertEquals(vc.getGenotypes().size(), 3);
+		// the caller may reuse the buffer before the genotypes are decoded
+		buffer[buffer.length - 4] = '9';
+		Assert.assertEquals(vc.getGenotype("NA00003").getGQ(), 35);
+		Assert.assertEquals(vc.getGenotype("NA00003").getAD(), null);
+		Assert.assertEquals(vc.getGenotype("NA00001").getDP(), 6);
+		Assert.assertTrue(vc.getGenotype("NA00001").isPhased());
+		Assert.assertEquals(vc.getGenotype("NA00001").getExtendedAttribute("HQ"), "23,27");
+		Assert.assertEquals(vc.getGenotype("NA00003").getAllele(0).getBaseString(), "T");
+	}
+
+	@DataProvider(name = "selectedFieldFiles")
+	public Object[][] selectedFieldFiles() throws IOException {
+		final File ex2 = new File(VariantBaseTest.variantTestDataRoot + "ex2.vcf");
+		final File hiSeq = new File(VariantBaseTest.variantTestDataRoot + "HiSeq.10000.vcf");
+		return new Object[][] {
+				{ex2, 1}, {ex2, 2}, {hiSeq, 1}, {hiSeq, 2}, {writeBCF(ex2), 1}
+		};
+	}
+
+	private static File writeBCF(final File vcf) throws IOException {
+		final File bcf = File.createTempFile("selectedFields.", ".bcf");
+		bcf.deleteOnExit();
+		final VCFFileReader reader = new VCFFileReader(vcf, false);
+		final VariantContextWriter writer = new VariantContextWriterBuilder().setOutputFile(bcf).clearOptions().build();
+		writer.writeHeader(reader.getFileHeader());
+		for (final VariantContext vc : reader)
+			writer.add(vc);
+		writer.close();
+		reader.close();
+		return bcf;
+	}
+
+	@Test(dataProvider = "selectedFieldFiles")
+	public void testDecodeSelectedFields(final File file, final int threads) {
+		final VCFFileReader allFields = new VCFFileReader(file, false);
+		allFields.setDecoderThreads(1);
+		final VCFFileReader selectedFields = new VCFFileReader(file, false);
+		selectedFields.setDecoderThreads(threads);
+		selectedFields.setInfoFieldsToDecode(Arrays.asList(VCFConstants.DEPTH_KEY));
+		selectedFields.setFormatFieldsToDecode(Arrays.asList(VCFConstants.GENOTYPE_KEY, VCFConstants.DEPTH_KEY));
+
+		final Iterator<VariantContext> expected = allFields.iterator();
+		final Iterator<VariantContext> actual = selectedFields.iterator();
+		int records = 0;
+		while (expected.hasNext()) {
+			final VariantContext full = expected.next();
+			final VariantContext selected = actual.next();
+			Assert.assertEquals(selected.getStart(), full.getStart());
+			Assert.assertEquals(selected.getEnd(), full.getEnd());
+			Assert.assertEquals(selected.getAttribute(VCFConstants.DEPTH_KEY), full.getAttribute(VCFConstants.DEPTH_KEY));
+			for (final String key : selected.getAttributes().keySet())
+				Assert.assertTrue(key.equals(VCFConstants.DEPTH_KEY) || key.equals(VCFConstants.END_KEY), key);
+
+			for (final Genotype genotype : full.getGenotypes()) {
+				final Genotype selectedGenotype = selected.getGenotype(genotype.getSampleName());
+				Assert.assertEquals(selectedGenotype.getAlleles(), genotype.getAlleles());
+				Assert.assertEquals(selectedGenotype.isPhased(), genotype.isPhased());
+				Assert.assertEquals(selectedGenotype.getDP(), genotype.getDP());
+				Assert.assertFalse(selectedGenotype.hasGQ());
+				Assert.assertFalse(selectedGenotype.hasAD());
+				Assert.assertFalse(selectedGenotype.hasPL());
+				Assert.assertTrue(selectedGenotype.getExtendedAttributes().isEmpty());
+			}
+			records++;
+		}
+		Assert.assertFalse(actual.hasNext());
+		Assert.assertTrue(records > 0);
+		allFields.close();
+		selectedFields.close();
+	}
+
+	@Test(dataProvider = "selectedFieldFiles")
+	public void testWriteSelectedFieldsWithoutTouchingGenotypes(final File file, final int threads) throws IOException {
+		// written back in the format it was read from, so that the raw genotype data could be copied as is
+		final String extension = file.getName().endsWith(".bcf") ? ".bcf" : ".vcf";
+		final VCFFileReader reader = new VCFFileReader(file, false);
+		reader.setDecoderThreads(threads);
+		reader.setFormatFieldsToDecode(Arrays.asList(VCFConstants.GENOTYPE_KEY, VCFConstants.DEPTH_KEY));
+		final File output = File.createTempFile("selectedFields.", extension);
+		output.deleteOnExit();
+		final VariantContextWriter writer = new VariantContextWriterBuilder().setOutputFile(output).clearOptions().build();
+		writer.writeHeader(reader.getFileHeader());
+		for (final VariantContext vc : reader)
+			writer.add(vc);
+		writer.close();
+		reader.close();
+
+		final VCFFileReader written = new VCFFileReader(output, false);
+		int genotypes = 0;
+		for (final VariantContext vc : written) {
+			for (final Genotype genotype : vc.getGenotypes()) {
+				Assert.assertFalse(genotype.hasGQ(), output.getName());
+				Assert.assertFalse(genotype.hasAD(), output.getName());
+				Assert.assertFalse(genotype.hasPL(), output.getName());
+				Assert.assertTrue(genotype.getExtendedAttributes().isEmpty(), output.getName());
+				genotypes++;
+			}
+		}
+		written.close();
+		Assert.assertTrue(genotypes > 0);
+	}
+
+	@Test
+	public void testDecodeSelectedFieldsWithoutGT() {
+		final VCFCodec codec = new VCFCodec();
+		final VCFFileReader reader = new VCFFileReader(new File(VariantBaseTest.variantTestDataRoot + "ex2.vcf"), false);
+		codec.setVCFHeader(reader.getFileHeader(), VCFHeaderVersion.VCF4_1);
+		reader.close();
+		codec.setFormatFieldsToDecode(Arrays.asList(VCFConstants.DEPTH_KEY));
+
+		final String line = "20\t1110696\trs6040355\tA\tG,T\t67\tPASS\tNS=2;DP=10\tGT:GQ:DP:HQ\t1|2:21:6:23,27\t2|1:2:0:18,2\t2/2:35:4:10,20";
+		final byte[] bytes = line.getBytes();
+		for (final VariantContext vc : Arrays.asList(codec.decode(line), codec.decode(bytes, 0, bytes.length))) {
+			final Genotype genotype = vc.getGenotype("NA00001");
+			Assert.assertTrue(genotype.getAlleles().isEmpty());
+			Assert.assertFalse(genotype.isPhased());
+			Assert.assertEquals(genotype.getDP(), 6);
+			Assert.assertFalse(genotype.hasGQ());
+			Assert.assertEquals(vc.getAttribute("NS"), "2");
+		}
+	}
+
+	@DataProvider(name = "sampleSubsetFiles")
+	public Object[][] sampleSubsetFiles() throws IOException {
+		final File ex2 = new File(VariantBaseTest.variantTestDataRoot + "ex2.vcf");
+		final File exome = new File(VariantBaseTest.variantTestDataRoot + "ILLUMINA.wex.broad_phase2_baseline.20111114.both.exome.genotypes.1000.vcf");
+		return new Object[][] {
+				{ex2, 1}, {ex2, 2}, {exome, 1}, {exome, 2}, {writeBCF(ex2), 1}, {writeBCF(exome), 1}
+		};
+	}
+
+	@Test(dataProvider = "sampleSubsetFiles")
+	public void testDecodeSampleSubset(final File file, final int threads) {
+		final VCFFileReader allSamples = new VCFFileReader(file, false);
+		allSamples.setDecoderThreads(1);
+		final VCFFileReader sampleSubset = new VCFFileReader(file, false);
+		sampleSubset.setDecoderThreads(threads);
+
+		// runs of two samples separated by a skipped one, in the reverse of the file order
+		final List<String> samples = new ArrayList<String>();
+		final List<String> fileSamples = allSamples.getFileHeader().getGenotypeSamples();
+		for (int i = fileSamples.size() - 1; i >= 0; i--)
+			if (i % 3 != 1) samples.add(fileSamples.get(i));
+		sampleSubset.setSamplesToDecode(samples);
+
+		final List<String> expectedSamples = new ArrayList<String>(samples);
+		Collections.reverse(expectedSamples);
+		Assert.assertEquals(sampleSubset.getDecodedHeader().getGenotypeSamples(), expectedSamples);
+		Assert.assertEquals(sampleSubset.getFileHeader().getGenotypeSamples(), fileSamples);
+
+		final Iterator<VariantContext> expected = allSamples.iterator();
+		final Iterator<VariantContext> actual = sampleSubset.iterator();
+		int records = 0;
+		while (expected.hasNext()) {
+			final VariantContext subset = expected.next().subContextFromSamples(new HashSet<String>(samples), false);
+			final VariantContext decoded = actual.next();
+			Assert.assertEquals(decoded.getStart(), subset.getStart());
+			Assert.assertEquals(decoded.getSampleNamesOrderedByName(), subset.getSampleNamesOrderedByName());
+			for (final Genotype genotype : subset.getGenotypes())
+				Assert.assertEquals(decoded.getGenotype(genotype.getSampleName()).toString(), genotype.toString());
+			records++;
+		}
+		Assert.assertFalse(actual.hasNext());
+		Assert.assertTrue(records > 0);
+		allSamples.close();
+		sampleSubset.close();
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testDecodeUnknownSample() {
+		final VCFFileReader reader = new VCFFileReader(new File(VariantBaseTest.variantTestDataRoot + "ex2.vcf"), false);
+		try {
+			reader.setSamplesToDecode(Arrays.asList("NA00001", "NOT_A_SAMPLE"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testDecodeBytesFallbackGenotypesUseRecordAlleles() {
+		final VCFFileReader reader = new VCFFileReader(new File(VariantBaseTest.variantTestDataRoot + "ex2.vcf"), false);
+		final VCFHeader header = reader.getFileHeader();
+		reader.close();
+
+		// "+1" is not a plain allele index, so the calls go through the String allele parser
+		final String[] lines = {
+				"20\t100\t.\tA\tC\t67\tPASS\t.\tGT\t0/+1\t0/+1\t0/+1",
+				"20\t200\t.\tG\tT\t67\tPASS\t.\tGT\t0/+1\t0/+1\t0/+1"
+		};
+		for (final boolean columnar : new boolean[] {false, true}) {
+			final VCFCodec codec = new VCFCodec();
+			codec.setVCFHeader(header, VCFHeaderVersion.VCF4_1);
+			codec.setColumnarGenotypes(columnar);
+			for (final String line : lines) {
+				final byte[] bytes = line.getBytes();
+				final VariantContext vc = codec.decode(bytes, 0, bytes.length);
+				Assert.assertEquals(vc.getGenotype("NA00002").getAlleles(), vc.getAlleles());
+			}
+		}
+	}
+
+	@Test
+	public void testDecodeSampleSubsetFromStringAndBytes() {
+		final VCFFileReader reader = new VCFFileReader(new File(VariantBaseTest.variantTestDataRoot + "ex2.vcf"), false);
+		final VCFHeader header = reader.getFileHeader();
+		reader.close();
+		final VCFCodec allSamples = new VCFCodec();
+		allSamples.setVCFHeader(header, VCFHeaderVersion.VCF4_1);
+		final VCFCodec sampleSubset = new VCFCodec();
+		sampleSubset.setVCFHeader(header, VCFHeaderVersion.VCF4_1);
+		sampleSubset.setSamplesToDecode(Arrays.asList("NA00003", "NA00001"));
+
+		final String line = "20\t1110696\trs6040355\tA\tG,T\t67\tPASS\tNS=2;DP=10\tGT:GQ:DP:HQ\t1|2:21:6:23,27\t2|1:2:0:18,2\t2/2:35:4:10,20";
+		final byte[] bytes = line.getBytes();
+		final VariantContext full = allSamples.decode(line);
+		for (final VariantContext vc : Arrays.asList(sampleSubset.decode(line), sampleSubset.decode(bytes, 0, bytes.length))) {
+			Assert.assertEquals(vc.getSampleNamesOrderedByName(), Arrays.asList("NA00001", "NA00003"));
+			for (final String sample : vc.getSampleNamesOrderedByName())
+				Assert.assertEquals(vc.getGenotype(sample).toString(), full.getGenotype(sample).toString());
+		}
+	}
 }
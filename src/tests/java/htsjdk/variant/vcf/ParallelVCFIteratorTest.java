@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package htsjdk.variant.vcf;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.tribble.TribbleException;
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.VariantBaseTest;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParallelVCFIteratorTest extends VariantBaseTest {
+    private static final String HISEQ = "HiSeq.10000.vcf";
+    private static final String ILLUMINA = "ILLUMINA.wex.broad_phase2_baseline.20111114.both.exome.genotypes.1000.vcf";
+
+    @DataProvider(name = "iterations")
+    public Object[][] iterations() {
+        return new Object[][]{
+                {HISEQ, 1, 1000, false}, {HISEQ, 4, 1000, false}, {HISEQ, 4, 7, true},
+                {ILLUMINA, 2, 100, true}, {ILLUMINA, 8, 1, false}, {"ex2.vcf", 3, 2, true}
+        };
+    }
+
+    private static List<String> readSerially(final File file) {
+        final VCFFileReader reader = new VCFFileReader(file, false);
+        reader.setDecoderThreads(0);
+        final List<String> records = new ArrayList<String>();
+        for (final VariantContext vc : reader) records.add(vc.toStringDecodeGenotypes());
+        reader.close();
+        return records;
+    }
+
+    private static VCFCodec readHeader(final File file) throws IOException {
+        final VCFCodec codec = new VCFCodec();
+        final AsciiLineReaderIterator lines = new AsciiLineReaderIterator(new AsciiLineReader(new FileInputStream(file)));
+        codec.readActualHeader(lines);
+        lines.close();
+        return codec;
+    }
+
+    @Test(dataProvider = "iterations")
+    public void testMatchesSerialIteration(final String fileName, final int threads, final int batchSize, final boolean decodeGenotypes) throws IOException {
+        final File file = new File(variantTestDataRoot + fileName);
+        final ParallelVCFIterator iterator = new ParallelVCFIterator(new FileInputStream(file), readHeader(file), threads)
+                .setBatchSize(batchSize).setDecodeGenotypes(decodeGenotypes);
+        final List<String> records = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            final VariantContext vc = iterator.next();
+            if (decodeGenotypes) Assert.assertFalse(vc.getGenotypes().isLazyWithData());
+            records.add(vc.toStringDecodeGenotypes());
+        }
+        iterator.close();
+        Assert.assertEquals(records, readSerially(file));
+    }
+
+    @Test
+    public void testFileReaderDecoderThreads() throws IOException {
+        final File file = new File(variantTestDataRoot + HISEQ);
+        final File bgzipped = File.createTempFile("ParallelVCFIteratorTest.", ".vcf.gz");
+        bgzipped.deleteOnExit();
+        final InputStream in = new FileInputStream(file);
+        final OutputStream out = new BlockCompressedOutputStream(bgzipped);
+        final byte[] buffer = new byte[65536];
+        int n;
+        while ((n = in.read(buffer)) != -1) out.write(buffer, 0, n);
+        in.close();
+        out.close();
+
+        final List<String> expected = readSerially(file);
+        for (final File input : new File[]{file, bgzipped}) {
+            final VCFFileReader reader = new VCFFileReader(input, false);
+            reader.setDecoderThreads(4);
+            final CloseableIterator<VariantContext> iterator = reader.iterator();
+            Assert.assertTrue(iterator instanceof ParallelVCFIterator);
+            final List<String> records = new ArrayList<String>();
+            while (iterator.hasNext()) {
+                final VariantContext vc = iterator.next();
+                Assert.assertTrue(vc.getGenotypes() instanceof LazyGenotypesContext);
+                records.add(vc.toStringDecodeGenotypes());
+            }
+            iterator.close();
+            reader.close();
+            Assert.assertEquals(records, expected);
+        }
+    }
+
+    @Test
+    public void testCloseBeforeExhausted() throws IOException {
+        final File file = new File(variantTestDataRoot + ILLUMINA);
+        final ParallelVCFIterator iterator = new ParallelVCFIterator(new FileInputStream(file), readHeader(file), 4).setBatchSize(10);
+        Assert.assertTrue(iterator.hasNext());
+        iterator.next();
+        iterator.close();
+    }
+
+    @Test
+    public void testMalformedLineReportsLineNumber() throws IOException {
+        final File file = new File(variantTestDataRoot + "ex2.vcf");
+        final StringBuilder text = new StringBuilder();
+        final AsciiLineReader lines = new AsciiLineReader(new FileInputStream(file));
+        String line;
+        int lineCount = 0;
+        while ((line = lines.readLine()) != null) {
+            text.append(line).append('\n');
+            lineCount++;
+        }
+        lines.close();
+        text.append("20\tnotAPosition\t.\tA\tG\t.\tPASS\t.\tGT\t0/1\t0/1\t0/1\n");
+
+        final ParallelVCFIterator iterator = new ParallelVCFIterator(new ByteArrayInputStream(text.toString().getBytes()), readHeader(file), 2).setBatchSize(3);
+        try {
+            while (iterator.hasNext()) iterator.next();
+            Assert.fail("Expected a malformed line to be reported");
+        } catch (final TribbleException e) {
+            Assert.assertTrue(e.getMessage().contains("line number " + (lineCount + 1)), e.getMessage());
+        } finally {
+            iterator.close();
+        }
+    }
+}